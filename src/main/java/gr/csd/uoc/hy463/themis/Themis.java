@@ -241,16 +241,14 @@ public class Themis {
             _task = TASK.CREATE_INDEX;
             try {
                 Indexer indexer = new Indexer();
+                /* if the previous index is not deleted, an incomplete build is resumed and the new dataset files are added to it */
                 if (indexer.indexDirNotEmpty()) {
-                    boolean deleteIndex = _view.showYesNoMessage("Delete previous index folders?");
+                    boolean deleteIndex = _view.showYesNoMessage("Delete previous index folders? (No: resume the previous build and add the new dataset files to the index)");
                     if (deleteIndex) {
                         if (_indexer != null) {
                             _indexer.unload();
                         }
                         indexer.deleteIndex();
-                    } else {
-                        _task = null;
-                        return;
                     }
                 }
                 indexer.index();
@@ -359,6 +357,9 @@ public class Themis {
                 case "Title":
                     props.add(DocInfo.PROPERTY.TITLE);
                     break;
+                case "Abstract":
+                    props.add(DocInfo.PROPERTY.ABSTRACT);
+                    break;
                 case "Authors":
                     props.add(DocInfo.PROPERTY.AUTHORS_NAMES);
                     break;
@@ -83,6 +83,15 @@ public class Config {
         return __PROP__.getProperty("POSTINGS_FILENAME");
     }
 
+    /**
+     * Returns the name of the positions file
+     *
+     * @return
+     */
+    public String getPositionsFileName() {
+        return __PROP__.getProperty("POSITIONS_FILENAME", "positions.idx");
+    }
+
     /**
      * Returns the name of the documents file
      *
@@ -110,6 +119,15 @@ public class Config {
         return __PROP__.getProperty("DOCUMENTS_ID_FILENAME");
     }
 
+    /**
+     * Returns the name of the file that maps the string doc IDs to int doc IDs
+     *
+     * @return
+     */
+    public String getDocumentsIDLookupFileName() {
+        return __PROP__.getProperty("DOCUMENTS_ID_LOOKUP_FILENAME", "documents_id_lookup.idx");
+    }
+
     /**
      * Returns the name of the index metadata file
      *
@@ -202,19 +220,105 @@ public class Config {
     }
 
     /**
-     * Max documents per partial index.
+     * Max documents per partial index. Returns 0 if there is no limit, in that case the size of the partial
+     * indexes depends only on MAX_MEMORY.
      *
      * @return
      */
     public int getPartialIndexMaxDocs() {
         String size = __PROP__.getProperty("PARTIAL_INDEX_MAX_DOCS");
         if (size != null) {
-            return Integer.parseInt(size);
+            return Math.max(0, Integer.parseInt(size.trim()));
         } else {
             return 0;
         }
     }
 
+    /**
+     * Max number of partial indexes in memory during indexing. Full partial indexes are dumped by a background
+     * thread while the next partial index is created, so this is the index that is being created plus the full
+     * ones that are waiting to be dumped. Defaults to 2. If it is 1, the partial indexes are dumped without
+     * using a background thread.
+     *
+     * @return
+     */
+    public int getPartialIndexesInMemory() {
+        String indexes = __PROP__.getProperty("PARTIAL_INDEXES_IN_MEMORY");
+        if (indexes != null && Integer.parseInt(indexes.trim()) > 0) {
+            return Integer.parseInt(indexes.trim());
+        }
+        return 2;
+    }
+
+    /**
+     * Returns the number of threads that parse the documents during indexing. Defaults to the number
+     * of available processors - 1 (one processor is left for the thread that creates the index).
+     *
+     * @return
+     */
+    public int getIndexParseThreads() {
+        String threads = __PROP__.getProperty("INDEX_PARSE_THREADS");
+        if (threads != null && Integer.parseInt(threads.trim()) > 0) {
+            return Integer.parseInt(threads.trim());
+        }
+        return Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+    }
+
+    /**
+     * Returns the number of threads that merge the partial indexes. Defaults to the number of available
+     * processors.
+     *
+     * @return
+     */
+    public int getIndexMergeThreads() {
+        String threads = __PROP__.getProperty("INDEX_MERGE_THREADS");
+        if (threads != null && Integer.parseInt(threads.trim()) > 0) {
+            return Integer.parseInt(threads.trim());
+        }
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Returns the merge factor of the index segments. When SEGMENT_MERGE_FACTOR segments of about the same
+     * size exist, they are merged into one segment. Defaults to 4 (min 2).
+     *
+     * @return
+     */
+    public int getSegmentMergeFactor() {
+        String factor = __PROP__.getProperty("SEGMENT_MERGE_FACTOR");
+        if (factor != null && Integer.parseInt(factor.trim()) > 0) {
+            return Math.max(2, Integer.parseInt(factor.trim()));
+        }
+        return 4;
+    }
+
+    /**
+     * Returns the number of documents in each compressed block of DOCUMENTS_FILENAME. Defaults to 32.
+     *
+     * @return
+     */
+    public int getDocumentsBlockSize() {
+        String size = __PROP__.getProperty("DOCUMENTS_BLOCK_SIZE");
+        if (size != null && Integer.parseInt(size.trim()) > 0) {
+            return Integer.parseInt(size.trim());
+        }
+        return 32;
+    }
+
+    /**
+     * Returns the max number of uncompressed blocks of DOCUMENTS_FILENAME that are cached by each segment
+     * of the loaded index. Defaults to 64.
+     *
+     * @return
+     */
+    public int getDocumentsBlockCacheSize() {
+        String size = __PROP__.getProperty("DOCUMENTS_BLOCK_CACHE_SIZE");
+        if (size != null && Integer.parseInt(size.trim()) > 0) {
+            return Integer.parseInt(size.trim());
+        }
+        return 64;
+    }
+
     /**
      * Returns the path to the compressed Word2Vec word vector model file
      *
@@ -251,6 +355,20 @@ public class Config {
         return __PROP__.getProperty("EVALUATION_FILENAME");
     }
 
+    /**
+     * Returns the max number of terms that a wildcard term of a query (e.g. 'neur*') is expanded to. The
+     * matching terms that have the largest DF are kept. Defaults to 50.
+     *
+     * @return
+     */
+    public int getWildcardMaxTerms() {
+        String terms = __PROP__.getProperty("WILDCARD_MAX_TERMS");
+        if (terms != null && Integer.parseInt(terms.trim()) > 0) {
+            return Integer.parseInt(terms.trim());
+        }
+        return 50;
+    }
+
     /**
      * Returns true if a query expansion model should be used when querying the index
      *
@@ -270,13 +388,17 @@ public class Config {
     }
 
     /**
-     * number of max memory to use
+     * Max memory (bytes) that can be used by a partial index during indexing. Returns 0 if MAX_MEMORY is not
+     * set or cannot be parsed.
      *
      * @return
      */
     public long getMaxMemory() {
         String size = __PROP__.getProperty("MAX_MEMORY");
-        // make it lowercase
+        if (size == null) {
+            return 0;
+        }
+        // make it uppercase
         size = size.toUpperCase().trim();
         Pattern p = Pattern.compile("(\\d+(?:\\.\\d+)?)\\s*([KMGTP]?B)");
         Matcher m = p.matcher(size);
@@ -288,7 +410,6 @@ public class Config {
             parts.add(m.group(2));
         }
 
-        System.out.println(parts);
         long bytes = 0;
         // metric unit should be given
         if (parts.size() == 2) {
@@ -307,19 +428,19 @@ public class Config {
                     bytes = 1024 * 1024;
                     break;
                 case "GB":
-                    bytes = 1024 * 1024 * 1024;
+                    bytes = 1024L * 1024 * 1024;
                     break;
                 case "TB":
                     // keep dreaming....!
-                    bytes = 1024 * 1024 * 1024 * 1024;  // not supported by long!
+                    bytes = 1024L * 1024 * 1024 * 1024;
                     break;
                 case "PB":
                     // probably in another life!
-                    bytes = 1024 * 1024 * 1024 * 1024 * 1024; // not supported by long!
+                    bytes = 1024L * 1024 * 1024 * 1024 * 1024;
                     break;
             }
             if (useFloat) {
-                return Math.round(bytes * Float.parseFloat(parts.get(0)));
+                return Math.round(bytes * Double.parseDouble(parts.get(0)));
             } else {
                 return bytes * ((long) Float.parseFloat(parts.get(0)));
             }
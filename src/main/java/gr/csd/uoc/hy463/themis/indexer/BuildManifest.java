@@ -0,0 +1,267 @@
+package gr.csd.uoc.hy463.themis.indexer;
+
+import gr.csd.uoc.hy463.themis.config.Config;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The state of the segment that is being built by Indexer.index(). It is saved in 'INDEX_TMP_DIR/build_manifest'
+ * after each step that has completed, so that a build that did not complete (e.g. the JVM was killed) can be
+ * resumed from the last saved step. The manifest is deleted along with INDEX_TMP_DIR when the segment is added
+ * to the index.
+ *
+ * The build has the following stages, each one is done again if it did not complete:
+ * 1) PARSE: The corpus files are parsed and the partial indexes are created. A checkpoint is saved each time
+ * a partial index has been dumped: the number of partial indexes, documents and tokens, the size of the files of
+ * the segment (DOCUMENTS_FILENAME and the citations file) and the position (file, line) in the corpus after the
+ * last document of the partial index. Parsing continues from the last checkpoint.
+ * 2) MERGE: The partial indexes are merged into the segment.
+ * 3) VSM: The VSM weights of the collection are computed (if there are more segments).
+ * 4) PAGERANK: The Pagerank scores are computed.
+ * 5) COMMIT: The segment is added to 'INDEX_DIR/segments'.
+ */
+class BuildManifest {
+    enum STAGE {
+        PARSE, MERGE, VSM, PAGERANK, COMMIT
+    }
+
+    private static final String BUILD_MANIFEST_FILENAME = "build_manifest";
+
+    private final Config _config;
+    private final String _segmentName;
+    private final int _docIDBase;
+    private final boolean _useStemmer;
+    private final boolean _useStopwords;
+    private final List<String> _corpusFiles;
+
+    private STAGE _stage = STAGE.PARSE;
+
+    /* the last checkpoint of the PARSE stage */
+    private int _partialIndexes = 0;
+    private int _documents = 0;
+    private long _tokens = 0;
+    private long _documentsSize = 0;
+    private long _citationsSize = 0;
+    private int _corpusFile = 0;
+    private long _corpusLine = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param config
+     * @param segmentName The name of the segment that is built
+     * @param docIDBase The (int) doc ID of the first document of the segment
+     * @param useStemmer
+     * @param useStopwords
+     * @param corpusFiles The names of the corpus files that are indexed
+     */
+    BuildManifest(Config config, String segmentName, int docIDBase, boolean useStemmer, boolean useStopwords, List<String> corpusFiles) {
+        _config = config;
+        _segmentName = segmentName;
+        _docIDBase = docIDBase;
+        _useStemmer = useStemmer;
+        _useStopwords = useStopwords;
+        _corpusFiles = corpusFiles;
+    }
+
+    /**
+     * Returns the manifest in INDEX_TMP_DIR or null if there is no manifest.
+     *
+     * @param config
+     * @return
+     * @throws IOException
+     */
+    static BuildManifest read(Config config)
+            throws IOException {
+        File manifestFile = new File(getPath(config));
+        if (!manifestFile.exists()) {
+            return null;
+        }
+        String segmentName = null;
+        int docIDBase = 0;
+        boolean useStemmer = false;
+        boolean useStopwords = false;
+        List<String> corpusFiles = new ArrayList<>();
+        String[] checkpoint = null;
+        STAGE stage = STAGE.PARSE;
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(manifestFile), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int split = line.indexOf('=');
+                if (split == -1) {
+                    continue;
+                }
+                String value = line.substring(split + 1);
+                switch (line.substring(0, split)) {
+                    case "segment":
+                        segmentName = value;
+                        break;
+                    case "doc_id_base":
+                        docIDBase = Integer.parseInt(value);
+                        break;
+                    case "use_stemmer":
+                        useStemmer = Boolean.parseBoolean(value);
+                        break;
+                    case "use_stopwords":
+                        useStopwords = Boolean.parseBoolean(value);
+                        break;
+                    case "corpus":
+                        corpusFiles.add(value);
+                        break;
+                    case "stage":
+                        stage = STAGE.valueOf(value);
+                        break;
+                    case "checkpoint":
+                        checkpoint = value.split(" ");
+                        break;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        if (segmentName == null || checkpoint == null || checkpoint.length != 7) {
+            throw new IOException("Invalid build manifest " + manifestFile);
+        }
+        BuildManifest manifest = new BuildManifest(config, segmentName, docIDBase, useStemmer, useStopwords, corpusFiles);
+        manifest._stage = stage;
+        manifest._partialIndexes = Integer.parseInt(checkpoint[0]);
+        manifest._documents = Integer.parseInt(checkpoint[1]);
+        manifest._tokens = Long.parseLong(checkpoint[2]);
+        manifest._documentsSize = Long.parseLong(checkpoint[3]);
+        manifest._citationsSize = Long.parseLong(checkpoint[4]);
+        manifest._corpusFile = Integer.parseInt(checkpoint[5]);
+        manifest._corpusLine = Long.parseLong(checkpoint[6]);
+        return manifest;
+    }
+
+    /**
+     * Writes the manifest to INDEX_TMP_DIR. The file is first written to a temp file that then replaces the
+     * previous file, so the manifest is always complete.
+     *
+     * @throws IOException
+     */
+    synchronized void write()
+            throws IOException {
+        Path manifestPath = Paths.get(getPath(_config));
+        Path tmpPath = Paths.get(getPath(_config) + ".tmp");
+        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmpPath.toFile()), "UTF-8"));
+        writer.write("segment=" + _segmentName + '\n');
+        writer.write("doc_id_base=" + _docIDBase + '\n');
+        writer.write("use_stemmer=" + _useStemmer + '\n');
+        writer.write("use_stopwords=" + _useStopwords + '\n');
+        for (String corpusFile : _corpusFiles) {
+            writer.write("corpus=" + corpusFile + '\n');
+        }
+        writer.write("stage=" + _stage + '\n');
+        writer.write("checkpoint=" + _partialIndexes + ' ' + _documents + ' ' + _tokens + ' ' + _documentsSize + ' ' +
+                _citationsSize + ' ' + _corpusFile + ' ' + _corpusLine + '\n');
+        writer.close();
+        Files.move(tmpPath, manifestPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Saves a checkpoint of the PARSE stage.
+     *
+     * @param partialIndexes The number of partial indexes that have been dumped
+     * @param documents The number of documents in the partial indexes
+     * @param tokens The number of tokens of the documents in the partial indexes
+     * @param documentsSize The size of DOCUMENTS_FILENAME of the segment
+     * @param citationsSize The size of the citations file of the segment
+     * @param corpusFile The position in the list of corpus files of the file that has the next document
+     * @param corpusLine The line of the next document in its corpus file
+     * @throws IOException
+     */
+    synchronized void writeCheckpoint(int partialIndexes, int documents, long tokens, long documentsSize,
+                                      long citationsSize, int corpusFile, long corpusLine)
+            throws IOException {
+        _partialIndexes = partialIndexes;
+        _documents = documents;
+        _tokens = tokens;
+        _documentsSize = documentsSize;
+        _citationsSize = citationsSize;
+        _corpusFile = corpusFile;
+        _corpusLine = corpusLine;
+        write();
+    }
+
+    /**
+     * Marks the given stage as the next stage of the build and saves the manifest.
+     *
+     * @param stage
+     * @throws IOException
+     */
+    synchronized void writeStage(STAGE stage)
+            throws IOException {
+        _stage = stage;
+        write();
+    }
+
+    /**
+     * Returns the full path of 'INDEX_TMP_DIR/build_manifest'.
+     *
+     * @param config
+     * @return
+     */
+    static String getPath(Config config) {
+        return config.getIndexTmpDir() + BUILD_MANIFEST_FILENAME;
+    }
+
+    String getSegmentName() {
+        return _segmentName;
+    }
+
+    int getDocIDBase() {
+        return _docIDBase;
+    }
+
+    boolean getUseStemmer() {
+        return _useStemmer;
+    }
+
+    boolean getUseStopwords() {
+        return _useStopwords;
+    }
+
+    List<String> getCorpusFiles() {
+        return _corpusFiles;
+    }
+
+    STAGE getStage() {
+        return _stage;
+    }
+
+    int getPartialIndexes() {
+        return _partialIndexes;
+    }
+
+    int getDocuments() {
+        return _documents;
+    }
+
+    long getTokens() {
+        return _tokens;
+    }
+
+    long getDocumentsSize() {
+        return _documentsSize;
+    }
+
+    long getCitationsSize() {
+        return _citationsSize;
+    }
+
+    int getCorpusFile() {
+        return _corpusFile;
+    }
+
+    long getCorpusLine() {
+        return _corpusLine;
+    }
+}
@@ -0,0 +1,596 @@
+package gr.csd.uoc.hy463.themis.indexer;
+
+import gr.csd.uoc.hy463.themis.indexer.indexes.Index;
+import gr.csd.uoc.hy463.themis.indexer.indexes.PartialVocabularyReader;
+import gr.csd.uoc.hy463.themis.indexer.indexes.VocabularyReader;
+import gr.csd.uoc.hy463.themis.indexer.indexes.VocabularyWriter;
+import gr.csd.uoc.hy463.themis.indexer.model.PartialVocabularyEntry;
+import gr.csd.uoc.hy463.themis.indexer.model.Positions;
+import gr.csd.uoc.hy463.themis.indexer.model.Posting;
+import gr.csd.uoc.hy463.themis.indexer.model.Postings;
+import gr.csd.uoc.hy463.themis.indexer.model.VocabularyEntry;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Merges all partial VOCABULARY_FILENAME, POSTINGS_FILENAME and POSITIONS_FILENAME and creates the final
+ * VOCABULARY_FILENAME, POSTINGS_FILENAME and POSITIONS_FILENAME of a {@link Segment}. The partial files are in the compact binary format of {@link Index} and are
+ * decoded while they are read.
+ *
+ * The term space is split into ranges and each range is merged by its own thread:
+ * 1) Terms of each partial VOCABULARY_FILENAME are sampled (about one every SAMPLE_INTERVAL terms, only terms
+ * that are restart points of the front coding). The split terms are picked from the samples so that all ranges
+ * require about the same work (number of terms + number of postings).
+ * 2) For each partial index we find the offsets (to its VOCABULARY_FILENAME, POSTINGS_FILENAME and POSITIONS_FILENAME)
+ * before the first term of each range, starting from the nearest sample. Since the terms are front coded,
+ * the range is read from the last restart point before its first term.
+ * 3) Each thread merges the terms of its range from all partial indexes using a priority queue (same as a k-way merge
+ * of the whole vocabularies). The postings of each term are read from the partial POSTINGS_FILENAME in order of index
+ * ID (so that they remain sorted by doc ID), are decoded, are compressed in the format of the final POSTINGS_FILENAME
+ * (see class {@link Postings}) and are written to a temp file of the range. The positions of each term are concatenated
+ * in the same order (the positions of each posting do not depend on the previous postings) and are written to a temp
+ * file of the range after their skip table (see class {@link Positions}). The vocabulary of the range is written to a
+ * temp file in the binary format of the final VOCABULARY_FILENAME (see class {@link VocabularyWriter}), its offsets are
+ * relative to the start of the postings and positions of the range.
+ * 4) The temp postings and positions files are concatenated (FileChannel.transferTo) to create the final
+ * POSTINGS_FILENAME and POSITIONS_FILENAME. The temp vocabulary files are read in order of range to create the final
+ * VOCABULARY_FILENAME (see class VocabularyEntry), the term bytes are copied as they are and the offsets of each range
+ * are increased by the size of the postings and positions of the previous ranges.
+ *
+ * While the postings of a term are merged, its max TF ratio (see class VocabularyEntry) is found from the max TF
+ * of each document, which is known after parsing.
+ */
+class IndexMerger {
+    /* about one term every SAMPLE_INTERVAL terms of each partial vocabulary is sampled */
+    private static final int SAMPLE_INTERVAL = 256;
+
+    /* number of ranges per merge thread. More ranges than threads balance the work better */
+    private static final int RANGES_PER_THREAD = 4;
+
+    private static final int POSTINGS_BUFFER_SIZE = 32 * 1024;
+
+    private final Indexer _indexer;
+    private final Segment _segment;
+    private final int _maxIndexID;
+    private final int _threads;
+
+    /* the max TF of each document */
+    private final int[] _maxTFs;
+
+    /* the token count of each document of the segment, required by the skip table of the postings */
+    private int[] _tokenCounts;
+
+    private FileChannel[] _vocabularyChannels;
+    private FileChannel[] _postingsChannels;
+    private FileChannel[] _positionsChannels;
+
+    /* offsets before the first term of each range in each partial index:
+    [index ID][range] (one extra item for the end of the last range) */
+    private long[][] _vocabularyOffsets;
+    private long[][] _postingsOffsets;
+    private long[][] _positionsOffsets;
+
+    /* offset of the last restart point before the first term of each range in each partial index and the
+    number of terms between the restart point and the first term */
+    private long[][] _restartOffsets;
+    private int[][] _restartSkips;
+
+    /**
+     * Constructor.
+     *
+     * @param indexer
+     * @param segment The segment of the partial indexes
+     * @param maxIndexID The ID of the last partial index (can be 0)
+     * @param threads Number of merge threads
+     * @param maxTFs Max TF of each document of the segment (indexed by (int) doc ID - doc ID base)
+     */
+    IndexMerger(Indexer indexer, Segment segment, int maxIndexID, int threads, int[] maxTFs) {
+        _indexer = indexer;
+        _segment = segment;
+        _maxIndexID = maxIndexID;
+        _threads = Math.max(1, threads);
+        _maxTFs = maxTFs;
+    }
+
+    /**
+     * Merges the partial indexes.
+     *
+     * @throws IOException
+     */
+    void merge()
+            throws IOException {
+        int indexes = _maxIndexID + 1;
+        _vocabularyChannels = new FileChannel[indexes];
+        _postingsChannels = new FileChannel[indexes];
+        _positionsChannels = new FileChannel[indexes];
+        _tokenCounts = _segment.readTokenCounts();
+        ExecutorService executor = Executors.newFixedThreadPool(_threads);
+        try {
+            for (int i = 0; i < indexes; i++) {
+                _vocabularyChannels[i] = FileChannel.open(Paths.get(_indexer.getPartialVocabularyPath(i)), StandardOpenOption.READ);
+                _postingsChannels[i] = FileChannel.open(Paths.get(_indexer.getPartialPostingsPath(i)), StandardOpenOption.READ);
+                _positionsChannels[i] = FileChannel.open(Paths.get(_indexer.getPartialPositionsPath(i)), StandardOpenOption.READ);
+            }
+
+            /* sample the partial vocabularies and find the split terms */
+            List<Future<List<VocabularySample>>> sampleTasks = new ArrayList<>();
+            for (int i = 0; i < indexes; i++) {
+                int indexID = i;
+                sampleTasks.add(executor.submit(() -> sampleVocabulary(indexID)));
+            }
+            List<List<VocabularySample>> samples = new ArrayList<>();
+            for (Future<List<VocabularySample>> task : sampleTasks) {
+                samples.add(getResult(task));
+            }
+            List<String> splitTerms = findSplitTerms(samples);
+            int ranges = splitTerms.size() + 1;
+
+            /* find the offsets of the first term of each range in each partial index */
+            _vocabularyOffsets = new long[indexes][ranges + 1];
+            _postingsOffsets = new long[indexes][ranges + 1];
+            _positionsOffsets = new long[indexes][ranges + 1];
+            _restartOffsets = new long[indexes][ranges + 1];
+            _restartSkips = new int[indexes][ranges + 1];
+            List<Future<Void>> boundTasks = new ArrayList<>();
+            for (int i = 0; i < indexes; i++) {
+                int indexID = i;
+                boundTasks.add(executor.submit(() -> findRangeOffsets(indexID, samples.get(indexID), splitTerms)));
+            }
+            for (Future<Void> task : boundTasks) {
+                getResult(task);
+            }
+
+            /* merge the ranges */
+            List<Future<Void>> mergeTasks = new ArrayList<>();
+            for (int r = 0; r < ranges; r++) {
+                int range = r;
+                mergeTasks.add(executor.submit(() -> mergeRange(range)));
+            }
+            for (Future<Void> task : mergeTasks) {
+                getResult(task);
+            }
+            concatenateVocabularies(ranges);
+        } finally {
+            executor.shutdownNow();
+            closeChannels(_vocabularyChannels);
+            closeChannels(_postingsChannels);
+            closeChannels(_positionsChannels);
+        }
+    }
+
+    /**
+     * Returns the max TF ratio (see class VocabularyEntry) of the given postings of a term: the TF (high 32 bits)
+     * and the max TF of the document (low 32 bits) of the posting that has the max value of TF / max TF.
+     *
+     * @param postings The postings of the term (see class Posting)
+     * @param length Number of bytes in postings
+     * @param docIDBase The (int) doc ID of the first document
+     * @param maxTFs Max TF of each document
+     * @return
+     */
+    static long getMaxTFRatio(byte[] postings, int length, int docIDBase, int[] maxTFs) {
+        ByteBuffer buffer = ByteBuffer.wrap(postings);
+        int ratioTF = 0;
+        int ratioMaxTF = 1;
+        for (int offset = 0; offset < length; offset += Posting.SIZE) {
+            int TF = buffer.getInt(offset + Posting.TF_OFFSET);
+            int maxTF = maxTFs[buffer.getInt(offset + Posting.DOCID_OFFSET) - docIDBase];
+            if (VocabularyEntry.isLargerRatio(TF, maxTF, ratioTF, ratioMaxTF)) {
+                ratioTF = TF;
+                ratioMaxTF = maxTF;
+            }
+        }
+        return ((long) ratioTF << 32) | (ratioMaxTF & 0xFFFFFFFFL);
+    }
+
+    /* Samples the partial VOCABULARY_FILENAME with the given ID and returns the samples. A term is sampled if it
+    is a restart point and at least SAMPLE_INTERVAL terms have been read after the previous sample.
+    The work (terms + postings) between consecutive samples is also stored */
+    private List<VocabularySample> sampleVocabulary(int indexID)
+            throws IOException {
+        List<VocabularySample> samples = new ArrayList<>();
+        PartialVocabularyReader vocabularyReader = openVocabulary(indexID, 0, _vocabularyChannels[indexID].size());
+        long postingsOffset = 0;
+        long positionsOffset = 0;
+        int terms = 0;
+        VocabularySample sample = null;
+        while (vocabularyReader.next()) {
+            if (vocabularyReader.isRestart() && (sample == null || terms >= SAMPLE_INTERVAL)) {
+                sample = new VocabularySample(vocabularyReader.getTerm(), vocabularyReader.getEntryOffset(), postingsOffset,
+                        positionsOffset);
+                samples.add(sample);
+                terms = 0;
+            }
+            sample._work += 1 + vocabularyReader.getDF();
+            postingsOffset += vocabularyReader.getPostingsSize();
+            positionsOffset += vocabularyReader.getPositionsSize();
+            terms++;
+        }
+        vocabularyReader.close();
+        return samples;
+    }
+
+    /* Returns the split terms. Each split term is the first term of a range, there are no split terms if all
+    partial vocabularies are empty */
+    private List<String> findSplitTerms(List<List<VocabularySample>> samples) {
+        List<VocabularySample> allSamples = new ArrayList<>();
+        long totalWork = 0;
+        for (List<VocabularySample> indexSamples : samples) {
+            allSamples.addAll(indexSamples);
+            for (VocabularySample sample : indexSamples) {
+                totalWork += sample._work;
+            }
+        }
+        allSamples.sort(Comparator.comparing(sample -> sample._term));
+        int ranges = _threads * RANGES_PER_THREAD;
+        long rangeWork = totalWork / ranges + 1;
+
+        List<String> splitTerms = new ArrayList<>();
+        long work = 0;
+        for (VocabularySample sample : allSamples) {
+            if (work >= rangeWork && (splitTerms.isEmpty() || !splitTerms.get(splitTerms.size() - 1).equals(sample._term))) {
+                splitTerms.add(sample._term);
+                work = 0;
+            }
+            work += sample._work;
+        }
+        return splitTerms;
+    }
+
+    /* Finds the offsets before the first term of each range in the partial index with
+    the given ID. The first term of a range is the first term that is >= the split term of the range. The search
+    starts from the last sample that is < the split term */
+    private Void findRangeOffsets(int indexID, List<VocabularySample> samples, List<String> splitTerms)
+            throws IOException {
+        int ranges = splitTerms.size() + 1;
+        long vocabularySize = _vocabularyChannels[indexID].size();
+        for (int r = 1; r < ranges; r++) {
+            String splitTerm = splitTerms.get(r - 1);
+            long vocabularyOffset = 0;
+            long postingsOffset = 0;
+            long positionsOffset = 0;
+            for (VocabularySample sample : samples) {
+                if (sample._term.compareTo(splitTerm) >= 0) {
+                    break;
+                }
+                vocabularyOffset = sample._vocabularyOffset;
+                postingsOffset = sample._postingsOffset;
+                positionsOffset = sample._positionsOffset;
+            }
+            long startOffset = vocabularyOffset;
+            long restartOffset = vocabularyOffset;
+            int restartSkip = 0;
+            PartialVocabularyReader vocabularyReader = openVocabulary(indexID, startOffset, vocabularySize);
+            while (vocabularyReader.next()) {
+                if (vocabularyReader.isRestart()) {
+                    restartOffset = startOffset + vocabularyReader.getEntryOffset();
+                    restartSkip = 0;
+                }
+                if (vocabularyReader.getTerm().compareTo(splitTerm) >= 0) {
+                    break;
+                }
+                vocabularyOffset = startOffset + vocabularyReader.getOffset();
+                postingsOffset += vocabularyReader.getPostingsSize();
+                positionsOffset += vocabularyReader.getPositionsSize();
+                restartSkip++;
+            }
+            vocabularyReader.close();
+            _vocabularyOffsets[indexID][r] = vocabularyOffset;
+            _postingsOffsets[indexID][r] = postingsOffset;
+            _positionsOffsets[indexID][r] = positionsOffset;
+            _restartOffsets[indexID][r] = restartOffset;
+            _restartSkips[indexID][r] = restartSkip;
+        }
+        _vocabularyOffsets[indexID][ranges] = vocabularySize;
+        _postingsOffsets[indexID][ranges] = _postingsChannels[indexID].size();
+        _positionsOffsets[indexID][ranges] = _positionsChannels[indexID].size();
+        return null;
+    }
+
+    /* Merges the given range of all partial indexes. The vocabulary, the compressed postings and the positions of
+    the range are written to 'INDEX_TMP_DIR/vocabulary_range', 'INDEX_TMP_DIR/postings_range' and
+    'INDEX_TMP_DIR/positions_range'. The offsets to the postings and the positions in the vocabulary of the range
+    are relative to the start of the postings and the positions of the range */
+    private Void mergeRange(int range)
+            throws IOException {
+        int indexes = _maxIndexID + 1;
+        PartialVocabularyReader[] vocabularyReader = new PartialVocabularyReader[indexes];
+        DataInputStream[] postingsInStream = new DataInputStream[indexes];
+        DataInputStream[] positionsInStream = new DataInputStream[indexes];
+        VocabularyWriter vocabularyWriter = new VocabularyWriter(getRangeVocabularyPath(range), true, true);
+        BufferedOutputStream postingsWriter = new BufferedOutputStream(new FileOutputStream(getRangePostingsPath(range)), POSTINGS_BUFFER_SIZE);
+        BufferedOutputStream positionsWriter = new BufferedOutputStream(new FileOutputStream(getRangePositionsPath(range)), POSTINGS_BUFFER_SIZE);
+        try {
+            /* read the first term of the range from each partial VOCABULARY_FILENAME and put the entries
+            in a priority queue */
+            PriorityQueue<PartialVocabularyEntry> vocabularyQueue = new PriorityQueue<>();
+            for (int i = 0; i < indexes; i++) {
+                vocabularyReader[i] = openVocabulary(i, _restartOffsets[i][range], _vocabularyOffsets[i][range + 1]);
+                for (int j = 0; j < _restartSkips[i][range]; j++) {
+                    vocabularyReader[i].next();
+                }
+                postingsInStream[i] = new DataInputStream(new BufferedInputStream(new ChannelInputStream(_postingsChannels[i],
+                        _postingsOffsets[i][range], _postingsOffsets[i][range + 1]), POSTINGS_BUFFER_SIZE));
+                positionsInStream[i] = new DataInputStream(new BufferedInputStream(new ChannelInputStream(_positionsChannels[i],
+                        _positionsOffsets[i][range], _positionsOffsets[i][range + 1]), POSTINGS_BUFFER_SIZE));
+                PartialVocabularyEntry entry = getNextVocabularyEntry(vocabularyReader[i], i);
+                if (entry != null) {
+                    vocabularyQueue.add(entry);
+                }
+            }
+
+            List<PartialVocabularyEntry> equalTermEntries = new ArrayList<>();
+            byte[] encodedPostings = new byte[0];
+            byte[] postings = new byte[0];
+            byte[] positions = new byte[0];
+            byte[] skipTable = new byte[0];
+            byte[] compressedPostings = new byte[0];
+            long postingsOffset = 0;
+            long positionsOffset = 0;
+            PartialVocabularyEntry polledEntry;
+            while ((polledEntry = vocabularyQueue.poll()) != null) {
+                equalTermEntries.add(polledEntry);
+                int polledEntryIndexID = polledEntry.getIndexID();
+                PartialVocabularyEntry entry = getNextVocabularyEntry(vocabularyReader[polledEntryIndexID], polledEntryIndexID);
+                if (entry != null) {
+                    vocabularyQueue.add(entry);
+                }
+
+                /* continue until all entries of the current term have been polled */
+                PartialVocabularyEntry nextEntry = vocabularyQueue.peek();
+                if (nextEntry != null && nextEntry.getTerm().equals(polledEntry.getTerm())) {
+                    continue;
+                }
+
+                /* sort the entries based on the index ID (increasing). This is required so that the postings
+                of the term appear sorted based on the (int) doc ID */
+                equalTermEntries.sort(PartialVocabularyEntry.IDComparator);
+                int DF = 0;
+                int positionsSize = 0;
+                for (PartialVocabularyEntry equalTerm : equalTermEntries) {
+                    DF += equalTerm.getDF();
+                    positionsSize += equalTerm.getPositionsSize();
+                }
+                /* read and decode the postings of the term from the partial indexes */
+                int postingsSize = DF * Posting.SIZE;
+                if (postings.length < postingsSize) {
+                    postings = new byte[Math.max(postingsSize, postings.length * 2)];
+                }
+                int postingsPos = 0;
+                for (PartialVocabularyEntry equalTerm : equalTermEntries) {
+                    int size = equalTerm.getPostingsSize();
+                    if (encodedPostings.length < size) {
+                        encodedPostings = new byte[Math.max(size, encodedPostings.length * 2)];
+                    }
+                    postingsInStream[equalTerm.getIndexID()].readFully(encodedPostings, 0, size);
+                    postingsPos = Index.decodePostings(encodedPostings, size, postings, postingsPos);
+                }
+
+                /* read the positions of the term from the partial indexes and write them after their skip table */
+                if (positions.length < positionsSize) {
+                    positions = new byte[Math.max(positionsSize, positions.length * 2)];
+                }
+                int positionsPos = 0;
+                for (PartialVocabularyEntry equalTerm : equalTermEntries) {
+                    positionsInStream[equalTerm.getIndexID()].readFully(positions, positionsPos, equalTerm.getPositionsSize());
+                    positionsPos += equalTerm.getPositionsSize();
+                }
+                int skipTableSize = Positions.getSkipTableSize(DF);
+                if (skipTable.length < skipTableSize) {
+                    skipTable = new byte[Math.max(skipTableSize, skipTable.length * 2)];
+                }
+                Positions.createSkipTable(postings, DF, positions, skipTable);
+                positionsWriter.write(skipTable, 0, skipTableSize);
+                positionsWriter.write(positions, 0, positionsSize);
+                equalTermEntries.clear();
+                long maxTFRatio = getMaxTFRatio(postings, postingsSize, _segment.getDocIDBase(), _maxTFs);
+
+                /* compress the postings and write them to the postings of the range */
+                int maxCompressedSize = Postings.getMaxEncodedSize(DF);
+                if (compressedPostings.length < maxCompressedSize) {
+                    compressedPostings = new byte[Math.max(maxCompressedSize, compressedPostings.length * 2)];
+                }
+                int compressedSize = Postings.encode(postings, DF, _tokenCounts, _segment.getDocIDBase(), compressedPostings);
+                postingsWriter.write(compressedPostings, 0, compressedSize);
+                vocabularyWriter.add(polledEntry.getTerm(), DF, postingsOffset, compressedSize, positionsOffset,
+                        (int) (maxTFRatio >>> 32), (int) maxTFRatio);
+                postingsOffset += compressedSize;
+                positionsOffset += skipTableSize + positionsSize;
+            }
+        } finally {
+            for (int i = 0; i < indexes; i++) {
+                if (vocabularyReader[i] != null) {
+                    vocabularyReader[i].close();
+                }
+                if (postingsInStream[i] != null) {
+                    postingsInStream[i].close();
+                }
+                if (positionsInStream[i] != null) {
+                    positionsInStream[i].close();
+                }
+            }
+            vocabularyWriter.close();
+            postingsWriter.close();
+            positionsWriter.close();
+        }
+        return null;
+    }
+
+    /* Concatenates the postings and the positions of all ranges and creates the final POSTINGS_FILENAME and
+    POSITIONS_FILENAME. Concatenates the vocabularies of all ranges and creates the final (binary) VOCABULARY_FILENAME,
+    the offsets to the postings and the positions of each term are increased by the size of the postings and the
+    positions of the previous ranges */
+    private void concatenateVocabularies(int ranges)
+            throws IOException {
+        FileChannel postingsChannel = FileChannel.open(Paths.get(_segment.getPostingsPath()),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        FileChannel positionsChannel = FileChannel.open(Paths.get(_segment.getPositionsPath()),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        VocabularyWriter vocabularyWriter = new VocabularyWriter(_segment.getVocabularyPath(), true, true);
+        try {
+            long postingsOffset = 0;
+            long positionsOffset = 0;
+            for (int r = 0; r < ranges; r++) {
+                VocabularyReader rangeVocabularyReader = new VocabularyReader(getRangeVocabularyPath(r));
+                while (rangeVocabularyReader.next()) {
+                    vocabularyWriter.add(rangeVocabularyReader.getTermBytes(), rangeVocabularyReader.getTermLength(),
+                            rangeVocabularyReader.getDF(), postingsOffset + rangeVocabularyReader.getPostingsOffset(),
+                            rangeVocabularyReader.getPostingsSize(), positionsOffset + rangeVocabularyReader.getPositionsOffset(),
+                            rangeVocabularyReader.getRatioTF(), rangeVocabularyReader.getRatioMaxTF());
+                }
+                rangeVocabularyReader.close();
+                Files.delete(Paths.get(getRangeVocabularyPath(r)));
+
+                postingsOffset += appendFile(getRangePostingsPath(r), postingsChannel);
+                positionsOffset += appendFile(getRangePositionsPath(r), positionsChannel);
+            }
+        } finally {
+            vocabularyWriter.close();
+            postingsChannel.close();
+            positionsChannel.close();
+        }
+    }
+
+    /* Appends the given file to the given channel (FileChannel.transferTo) and deletes the file. Returns the
+    size of the file */
+    private static long appendFile(String filePath, FileChannel channel)
+            throws IOException {
+        FileChannel fileChannel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ);
+        long position = 0;
+        long size = fileChannel.size();
+        try {
+            while (position < size) {
+                position += fileChannel.transferTo(position, size - position, channel);
+            }
+        } finally {
+            fileChannel.close();
+        }
+        Files.delete(Paths.get(filePath));
+        return size;
+    }
+
+    /* Reads the next entry from the given partial VOCABULARY_FILENAME reader and returns a new
+    PartialVocabularyEntry */
+    private static PartialVocabularyEntry getNextVocabularyEntry(PartialVocabularyReader vocabularyReader, int indexID)
+            throws IOException {
+        if (vocabularyReader.next()) {
+            return new PartialVocabularyEntry(vocabularyReader.getTerm(), vocabularyReader.getDF(), indexID, vocabularyReader.getPostingsSize(),
+                    vocabularyReader.getPositionsSize());
+        }
+        return null;
+    }
+
+    /* Returns a reader for the bytes [start, end) of the partial VOCABULARY_FILENAME with the given ID */
+    private PartialVocabularyReader openVocabulary(int indexID, long start, long end) {
+        return new PartialVocabularyReader(new ChannelInputStream(_vocabularyChannels[indexID], start, end));
+    }
+
+    /* Returns the full path of 'INDEX_TMP_DIR/vocabulary_range' */
+    private String getRangeVocabularyPath(int range) {
+        return _indexer.getConfig().getIndexTmpDir() + "vocabulary_" + range;
+    }
+
+    /* Returns the full path of 'INDEX_TMP_DIR/postings_range' */
+    private String getRangePostingsPath(int range) {
+        return _indexer.getConfig().getIndexTmpDir() + "postings_" + range;
+    }
+
+    /* Returns the full path of 'INDEX_TMP_DIR/positions_range' */
+    private String getRangePositionsPath(int range) {
+        return _indexer.getConfig().getIndexTmpDir() + "positions_" + range;
+    }
+
+    /* Returns the result of a task, rethrows its exception */
+    private static <T> T getResult(Future<T> task)
+            throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Index merge interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private static void closeChannels(FileChannel[] channels)
+            throws IOException {
+        for (FileChannel channel : channels) {
+            if (channel != null) {
+                channel.close();
+            }
+        }
+    }
+
+    /* A sampled term of a partial VOCABULARY_FILENAME */
+    private static class VocabularySample {
+        private final String _term;
+        private final long _vocabularyOffset;
+        private final long _postingsOffset;
+        private final long _positionsOffset;
+
+        /* number of terms + number of postings from this sample up to the next sample */
+        private long _work = 0;
+
+        VocabularySample(String term, long vocabularyOffset, long postingsOffset, long positionsOffset) {
+            _term = term;
+            _vocabularyOffset = vocabularyOffset;
+            _postingsOffset = postingsOffset;
+            _positionsOffset = positionsOffset;
+        }
+    }
+
+    /* Reads the bytes [start, end) of a file channel using positional reads. The channel can be shared by
+    many threads */
+    private static class ChannelInputStream extends InputStream {
+        private final FileChannel _channel;
+        private long _position;
+        private final long _end;
+
+        ChannelInputStream(FileChannel channel, long start, long end) {
+            _channel = channel;
+            _position = start;
+            _end = end;
+        }
+
+        @Override
+        public int read()
+                throws IOException {
+            byte[] b = new byte[1];
+            return (read(b, 0, 1) == -1) ? -1 : (b[0] & 0xFF);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len)
+                throws IOException {
+            if (_position >= _end) {
+                return -1;
+            }
+            len = (int) Math.min(len, _end - _position);
+            int read = _channel.read(ByteBuffer.wrap(b, off, len), _position);
+            if (read > 0) {
+                _position += read;
+            }
+            return read;
+        }
+
+        /* the channel is closed by the merger */
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -6,13 +6,18 @@ import gr.csd.uoc.hy463.themis.indexer.Exceptions.IndexNotLoadedException;
 import gr.csd.uoc.hy463.themis.indexer.MemMap.DocumentFixedBuffers;
 import gr.csd.uoc.hy463.themis.indexer.MemMap.MemoryBuffers;
 import gr.csd.uoc.hy463.themis.indexer.indexes.Index;
+import gr.csd.uoc.hy463.themis.indexer.indexes.Vocabulary;
+import gr.csd.uoc.hy463.themis.indexer.indexes.VocabularyReader;
 import gr.csd.uoc.hy463.themis.indexer.model.*;
-import gr.csd.uoc.hy463.themis.lexicalAnalysis.collections.SemanticScholar.S2JsonEntryReader;
+import gr.csd.uoc.hy463.themis.indexer.pipeline.ParsePipeline;
+import gr.csd.uoc.hy463.themis.indexer.pipeline.ParsedDocument;
+import gr.csd.uoc.hy463.themis.indexer.pipeline.PartialIndexFlusher;
 import gr.csd.uoc.hy463.themis.lexicalAnalysis.collections.SemanticScholar.S2TextualEntry;
 import gr.csd.uoc.hy463.themis.lexicalAnalysis.collections.SemanticScholar.S2TextualEntryTokens;
 import gr.csd.uoc.hy463.themis.linkAnalysis.Pagerank;
 import gr.csd.uoc.hy463.themis.retrieval.QueryTerm;
 import gr.csd.uoc.hy463.themis.retrieval.model.OKAPIprops;
+import gr.csd.uoc.hy463.themis.retrieval.model.PostingsCursor;
 import gr.csd.uoc.hy463.themis.retrieval.model.TermPostings;
 import gr.csd.uoc.hy463.themis.retrieval.model.Result;
 import gr.csd.uoc.hy463.themis.retrieval.model.VSMprops;
@@ -23,11 +28,16 @@ import org.apache.logging.log4j.Logger;
 
 import java.io.*;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.time.Instant;
 import java.util.*;
+import java.util.function.BiPredicate;
+import java.util.zip.Deflater;
 
 
 /**
@@ -43,20 +53,26 @@ public class Indexer {
     private boolean __INDEX_IS_LOADED__ = false;
     private Map<String, String> __INDEX_META__ = null;
 
-    private HashMap<String, VocabularyEntry> __VOCABULARY__ = null;
-    private RandomAccessFile __POSTINGS__ = null;
-    private RandomAccessFile __DOCUMENTS__ = null;
+    /* the segments of the index sorted by doc ID base */
+    private List<Segment> __SEGMENTS__ = null;
 
-    /* Use DOCUMENTS_META_FILENAME as a memory mapped file */
-    private DocumentFixedBuffers __DOCMETA_BUFFERS__ = null;
+    /* the deleted documents of the loaded index (indexed by (int) doc ID) */
+    private BitSet __DELETED_DOCS__ = null;
+
+    /* the documents that are replaced by the segment that is being built by index() (indexed by (int) doc ID) */
+    private BitSet __REPLACED_DOCS__ = null;
+
+    /* DOCUMENTS_META_FILENAME of each segment is used as a memory mapped file */
     private byte[] __DOCMETA_ARRAY__;
     private ByteBuffer __DOCMETA_BUFFER__;
 
-    /* Use DOCUMENTS_ID_FILENAME as a memory mapped file */
-    private DocumentFixedBuffers __DOCID_BUFFERS__ = null;
+    /* DOCUMENTS_ID_FILENAME of each segment is used as a memory mapped file */
     private byte[] __DOCID_ARRAY__;
     private ByteBuffer __DOCID_BUFFER__; /* currently unused */
 
+    /* maps the string doc IDs of the loaded index to int doc IDs (uses DOCUMENTS_ID_LOOKUP_FILENAME of each segment) */
+    private StringIDTable __STRING_ID_TABLE__ = null;
+
     private OKAPIprops __OKAPI_PROPS__ = null;
     private VSMprops __VSM_PROPS__ = null;
     private double[] __DocumentsPagerank__ = null;
@@ -72,41 +88,126 @@ public class Indexer {
     }
 
     /**
-     * Indexes the collection found in the DATASET_DIR and writes the final index to INDEX_DIR.
-     * Aborts if INDEX_DIR is not empty.
+     * Indexes the files of DATASET_DIR that are not already in the index and adds a new {@link Segment} to the
+     * index in INDEX_DIR. Aborts if INDEX_TMP_DIR is not empty (and has no build manifest) or if the index in
+     * INDEX_DIR was created with different stemming/stopwords options.
+     *
+     * The collection is read and tokenized by a {@link ParsePipeline} that uses INDEX_PARSE_THREADS threads.
+     * Documents are added to the index in the order they appear in the collection and get (int) doc IDs that
+     * continue from the doc IDs of the previous segments. The citations of each document are also saved so that
+     * the Pagerank scores can be computed without parsing the collection again.
      *
      * All temp files will be saved in INDEX_TMP_DIR and will be deleted at the end of the process.
-     * If PARTIAL_INDEX_MAX_DOCS is less than the number of documents then >1 partial indexes will be created.
-     * Each partial index will contain data from at most PARTIAL_INDEX_MAX_DOCS documents.
-     * Finally, all partial indexes are merged to create the final index and temporary files are deleted.
+     * A partial index is dumped when its estimated memory reaches MAX_MEMORY / PARTIAL_INDEXES_IN_MEMORY
+     * (at most half of the max heap size is used). If PARTIAL_INDEX_MAX_DOCS is > 0, a partial index is also
+     * dumped when it contains PARTIAL_INDEX_MAX_DOCS documents. Full partial indexes are dumped in the
+     * background by a {@link PartialIndexFlusher} while the next partial index is created.
+     * Finally, all partial indexes are merged to create the new segment and temporary files are deleted.
+     *
+     * The VSM weights (if there are more segments) and the Pagerank scores of all documents are then computed
+     * again because they depend on the whole collection. The new segment is added to 'INDEX_DIR/segments' at the
+     * end, and a {@link SegmentMerger} starts merging segments of about the same size in the background.
+     *
+     * The progress of the build is saved in a {@link BuildManifest} in INDEX_TMP_DIR. If a previous build did not
+     * complete, it is resumed: parsing continues after the last partial index that was dumped, and the merge,
+     * VSM and Pagerank stages that have completed are skipped.
+     *
+     * A document of the previous segments that has the same (string) ID as a document of the new segment is
+     * deleted, so a document is updated by indexing a dataset file that has its new version. If the new segment
+     * has more than one document with the same (string) ID, only the last one is kept. The replaced documents are
+     * found before the partial indexes are merged and are saved in INDEX_TMP_DIR. The VSM weights and Pagerank
+     * scores skip them, but they are marked as deleted in their segments only when the new segment is added to the
+     * index, so the previous segments do not change if the build does not complete.
      *
      * @throws IOException
      */
     public void index()
             throws IOException {
-        if (indexDirNotEmpty()) {
-            Themis.print("Previous index found in " + __CONFIG__.getIndexDir() + " or " + __CONFIG__.getIndexTmpDir() + "\n");
+        SegmentMerger.await();
+        BuildManifest manifest = BuildManifest.read(__CONFIG__);
+        File[] tmpFiles = new File(__CONFIG__.getIndexTmpDir()).listFiles();
+        if (manifest == null && tmpFiles != null && tmpFiles.length != 0) {
+            Themis.print("Previous temp files found in " + __CONFIG__.getIndexTmpDir() + "\n");
+            return;
+        }
+        List<Segment> segments = Segment.readSegments(__CONFIG__);
+        if (segments.isEmpty() && manifest == null && indexDirNotEmpty()) {
+            Themis.print("Previous index found in " + __CONFIG__.getIndexDir() + " but it has no segments\n");
             return;
         }
 
-        __DOCMETA_ARRAY__ = new byte[DocumentMetaEntry.SIZE];
-        __DOCMETA_BUFFER__ = ByteBuffer.wrap(__DOCMETA_ARRAY__);
-        int maxDocsPerPartialIndex = __CONFIG__.getPartialIndexMaxDocs();
-
-        /* the (int) ID of each document. The N-th parsed document will have ID = N */
-        int docID = 0;
+        /* check the build that did not complete (if any) */
+        if (manifest != null) {
+            if (manifest.getUseStemmer() != __CONFIG__.getUseStemmer() ||
+                    manifest.getUseStopwords() != __CONFIG__.getUseStopwords()) {
+                Themis.print("Previous build in " + __CONFIG__.getIndexTmpDir() + " has different stemmer/stopwords options\n");
+                return;
+            }
+            Segment builtSegment = null;
+            int documents = 0;
+            for (Segment segment : segments) {
+                documents += segment.getDocuments();
+                if (segment.getName().equals(manifest.getSegmentName())) {
+                    builtSegment = segment;
+                }
+            }
 
-        /* the total number of tokens in the collection (required by the Okapi retrieval model) */
-        long tokenCount = 0;
+            /* the segment has been added to the index but the build did not complete after that */
+            if (builtSegment != null) {
+                completeBuild();
+                Themis.print("-> Completed previous build of " + builtSegment.getName() + "\n");
+                manifest = null;
+            }
+            else if (manifest.getDocIDBase() != documents) {
+                Themis.print("Previous build in " + __CONFIG__.getIndexTmpDir() + " does not match the index in " +
+                        __CONFIG__.getIndexDir() + "\n");
+                return;
+            }
+        }
 
-        /* offset to DOCUMENTS_FILENAME */
-        long documentsOffset = 0;
+        /* find the dataset files that are not already in the index */
+        Set<String> indexedFiles = new HashSet<>();
+        if (!segments.isEmpty()) {
+            __INDEX_META__ = loadIndexMeta();
+            if (Boolean.parseBoolean(__INDEX_META__.get("use_stemmer")) != __CONFIG__.getUseStemmer() ||
+                    Boolean.parseBoolean(__INDEX_META__.get("use_stopwords")) != __CONFIG__.getUseStopwords()) {
+                Themis.print("Previous index in " + __CONFIG__.getIndexDir() + " has different stemmer/stopwords options\n");
+                return;
+            }
+            deleteUnusedSegments(segments, manifest);
+            for (Segment segment : segments) {
+                indexedFiles.addAll(segment.readCorpusFiles());
+            }
+        }
+        List<File> corpus;
+        if (manifest != null) {
+            corpus = new ArrayList<>();
+            for (String corpusFile : manifest.getCorpusFiles()) {
+                File file = new File(__CONFIG__.getDatasetDir(), corpusFile);
+                if (!file.isFile()) {
+                    Themis.print("Dataset file " + file + " of the previous build not found\n");
+                    return;
+                }
+                corpus.add(file);
+            }
+        }
+        else {
+            corpus = getCorpus();
+            if (corpus == null || corpus.size() == 0) {
+                Themis.print("No dataset files found in " + __CONFIG__.getDatasetDir() + "\n");
+                return;
+            }
+            corpus.removeIf(file -> indexedFiles.contains(file.getName()));
+            if (corpus.size() == 0) {
+                Themis.print("No new dataset files found in " + __CONFIG__.getDatasetDir() + "\n");
+                return;
+            }
+        }
 
-        /* get the list of files in the collection */
-        List<File> corpus = getCorpus();
-        if (corpus == null || corpus.size() == 0) {
-            Themis.print("No dataset files found in " + __CONFIG__.getDatasetDir() + "\n");
-            return;
+        /* the doc ID of the first document of the new segment */
+        int docIDBase = 0;
+        for (Segment segment : segments) {
+            docIDBase += segment.getDocuments();
         }
 
         __INDEX_META__ = new HashMap<>();
@@ -119,376 +220,615 @@ public class Indexer {
         Themis.print("Pagerank damping factor: " + __CONFIG__.getPagerankDampingFactor() + "\n");
         __INDEX_META__.put("pagerank_threshold", String.valueOf(__CONFIG__.getPagerankThreshold()));
         Themis.print("Pagerank threshold: " + __CONFIG__.getPagerankThreshold() + "\n");
-        Themis.print("-> Start indexing\n");
+        Themis.print("Partial index max memory: " + getPartialIndexMaxMemory() / (1024 * 1024) + " MB\n");
+        Themis.print("Partial indexes in memory: " + __CONFIG__.getPartialIndexesInMemory() + "\n");
+        if (__CONFIG__.getPartialIndexMaxDocs() > 0) {
+            Themis.print("Partial index max documents: " + __CONFIG__.getPartialIndexMaxDocs() + "\n");
+        }
+        Themis.print("Previous segments: " + segments.size() + " (" + docIDBase + " documents)\n");
+        Themis.print("New dataset files: " + corpus.size() + "\n");
+
+        if (manifest == null) {
+            Themis.print("-> Start indexing\n");
+
+            /* create the required index folders */
+            Files.createDirectories(Paths.get(__CONFIG__.getIndexDir()));
+            Files.createDirectories(Paths.get(__CONFIG__.getIndexTmpDir()));
+            List<String> corpusFiles = new ArrayList<>();
+            for (File file : corpus) {
+                corpusFiles.add(file.getName());
+            }
+            manifest = new BuildManifest(__CONFIG__, Segment.createSegmentDir(__CONFIG__), docIDBase,
+                    __CONFIG__.getUseStemmer(), __CONFIG__.getUseStopwords(), corpusFiles);
+            manifest.write();
+        }
+        else {
+            Themis.print("-> Resuming previous build of " + manifest.getSegmentName() + " (stage: " +
+                    manifest.getStage() + ", documents: " + manifest.getDocuments() + ")\n");
+        }
+
+        if (manifest.getStage() == BuildManifest.STAGE.PARSE) {
+            parseCorpus(manifest, corpus);
+        }
+        int docID = docIDBase + manifest.getDocuments();
+        if (docID == docIDBase) {
+            Themis.print("No documents found in the new dataset files\n");
+            deleteDir(new File(__CONFIG__.getIndexDir() + manifest.getSegmentName()));
+            deleteDir(new File(__CONFIG__.getIndexTmpDir()));
+            return;
+        }
+        Segment segment = new Segment(__CONFIG__, manifest.getSegmentName(), docIDBase, docID - docIDBase, manifest.getTokens(), 0);
+
+        if (manifest.getStage() == BuildManifest.STAGE.MERGE) {
+            __REPLACED_DOCS__ = findReplacedDocuments(segments, segment);
+            Files.write(Paths.get(getReplacedDocumentsPath()), __REPLACED_DOCS__.toByteArray());
+            mergePartialIndexes(segment, manifest.getPartialIndexes() - 1);
+            segment.writeCorpusFiles(manifest.getCorpusFiles());
+            manifest.writeStage(BuildManifest.STAGE.VSM);
+            try {
+                for (int i = 0; i < manifest.getPartialIndexes(); i++) {
+                    deleteDir(new File(getPartialIndexDir(i)));
+                }
+            } catch (IOException e) {
+                __LOGGER__.error(e);
+            }
+        }
+        else {
+            Path replacedPath = Paths.get(getReplacedDocumentsPath());
+            __REPLACED_DOCS__ = Files.exists(replacedPath) ? BitSet.valueOf(Files.readAllBytes(replacedPath)) : new BitSet();
+        }
+
+        segments.add(segment);
+        __SEGMENTS__ = segments;
+        long totalTokens = 0;
+        for (Segment s : segments) {
+            totalTokens += s.getTokens();
+        }
+        __INDEX_META__.put("documents", String.valueOf(docID));
+        __INDEX_META__.put("avgdl", String.valueOf((float) totalTokens / docID)); // (average number of tokens)
+
+        /* the VSM weights of a single segment have already been computed by mergePartialIndexes() */
+        if (manifest.getStage() == BuildManifest.STAGE.VSM) {
+            if (segments.size() > 1) {
+                updateCollectionVSMWeights();
+            }
+            manifest.writeStage(BuildManifest.STAGE.PAGERANK);
+        }
+        if (manifest.getStage() == BuildManifest.STAGE.PAGERANK) {
+            Pagerank pagerank = new Pagerank(this);
+            pagerank.citationsPagerank();
+            manifest.writeStage(BuildManifest.STAGE.COMMIT);
+        }
+
+        /* delete the replaced documents, add the segment to 'INDEX_DIR/segments' and write index metadata
+        to INDEX_META_FILENAME */
+        __INDEX_META__.put("timestamp", Instant.now().toString());
+        synchronized (SegmentMerger.SEGMENTS_LOCK) {
+            deleteReplacedDocuments(segments);
+            writeIndexMeta();
+            Segment.writeSegments(__CONFIG__, segments);
+        }
+        __SEGMENTS__ = null;
+        __REPLACED_DOCS__ = null;
+        completeBuild();
+        Themis.print("-> End of indexing\n");
+        SegmentMerger.start(__CONFIG__);
+    }
+
+    /* Parses the corpus files of the build (PARSE stage) and creates the partial indexes and DOCUMENTS_FILENAME,
+    DOCUMENTS_META_FILENAME, DOCUMENTS_ID_FILENAME, DOCUMENTS_ID_LOOKUP_FILENAME and the citations file of the segment.
+
+    Parsing continues from the last checkpoint of the given manifest: the files of the segment are truncated to
+    their size at the checkpoint, the partial indexes that were created after the checkpoint are deleted and the
+    collection is read starting from the next document after the checkpoint. The streams of the segment files are
+    flushed each time a partial index is submitted to the flusher, and a checkpoint is saved after the partial index
+    has been dumped */
+    private void parseCorpus(BuildManifest manifest, List<File> corpus)
+            throws IOException {
+        __DOCMETA_ARRAY__ = new byte[DocumentMetaEntry.SIZE];
+        __DOCMETA_BUFFER__ = ByteBuffer.wrap(__DOCMETA_ARRAY__);
+        int maxDocsPerPartialIndex = __CONFIG__.getPartialIndexMaxDocs();
+        long maxMemoryPerPartialIndex = getPartialIndexMaxMemory();
         long startTime = System.nanoTime();
+        int docIDBase = manifest.getDocIDBase();
+        Segment segment = new Segment(__CONFIG__, manifest.getSegmentName(), docIDBase, 0, 0, 0);
 
-        /* use this object for calculating the frequencies of the tokens in a document */
-        S2TextualEntryTokens textualEntryTokens = new S2TextualEntryTokens(__CONFIG__.getUseStemmer(), __CONFIG__.getUseStopwords());
+        /* the (int) ID of each document. The N-th parsed document will have ID = docIDBase + N */
+        int docID = docIDBase + manifest.getDocuments();
 
-        /* create the required index folders */
-        Files.createDirectories(Paths.get(__CONFIG__.getIndexDir()));
-        Files.createDirectories(Paths.get(__CONFIG__.getIndexTmpDir()));
+        /* the total number of tokens in the segment (required by the Okapi retrieval model) */
+        long tokenCount = manifest.getTokens();
 
-        /* open INDEX_META_FILENAME (normal sequential file) and
-        DOCUMENTS_FILENAME, DOCUMENTS_ID_FILENAME, DOCUMENTS_META_FILENAME (random access files) */
-        BufferedWriter metaWriter = new BufferedWriter(new FileWriter(getIndexMetaPath()));
-        RandomAccessFile documents = new RandomAccessFile(getDocumentsFilePath(), "rw");
+        /* offset to DOCUMENTS_FILENAME */
+        long documentsOffset = manifest.getDocumentsSize();
+
+        /* the entries of the documents that will be compressed into the next block of DOCUMENTS_FILENAME */
+        int documentsBlockSize = __CONFIG__.getDocumentsBlockSize();
+        ByteArrayOutputStream documentsBlock = new ByteArrayOutputStream();
+        int blockDocuments = 0;
+        Deflater deflater = new Deflater();
+
+        /* delete the partial indexes that were created after the checkpoint */
+        File[] tmpFiles = new File(__CONFIG__.getIndexTmpDir()).listFiles();
+        if (tmpFiles != null) {
+            for (File file : tmpFiles) {
+                if (file.isDirectory() && file.getName().matches("\\d+") &&
+                        Integer.parseInt(file.getName()) >= manifest.getPartialIndexes()) {
+                    deleteDir(file);
+                }
+            }
+        }
+
+        /* open DOCUMENTS_FILENAME, DOCUMENTS_ID_FILENAME, DOCUMENTS_META_FILENAME of the segment (random access files) */
+        RandomAccessFile documents = openSegmentFile(segment.getDocumentsFilePath(), documentsOffset);
         BufferedOutputStream documentsOutStream = new BufferedOutputStream(new FileOutputStream(documents.getFD()));
-        RandomAccessFile documentsMeta = new RandomAccessFile(getDocumentsMetaFilePath(), "rw");
+        RandomAccessFile documentsMeta = openSegmentFile(segment.getDocumentsMetaFilePath(), (long) manifest.getDocuments() * DocumentMetaEntry.SIZE);
         BufferedOutputStream documentsMetaOutStream = new BufferedOutputStream(new FileOutputStream(documentsMeta.getFD()));
-        RandomAccessFile documentsID = new RandomAccessFile(getDocumentsIDFilePath(), "rw");
+        RandomAccessFile documentsID = openSegmentFile(segment.getDocumentsIDFilePath(), (long) manifest.getDocuments() * DocumentStringID.SIZE);
         BufferedOutputStream documentsIDOutStream = new BufferedOutputStream(new FileOutputStream(documentsID.getFD()));
 
-        /* A 'doc_tf' file will be stored in INDEX_TMP_DIR (normal sequential file).
-        Contains a sequence of <term1, TF1, term2, TF2, ...> (one line per document).
-        Will be used during the calculation of VSM weights */
-        BufferedWriter docTFWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(getDocTFPath()), "UTF-8"));
+        /* A citations file will be stored in the segment folder.
+        Contains the (string) IDs of the Out and In citations of each document.
+        Will be used during the calculation of the Pagerank scores */
+        RandomAccessFile citations = openSegmentFile(segment.getCitationsPath(), manifest.getCitationsSize());
+        BufferedOutputStream citationsOutStream = new BufferedOutputStream(new FileOutputStream(citations.getFD()));
 
-        int indexID = 0;
+        int indexID = manifest.getPartialIndexes();
         Index partialIndex = new Index(this, indexID);
+        byte[] stringID = new byte[DocumentStringID.SIZE];
+
+        /* parse the collection. The documents are read and tokenized by the pipeline threads and are
+        returned in the order they appear in the collection */
+        int parseThreads = __CONFIG__.getIndexParseThreads();
+        Themis.print("Parse threads: " + parseThreads + "\n");
+        int firstCorpusFile = manifest.getCorpusFile();
+        if (manifest.getDocuments() != 0) {
+            Themis.print("Continuing from document " + manifest.getDocuments() + " (" + corpus.get(firstCorpusFile) +
+                    ", line " + manifest.getCorpusLine() + ")\n");
+        }
+        ParsePipeline pipeline = new ParsePipeline(corpus.subList(firstCorpusFile, corpus.size()), manifest.getCorpusLine(),
+                parseThreads, __CONFIG__.getUseStemmer(), __CONFIG__.getUseStopwords());
 
-        /* parse the collection */
-        for (File corpusFile : corpus) {
-            Themis.print("Parsing file: " + corpusFile + "\n");
-            BufferedReader corpusReader = new BufferedReader(new InputStreamReader(new FileInputStream(corpusFile), "UTF-8"));
-            String json;
-
-            while ((json = corpusReader.readLine()) != null) {
-                S2TextualEntry entry = S2JsonEntryReader.readTextualEntry(json);
-                if (entry.getID() == null) {
-                    continue;
+        /* full partial indexes are dumped by the flusher thread while the next one is created */
+        PartialIndexFlusher flusher = new PartialIndexFlusher(__CONFIG__.getPartialIndexesInMemory());
+        pipeline.start();
+        flusher.start();
+        try {
+            File currentCorpusFile = null;
+
+            /* the position in the collection of the next document */
+            int corpusFile = firstCorpusFile;
+            long corpusLine = manifest.getCorpusLine();
+            ParsedDocument document;
+            while ((document = pipeline.next()) != null) {
+                if (document.getCorpusFile() != currentCorpusFile) {
+                    currentCorpusFile = document.getCorpusFile();
+                    corpusFile = corpus.indexOf(currentCorpusFile);
+                    Themis.print("Parsing file: " + currentCorpusFile + "\n");
                 }
-                Map<String, Integer> TFMap = textualEntryTokens.createTFMap(entry);
-                int documentTokens = partialIndex.add(TFMap, docTFWriter, docID);
+                corpusLine = document.getLine() + 1;
+                S2TextualEntry entry = document.getEntry();
+                int documentTokens = partialIndex.add(document.getPositionsMap(), docID);
                 tokenCount += documentTokens;
-                long prevDocumentsOffset = documentsOffset;
-                documentsOffset = dumpDocuments(documentsOutStream, entry, documentsOffset);
+                int blockOffset = documentsBlock.size();
 
                 /* size of the entry in DOCUMENTS_FILENAME for the currently parsed document */
-                int documentSize = (int) (documentsOffset - prevDocumentsOffset);
+                int documentSize = dumpDocuments(documentsBlock, entry);
 
-                dumpDocumentsMeta(documentsMetaOutStream, docID, documentTokens, documentSize, prevDocumentsOffset);
-                documentsIDOutStream.write(entry.getID().getBytes("ASCII"));
+                dumpDocumentsMeta(documentsMetaOutStream, docID, documentTokens, getMaxTF(document.getPositionsMap()),
+                        documentSize, documentsOffset, blockOffset);
+                if (++blockDocuments == documentsBlockSize) {
+                    documentsOffset += dumpDocumentsBlock(documentsOutStream, documentsBlock, deflater);
+                    blockDocuments = 0;
+                }
+                if (!DocumentStringID.encode(entry.getID(), stringID)) {
+                    __LOGGER__.warn("Invalid document ID " + entry.getID() + " in " + currentCorpusFile + ", line " + document.getLine());
+                    Arrays.fill(stringID, (byte) 0);
+                }
+                documentsIDOutStream.write(stringID);
+                dumpCitations(citationsOutStream, entry);
                 docID++;
-                if (docID % maxDocsPerPartialIndex == 0) {
-                    partialIndex.dump();
+                if (partialIndex.getMemoryUsage() >= maxMemoryPerPartialIndex ||
+                        (maxDocsPerPartialIndex > 0 && partialIndex.getDocuments() >= maxDocsPerPartialIndex)) {
+                    documentsOffset += dumpDocumentsBlock(documentsOutStream, documentsBlock, deflater);
+                    blockDocuments = 0;
+                    documentsOutStream.flush();
+                    documentsMetaOutStream.flush();
+                    documentsIDOutStream.flush();
+                    citationsOutStream.flush();
+                    submitPartialIndex(flusher, partialIndex, manifest, docID - docIDBase, tokenCount,
+                            documents.getFilePointer(), citations.getFilePointer(), corpusFile, corpusLine);
                     indexID++;
                     partialIndex = new Index(this, indexID);
                 }
             }
-            corpusReader.close();
-        }
-
-        /* decrease the index id if a new index has just been created but there are no documents left */
-        if (docID != 0 && docID % maxDocsPerPartialIndex == 0) {
-            indexID--;
-        }
-        else {
-            partialIndex.dump();
-        }
 
-        documentsOutStream.close();
-        documentsMetaOutStream.close();
-        documentsIDOutStream.close();
-        docTFWriter.close();
-        Themis.print("Partial indexes created in " + new Time(System.nanoTime() - startTime) + "\n");
-        __INDEX_META__.put("documents", String.valueOf(docID));
-        __INDEX_META__.put("avgdl", String.valueOf((float) tokenCount / docID)); // (average number of tokens)
-
-        mergeVocabularies(indexID);
-        try {
-            for (int i = 0; i <= indexID; i++) {
-                deleteDir(new File(getPartialVocabularyPath(i)));
+            /* a new index has just been created but there are no documents left */
+            if (indexID != 0 && partialIndex.getDocuments() == 0) {
+                indexID--;
             }
-        } catch (IOException e) {
-            __LOGGER__.error(e);
+            else {
+                documentsOffset += dumpDocumentsBlock(documentsOutStream, documentsBlock, deflater);
+                documentsOutStream.flush();
+                documentsMetaOutStream.flush();
+                documentsIDOutStream.flush();
+                citationsOutStream.flush();
+                submitPartialIndex(flusher, partialIndex, manifest, docID - docIDBase, tokenCount,
+                        documents.getFilePointer(), citations.getFilePointer(), corpusFile, corpusLine);
+            }
+            flusher.finish();
+        } finally {
+            pipeline.close();
+            flusher.close();
+            deflater.end();
+            documentsOutStream.close();
+            documentsMetaOutStream.close();
+            documentsIDOutStream.close();
+            citationsOutStream.close();
         }
+        pipeline.printStats();
+        flusher.printStats();
+        Themis.print((indexID + 1) + " partial indexes created in " + new Time(System.nanoTime() - startTime) + "\n");
+        StringIDTable.create(segment);
+        manifest.writeStage(BuildManifest.STAGE.MERGE);
+    }
 
-        updateVSMWeights();
-        try {
-            deleteDir(new File(getDocTFPath()));
-        } catch (IOException e) {
-            __LOGGER__.error(e);
+    /* Hands the given partial index to the flusher. After the index has been dumped, a checkpoint with the given
+    values is saved in the manifest */
+    private static void submitPartialIndex(PartialIndexFlusher flusher, Index partialIndex, BuildManifest manifest,
+                                           int documents, long tokens, long documentsSize, long citationsSize,
+                                           int corpusFile, long corpusLine)
+            throws IOException {
+        flusher.submit(partialIndex, index -> manifest.writeCheckpoint(index.getID() + 1, documents, tokens,
+                documentsSize, citationsSize, corpusFile, corpusLine));
+    }
+
+    /* Opens the given file of the segment and truncates it to the given size. The file pointer is set to the
+    end of the file */
+    private static RandomAccessFile openSegmentFile(String path, long size)
+            throws IOException {
+        RandomAccessFile file = new RandomAccessFile(path, "rw");
+        if (file.length() < size) {
+            file.close();
+            throw new IOException(path + " is smaller than its size at the last checkpoint");
         }
+        file.setLength(size);
+        file.seek(size);
+        return file;
+    }
 
-        mergePostings(indexID);
+    /* Completes the build after the new segment has been added to the index: deletes INDEX_TMP_DIR (along with the
+    build manifest) */
+    private void completeBuild()
+            throws IOException {
         try {
-            for (int i = 0; i <= indexID; i++) {
-                deleteDir(new File(getPartialPostingsPath(i)));
-            }
-            deleteDir(new File(getTermDFPath()));
             deleteDir(new File(__CONFIG__.getIndexTmpDir()));
         } catch (IOException e) {
             __LOGGER__.error(e);
         }
-
-        Pagerank pagerank = new Pagerank(this);
-        pagerank.citationsPagerank();
-
-        /* write index metadata to INDEX_META_FILENAME */
-        __INDEX_META__.put("timestamp", Instant.now().toString());
-        for (Map.Entry<String, String> pair : __INDEX_META__.entrySet()) {
-            metaWriter.write(pair.getKey() + "=" + pair.getValue() + "\n");
-        }
-        metaWriter.close();
-
-        Themis.print("-> End of indexing\n");
     }
 
-    /* Merges all partial VOCABULARY_FILENAME and creates the final VOCABULARY_FILENAME
-    (normal sequential file) in INDEX_DIR */
-    private void mergeVocabularies(int maxIndexID)
+    /* Returns the documents that are replaced by the given (new) segment: the documents of the given previous
+    segments that have the same (string) ID as a document of the new segment and the documents of the new segment
+    that have the same (string) ID as a next document of the segment. Bit i is set if the document with (int) doc
+    ID i is replaced. The documents are not deleted here (see deleteReplacedDocuments()) */
+    private BitSet findReplacedDocuments(List<Segment> segments, Segment segment)
             throws IOException {
-        long startTime =  System.nanoTime();
-        Themis.print("-> Merging partial vocabularies...\n");
+        BitSet replacedDocuments = new BitSet();
+        StringIDTable stringIDTable = new StringIDTable(Collections.singletonList(segment));
+        try {
+            /* documents that have an invalid (empty) (string) ID do not replace each other */
+            for (Segment previousSegment : segments) {
+                findDocuments(previousSegment, (stringID, docID) -> !DocumentStringID.isEmpty(stringID, 0) &&
+                        stringIDTable.get(stringID) != -1, replacedDocuments);
+            }
 
-        /* no need to merge if there's only one partial index */
-        if (maxIndexID == 0) {
-            finalizeVocabulary();
-        }
-        else {
-            mergePartialVocabularies(maxIndexID);
+            /* a (string) ID that appears more than once in the segment is mapped to the last document */
+            findDocuments(segment, (stringID, docID) -> !DocumentStringID.isEmpty(stringID, 0) &&
+                    stringIDTable.get(stringID) != docID, replacedDocuments);
+        } finally {
+            stringIDTable.close();
         }
-        Themis.print("Partial vocabularies merged in " + new Time(System.nanoTime() - startTime) + "\n");
+        return replacedDocuments;
     }
 
-    /* Creates the final VOCABULARY_FILENAME when there's only 1 partial index. In this case the only thing we
-    need to do is to calculate the offsets to POSTINGS_FILENAME.
-
-    Calculation of the offsets is easy:
-    1) For each term we know its DF
-    2) Each entry in POSTINGS_FILENAME has the same size
-    So:
-    (1st term offset)  = 0
-    (2nd term offset) = (1st term offset) + (1st term DF)x(POSTING.SIZE)
-    (3rd term offset) = (2nd term offset) + (2nd term DF)x(POSTING.SIZE)
-    ...
-    */
-    private void finalizeVocabulary()
+    /* Marks the documents that are replaced by the new segment (see findReplacedDocuments()) as deleted in the
+    given segments. Should be called while SegmentMerger.SEGMENTS_LOCK is held, in the same step that adds the new
+    segment to the index. It can run again if the build is resumed */
+    private void deleteReplacedDocuments(List<Segment> segments)
             throws IOException {
-        String partialVocabularyPath = getPartialVocabularyPath(0);
-        BufferedWriter finalVocabularyWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(getVocabularyPath()), "UTF-8"));
-        BufferedReader partialVocabularyReader = new BufferedReader(new InputStreamReader(new FileInputStream(partialVocabularyPath), "UTF-8"));
-        String line;
-        long postingsOffset = 0;
-        while ((line = partialVocabularyReader.readLine()) != null) {
-            String[] splitLine = line.split(" ");
-            int DF = Integer.parseInt(splitLine[1]);
-            finalVocabularyWriter.write(splitLine[0] + ' ' + splitLine[1] + ' ' + postingsOffset + '\n');
-            postingsOffset +=  DF * (long) Posting.SIZE;
-        }
-        partialVocabularyReader.close();
-        finalVocabularyWriter.close();
+        int deleted = 0;
+        for (Segment segment : segments) {
+            BitSet deletedDocuments = segment.readDeletedDocuments();
+            int previousDeleted = deletedDocuments.cardinality();
+            deletedDocuments.or(__REPLACED_DOCS__.get(segment.getDocIDBase(), segment.getDocIDBase() + segment.getDocuments()));
+            if (deletedDocuments.cardinality() != previousDeleted) {
+                deleted += deletedDocuments.cardinality() - previousDeleted;
+                segment.writeDeletedDocuments(deletedDocuments);
+            }
+        }
+        Themis.print("Updated documents: " + deleted + "\n");
     }
 
-    /* Merges all partial VOCABULARY_FILENAME when there's >1 partial index. Also creates 'INDEX_TMP_DIR/term_df',
-    this file contains all <index ID, DF> for each term and will be used when merging all partial POSTINGS_FILENAME.
-
-    Process:
-    Assume we have K files.
-    1) Open all files and create PartialVocabularyEntry objects to store the first line from each file.
-    Since the files are sorted, we know that the min lexicographical term will correspond to
-    one (or more) of those objects.
-    2) Instead of performing a linear search to find the min term among K objects, we add them
-    to a min priority queue sorted by term. Adding/removing subsequent objects costs log(K).
-    3) We can use the queue to get the min lexicographical term but the same term might appear in many files.
-    Therefore, we keep removing from the queue until we get a different term. Each time an object is removed,
-    we add to the queue a new PartialVocabulary object from the partial index with the same index.
-    4) All objects that have been removed from the queue in the previous step are added to a list which is sorted
-    by the ID of the index (increasing). We then write all <index ID, DF> pairs to 'INDEX_TMP_DIR/term_df'
-    (one line per term).
-    5) Since we have all objects that correspond to the min lexicographical term, we can sum their DF and find the
-    final DF of the term.
-    6) See the doc in finalizePartialVocabulary() for an explanation of how to determine the offset to
-    POSTINGS_FILENAME.
-    7) Finally, we write to the final VOCABULARY_FILENAME a <term, DF, offset> line for the min
-    lexicographical term, and repeat the procedure from 2) until all partial VOCABULARY_FILENAME have been parsed.
-    */
-    private void mergePartialVocabularies(int maxIndexID)
+    /**
+     * Deletes the documents that have the given (string) IDs and returns the number of deleted documents.
+     *
+     * The deleted documents are recorded in the bitset of the deleted documents of each segment and are skipped
+     * by the retrieval models. Their postings are removed when their segment is merged by the {@link SegmentMerger}.
+     * A document can be updated by indexing a dataset file that has its new version (see index()).
+     *
+     * @param stringIDs
+     * @return
+     * @throws IOException
+     */
+    public int delete(Collection<String> stringIDs)
             throws IOException {
-        /* open files */
-        BufferedReader[] partialVocabularyReader = new BufferedReader[maxIndexID + 1];
-        for (int i = 0; i <= maxIndexID; i++) {
-            partialVocabularyReader[i] = new BufferedReader(new InputStreamReader(new FileInputStream(getPartialVocabularyPath(i)), "UTF-8"));
-        }
-        BufferedWriter finalVocabularyWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(getVocabularyPath()), "UTF-8"));
-        BufferedWriter termDFWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(getTermDFPath()), "ASCII"));
-
-        /* Read the first line from each partial VOCABULARY_FILENAME and put the entries in a priority queue */
-        PriorityQueue<PartialVocabularyEntry> vocabularyQueue = new PriorityQueue<>();
-        for (int i = 0; i <= maxIndexID; i++) {
-            PartialVocabularyEntry entry = getNextVocabularyEntry(partialVocabularyReader[i], i);
-            if (entry != null) {
-                vocabularyQueue.add(entry);
+        Set<ByteBuffer> IDs = new HashSet<>();
+        for (String stringID : stringIDs) {
+            byte[] ID = new byte[DocumentStringID.SIZE];
+            if (DocumentStringID.encode(stringID, ID) && !DocumentStringID.isEmpty(ID, 0)) {
+                IDs.add(ByteBuffer.wrap(ID));
             }
         }
-
-        List<PartialVocabularyEntry> equalMinLexEntries = new ArrayList<>();
-        String minLexTerm = null;
-        PartialVocabularyEntry polledEntry;
-        long postingsOffset = 0;
-        while((polledEntry = vocabularyQueue.poll()) != null) {
-
-            /* if the term of the polled entry is not equal to the current min term, we must process the current
-            list of entries and update the final VOCABULARY_FILENAME. Also update 'INDEX_TMP_DIR/term_df' */
-            if (!polledEntry.getTerm().equals(minLexTerm) && !equalMinLexEntries.isEmpty()) {
-                postingsOffset = dumpEqualTerms(equalMinLexEntries, finalVocabularyWriter, termDFWriter, postingsOffset);
+        int deleted = 0;
+        synchronized (SegmentMerger.SEGMENTS_LOCK) {
+            for (Segment segment : Segment.readSegments(__CONFIG__)) {
+                deleted += deleteDocuments(segment, (stringID, docID) -> IDs.contains(ByteBuffer.wrap(stringID)));
             }
+        }
+        if (deleted != 0) {
+            SegmentMerger.start(__CONFIG__);
+        }
+        return deleted;
+    }
 
-            minLexTerm = polledEntry.getTerm();
-            equalMinLexEntries.add(polledEntry);
-
-            /* read the next line of the partial VOCABULARY_FILENAME that contained the last polled
-            entry and add a new entry to the queue */
-            int polledEntryIndexID = polledEntry.getIndexID();
-            PartialVocabularyEntry entry = getNextVocabularyEntry(partialVocabularyReader[polledEntryIndexID], polledEntryIndexID);
-            if (entry != null) {
-                vocabularyQueue.add(entry);
+    /* Marks the documents of the given segment whose (string) ID and (int) doc ID match the given predicate as deleted and
+    returns the number of new deleted documents. The bitset of the deleted documents of the loaded index
+    is also updated. Should be called while SegmentMerger.SEGMENTS_LOCK is held */
+    private int deleteDocuments(Segment segment, BiPredicate<byte[], Integer> matches)
+            throws IOException {
+        BitSet deletedDocuments = segment.readDeletedDocuments();
+        BitSet documents = new BitSet();
+        findDocuments(segment, matches, documents);
+        int deleted = 0;
+        for (int docID = documents.nextSetBit(0); docID >= 0; docID = documents.nextSetBit(docID + 1)) {
+            int i = docID - segment.getDocIDBase();
+            if (!deletedDocuments.get(i)) {
+                deletedDocuments.set(i);
+                if (__DELETED_DOCS__ != null) {
+                    __DELETED_DOCS__.set(docID);
+                }
+                deleted++;
             }
         }
-
-        /* all partial VOCABULARY_FILENAME have been parsed. Process the list of remaining entries and write
-        what is left to the final VOCABULARY_FILENAME */
-        if (!equalMinLexEntries.isEmpty()) {
-            dumpEqualTerms(equalMinLexEntries, finalVocabularyWriter, termDFWriter, postingsOffset);
+        if (deleted != 0) {
+            segment.writeDeletedDocuments(deletedDocuments);
         }
+        return deleted;
+    }
 
-        /* close files */
-        for (int i = 0; i <= maxIndexID; i++) {
-            partialVocabularyReader[i].close();
+    /* Sets the bits (indexed by (int) doc ID) of the documents of the given segment whose (string) ID and (int) doc ID
+    match the given predicate */
+    private static void findDocuments(Segment segment, BiPredicate<byte[], Integer> matches, BitSet documents)
+            throws IOException {
+        byte[] stringID = new byte[DocumentStringID.SIZE];
+        DataInputStream documentsIDReader = new DataInputStream(new BufferedInputStream(new FileInputStream(segment.getDocumentsIDFilePath())));
+        try {
+            for (int i = 0; i < segment.getDocuments(); i++) {
+                documentsIDReader.readFully(stringID);
+                if (matches.test(stringID, segment.getDocIDBase() + i)) {
+                    documents.set(segment.getDocIDBase() + i);
+                }
+            }
+        } finally {
+            documentsIDReader.close();
         }
-        finalVocabularyWriter.close();
-        termDFWriter.close();
     }
 
-    /* Reads the next line from the partial VOCABULARY_FILENAME with the given ID and returns a new
-    PartialVocabularyEntry */
-    private PartialVocabularyEntry getNextVocabularyEntry(BufferedReader vocabularyReader, int indexID)
+    /* Deletes the folders in INDEX_DIR that are not segments of the index and not the segment of the given
+    build manifest (if not null). These are left if indexing or a segment merge has not completed */
+    private void deleteUnusedSegments(List<Segment> segments, BuildManifest manifest)
             throws IOException {
-        String line = vocabularyReader.readLine();
-        if (line != null) {
-            String[] fields = line.split(" ");
-            return new PartialVocabularyEntry(fields[0], Integer.parseInt(fields[1]), indexID);
+        Set<String> names = new HashSet<>();
+        for (Segment segment : segments) {
+            names.add(segment.getName());
+        }
+        if (manifest != null) {
+            names.add(manifest.getSegmentName());
+        }
+        File[] files = new File(__CONFIG__.getIndexDir()).listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isDirectory() && !names.contains(file.getName())) {
+                deleteDir(file);
+            }
         }
-        return null;
     }
 
-    /* Processes the given list of min lex entries (all correspond to the same term) and writes a new line
-    to the final VOCABULARY_FILENAME. Also updates 'INDEX_TMP_DIR/term_df' with a new line for the min term.
-    Returns the new offset to POSTINGS_FILENAME. It will be used in the next call of the method */
-    private long dumpEqualTerms(List<PartialVocabularyEntry> equalMinLexEntries, BufferedWriter finalVocabularyWriter, BufferedWriter termDFWriter, long postingsOffset)
+    /* Writes index metadata to INDEX_META_FILENAME. The file is first written to a temp file that then
+    replaces the previous file */
+    private void writeIndexMeta()
             throws IOException {
-        int DF = 0;
-
-        /* sort the list based on the index ID (increasing). This is required so that the postings
-        * of the term appear sorted based on the (int) doc ID */
-        equalMinLexEntries.sort(PartialVocabularyEntry.IDComparator);
-
-        /* calculate final DF and write to 'INDEX_TMP_DIR/term_df' all <index ID, DF> for the current term */
-        StringBuilder SB = new StringBuilder();
-        for (PartialVocabularyEntry equalTerm : equalMinLexEntries) {
-            DF += equalTerm.getDF();
-            SB.append(equalTerm.getIndexID()).append(' ').append(equalTerm.getDF()).append(' ');
+        Path tmpPath = Paths.get(getIndexMetaPath() + ".tmp");
+        BufferedWriter metaWriter = new BufferedWriter(new FileWriter(tmpPath.toFile()));
+        for (Map.Entry<String, String> pair : __INDEX_META__.entrySet()) {
+            metaWriter.write(pair.getKey() + "=" + pair.getValue() + "\n");
         }
-        SB.append('\n');
-        termDFWriter.write(SB.toString());
+        metaWriter.close();
+        Files.move(tmpPath, Paths.get(getIndexMetaPath()), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
 
-        finalVocabularyWriter.write(equalMinLexEntries.get(0).getTerm() + ' ' + DF + ' ' + postingsOffset + '\n');
-        postingsOffset +=  DF * (long) Posting.SIZE;
-        equalMinLexEntries.clear();
-        return postingsOffset;
+    /* Returns the memory budget (bytes) of a partial index. MAX_MEMORY (but no more than half of the max
+    heap size, the rest is left for the parse pipeline and for dumping the index) is shared by the
+    partial indexes that can be in memory at the same time */
+    private long getPartialIndexMaxMemory() {
+        long heapLimit = Runtime.getRuntime().maxMemory() / 2;
+        long maxMemory = __CONFIG__.getMaxMemory();
+        if (maxMemory <= 0 || maxMemory > heapLimit) {
+            maxMemory = heapLimit;
+        }
+        return maxMemory / __CONFIG__.getPartialIndexesInMemory();
     }
 
-    /* Merges all partial POSTINGS_FILENAME and creates the final POSTINGS_FILENAME
-    (random access file) in INDEX_DIR */
-    private void mergePostings(int maxIndexID)
+    /* Merges all partial VOCABULARY_FILENAME and POSTINGS_FILENAME and creates the final VOCABULARY_FILENAME
+    (normal sequential file) and POSTINGS_FILENAME (random access file) of the given segment. The merge is done by an
+    IndexMerger that uses INDEX_MERGE_THREADS threads. The partial files are always converted to the final format,
+    even if there's only one partial index.
+
+    The VSM weight of each document (using the DF of the terms in the segment and the max TF of the document
+    that was found while parsing) is then calculated from the merged postings (see readVSMSums()) and is written
+    to DOCUMENTS_META_FILENAME, the partial sums of the weights are written to the VSM file of the segment */
+    private void mergePartialIndexes(Segment segment, int maxIndexID)
             throws IOException {
         long startTime =  System.nanoTime();
-        Themis.print("-> Merging partial postings...\n");
+        Themis.print("-> Merging partial indexes...\n");
 
-        /* no need to do anything if there's only one partial index */
-        if (maxIndexID == 0) {
-            String partialPostingsPath = getPartialPostingsPath(0);
-            Files.move(Paths.get(partialPostingsPath), Paths.get(getPostingsPath()), StandardCopyOption.REPLACE_EXISTING);
-        }
-        else {
-            mergePartialPostings(maxIndexID);
-        }
-        Themis.print("Partial postings merged in " + new Time(System.nanoTime() - startTime) + "\n");
+        int[] maxTFs = segment.readMaxTFs();
+
+        int mergeThreads = __CONFIG__.getIndexMergeThreads();
+        Themis.print("Merge threads: " + mergeThreads + "\n");
+        IndexMerger merger = new IndexMerger(this, segment, maxIndexID, mergeThreads, maxTFs);
+        merger.merge();
+        Themis.print("Partial indexes merged in " + new Time(System.nanoTime() - startTime) + "\n");
+
+        updateVSMWeights(segment, readVSMSums(segment), maxTFs);
     }
 
-    /* Merges all partial POSTINGS_FILENAME when there's >1 partial index.
-
-    Process:
-    We'll use 'INDEX_TMP_DIR/term_df' that has been created during the merging of all partial
-    VOCABULARY_FILENAME. This is the known information so far:
-    1) Each line in 'INDEX_TMP_DIR/term_df' consists of a sequence of <index ID, DF> with the ID
-    appearing in increasing order (done in function Indexer.dumpEqualTerms())
-    2) Line N in 'INDEX_TMP_DIR/term_df' corresponds to line N in VOCABULARY_FILENAME
-    (done in function Indexer.dumpEqualTerms())
-    3) The blocks of postings in each partial POSTINGS_FILENAME are already sorted based on the
-    sorting of terms in the corresponding partial VOCABULARY_FILENAME (done in function Index.dumpPostings())
-    4) Each postings block has its postings already sorted based on the (int) ID of the relevant documents
-    (done in function Indexer.index())
-
-    So, for each term in the VOCABULARY_FILENAME file we can easily find:
-    1) All partial indexes that contain its postings
-    2) The size of its postings: (Sum of DF)x(POSTING.SIZE)
-    3) The offset of the postings block for the next term
-    */
-    private void mergePartialPostings(int maxIndexID)
+    /* Returns the partial sums of the weight of each document of the given segment (see class DocumentVSMEntry)
+    using the DF of the terms in the segment. Items 3 * i, 3 * i + 1 and 3 * i + 2 are the sums of the document
+    with (int) doc ID (doc ID base + i). VOCABULARY_FILENAME and POSTINGS_FILENAME are read once, and the terms are
+    added in the order of the vocabulary so that the sums do not depend on the number of merge threads */
+    private static double[] readVSMSums(Segment segment)
             throws IOException {
-        /* open files */
-        BufferedInputStream[] partialPostingsInStream = new BufferedInputStream[maxIndexID + 1];
-        for (int i = 0; i <= maxIndexID; i++) {
-            partialPostingsInStream[i] = new BufferedInputStream(new FileInputStream(new RandomAccessFile(getPartialPostingsPath(i), "rw").getFD()));
-        }
-        BufferedOutputStream finalPostingsOutStream = new BufferedOutputStream(new FileOutputStream(new RandomAccessFile(getPostingsPath(), "rw").getFD()));
-        BufferedReader termDFReader = new BufferedReader(new InputStreamReader(new FileInputStream(getTermDFPath()), "ASCII"));
-
-        /* parse each line of 'INDEX_TMP_DIR/term_df', grab the postings from the appropriate
-        partial POSTINGS_FILENAME, and write them to the final POSTINGS_FILENAME */
-        String line;
-        while ((line = termDFReader.readLine()) != null) {
-            String[] splitLine = line.split(" ");
-            for (int i = 0; i < splitLine.length; i+=2) {
-                int DF = Integer.parseInt(splitLine[i + 1]);
-                int indexID = Integer.parseInt(splitLine[i]);
-                byte[] postings = new byte[DF * Posting.SIZE];
-                partialPostingsInStream[indexID].read(postings);
-                finalPostingsOutStream.write(postings);
+        double[] VSMSums = new double[3 * segment.getDocuments()];
+        int docIDBase = segment.getDocIDBase();
+        byte[] postings = new byte[0];
+        int[] TFs = new int[0];
+        int[] docIDs = new int[0];
+        long postingsPos = 0;
+        VocabularyReader vocabularyReader = new VocabularyReader(segment.getVocabularyPath());
+        DataInputStream postingsReader = new DataInputStream(new BufferedInputStream(new FileInputStream(segment.getPostingsPath())));
+        try {
+            while (vocabularyReader.next()) {
+                if (S2TextualEntryTokens.isFieldTerm(vocabularyReader.getTerm())) {
+                    continue;
+                }
+                int DF = vocabularyReader.getDF();
+                int size = vocabularyReader.getPostingsSize();
+                if (postings.length < size) {
+                    postings = new byte[Math.max(size, postings.length * 2)];
+                }
+                if (TFs.length < DF) {
+                    TFs = new int[Math.max(DF, TFs.length * 2)];
+                    docIDs = new int[TFs.length];
+                }
+                postingsReader.skipNBytes(vocabularyReader.getPostingsOffset() - postingsPos);
+                postingsReader.readFully(postings, 0, size);
+                postingsPos = vocabularyReader.getPostingsOffset() + size;
+                Postings.decode(postings, DF, TFs, docIDs, 0);
+                double logDF = Math.log(DF);
+                for (int i = 0; i < DF; i++) {
+                    int doc = 3 * (docIDs[i] - docIDBase);
+                    double TF2 = (double) TFs[i] * TFs[i];
+                    VSMSums[doc] += TF2;
+                    VSMSums[doc + 1] += TF2 * logDF;
+                    VSMSums[doc + 2] += TF2 * logDF * logDF;
+                }
             }
+        } finally {
+            vocabularyReader.close();
+            postingsReader.close();
         }
-
-        /* close files */
-        for (BufferedInputStream bufferedInStream : partialPostingsInStream) {
-            bufferedInStream.close();
-        }
-        finalPostingsOutStream.close();
-        termDFReader.close();
+        return VSMSums;
     }
 
     /* Writes an entry to DOCUMENTS_META_FILENAME (random access file). See class DocumentMetaEntry.
-    PageRank, VSM weight, Max TF, Avg author rank are all initialized to 0. */
-    private void dumpDocumentsMeta(BufferedOutputStream out, int docID, int documentTokens, int documentSize, long documentsOffset)
+    PageRank, VSM weight, Avg author rank are all initialized to 0. */
+    private void dumpDocumentsMeta(BufferedOutputStream out, int docID, int documentTokens, int maxTF, int documentSize,
+                                   long documentsOffset, int blockOffset)
             throws IOException {
         __DOCMETA_BUFFER__.putInt(DocumentMetaEntry.DOCID_OFFSET, docID);
         __DOCMETA_BUFFER__.putDouble(DocumentMetaEntry.VSM_WEIGHT_OFFSET, 0);
-        __DOCMETA_BUFFER__.putInt(DocumentMetaEntry.MAX_TF_OFFSET, 0);
+        __DOCMETA_BUFFER__.putInt(DocumentMetaEntry.MAX_TF_OFFSET, maxTF);
         __DOCMETA_BUFFER__.putInt(DocumentMetaEntry.TOKEN_COUNT_OFFSET, documentTokens);
         __DOCMETA_BUFFER__.putDouble(DocumentMetaEntry.DOCUMENT_PAGERANK_OFFSET, 0);
         __DOCMETA_BUFFER__.putDouble(DocumentMetaEntry.AVG_AUTHOR_RANK_OFFSET, 0);
         __DOCMETA_BUFFER__.putInt(DocumentMetaEntry.DOCUMENT_SIZE_OFFSET, documentSize);
         __DOCMETA_BUFFER__.putLong(DocumentMetaEntry.DOCUMENT_OFFSET_OFFSET, documentsOffset);
+        __DOCMETA_BUFFER__.putInt(DocumentMetaEntry.DOCUMENT_BLOCK_OFFSET_OFFSET, blockOffset);
         __DOCMETA_BUFFER__.position(0);
         out.write(__DOCMETA_ARRAY__);
     }
 
-    /* Writes an entry to DOCUMENTS_FILENAME (random access file). See class DocumentEntry.
+    /* Returns the max TF of the terms of a document given its map of [term -> positions]. The terms of single
+    fields are not used, same as the VSM weights */
+    private static int getMaxTF(Map<String, int[]> positionsMap) {
+        int maxTF = 0;
+        for (Map.Entry<String, int[]> entry : positionsMap.entrySet()) {
+            if (entry.getValue().length > maxTF && !S2TextualEntryTokens.isFieldTerm(entry.getKey())) {
+                maxTF = entry.getValue().length;
+            }
+        }
+        return maxTF;
+    }
+
+    /* Writes the Out and In citations of a document to the citations file of the segment. Each entry is:
+    1) (int) => number of Out citations
+    2) (int) => number of In citations
+    3) The (string) IDs of the Out citations followed by the (string) IDs of the In citations
+    (DocumentStringID.SIZE bytes each, see class DocumentStringID).
+    Citations whose ID is not a valid (string) doc ID cannot match any document and are not written.
+    The IDs are resolved to (int) doc IDs by the Pagerank stage */
+    private void dumpCitations(BufferedOutputStream out, S2TextualEntry textualEntry)
+            throws IOException {
+        List<String> outCitations = validCitations(textualEntry.getOutCitations());
+        List<String> inCitations = validCitations(textualEntry.getInCitations());
+        byte[] citationData = new byte[8 + DocumentStringID.SIZE * (outCitations.size() + inCitations.size())];
+        ByteBuffer citationDataBuf = ByteBuffer.wrap(citationData);
+        citationDataBuf.putInt(outCitations.size());
+        citationDataBuf.putInt(inCitations.size());
+        byte[] citationID = new byte[DocumentStringID.SIZE];
+        for (String citation : outCitations) {
+            DocumentStringID.encode(citation, citationID);
+            citationDataBuf.put(citationID);
+        }
+        for (String citation : inCitations) {
+            DocumentStringID.encode(citation, citationID);
+            citationDataBuf.put(citationID);
+        }
+        out.write(citationData);
+    }
+
+    /* Returns the citations that have a valid (string) doc ID */
+    private static List<String> validCitations(List<String> citations) {
+        List<String> valid = new ArrayList<>(citations.size());
+        for (String citation : citations) {
+            if (DocumentStringID.isValid(citation)) {
+                valid.add(citation);
+            }
+        }
+        return valid;
+    }
+
+    /* Compresses the given entries and writes them as a block to DOCUMENTS_FILENAME (see class DocumentBlock).
+    The entries are cleared. Returns the size of the block (0 if there are no entries) */
+    private static int dumpDocumentsBlock(BufferedOutputStream out, ByteArrayOutputStream documentsBlock, Deflater deflater)
+            throws IOException {
+        if (documentsBlock.size() == 0) {
+            return 0;
+        }
+        int blockSize = DocumentBlock.write(out, documentsBlock.toByteArray(), documentsBlock.size(), deflater);
+        documentsBlock.reset();
+        return blockSize;
+    }
+
+    /* Writes an entry to the current block of DOCUMENTS_FILENAME. See class DocumentEntry.
     Author names are separated by commas. Author IDs are separated by commas.
-    Returns the new offset to DOCUMENTS_FILENAME.
+    Returns the size of the entry.
     */
-    private long dumpDocuments(BufferedOutputStream out, S2TextualEntry textualEntry, long documentsOffset)
+    private int dumpDocuments(ByteArrayOutputStream out, S2TextualEntry textualEntry)
             throws IOException {
         int entrySize = 0;
 
@@ -531,24 +871,31 @@ public class Indexer {
         byte[] journalNameSize = ByteBuffer.allocate(DocumentEntry.JOURNAL_NAME_SIZE_SIZE).putShort((short) journalName.length).array();
         entrySize += journalName.length + DocumentEntry.JOURNAL_NAME_SIZE_SIZE;
 
+        /* abstract */
+        byte[] paperAbstract = textualEntry.getPaperAbstract().getBytes("UTF-8");
+        byte[] paperAbstractSize = ByteBuffer.allocate(DocumentEntry.ABSTRACT_SIZE_SIZE).putInt(paperAbstract.length).array();
+        entrySize += paperAbstract.length + DocumentEntry.ABSTRACT_SIZE_SIZE;
+
         /* write first the fixed size fields */
         out.write(year);
         out.write(titleSize);
         out.write(authorNamesSize);
         out.write(authorIDsSize);
         out.write(journalNameSize);
+        out.write(paperAbstractSize);
 
         /* write the variable size fields */
         out.write(title);
         out.write(authorNames);
         out.write(authorIDs);
         out.write(journalName);
+        out.write(paperAbstract);
 
-        return entrySize + documentsOffset;
+        return entrySize;
     }
 
     /* Deletes the given folder */
-    private boolean deleteDir(File path)
+    static boolean deleteDir(File path)
             throws IOException {
         File[] contents = path.listFiles();
         if (contents != null) {
@@ -561,72 +908,272 @@ public class Indexer {
         return Files.deleteIfExists(path.toPath());
     }
 
-    /* Calculates the document weight (used by the Vector space model) and the max TF in each document
-    and writes them to DOCUMENTS_META_FILENAME.
-    To calculate the weight we need:
-    1) The DF of each term : Obtained from the final VOCABULARY_FILENAME.
-    2) The TF of each term: 'INDEX_TMP_DIR/doc_tf' already contains a sequence of <term, TF>.
-    */
-    private void updateVSMWeights()
+    /* Calculates the document weight (used by the Vector space model) from the accumulated partial sums and the
+    max TF of each document and writes it to DOCUMENTS_META_FILENAME of the segment. The partial sums are written
+    to the VSM file of the segment (see class DocumentVSMEntry). The weight of a deleted document is not computed */
+    private void updateVSMWeights(Segment segment, double[] VSMSums, int[] maxTFs)
             throws IOException {
         long startTime = System.nanoTime();
         Themis.print("-> Calculating VSM weights...\n");
 
-        /* load VOCABULARY_FILENAME */
-        BufferedReader vocabularyReader = new BufferedReader(new InputStreamReader(new FileInputStream(getVocabularyPath()), "UTF-8"));
-        Map<String, Integer> vocabulary = new HashMap<>();
-        String line;
-        while ((line = vocabularyReader.readLine()) != null) {
-            String[] splitLine = line.split(" ");
-            vocabulary.put(splitLine[0], Integer.parseInt(splitLine[1]));
-        }
-        vocabularyReader.close();
-
-        /* open DOCUMENTS_META_FILENAME and 'INDEX_TMP_DIR/doc_tf' */
-        __DOCMETA_BUFFERS__ = new DocumentFixedBuffers(getDocumentsMetaFilePath(), MemoryBuffers.MODE.WRITE, DocumentMetaEntry.SIZE);
-        BufferedReader docTFReader = new BufferedReader(new InputStreamReader(new FileInputStream(getDocTFPath()), "UTF-8"));
+        /* open DOCUMENTS_META_FILENAME */
+        DocumentFixedBuffers docMetaBuffers = new DocumentFixedBuffers(segment.getDocumentsMetaFilePath(), MemoryBuffers.MODE.WRITE, DocumentMetaEntry.SIZE);
+        DataOutputStream VSMWriter = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(segment.getVSMPath())));
+        VSMWriter.writeLong(segment.getDocuments());
+        VSMWriter.write(new byte[DocumentVSMEntry.SIZE - DocumentVSMEntry.DOCUMENTS_SIZE]);
+        BitSet deletedDocuments = readDeletedDocuments(segment);
 
-        int documentCount = Integer.parseInt(__INDEX_META__.get("documents"));
-        double logDocumentCount = Math.log(documentCount);
         long documentsMetaOffset = 0;
-
-        /* read a line from the 'INDEX_TMP_DIR/doc_tf' and calculate the weight */
-        while ((line = docTFReader.readLine()) != null) {
-            String[] splitLine = line.split(" ");
-            double weight = 0;
-            int maxTF = 0;
-            for (int i = 0; i < splitLine.length; i += 2) {
-                int DF = vocabulary.get(splitLine[i]);
-                int TF = Integer.parseInt(splitLine[i + 1]);
-                if (TF > maxTF) {
-                    maxTF = TF;
-                }
-                double x = TF * (logDocumentCount - Math.log(DF));
-                weight += x * x;
-            }
-            weight = Math.sqrt(weight) / maxTF;
+        for (int i = 0; i < maxTFs.length; i++) {
+            int maxTF = maxTFs[i];
+            double sumTF2 = VSMSums[3 * i];
+            double sumTF2LogDF = VSMSums[3 * i + 1];
+            double sumTF2LogDF2 = VSMSums[3 * i + 2];
+            double weight = deletedDocuments.get(i) ? 0 :
+                    DocumentVSMEntry.getWeight(sumTF2, sumTF2LogDF, sumTF2LogDF2, maxTF, segment.getDocuments());
+            VSMWriter.writeDouble(sumTF2);
+            VSMWriter.writeDouble(sumTF2LogDF);
+            VSMWriter.writeDouble(sumTF2LogDF2);
 
             /* update DOCUMENTS_META_FILENAME */
-            ByteBuffer buffer = __DOCMETA_BUFFERS__.getMemBuffer(documentsMetaOffset + DocumentMetaEntry.VSM_WEIGHT_OFFSET);
+            ByteBuffer buffer = docMetaBuffers.getMemBuffer(documentsMetaOffset + DocumentMetaEntry.VSM_WEIGHT_OFFSET);
             buffer.putDouble(weight);
-            buffer = __DOCMETA_BUFFERS__.getMemBuffer(documentsMetaOffset + DocumentMetaEntry.MAX_TF_OFFSET);
-            buffer.putInt(maxTF);
             documentsMetaOffset += DocumentMetaEntry.SIZE;
         }
 
         /* close files */
-        docTFReader.close();
-        __DOCMETA_BUFFERS__.close();
-        __DOCMETA_BUFFERS__ = null;
+        VSMWriter.close();
+        docMetaBuffers.close();
 
         Themis.print("VSM weights calculated in " + new Time(System.nanoTime() - startTime) + "\n");
     }
 
+    /* Calculates again the document weights (used by the Vector space model) of all segments after a new segment
+    (the last segment) has been added. The DF of a term in the collection is the sum of its DFs in the segments,
+    the sorted vocabularies of the segments are read together (k-way merge) so that the DFs are found one term at
+    a time.
+
+    The weights are computed from the partial sums in the VSM file of each segment (see class DocumentVSMEntry).
+    The sums of the previous segments assume the DFs of the collection before the new segment was added and the
+    sums of the new segment assume the DFs of the segment, so only the terms that are both in the new segment and
+    in a previous segment change the sums. The postings of these terms are read from the segments that need an
+    update and the sums of their documents are updated, the postings of the rest of the terms are not read. The
+    cost is proportional to the vocabularies, the postings of the common terms of the new and the previous segments
+    and the number of documents. A segment that has no VSM file gets a new one from all of its postings.
+
+    The updated VSM file of each segment is written to a temp file that then replaces the previous file. Each VSM
+    file has the number of documents of the collection, so a file that has been replaced is not updated again if
+    the build is resumed. A SegmentMerger that removes the postings of deleted documents deletes the VSM files of all
+    segments, so the sums always assume the DFs the segments have now. The sums and the weights of the deleted
+    documents are not updated.
+    The max TF of each document does not depend on the other segments and is not changed. The terms of single
+    fields are not part of the weights */
+    private void updateCollectionVSMWeights()
+            throws IOException {
+        long startTime = System.nanoTime();
+        Themis.print("-> Calculating VSM weights of the collection...\n");
+
+        int count = __SEGMENTS__.size();
+        int last = count - 1;
+        int documentCount = 0;
+        for (Segment segment : __SEGMENTS__) {
+            documentCount += segment.getDocuments();
+        }
+
+        /* the segments whose VSM file should be updated, and those that have no VSM file */
+        boolean[] update = new boolean[count];
+        boolean[] create = new boolean[count];
+        DocumentFixedBuffers[] VSMBuffers = new DocumentFixedBuffers[count];
+        RandomAccessFile[] postingsFiles = new RandomAccessFile[count];
+        VocabularyReader[] vocabularyReaders = new VocabularyReader[count];
+        BitSet[] deletedDocuments = new BitSet[count];
+        for (int i = 0; i < count; i++) {
+            deletedDocuments[i] = readDeletedDocuments(__SEGMENTS__.get(i));
+        }
+        try {
+            boolean updates = false;
+            for (int i = 0; i < count; i++) {
+                Segment segment = __SEGMENTS__.get(i);
+                Path VSMPath = Paths.get(segment.getVSMPath());
+                Path tmpPath = Paths.get(segment.getVSMPath() + ".tmp");
+                if (!Files.exists(VSMPath)) {
+                    create[i] = true;
+                    RandomAccessFile VSMFile = new RandomAccessFile(tmpPath.toFile(), "rw");
+                    VSMFile.setLength(0);
+                    VSMFile.setLength((long) (segment.getDocuments() + 1) * DocumentVSMEntry.SIZE);
+                    VSMFile.close();
+                }
+                else if (readVSMDocuments(segment) != documentCount) {
+                    Files.copy(VSMPath, tmpPath, StandardCopyOption.REPLACE_EXISTING);
+                }
+                else {
+                    continue;
+                }
+                update[i] = true;
+                updates = true;
+                VSMBuffers[i] = new DocumentFixedBuffers(tmpPath.toString(), MemoryBuffers.MODE.WRITE, DocumentVSMEntry.SIZE);
+                postingsFiles[i] = new RandomAccessFile(segment.getPostingsPath(), "r");
+            }
+
+            /* k-way merge of the vocabularies, the queue has the segments ordered by their current term */
+            PriorityQueue<Integer> vocabularyQueue = new PriorityQueue<>(Comparator.comparing(i -> vocabularyReaders[i].getTerm()));
+            for (int i = 0; updates && i < count; i++) {
+                vocabularyReaders[i] = new VocabularyReader(__SEGMENTS__.get(i).getVocabularyPath());
+                if (vocabularyReaders[i].next()) {
+                    vocabularyQueue.add(i);
+                }
+            }
+            List<Integer> termSegments = new ArrayList<>();
+            byte[] postings = new byte[0];
+            int[] TFs = new int[0];
+            int[] docIDs = new int[0];
+            while (!vocabularyQueue.isEmpty()) {
+                termSegments.add(vocabularyQueue.poll());
+                String term = vocabularyReaders[termSegments.get(0)].getTerm();
+                while (!vocabularyQueue.isEmpty() && vocabularyReaders[vocabularyQueue.peek()].getTerm().equals(term)) {
+                    termSegments.add(vocabularyQueue.poll());
+                }
+                if (!S2TextualEntryTokens.isFieldTerm(term)) {
+                    int DF = 0;
+                    int lastDF = 0;
+                    for (int i : termSegments) {
+                        DF += vocabularyReaders[i].getDF();
+                        if (i == last) {
+                            lastDF = vocabularyReaders[i].getDF();
+                        }
+                    }
+                    for (int i : termSegments) {
+                        /* the DF of the term that is assumed by the sums of the segment */
+                        int prevDF = create[i] ? 0 : ((i == last) ? lastDF : DF - lastDF);
+                        if (!update[i] || prevDF == DF) {
+                            continue;
+                        }
+                        int segmentDF = vocabularyReaders[i].getDF();
+                        int size = vocabularyReaders[i].getPostingsSize();
+                        if (postings.length < size) {
+                            postings = new byte[Math.max(size, postings.length * 2)];
+                        }
+                        if (TFs.length < segmentDF) {
+                            TFs = new int[Math.max(segmentDF, TFs.length * 2)];
+                            docIDs = new int[TFs.length];
+                        }
+                        postingsFiles[i].seek(vocabularyReaders[i].getPostingsOffset());
+                        postingsFiles[i].readFully(postings, 0, size);
+                        Postings.decode(postings, segmentDF, TFs, docIDs, 0);
+                        updateVSMSums(VSMBuffers[i], __SEGMENTS__.get(i).getDocIDBase(), deletedDocuments[i], TFs, docIDs,
+                                segmentDF, prevDF, DF);
+                    }
+                }
+                for (int i : termSegments) {
+                    if (vocabularyReaders[i].next()) {
+                        vocabularyQueue.add(i);
+                    }
+                }
+                termSegments.clear();
+            }
+
+            /* the updated VSM files replace the previous files */
+            for (int i = 0; i < count; i++) {
+                if (!update[i]) {
+                    continue;
+                }
+                ByteBuffer header = VSMBuffers[i].getMemBuffer(0);
+                header.putLong(DocumentVSMEntry.DOCUMENTS_OFFSET, documentCount);
+                VSMBuffers[i].close();
+                VSMBuffers[i] = null;
+                String VSMPath = __SEGMENTS__.get(i).getVSMPath();
+                Files.move(Paths.get(VSMPath + ".tmp"), Paths.get(VSMPath), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            }
+        } finally {
+            for (int i = 0; i < count; i++) {
+                if (VSMBuffers[i] != null) {
+                    VSMBuffers[i].close();
+                }
+                if (postingsFiles[i] != null) {
+                    postingsFiles[i].close();
+                }
+                if (vocabularyReaders[i] != null) {
+                    vocabularyReaders[i].close();
+                }
+            }
+        }
+
+        /* the weights of all documents depend on the number of documents of the collection */
+        for (int j = 0; j < count; j++) {
+            Segment segment = __SEGMENTS__.get(j);
+            DataInputStream VSMReader = new DataInputStream(new BufferedInputStream(new FileInputStream(segment.getVSMPath())));
+            DocumentFixedBuffers docMetaBuffers = new DocumentFixedBuffers(segment.getDocumentsMetaFilePath(), MemoryBuffers.MODE.WRITE, DocumentMetaEntry.SIZE);
+            try {
+                VSMReader.skipBytes(DocumentVSMEntry.SIZE);
+                long documentsMetaOffset = 0;
+                for (int i = 0; i < segment.getDocuments(); i++) {
+                    double sumTF2 = VSMReader.readDouble();
+                    double sumTF2LogDF = VSMReader.readDouble();
+                    double sumTF2LogDF2 = VSMReader.readDouble();
+                    if (deletedDocuments[j].get(i)) {
+                        documentsMetaOffset += DocumentMetaEntry.SIZE;
+                        continue;
+                    }
+                    int maxTF = docMetaBuffers.getMemBuffer(documentsMetaOffset + DocumentMetaEntry.MAX_TF_OFFSET).getInt();
+                    double weight = DocumentVSMEntry.getWeight(sumTF2, sumTF2LogDF, sumTF2LogDF2, maxTF, documentCount);
+                    docMetaBuffers.getMemBuffer(documentsMetaOffset + DocumentMetaEntry.VSM_WEIGHT_OFFSET).putDouble(weight);
+                    documentsMetaOffset += DocumentMetaEntry.SIZE;
+                }
+            } finally {
+                VSMReader.close();
+                docMetaBuffers.close();
+            }
+        }
+
+        Themis.print("VSM weights calculated in " + new Time(System.nanoTime() - startTime) + "\n");
+    }
+
+    /* Updates the partial sums (see class DocumentVSMEntry) of the documents in the given postings of a term: the
+    sums assume that the DF of the term is prevDF (0 if the term is not in the sums) and are changed so that they
+    assume the given DF. The sums of the given deleted documents (indexed by (int) doc ID - doc ID base) are skipped */
+    private static void updateVSMSums(DocumentFixedBuffers VSMBuffers, int docIDBase, BitSet deletedDocuments, int[] TFs,
+                                      int[] docIDs, int count, int prevDF, int DF) {
+        double logDF = Math.log(DF);
+        double prevLogDF = (prevDF != 0) ? Math.log(prevDF) : 0;
+        double logDFChange = logDF - prevLogDF;
+        double logDF2Change = logDF * logDF - prevLogDF * prevLogDF;
+        for (int i = 0; i < count; i++) {
+            if (deletedDocuments.get(docIDs[i] - docIDBase)) {
+                continue;
+            }
+            double TF2 = (double) TFs[i] * TFs[i];
+            ByteBuffer buffer = VSMBuffers.getMemBuffer((long) (docIDs[i] - docIDBase + 1) * DocumentVSMEntry.SIZE);
+            int pos = buffer.position();
+            if (prevDF == 0) {
+                buffer.putDouble(pos + DocumentVSMEntry.SUM_TF2_OFFSET, buffer.getDouble(pos + DocumentVSMEntry.SUM_TF2_OFFSET) + TF2);
+            }
+            buffer.putDouble(pos + DocumentVSMEntry.SUM_TF2_LOGDF_OFFSET,
+                    buffer.getDouble(pos + DocumentVSMEntry.SUM_TF2_LOGDF_OFFSET) + TF2 * logDFChange);
+            buffer.putDouble(pos + DocumentVSMEntry.SUM_TF2_LOGDF2_OFFSET,
+                    buffer.getDouble(pos + DocumentVSMEntry.SUM_TF2_LOGDF2_OFFSET) + TF2 * logDF2Change);
+        }
+    }
+
+    /* Returns the number of documents of the collection when the VSM file of the given segment was last updated */
+    private static long readVSMDocuments(Segment segment)
+            throws IOException {
+        RandomAccessFile VSMFile = new RandomAccessFile(segment.getVSMPath(), "r");
+        try {
+            VSMFile.seek(DocumentVSMEntry.DOCUMENTS_OFFSET);
+            return VSMFile.readLong();
+        } finally {
+            VSMFile.close();
+        }
+    }
+
     /**
      * Loads the index from INDEX_DIR. The following actions take place:
-     * 1) VOCABULARY_FILENAME and INDEX_META_FILENAME are loaded.
-     * 2) POSTINGS_FILENAME and DOCUMENTS_FILENAME are opened.
-     * 3) DOCUMENTS_ID_FILENAME and DOCUMENTS_META_FILENAME are memory mapped.
+     * 1) INDEX_META_FILENAME and the list of segments are loaded.
+     * 2) Each segment is loaded (see {@link Segment#load()}).
+     *
+     * The index is a single view of all segments. The DF of a term is the sum of its DFs in the segments and its
+     * postings are the postings of all segments (sorted by doc ID since the segments are sorted by doc ID base).
      *
      * @throws IOException
      */
@@ -635,32 +1182,35 @@ public class Indexer {
         Themis.print("-> Index path: " + __CONFIG__.getIndexDir() + "\n");
         Themis.print("-> Loading index...\n");
 
-        /* load index metadata from INDEX_META_FILENAME */
-        __INDEX_META__ = loadIndexMeta();
+        /* a segment merge may replace segments at any time. The replaced segments can be used after they are loaded */
+        synchronized (SegmentMerger.SEGMENTS_LOCK) {
+            /* load index metadata from INDEX_META_FILENAME */
+            __INDEX_META__ = loadIndexMeta();
+            __SEGMENTS__ = Segment.readSegments(__CONFIG__);
+            if (__SEGMENTS__.isEmpty()) {
+                throw new FileNotFoundException(Segment.getSegmentsPath(__CONFIG__));
+            }
+            for (Segment segment : __SEGMENTS__) {
+                segment.load();
+            }
+        }
+        __DELETED_DOCS__ = new BitSet(Integer.parseInt(__INDEX_META__.get("documents")));
+        for (Segment segment : __SEGMENTS__) {
+            BitSet deletedDocuments = segment.getDeletedDocuments();
+            for (int i = deletedDocuments.nextSetBit(0); i >= 0; i = deletedDocuments.nextSetBit(i + 1)) {
+                __DELETED_DOCS__.set(segment.getDocIDBase() + i);
+            }
+        }
         Themis.print("Stemming: " + __INDEX_META__.get("use_stemmer") + "\n");
         Themis.print("Stopwords: " + __INDEX_META__.get("use_stopwords") + "\n");
+        Themis.print("Segments: " + __SEGMENTS__.size() + "\n");
+        Themis.print("Deleted documents: " + __DELETED_DOCS__.cardinality() + "\n");
 
-        /* load VOCABULARY_FILENAME */
-        __VOCABULARY__ = new HashMap<>();
-        String line;
-        BufferedReader vocabularyReader = new BufferedReader(new InputStreamReader(new FileInputStream(getVocabularyPath()), "UTF-8"));
-        while ((line = vocabularyReader.readLine()) != null) {
-            String[] fields = line.split(" ");
-            __VOCABULARY__.put(fields[0], new VocabularyEntry(Integer.parseInt(fields[1]), Long.parseLong(fields[2])));
-        }
-        vocabularyReader.close();
-
-        /* open POSTINGS_FILENAME and DOCUMENTS_FILENAME */
-        __POSTINGS__ = new RandomAccessFile(getPostingsPath(), "r");
-        __DOCUMENTS__ = new RandomAccessFile(getDocumentsFilePath(), "r");
-
-        /* memory map DOCUMENTS_META_FILENAME and DOCUMENTS_ID_FILENAME */
-        __DOCMETA_BUFFERS__ = new DocumentFixedBuffers(getDocumentsMetaFilePath(), MemoryBuffers.MODE.READ, DocumentMetaEntry.SIZE);
         __DOCMETA_ARRAY__ = new byte[DocumentMetaEntry.SIZE];
         __DOCMETA_BUFFER__ = ByteBuffer.wrap(__DOCMETA_ARRAY__);
-        __DOCID_BUFFERS__ = new DocumentFixedBuffers(getDocumentsIDFilePath(), MemoryBuffers.MODE.READ, DocumentStringID.SIZE);
         __DOCID_ARRAY__ = new byte[DocumentStringID.SIZE];
         __DOCID_BUFFER__ = ByteBuffer.wrap(__DOCID_ARRAY__);
+        __STRING_ID_TABLE__ = new StringIDTable(__SEGMENTS__);
 
         __INDEX_IS_LOADED__ = true;
         Themis.print("Done\n\n");
@@ -693,23 +1243,17 @@ public class Indexer {
      */
     public void unload()
             throws IOException {
-        if (__POSTINGS__ != null) {
-            __POSTINGS__.close();
-            __POSTINGS__ = null;
-        }
-        if (__DOCUMENTS__ != null) {
-            __DOCUMENTS__.close();
-            __DOCUMENTS__ = null;
-        }
-        if (__DOCMETA_BUFFERS__ != null) {
-            __DOCMETA_BUFFERS__.close();
-            __DOCMETA_BUFFERS__ = null;
+        if (__SEGMENTS__ != null) {
+            for (Segment segment : __SEGMENTS__) {
+                segment.unload();
+            }
+            __SEGMENTS__ = null;
         }
-        if (__DOCID_BUFFERS__ != null) {
-            __DOCID_BUFFERS__.close();
-            __DOCID_BUFFERS__ = null;
+        if (__STRING_ID_TABLE__ != null) {
+            __STRING_ID_TABLE__.close();
+            __STRING_ID_TABLE__ = null;
         }
-        __VOCABULARY__ = null;
+        __DELETED_DOCS__ = null;
         __INDEX_META__ = null;
         __VSM_PROPS__ = null;
         __OKAPI_PROPS__ = null;
@@ -740,12 +1284,13 @@ public class Indexer {
     }
 
     /**
-     * Deletes INDEX_DIR and INDEX_TMP_DIR.
+     * Deletes INDEX_DIR and INDEX_TMP_DIR. Waits for the segment merge (if any) to finish.
      *
      * @throws IOException
      */
     public void deleteIndex()
             throws IOException {
+        SegmentMerger.await();
         Themis.print("-> Deleting previous index...");
         deleteDir(new File(__CONFIG__.getIndexDir()));
         deleteDir(new File(__CONFIG__.getIndexTmpDir()));
@@ -781,11 +1326,35 @@ public class Indexer {
         if (!isLoaded()) {
             throw new IndexNotLoadedException();
         }
-        long docIDOffset = DocInfo.getDocIDOffset(docID);
-        ByteBuffer buffer = __DOCID_BUFFERS__.getMemBuffer(docIDOffset);
+        Segment segment = Segment.find(__SEGMENTS__, docID);
+        ByteBuffer buffer = segment.getDocumentsIDBuffers().getMemBuffer(segment.getDocIDOffset(docID));
         buffer.get(__DOCID_ARRAY__);
 
-        return new String(__DOCID_ARRAY__, 0, DocumentStringID.SIZE, "ASCII");
+        return DocumentStringID.decode(__DOCID_ARRAY__, 0);
+    }
+
+    /**
+     * Returns the int ID of a document given its string ID or -1 if the document is not found or has been
+     * deleted. Uses DOCUMENTS_ID_LOOKUP_FILENAME of each segment, so no map of the string IDs is created.
+     *
+     * @param stringID
+     * @return
+     * @throws IndexNotLoadedException
+     */
+    public int getIntDocID(String stringID)
+            throws IndexNotLoadedException {
+        if (!isLoaded()) {
+            throw new IndexNotLoadedException();
+        }
+        byte[] ID = new byte[DocumentStringID.SIZE];
+        if (!DocumentStringID.encode(stringID, ID)) {
+            return -1;
+        }
+        int docID = __STRING_ID_TABLE__.get(ID);
+        if (docID == -1 || __DELETED_DOCS__.get(docID)) {
+            return -1;
+        }
+        return docID;
     }
 
     /**
@@ -826,6 +1395,7 @@ public class Indexer {
         boolean ADD_TOKEN_COUNT = addedProps.contains(DocInfo.PROPERTY.TOKEN_COUNT);
         boolean ADD_AVG_AUTHOR_RANK = addedProps.contains(DocInfo.PROPERTY.AVG_AUTHOR_RANK);
         boolean ADD_TITLE = addedProps.contains(DocInfo.PROPERTY.TITLE);
+        boolean ADD_ABSTRACT = addedProps.contains(DocInfo.PROPERTY.ABSTRACT);
         boolean ADD_AUTHORS_NAMES = addedProps.contains(DocInfo.PROPERTY.AUTHORS_NAMES);
         boolean ADD_JOURNAL_NAME = addedProps.contains(DocInfo.PROPERTY.JOURNAL_NAME);
         boolean ADD_AUTHORS_IDS = addedProps.contains(DocInfo.PROPERTY.AUTHORS_IDS);
@@ -838,6 +1408,7 @@ public class Indexer {
         boolean DEL_TOKEN_COUNT = deletedProps.contains(DocInfo.PROPERTY.TOKEN_COUNT);
         boolean DEL_AVG_AUTHOR_RANK = deletedProps.contains(DocInfo.PROPERTY.AVG_AUTHOR_RANK);
         boolean DEL_TITLE = deletedProps.contains(DocInfo.PROPERTY.TITLE);
+        boolean DEL_ABSTRACT = deletedProps.contains(DocInfo.PROPERTY.ABSTRACT);
         boolean DEL_AUTHORS_NAMES = deletedProps.contains(DocInfo.PROPERTY.AUTHORS_NAMES);
         boolean DEL_JOURNAL_NAME = deletedProps.contains(DocInfo.PROPERTY.JOURNAL_NAME);
         boolean DEL_AUTHORS_IDS = deletedProps.contains(DocInfo.PROPERTY.AUTHORS_IDS);
@@ -846,6 +1417,7 @@ public class Indexer {
 
         for (Result result : results) {
             DocInfo docInfo = result.getDocInfo();
+            Segment segment = Segment.find(__SEGMENTS__, docInfo.getDocID());
 
             /* delete props */
             if (DEL_CITATIONS_PAGERANK) {
@@ -866,6 +1438,9 @@ public class Indexer {
             if (DEL_TITLE) {
                 docInfo.clearProperty(DocInfo.PROPERTY.TITLE);
             }
+            if (DEL_ABSTRACT) {
+                docInfo.clearProperty(DocInfo.PROPERTY.ABSTRACT);
+            }
             if (DEL_AUTHORS_NAMES) {
                 docInfo.clearProperty(DocInfo.PROPERTY.AUTHORS_NAMES);
             }
@@ -884,17 +1459,19 @@ public class Indexer {
 
             long documentsMetaOffset = -1;
             long documentsOffset = 0;
+            int blockOffset = 0;
             int documentSize = 0;
 
             /* add props from DOCUMENTS_META_FILENAME */
             if (ADD_CITATIONS_PAGERANK || ADD_VSM_WEIGHT || ADD_MAX_TF || ADD_TOKEN_COUNT || ADD_AVG_AUTHOR_RANK || ADD_DOC_SIZE) {
 
                 /* go to DOCUMENTS_META_FILENAME offset and fetch the required document metadata props */
-                documentsMetaOffset = DocInfo.getMetaOffset(docInfo.getDocID());
-                ByteBuffer buffer = __DOCMETA_BUFFERS__.getMemBuffer(documentsMetaOffset);
+                documentsMetaOffset = segment.getMetaOffset(docInfo.getDocID());
+                ByteBuffer buffer = segment.getDocumentsMetaBuffers().getMemBuffer(documentsMetaOffset);
                 buffer.get(__DOCMETA_ARRAY__);
                 documentSize = __DOCMETA_BUFFER__.getInt(DocumentMetaEntry.DOCUMENT_SIZE_OFFSET);
                 documentsOffset = __DOCMETA_BUFFER__.getLong(DocumentMetaEntry.DOCUMENT_OFFSET_OFFSET);
+                blockOffset = __DOCMETA_BUFFER__.getInt(DocumentMetaEntry.DOCUMENT_BLOCK_OFFSET_OFFSET);
 
                 if (ADD_CITATIONS_PAGERANK) {
                     double pagerank = __DOCMETA_BUFFER__.getDouble(DocumentMetaEntry.DOCUMENT_PAGERANK_OFFSET);
@@ -922,52 +1499,60 @@ public class Indexer {
             }
 
             /* add props from DOCUMENTS_FILENAME */
-            if (ADD_TITLE || ADD_AUTHORS_NAMES || ADD_JOURNAL_NAME || ADD_AUTHORS_IDS || ADD_YEAR) {
+            if (ADD_TITLE || ADD_ABSTRACT || ADD_AUTHORS_NAMES || ADD_JOURNAL_NAME || ADD_AUTHORS_IDS || ADD_YEAR) {
 
                 /* In case we haven't already read props from DOCUMENTS_META_FILENAME, we need to do it now
                 because some of them are required for fetching props from DOCUMENTS_FILENAME */
                 if (documentsMetaOffset == -1) {
-                    documentsMetaOffset = DocInfo.getMetaOffset(docInfo.getDocID());
-                    ByteBuffer buffer = __DOCMETA_BUFFERS__.getMemBuffer(documentsMetaOffset);
+                    documentsMetaOffset = segment.getMetaOffset(docInfo.getDocID());
+                    ByteBuffer buffer = segment.getDocumentsMetaBuffers().getMemBuffer(documentsMetaOffset);
                     buffer.get(__DOCMETA_ARRAY__);
                     documentSize = __DOCMETA_BUFFER__.getInt(DocumentMetaEntry.DOCUMENT_SIZE_OFFSET);
                     documentsOffset = __DOCMETA_BUFFER__.getLong(DocumentMetaEntry.DOCUMENT_OFFSET_OFFSET);
+                    blockOffset = __DOCMETA_BUFFER__.getInt(DocumentMetaEntry.DOCUMENT_BLOCK_OFFSET_OFFSET);
                 }
 
-                /* go to DOCUMENTS_FILENAME offset and fetch the required document props */
-                byte[] __DOCUMENT_ARRAY__ = new byte[documentSize];
+                /* get the block of the document from DOCUMENTS_FILENAME (or the block cache of the segment) and
+                fetch the required document props */
+                byte[] __DOCUMENT_ARRAY__ = segment.getDocumentBlock(documentsOffset);
                 ByteBuffer __DOCUMENT_BUFFER__ = ByteBuffer.wrap(__DOCUMENT_ARRAY__);
-                __DOCUMENTS__.seek(documentsOffset);
-                __DOCUMENTS__.readFully(__DOCUMENT_ARRAY__, 0, documentSize);
 
                 if (ADD_YEAR) {
-                    short year = __DOCUMENT_BUFFER__.getShort(DocumentEntry.YEAR_OFFSET);
+                    short year = __DOCUMENT_BUFFER__.getShort(blockOffset + DocumentEntry.YEAR_OFFSET);
                     docInfo.setProperty(DocInfo.PROPERTY.YEAR, year);
                 }
-                int titleSize = __DOCUMENT_BUFFER__.getInt(DocumentEntry.TITLE_SIZE_OFFSET);
-                int authorNamesSize = __DOCUMENT_BUFFER__.getInt(DocumentEntry.AUTHOR_NAMES_SIZE_OFFSET);
-                int authorIDsSize = __DOCUMENT_BUFFER__.getInt(DocumentEntry.AUTHOR_IDS_SIZE_OFFSET);
-                short journalNameSize = __DOCUMENT_BUFFER__.getShort(DocumentEntry.JOURNAL_NAME_SIZE_OFFSET);
+                int titleSize = __DOCUMENT_BUFFER__.getInt(blockOffset + DocumentEntry.TITLE_SIZE_OFFSET);
+                int authorNamesSize = __DOCUMENT_BUFFER__.getInt(blockOffset + DocumentEntry.AUTHOR_NAMES_SIZE_OFFSET);
+                int authorIDsSize = __DOCUMENT_BUFFER__.getInt(blockOffset + DocumentEntry.AUTHOR_IDS_SIZE_OFFSET);
+                short journalNameSize = __DOCUMENT_BUFFER__.getShort(blockOffset + DocumentEntry.JOURNAL_NAME_SIZE_OFFSET);
+                int abstractSize = __DOCUMENT_BUFFER__.getInt(blockOffset + DocumentEntry.ABSTRACT_SIZE_OFFSET);
                 int documentLocalOffset;
                 if (ADD_TITLE) {
-                    String title = new String(__DOCUMENT_ARRAY__, DocumentEntry.TITLE_OFFSET, titleSize, "UTF-8");
+                    documentLocalOffset = blockOffset + DocumentEntry.TITLE_OFFSET;
+                    String title = new String(__DOCUMENT_ARRAY__, documentLocalOffset, titleSize, "UTF-8");
                     docInfo.setProperty(DocInfo.PROPERTY.TITLE, title);
                 }
                 if (ADD_AUTHORS_NAMES) {
-                    documentLocalOffset = DocumentEntry.TITLE_OFFSET + titleSize;
+                    documentLocalOffset = blockOffset + DocumentEntry.TITLE_OFFSET + titleSize;
                     String authorNames = new String(__DOCUMENT_ARRAY__, documentLocalOffset, authorNamesSize, "UTF-8");
                     docInfo.setProperty(DocInfo.PROPERTY.AUTHORS_NAMES, authorNames);
                 }
                 if (ADD_AUTHORS_IDS) {
-                    documentLocalOffset = DocumentEntry.TITLE_OFFSET + titleSize + authorNamesSize;
+                    documentLocalOffset = blockOffset + DocumentEntry.TITLE_OFFSET + titleSize + authorNamesSize;
                     String authorIDs = new String(__DOCUMENT_ARRAY__, documentLocalOffset, authorIDsSize, "ASCII");
                     docInfo.setProperty(DocInfo.PROPERTY.AUTHORS_IDS, authorIDs);
                 }
                 if (ADD_JOURNAL_NAME) {
-                    documentLocalOffset = DocumentEntry.TITLE_OFFSET + titleSize + authorNamesSize + authorIDsSize;
+                    documentLocalOffset = blockOffset + DocumentEntry.TITLE_OFFSET + titleSize + authorNamesSize + authorIDsSize;
                     String journalName = new String(__DOCUMENT_ARRAY__, documentLocalOffset, journalNameSize, "UTF-8");
                     docInfo.setProperty(DocInfo.PROPERTY.JOURNAL_NAME, journalName);
                 }
+                if (ADD_ABSTRACT) {
+                    documentLocalOffset = blockOffset + DocumentEntry.TITLE_OFFSET + titleSize + authorNamesSize +
+                            authorIDsSize + journalNameSize;
+                    String paperAbstract = new String(__DOCUMENT_ARRAY__, documentLocalOffset, abstractSize, "UTF-8");
+                    docInfo.setProperty(DocInfo.PROPERTY.ABSTRACT, paperAbstract);
+                }
             }
         }
     }
@@ -982,7 +1567,8 @@ public class Indexer {
     }
 
     /**
-     * Returns an array of DF (document frequency) for the given terms list.
+     * Returns an array of DF (document frequency) for the given terms list. The DF of a term is the sum of its
+     * DFs in all segments.
      *
      * @param query
      * @return
@@ -994,18 +1580,149 @@ public class Indexer {
             throw new IndexNotLoadedException();
         }
         int[] DFs = new int[query.size()];
-        VocabularyEntry vocabularyEntry;
         for (int i = 0; i < query.size(); i++) {
-            vocabularyEntry = __VOCABULARY__.get(query.get(i).get_term());
-            if (vocabularyEntry != null) {
-                DFs[i] = vocabularyEntry.getDF();
+            String term = query.get(i).get_term();
+            for (Segment segment : __SEGMENTS__) {
+                VocabularyEntry vocabularyEntry = segment.getVocabularyEntry(term);
+                if (vocabularyEntry != null) {
+                    DFs[i] += vocabularyEntry.getDF();
+                }
             }
         }
         return DFs;
     }
 
     /**
-     * Returns a {@link TermPostings} object that represents the postings of a term in POSTINGS_FILENAME.
+     * Returns the terms of the vocabulary that match the given wildcard term. A '*' matches any sequence of
+     * characters and should not be the first character of the term or of its field (e.g. 'neur*', 'trans*mer*'
+     * or 'title:neur*'). The terms that start with the characters before the first '*' are read from the sorted
+     * vocabulary of each segment (the segments are merged so that the DF of each term is the sum of its DFs in
+     * all segments) and are then matched with the rest of the wildcard term.
+     *
+     * At most WILDCARD_MAX_TERMS terms are returned, the terms with the largest DF, sorted by DF. Only these terms
+     * are kept in a heap while the terms are read. Returns an empty list if no terms match.
+     *
+     * @param wildcardTerm
+     * @return
+     * @throws IndexNotLoadedException
+     */
+    public List<String> getWildcardTerms(String wildcardTerm)
+            throws IndexNotLoadedException {
+        if (!isLoaded()) {
+            throw new IndexNotLoadedException();
+        }
+        List<String> terms = new ArrayList<>();
+        String prefix = wildcardTerm.substring(0, Math.max(wildcardTerm.indexOf('*'), 0));
+        int fieldPrefixLength = S2TextualEntryTokens.getFieldPrefixLength(prefix);
+        int maxTerms = __CONFIG__.getWildcardMaxTerms();
+        if (prefix.length() == fieldPrefixLength || maxTerms <= 0) {
+            return terms;
+        }
+
+        /* the parts of the wildcard term between the '*' (UTF-8) */
+        String[] wildcardParts = wildcardTerm.split("\\*", -1);
+        byte[][] parts = new byte[wildcardParts.length][];
+        for (int i = 0; i < parts.length; i++) {
+            parts[i] = wildcardParts[i].getBytes(StandardCharsets.UTF_8);
+        }
+
+        /* k-way merge of the terms of the segments, the queue has the segments ordered by their current term */
+        Vocabulary.PrefixTerms[] prefixTerms = new Vocabulary.PrefixTerms[__SEGMENTS__.size()];
+        PriorityQueue<Integer> termsQueue = new PriorityQueue<>((i, j) -> compareTerms(prefixTerms[i], prefixTerms[j]));
+        for (int i = 0; i < prefixTerms.length; i++) {
+            prefixTerms[i] = __SEGMENTS__.get(i).getVocabulary().getPrefixTerms(prefix);
+            if (prefixTerms[i].next()) {
+                termsQueue.add(i);
+            }
+        }
+
+        /* the terms with the largest DF, the head of the heap is the term that should be removed first */
+        Comparator<Pair<String, Integer>> order = (term1, term2) -> {
+            int cmp = Integer.compare(term2.getR(), term1.getR());
+            return (cmp != 0) ? cmp : term1.getL().compareTo(term2.getL());
+        };
+        PriorityQueue<Pair<String, Integer>> topTerms = new PriorityQueue<>(order.reversed());
+        List<Integer> termSegments = new ArrayList<>();
+        while (!termsQueue.isEmpty()) {
+            termSegments.add(termsQueue.poll());
+            Vocabulary.PrefixTerms current = prefixTerms[termSegments.get(0)];
+            int DF = current.getDF();
+            while (!termsQueue.isEmpty() && compareTerms(prefixTerms[termsQueue.peek()], current) == 0) {
+                int i = termsQueue.poll();
+                termSegments.add(i);
+                DF += prefixTerms[i].getDF();
+            }
+
+            /* the term is converted to a string only if it matches and has one of the largest DFs */
+            if (matchesWildcard(current.getTermBytes(), current.getTermLength(), parts) &&
+                    (topTerms.size() < maxTerms || DF >= topTerms.peek().getR())) {
+                String term = new String(current.getTermBytes(), 0, current.getTermLength(), StandardCharsets.UTF_8);
+                if (fieldPrefixLength != 0 || !S2TextualEntryTokens.isFieldTerm(term)) {
+                    topTerms.add(new Pair<>(term, DF));
+                    if (topTerms.size() > maxTerms) {
+                        topTerms.poll();
+                    }
+                }
+            }
+            for (int i : termSegments) {
+                if (prefixTerms[i].next()) {
+                    termsQueue.add(i);
+                }
+            }
+            termSegments.clear();
+        }
+        List<Pair<String, Integer>> sortedTerms = new ArrayList<>(topTerms);
+        sortedTerms.sort(order);
+        for (Pair<String, Integer> term : sortedTerms) {
+            terms.add(term.getL());
+        }
+        return terms;
+    }
+
+    /* Compares the current terms of the given prefix terms in the order of the vocabularies */
+    private static int compareTerms(Vocabulary.PrefixTerms terms1, Vocabulary.PrefixTerms terms2) {
+        return Vocabulary.compareTerms(terms1.getTermBytes(), terms1.getTermLength(), terms2.getTermBytes(),
+                terms2.getTermLength());
+    }
+
+    /* Returns true if the first length bytes of the given term match a wildcard term that has the given parts (the
+    parts between the '*'): the term starts with the first part, ends with the last part and has the rest of the
+    parts in the same order between them */
+    private static boolean matchesWildcard(byte[] term, int length, byte[][] parts) {
+        byte[] first = parts[0];
+        byte[] last = parts[parts.length - 1];
+        if (length < first.length + last.length || !regionMatches(term, 0, first) ||
+                !regionMatches(term, length - last.length, last)) {
+            return false;
+        }
+        int pos = first.length;
+        int end = length - last.length;
+        for (int i = 1; i < parts.length - 1; i++) {
+            byte[] part = parts[i];
+            while (pos + part.length <= end && !regionMatches(term, pos, part)) {
+                pos++;
+            }
+            if (pos + part.length > end) {
+                return false;
+            }
+            pos += part.length;
+        }
+        return true;
+    }
+
+    /* Returns true if the given term has the given bytes at the given offset */
+    private static boolean regionMatches(byte[] term, int offset, byte[] bytes) {
+        for (int i = 0; i < bytes.length; i++) {
+            if (term[offset + i] != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns a {@link TermPostings} object that represents the postings of a term in POSTINGS_FILENAME
+     * of all segments.
      *
      * @param term
      * @return
@@ -1017,25 +1734,196 @@ public class Indexer {
         if (!isLoaded()) {
             throw new IndexNotLoadedException();
         }
-        VocabularyEntry vocabularyEntry = __VOCABULARY__.get(term);
-        if (vocabularyEntry == null) {
-            return new TermPostings(new int[0], new int[0]);
+        VocabularyEntry[] vocabularyEntries = new VocabularyEntry[__SEGMENTS__.size()];
+        int DF = 0;
+        for (int i = 0; i < vocabularyEntries.length; i++) {
+            vocabularyEntries[i] = __SEGMENTS__.get(i).getVocabularyEntry(term);
+            if (vocabularyEntries[i] != null) {
+                DF += vocabularyEntries[i].getDF();
+            }
         }
 
-        int DF = vocabularyEntry.getDF();
-        __POSTINGS__.seek(vocabularyEntry.getPostingsOffset());
-        byte[] postings = new byte[DF * Posting.SIZE];
-        __POSTINGS__.readFully(postings);
-        ByteBuffer BB = ByteBuffer.wrap(postings);
+        /* the compressed postings of the segments are read and decoded one after the other */
         int[] docIDs = new int[DF];
         int[] TFs = new int[DF];
-        for (int i = 0; i < DF; i++) {
-            TFs[i] = BB.getInt();
-            docIDs[i] = BB.getInt();
+        byte[] postings = new byte[0];
+        int postingsPos = 0;
+        for (int i = 0; i < vocabularyEntries.length; i++) {
+            if (vocabularyEntries[i] == null) {
+                continue;
+            }
+            RandomAccessFile postingsFile = __SEGMENTS__.get(i).getPostingsFile();
+            int size = vocabularyEntries[i].getPostingsSize();
+            if (postings.length < size) {
+                postings = new byte[size];
+            }
+            postingsFile.seek(vocabularyEntries[i].getPostingsOffset());
+            postingsFile.readFully(postings, 0, size);
+            Postings.decode(postings, vocabularyEntries[i].getDF(), TFs, docIDs, postingsPos);
+            postingsPos += vocabularyEntries[i].getDF();
         }
         return new TermPostings(TFs, docIDs);
     }
 
+    /**
+     * Returns a {@link PostingsCursor} over the postings of a term in POSTINGS_FILENAME of all segments.
+     * Only the skip tables of the postings are read, the blocks are read and decoded by the cursor.
+     *
+     * @param term
+     * @return
+     * @throws IOException
+     * @throws IndexNotLoadedException
+     */
+    public PostingsCursor getPostingsCursor(String term)
+            throws IOException, IndexNotLoadedException {
+        if (!isLoaded()) {
+            throw new IndexNotLoadedException();
+        }
+        List<FileChannel> postingsFiles = new ArrayList<>();
+        List<VocabularyEntry> vocabularyEntries = new ArrayList<>();
+        for (Segment segment : __SEGMENTS__) {
+            VocabularyEntry vocabularyEntry = segment.getVocabularyEntry(term);
+            if (vocabularyEntry != null) {
+                postingsFiles.add(segment.getPostingsFile().getChannel());
+                vocabularyEntries.add(vocabularyEntry);
+            }
+        }
+        return new PostingsCursor(postingsFiles.toArray(new FileChannel[0]), vocabularyEntries.toArray(new VocabularyEntry[0]),
+                getOKAPIprops().getTokenCount());
+    }
+
+    /**
+     * Returns the max TF ratio of a term in each segment (see class {@link VocabularyEntry}). Item i is the
+     * ratio in the segment at position i of getSegments(), 0 if the segment does not have the term. Only the
+     * vocabularies are read.
+     *
+     * @param term
+     * @return
+     * @throws IndexNotLoadedException
+     */
+    public double[] getMaxTFRatios(String term)
+            throws IndexNotLoadedException {
+        if (!isLoaded()) {
+            throw new IndexNotLoadedException();
+        }
+        double[] maxTFRatios = new double[__SEGMENTS__.size()];
+        for (int i = 0; i < maxTFRatios.length; i++) {
+            VocabularyEntry vocabularyEntry = __SEGMENTS__.get(i).getVocabularyEntry(term);
+            if (vocabularyEntry != null) {
+                maxTFRatios[i] = vocabularyEntry.getMaxTFRatio();
+            }
+        }
+        return maxTFRatios;
+    }
+
+    /**
+     * Returns the positions of some postings of a term. The postings are given by their position in the postings
+     * of the term (see getPostings()) and should be sorted. Item i of the returned array has the sorted positions
+     * of the term in the document of posting indexes[i], or null if the segment of the document has no positions.
+     *
+     * Only the positions of the requested postings are read: for each group of Positions.SKIP_INTERVAL postings
+     * that has a requested posting, the group is found from the skip table and is read from POSITIONS_FILENAME.
+     *
+     * @param term
+     * @param postings The postings of the term
+     * @param indexes The positions of the requested postings in the postings of the term (sorted)
+     * @return
+     * @throws IOException
+     * @throws IndexNotLoadedException
+     */
+    public int[][] getPositions(String term, TermPostings postings, int[] indexes)
+            throws IOException, IndexNotLoadedException {
+        if (!isLoaded()) {
+            throw new IndexNotLoadedException();
+        }
+        int[][] positions = new int[indexes.length][];
+        int[] TFs = postings.getTFs();
+        byte[] skipItems = new byte[2 * Positions.SKIP_SIZE];
+        ByteBuffer skipBuffer = ByteBuffer.wrap(skipItems);
+        byte[] group = new byte[0];
+        int i = 0;
+        int postingsBase = 0;
+        for (Segment segment : __SEGMENTS__) {
+            VocabularyEntry vocabularyEntry = segment.getVocabularyEntry(term);
+            if (vocabularyEntry == null) {
+                continue;
+            }
+            int DF = vocabularyEntry.getDF();
+            RandomAccessFile positionsFile = segment.getPositionsFile();
+            if (positionsFile == null || vocabularyEntry.getPositionsOffset() == -1) {
+                while (i < indexes.length && indexes[i] < postingsBase + DF) {
+                    i++;
+                }
+                postingsBase += DF;
+                continue;
+            }
+            long positionsOffset = vocabularyEntry.getPositionsOffset() + Positions.getSkipTableSize(DF);
+            while (i < indexes.length && indexes[i] < postingsBase + DF) {
+                /* read the group of postings that has the next requested posting */
+                int skip = (indexes[i] - postingsBase) / Positions.SKIP_INTERVAL;
+                positionsFile.seek(vocabularyEntry.getPositionsOffset() + skip * Positions.SKIP_SIZE);
+                positionsFile.readFully(skipItems);
+                int groupStart = skipBuffer.getInt(0);
+                int groupSize = skipBuffer.getInt(Positions.SKIP_SIZE) - groupStart;
+                if (group.length < groupSize) {
+                    group = new byte[Math.max(groupSize, group.length * 2)];
+                }
+                positionsFile.seek(positionsOffset + groupStart);
+                positionsFile.readFully(group, 0, groupSize);
+
+                /* decode the positions of the requested postings of the group */
+                int posting = postingsBase + skip * Positions.SKIP_INTERVAL;
+                int groupEnd = Math.min(posting + Positions.SKIP_INTERVAL, postingsBase + DF);
+                int pos = 0;
+                while (i < indexes.length && indexes[i] < groupEnd) {
+                    while (posting < indexes[i]) {
+                        pos = Positions.skip(group, pos, TFs[posting]);
+                        posting++;
+                    }
+                    positions[i] = new int[TFs[posting]];
+                    pos = Positions.decode(group, pos, TFs[posting], positions[i]);
+                    posting++;
+                    i++;
+                }
+            }
+            postingsBase += DF;
+        }
+        return positions;
+    }
+
+    /**
+     * Returns the bitset of the deleted documents. Bit i is set if the document with (int) doc ID i has been
+     * deleted. The retrieval models should skip the postings of the deleted documents.
+     *
+     * @return
+     * @throws IndexNotLoadedException
+     */
+    public BitSet getDeletedDocuments()
+            throws IndexNotLoadedException {
+        if (!isLoaded()) {
+            throw new IndexNotLoadedException();
+        }
+        return __DELETED_DOCS__;
+    }
+
+    /**
+     * Reads the bitset of the deleted documents of the given segment (see Segment.readDeletedDocuments()). While a
+     * new segment is built by index(), the documents that are replaced by the new segment are also included: they
+     * are marked as deleted in their segments only when the new segment is added to the index.
+     *
+     * @param segment
+     * @return
+     * @throws IOException
+     */
+    public BitSet readDeletedDocuments(Segment segment)
+            throws IOException {
+        BitSet deletedDocuments = segment.readDeletedDocuments();
+        if (__REPLACED_DOCS__ != null) {
+            deletedDocuments.or(__REPLACED_DOCS__.get(segment.getDocIDBase(), segment.getDocIDBase() + segment.getDocuments()));
+        }
+        return deletedDocuments;
+    }
+
     /**
      * Returns a {@link VSMprops} object that has the essential props required by the Vector space model.
      *
@@ -1053,12 +1941,16 @@ public class Indexer {
         int documentCount = Integer.parseInt(__INDEX_META__.get("documents"));
         int[] maxTFs = new int[documentCount];
         double[] VSMweights = new double[documentCount];
-        for (int i = 0; i < documentCount; i++) {
-            long offset = DocInfo.getMetaOffset(i);
-            ByteBuffer buffer = __DOCMETA_BUFFERS__.getMemBuffer(offset + DocumentMetaEntry.VSM_WEIGHT_OFFSET);
-            VSMweights[i] = buffer.getDouble();
-            buffer = __DOCMETA_BUFFERS__.getMemBuffer(offset + DocumentMetaEntry.MAX_TF_OFFSET);
-            maxTFs[i] = buffer.getInt();
+        for (Segment segment : __SEGMENTS__) {
+            DocumentFixedBuffers docMetaBuffers = segment.getDocumentsMetaBuffers();
+            int docIDBase = segment.getDocIDBase();
+            for (int i = 0; i < segment.getDocuments(); i++) {
+                long offset = DocInfo.getMetaOffset(i);
+                ByteBuffer buffer = docMetaBuffers.getMemBuffer(offset + DocumentMetaEntry.VSM_WEIGHT_OFFSET);
+                VSMweights[docIDBase + i] = buffer.getDouble();
+                buffer = docMetaBuffers.getMemBuffer(offset + DocumentMetaEntry.MAX_TF_OFFSET);
+                maxTFs[docIDBase + i] = buffer.getInt();
+            }
         }
         __VSM_PROPS__ = new VSMprops(maxTFs, VSMweights);
         return __VSM_PROPS__;
@@ -1080,10 +1972,13 @@ public class Indexer {
         }
         int documentCount = Integer.parseInt(__INDEX_META__.get("documents"));
         int[] tokenCount = new int[documentCount];
-        for (int i = 0; i < documentCount; i++) {
-            long offset = DocInfo.getMetaOffset(i) + DocumentMetaEntry.TOKEN_COUNT_OFFSET;
-            ByteBuffer buffer = __DOCMETA_BUFFERS__.getMemBuffer(offset);
-            tokenCount[i] = buffer.getInt();
+        for (Segment segment : __SEGMENTS__) {
+            DocumentFixedBuffers docMetaBuffers = segment.getDocumentsMetaBuffers();
+            for (int i = 0; i < segment.getDocuments(); i++) {
+                long offset = DocInfo.getMetaOffset(i) + DocumentMetaEntry.TOKEN_COUNT_OFFSET;
+                ByteBuffer buffer = docMetaBuffers.getMemBuffer(offset);
+                tokenCount[segment.getDocIDBase() + i] = buffer.getInt();
+            }
         }
         __OKAPI_PROPS__ = new OKAPIprops(tokenCount);
         return __OKAPI_PROPS__;
@@ -1105,10 +2000,13 @@ public class Indexer {
         }
         int documentCount = Integer.parseInt(__INDEX_META__.get("documents"));
         double[] documentsPagerank = new double[documentCount];
-        for (int i = 0; i < documentCount; i++) {
-            long offset = DocInfo.getMetaOffset(i) + DocumentMetaEntry.DOCUMENT_PAGERANK_OFFSET;
-            ByteBuffer buffer = __DOCMETA_BUFFERS__.getMemBuffer(offset);
-            documentsPagerank[i] = buffer.getDouble();
+        for (Segment segment : __SEGMENTS__) {
+            DocumentFixedBuffers docMetaBuffers = segment.getDocumentsMetaBuffers();
+            for (int i = 0; i < segment.getDocuments(); i++) {
+                long offset = DocInfo.getMetaOffset(i) + DocumentMetaEntry.DOCUMENT_PAGERANK_OFFSET;
+                ByteBuffer buffer = docMetaBuffers.getMemBuffer(offset);
+                documentsPagerank[segment.getDocIDBase() + i] = buffer.getDouble();
+            }
         }
         __DocumentsPagerank__ = documentsPagerank;
         return __DocumentsPagerank__;
@@ -1123,7 +2021,7 @@ public class Indexer {
     public int getTotalDocuments()
             throws IOException {
         if (__INDEX_META__ == null) {
-            loadIndexMeta();
+            __INDEX_META__ = loadIndexMeta();
         }
         return Integer.parseInt(__INDEX_META__.get("documents"));
     }
@@ -1137,7 +2035,7 @@ public class Indexer {
     public double getAvgDL()
             throws IOException {
         if (__INDEX_META__ == null) {
-            loadIndexMeta();
+            __INDEX_META__ = loadIndexMeta();
         }
         return Double.parseDouble(__INDEX_META__.get("avgdl"));
     }
@@ -1151,7 +2049,7 @@ public class Indexer {
     public Boolean useStopwords()
             throws IOException {
         if (__INDEX_META__ == null) {
-            loadIndexMeta();
+            __INDEX_META__ = loadIndexMeta();
         }
         return Boolean.parseBoolean(__INDEX_META__.get("use_stopwords"));
     }
@@ -1165,7 +2063,7 @@ public class Indexer {
     public Boolean useStemmer()
             throws IOException {
         if (__INDEX_META__ == null) {
-            loadIndexMeta();
+            __INDEX_META__ = loadIndexMeta();
         }
         return Boolean.parseBoolean(__INDEX_META__.get("use_stemmer"));
     }
@@ -1180,48 +2078,13 @@ public class Indexer {
     }
     
     /**
-     * Returns the full path of VOCABULARY_FILENAME. The file is in INDEX_DIR.
+     * Returns the segments of the index sorted by doc ID base. The segments are available while the index
+     * is loaded and while a new segment is created by index() (they include the new segment).
      *
      * @return
      */
-    public String getVocabularyPath() {
-        return __CONFIG__.getIndexDir() + __CONFIG__.getVocabularyFileName();
-    }
-
-    /**
-     * Returns the full path of POSTINGS_FILENAME. The file is in INDEX_DIR.
-     *
-     * @return
-     */
-    public String getPostingsPath() {
-        return __CONFIG__.getIndexDir() + __CONFIG__.getPostingsFileName();
-    }
-
-    /**
-     * Returns the full path of DOCUMENTS_FILENAME. The file is in INDEX_DIR.
-     *
-     * @return
-     */
-    public String getDocumentsFilePath() {
-        return __CONFIG__.getIndexDir() + __CONFIG__.getDocumentsFileName();
-    }
-
-    /**
-     * Returns the full path of DOCUMENTS_META_FILENAME. The file is in INDEX_DIR.
-     *
-     * @return
-     */
-    public String getDocumentsMetaFilePath() {
-        return __CONFIG__.getIndexDir() + __CONFIG__.getDocumentsMetaFileName();
-    }
-
-    /**
-     * Returns the full path of DOCUMENTS_ID_FILENAME. The file is in INDEX_DIR.
-     *
-     * @return
-     */
-    public String getDocumentsIDFilePath() {
-        return __CONFIG__.getIndexDir() + __CONFIG__.getDocumentsIDFileName();
+    public List<Segment> getSegments() {
+        return __SEGMENTS__;
     }
 
     /**
@@ -1233,14 +2096,10 @@ public class Indexer {
         return __CONFIG__.getIndexDir() + __CONFIG__.getIndexMetaFileName();
     }
 
-    /* Returns the full path of 'INDEX_TMP_DIR/term_df' */
-    private String getTermDFPath() {
-        return __CONFIG__.getIndexTmpDir() + "term_df";
-    }
-
-    /* Returns the full path of 'INDEX_TMP_DIR/doc_df' */
-    private String getDocTFPath() {
-        return __CONFIG__.getIndexTmpDir() + "doc_tf";
+    /* Returns the full path of 'INDEX_TMP_DIR/replaced_docs', the bitset of the documents that are replaced by the
+    segment that is being built (see findReplacedDocuments()) */
+    private String getReplacedDocumentsPath() {
+        return __CONFIG__.getIndexTmpDir() + "replaced_docs";
     }
 
     /* Returns the full path of the partial index folder 'INDEX_TMP_DIR/ID/' */
@@ -1258,6 +2117,16 @@ public class Indexer {
         return getPartialIndexDir(ID) + __CONFIG__.getPostingsFileName();
     }
 
+    /**
+     * Returns the full path of the partial positions file 'INDEX_TMP_DIR/ID/POSITIONS_FILENAME'.
+     *
+     * @param ID
+     * @return
+     */
+    public String getPartialPositionsPath(int ID) {
+        return getPartialIndexDir(ID) + __CONFIG__.getPositionsFileName();
+    }
+
     /**
      * Returns the full path of the partial vocabulary file 'INDEX_TMP_DIR/ID/VOCABULARY_FILENAME'.
      *
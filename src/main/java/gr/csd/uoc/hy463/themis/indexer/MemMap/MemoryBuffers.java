@@ -29,6 +29,19 @@ public abstract class MemoryBuffers {
      */
     protected void createBuffers(MemoryBuffers.MODE mode)
             throws IOException {
+        createBuffers(mode, true);
+    }
+
+    /**
+     * Same as createBuffers(mode). If preload is false, the contents of the buffers are not loaded in
+     * memory, the pages of the file are read the first time they are accessed.
+     *
+     * @param mode READ or WRITE
+     * @param preload
+     * @throws IOException
+     */
+    protected void createBuffers(MemoryBuffers.MODE mode, boolean preload)
+            throws IOException {
         if (_offsets.length < 2) {
             throw new IllegalArgumentException("offsets size < 2");
         }
@@ -44,7 +57,10 @@ public abstract class MemoryBuffers {
         }
         FileChannel documentsChannel = _file.getChannel();
         for (int i = 0; i < _offsets.length - 1; i++) {
-            MappedByteBuffer buffer = documentsChannel.map(openMode, _offsets[i], getBufferSize(i)).load();
+            MappedByteBuffer buffer = documentsChannel.map(openMode, _offsets[i], getBufferSize(i));
+            if (preload) {
+                buffer.load();
+            }
             _buffers[i] = buffer;
         }
         documentsChannel.close();
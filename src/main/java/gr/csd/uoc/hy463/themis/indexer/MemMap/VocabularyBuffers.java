@@ -0,0 +1,46 @@
+package gr.csd.uoc.hy463.themis.indexer.MemMap;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Class used for memory mapping of the blocks of VOCABULARY_FILENAME (see class VocabularyEntry).
+ * The file is split into buffers at block boundaries so that each block is in a single buffer.
+ * The pages of the file are not preloaded.
+ */
+public class VocabularyBuffers extends MemoryBuffers {
+
+    /**
+     * Constructor.
+     *
+     * @param filePath The full path of the file
+     * @param blockOffsets The offsets of the blocks in the file
+     * @param size The size of the blocks (bytes)
+     * @throws IOException
+     */
+    public VocabularyBuffers(String filePath, long[] blockOffsets, long size)
+            throws IOException {
+        _filePath = filePath;
+        createBufferOffsets(blockOffsets, size);
+        createBuffers(MODE.READ, false);
+    }
+
+    /* Creates the necessary offsets that can be used for splitting the file into buffers. A new buffer
+    starts at a block if the current buffer would exceed the max buffer size */
+    private void createBufferOffsets(long[] blockOffsets, long size) {
+        long[] bufferOffsets = new long[2];
+        int buffers = 0;
+        for (int i = 0; i < blockOffsets.length; i++) {
+            long blockEnd = (i + 1 < blockOffsets.length) ? blockOffsets[i + 1] : size;
+            if (i > 0 && blockEnd - bufferOffsets[buffers] > Integer.MAX_VALUE) {
+                buffers++;
+                if (buffers + 1 == bufferOffsets.length) {
+                    bufferOffsets = Arrays.copyOf(bufferOffsets, bufferOffsets.length * 2);
+                }
+                bufferOffsets[buffers] = blockOffsets[i];
+            }
+        }
+        bufferOffsets[buffers + 1] = size;
+        _offsets = Arrays.copyOf(bufferOffsets, buffers + 2);
+    }
+}
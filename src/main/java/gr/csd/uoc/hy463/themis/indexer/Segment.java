@@ -0,0 +1,633 @@
+package gr.csd.uoc.hy463.themis.indexer;
+
+import gr.csd.uoc.hy463.themis.config.Config;
+import gr.csd.uoc.hy463.themis.indexer.MemMap.DocumentFixedBuffers;
+import gr.csd.uoc.hy463.themis.indexer.MemMap.MemoryBuffers;
+import gr.csd.uoc.hy463.themis.indexer.indexes.Vocabulary;
+import gr.csd.uoc.hy463.themis.indexer.model.DocInfo;
+import gr.csd.uoc.hy463.themis.indexer.model.DocumentBlock;
+import gr.csd.uoc.hy463.themis.indexer.model.DocumentMetaEntry;
+import gr.csd.uoc.hy463.themis.indexer.model.DocumentStringID;
+import gr.csd.uoc.hy463.themis.indexer.model.DocumentVSMEntry;
+import gr.csd.uoc.hy463.themis.indexer.model.VocabularyEntry;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable part of the index. Each segment is stored in its own folder 'INDEX_DIR/name/' and has its own
+ * VOCABULARY_FILENAME, POSTINGS_FILENAME, POSITIONS_FILENAME, DOCUMENTS_FILENAME, DOCUMENTS_META_FILENAME, DOCUMENTS_ID_FILENAME,
+ * DOCUMENTS_ID_LOOKUP_FILENAME, the citations of its documents, the partial sums of the VSM weights of its documents
+ * (see class {@link DocumentVSMEntry}) and the list of the dataset files that were indexed in the segment.
+ *
+ * The documents of a segment have consecutive (int) doc IDs starting from the doc ID base of the segment.
+ * POSTINGS_FILENAME has the (int) doc IDs of the documents, DOCUMENTS_META_FILENAME and DOCUMENTS_ID_FILENAME
+ * have the entry of each doc ID at position (doc ID - doc ID base).
+ *
+ * The files of a segment are not modified after the segment is created. The only exception are the VSM weights
+ * and Pagerank scores in DOCUMENTS_META_FILENAME and the VSM file because they depend on the whole collection, and
+ * the bitset of the deleted documents of the segment. The postings of the deleted documents are removed when the segment is
+ * merged by the {@link SegmentMerger}, the rest of the files keep an entry for every doc ID.
+ *
+ * The segments of the index are listed in 'INDEX_DIR/segments' in order of doc ID base.
+ */
+public class Segment {
+    private static final String SEGMENT_PREFIX = "segment_";
+
+    private final Config _config;
+    private final String _name;
+    private final int _docIDBase;
+    private final int _documents;
+    private final long _tokens;
+
+    /* number of deleted documents that have no postings in POSTINGS_FILENAME */
+    private final int _purgedDocuments;
+
+    /* files of a loaded segment */
+    private Vocabulary _vocabulary = null;
+    private RandomAccessFile _postings = null;
+    private RandomAccessFile _positions = null;
+    private RandomAccessFile _documentsFile = null;
+    private LinkedHashMap<Long, byte[]> _documentBlocks = null;
+    private DocumentFixedBuffers _docMetaBuffers = null;
+    private DocumentFixedBuffers _docIDBuffers = null;
+    private BitSet _deletedDocuments = null;
+
+    /**
+     * Constructor.
+     *
+     * @param config
+     * @param name The name of the folder of the segment in INDEX_DIR
+     * @param docIDBase The (int) doc ID of the first document of the segment
+     * @param documents The number of documents in the segment
+     * @param tokens The total number of tokens of the documents in the segment
+     * @param purgedDocuments The number of deleted documents that have no postings in the segment
+     */
+    public Segment(Config config, String name, int docIDBase, int documents, long tokens, int purgedDocuments) {
+        _config = config;
+        _name = name;
+        _docIDBase = docIDBase;
+        _documents = documents;
+        _tokens = tokens;
+        _purgedDocuments = purgedDocuments;
+    }
+
+    /**
+     * Returns the segments listed in 'INDEX_DIR/segments' or an empty list if the file does not exist.
+     *
+     * @param config
+     * @return
+     * @throws IOException
+     */
+    static List<Segment> readSegments(Config config)
+            throws IOException {
+        List<Segment> segments = new ArrayList<>();
+        File segmentsFile = new File(getSegmentsPath(config));
+        if (!segmentsFile.exists()) {
+            return segments;
+        }
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(segmentsFile), "UTF-8"));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            String[] fields = line.split(" ");
+            int purgedDocuments = (fields.length > 4) ? Integer.parseInt(fields[4]) : 0;
+            segments.add(new Segment(config, fields[0], Integer.parseInt(fields[1]), Integer.parseInt(fields[2]),
+                    Long.parseLong(fields[3]), purgedDocuments));
+        }
+        reader.close();
+        return segments;
+    }
+
+    /**
+     * Writes the given segments to 'INDEX_DIR/segments'. The file is first written to a temp file that then
+     * replaces the previous file, so a reader of the file always finds a complete list of segments.
+     *
+     * @param config
+     * @param segments
+     * @throws IOException
+     */
+    static void writeSegments(Config config, List<Segment> segments)
+            throws IOException {
+        Path segmentsPath = Paths.get(getSegmentsPath(config));
+        Path tmpPath = Paths.get(getSegmentsPath(config) + ".tmp");
+        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmpPath.toFile()), "UTF-8"));
+        for (Segment segment : segments) {
+            writer.write(segment._name + ' ' + segment._docIDBase + ' ' + segment._documents + ' ' + segment._tokens + ' ' +
+                    segment._purgedDocuments + '\n');
+        }
+        writer.close();
+        Files.move(tmpPath, segmentsPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Returns the full path of 'INDEX_DIR/segments'.
+     *
+     * @param config
+     * @return
+     */
+    static String getSegmentsPath(Config config) {
+        return config.getIndexDir() + "segments";
+    }
+
+    /**
+     * Creates a new segment folder 'INDEX_DIR/segment_N/' and returns its name. N is larger than the number
+     * of any other segment folder in INDEX_DIR.
+     *
+     * @param config
+     * @return
+     * @throws IOException
+     */
+    static synchronized String createSegmentDir(Config config)
+            throws IOException {
+        int maxNumber = -1;
+        File[] files = new File(config.getIndexDir()).listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (file.isDirectory() && name.startsWith(SEGMENT_PREFIX)) {
+                    try {
+                        maxNumber = Math.max(maxNumber, Integer.parseInt(name.substring(SEGMENT_PREFIX.length())));
+                    } catch (NumberFormatException ignored) {
+                    }
+                }
+            }
+        }
+        String name = SEGMENT_PREFIX + (maxNumber + 1);
+        Files.createDirectories(Paths.get(config.getIndexDir() + name));
+        return name;
+    }
+
+    /**
+     * Returns the segment that contains the given (int) doc ID. The segments should be sorted by doc ID base.
+     *
+     * @param segments
+     * @param docID
+     * @return
+     */
+    public static Segment find(List<Segment> segments, int docID) {
+        int low = 0;
+        int high = segments.size() - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (segments.get(mid)._docIDBase <= docID) {
+                low = mid;
+            }
+            else {
+                high = mid - 1;
+            }
+        }
+        return segments.get(low);
+    }
+
+    /**
+     * Loads the segment. The following actions take place:
+     * 1) The block index of VOCABULARY_FILENAME is loaded and its blocks are memory mapped.
+     * 2) POSTINGS_FILENAME, POSITIONS_FILENAME (if it exists) and DOCUMENTS_FILENAME are opened. The most recently
+     * used blocks of DOCUMENTS_FILENAME are kept uncompressed in a cache of DOCUMENTS_BLOCK_CACHE_SIZE blocks.
+     * 3) DOCUMENTS_ID_FILENAME and DOCUMENTS_META_FILENAME are memory mapped.
+     * 4) The bitset of the deleted documents is loaded.
+     *
+     * @throws IOException
+     */
+    public void load()
+            throws IOException {
+        _vocabulary = new Vocabulary(getVocabularyPath());
+        _postings = new RandomAccessFile(getPostingsPath(), "r");
+        if (new File(getPositionsPath()).exists()) {
+            _positions = new RandomAccessFile(getPositionsPath(), "r");
+        }
+        _documentsFile = new RandomAccessFile(getDocumentsFilePath(), "r");
+        int blockCacheSize = _config.getDocumentsBlockCacheSize();
+        _documentBlocks = new LinkedHashMap<Long, byte[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+                return size() > blockCacheSize;
+            }
+        };
+        _docMetaBuffers = new DocumentFixedBuffers(getDocumentsMetaFilePath(), MemoryBuffers.MODE.READ, DocumentMetaEntry.SIZE);
+        _docIDBuffers = new DocumentFixedBuffers(getDocumentsIDFilePath(), MemoryBuffers.MODE.READ, DocumentStringID.SIZE);
+        _deletedDocuments = readDeletedDocuments();
+    }
+
+    /**
+     * Closes the files of the segment.
+     *
+     * @throws IOException
+     */
+    public void unload()
+            throws IOException {
+        if (_postings != null) {
+            _postings.close();
+            _postings = null;
+        }
+        if (_positions != null) {
+            _positions.close();
+            _positions = null;
+        }
+        if (_documentsFile != null) {
+            _documentsFile.close();
+            _documentsFile = null;
+        }
+        _documentBlocks = null;
+        if (_docMetaBuffers != null) {
+            _docMetaBuffers.close();
+            _docMetaBuffers = null;
+        }
+        if (_docIDBuffers != null) {
+            _docIDBuffers.close();
+            _docIDBuffers = null;
+        }
+        if (_vocabulary != null) {
+            _vocabulary.close();
+            _vocabulary = null;
+        }
+        _deletedDocuments = null;
+    }
+
+    /**
+     * Reads the bitset of the deleted documents of this segment. Bit i is set if the document with (int) doc ID
+     * (doc ID base + i) has been deleted. Returns an empty bitset if no documents have been deleted.
+     *
+     * @return
+     * @throws IOException
+     */
+    public BitSet readDeletedDocuments()
+            throws IOException {
+        Path path = Paths.get(getDeletedDocumentsPath());
+        if (!Files.exists(path)) {
+            return new BitSet();
+        }
+        return BitSet.valueOf(Files.readAllBytes(path));
+    }
+
+    /**
+     * Reads the token count of each document of this segment from DOCUMENTS_META_FILENAME. Item i is the token
+     * count of the document with (int) doc ID (doc ID base + i).
+     *
+     * @return
+     * @throws IOException
+     */
+    public int[] readTokenCounts()
+            throws IOException {
+        return readDocumentsMetaInts(DocumentMetaEntry.TOKEN_COUNT_OFFSET);
+    }
+
+    /**
+     * Reads the max TF of each document of this segment from DOCUMENTS_META_FILENAME. Item i is the max TF
+     * of the document with (int) doc ID (doc ID base + i).
+     *
+     * @return
+     * @throws IOException
+     */
+    public int[] readMaxTFs()
+            throws IOException {
+        return readDocumentsMetaInts(DocumentMetaEntry.MAX_TF_OFFSET);
+    }
+
+    /* Reads the (int) value at the given offset of each entry of DOCUMENTS_META_FILENAME */
+    private int[] readDocumentsMetaInts(int offset)
+            throws IOException {
+        int[] values = new int[_documents];
+        byte[] docMetaArray = new byte[DocumentMetaEntry.SIZE];
+        ByteBuffer docMetaBuffer = ByteBuffer.wrap(docMetaArray);
+        DataInputStream reader = new DataInputStream(new BufferedInputStream(new FileInputStream(getDocumentsMetaFilePath())));
+        try {
+            for (int i = 0; i < _documents; i++) {
+                reader.readFully(docMetaArray);
+                values[i] = docMetaBuffer.getInt(offset);
+            }
+        } finally {
+            reader.close();
+        }
+        return values;
+    }
+
+    /**
+     * Writes the bitset of the deleted documents of this segment. The file is first written to a temp file
+     * that then replaces the previous file.
+     *
+     * @param deletedDocuments
+     * @throws IOException
+     */
+    public void writeDeletedDocuments(BitSet deletedDocuments)
+            throws IOException {
+        Path tmpPath = Paths.get(getDeletedDocumentsPath() + ".tmp");
+        Files.write(tmpPath, deletedDocuments.toByteArray());
+        Files.move(tmpPath, Paths.get(getDeletedDocumentsPath()), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Returns the list of the dataset file names that were indexed in this segment.
+     *
+     * @return
+     * @throws IOException
+     */
+    public List<String> readCorpusFiles()
+            throws IOException {
+        List<String> files = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(getCorpusFilesPath()), "UTF-8"));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (!line.isEmpty()) {
+                files.add(line);
+            }
+        }
+        reader.close();
+        return files;
+    }
+
+    /**
+     * Writes the list of the dataset file names that were indexed in this segment.
+     *
+     * @param files
+     * @throws IOException
+     */
+    public void writeCorpusFiles(List<String> files)
+            throws IOException {
+        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(getCorpusFilesPath()), "UTF-8"));
+        for (String file : files) {
+            writer.write(file + '\n');
+        }
+        writer.close();
+    }
+
+    /**
+     * Returns the vocabulary entry of the given term or null if the term is not in this segment.
+     * The segment should be loaded.
+     *
+     * @param term
+     * @return
+     */
+    public VocabularyEntry getVocabularyEntry(String term) {
+        return _vocabulary.get(term);
+    }
+
+    /**
+     * Returns the loaded VOCABULARY_FILENAME. The segment should be loaded.
+     *
+     * @return
+     */
+    public Vocabulary getVocabulary() {
+        return _vocabulary;
+    }
+
+    /**
+     * Returns the loaded bitset of the deleted documents (see readDeletedDocuments()). The segment should be loaded.
+     *
+     * @return
+     */
+    public BitSet getDeletedDocuments() {
+        return _deletedDocuments;
+    }
+
+    /**
+     * Returns the opened POSTINGS_FILENAME. The segment should be loaded.
+     *
+     * @return
+     */
+    public RandomAccessFile getPostingsFile() {
+        return _postings;
+    }
+
+    /**
+     * Returns the opened POSITIONS_FILENAME or null if the segment has no positions. The segment should be loaded.
+     *
+     * @return
+     */
+    public RandomAccessFile getPositionsFile() {
+        return _positions;
+    }
+
+    /**
+     * Returns the opened DOCUMENTS_FILENAME. The segment should be loaded.
+     *
+     * @return
+     */
+    public RandomAccessFile getDocumentsFile() {
+        return _documentsFile;
+    }
+
+    /**
+     * Returns the uncompressed entries of the block that starts at the given offset of DOCUMENTS_FILENAME
+     * (see class DocumentBlock). The block is read from the cache if it has been used recently. The segment
+     * should be loaded.
+     *
+     * @param offset
+     * @return
+     * @throws IOException
+     */
+    public synchronized byte[] getDocumentBlock(long offset)
+            throws IOException {
+        byte[] block = _documentBlocks.get(offset);
+        if (block == null) {
+            block = DocumentBlock.read(_documentsFile, offset);
+            _documentBlocks.put(offset, block);
+        }
+        return block;
+    }
+
+    /**
+     * Returns the memory mapped DOCUMENTS_META_FILENAME. The segment should be loaded.
+     *
+     * @return
+     */
+    public DocumentFixedBuffers getDocumentsMetaBuffers() {
+        return _docMetaBuffers;
+    }
+
+    /**
+     * Returns the memory mapped DOCUMENTS_ID_FILENAME. The segment should be loaded.
+     *
+     * @return
+     */
+    public DocumentFixedBuffers getDocumentsIDBuffers() {
+        return _docIDBuffers;
+    }
+
+    /**
+     * Returns the offset of the given (int) doc ID to DOCUMENTS_META_FILENAME of this segment.
+     *
+     * @param docID
+     * @return
+     */
+    public long getMetaOffset(int docID) {
+        return DocInfo.getMetaOffset(docID - _docIDBase);
+    }
+
+    /**
+     * Returns the offset of the given (int) doc ID to DOCUMENTS_ID_FILENAME of this segment.
+     *
+     * @param docID
+     * @return
+     */
+    public long getDocIDOffset(int docID) {
+        return DocInfo.getDocIDOffset(docID - _docIDBase);
+    }
+
+    /**
+     * Returns the name of the folder of this segment in INDEX_DIR.
+     *
+     * @return
+     */
+    public String getName() {
+        return _name;
+    }
+
+    /**
+     * Returns the (int) doc ID of the first document of this segment.
+     *
+     * @return
+     */
+    public int getDocIDBase() {
+        return _docIDBase;
+    }
+
+    /**
+     * Returns the number of documents in this segment.
+     *
+     * @return
+     */
+    public int getDocuments() {
+        return _documents;
+    }
+
+    /**
+     * Returns the total number of tokens of the documents in this segment.
+     *
+     * @return
+     */
+    public long getTokens() {
+        return _tokens;
+    }
+
+    /**
+     * Returns the number of deleted documents that have no postings in POSTINGS_FILENAME of this segment.
+     *
+     * @return
+     */
+    public int getPurgedDocuments() {
+        return _purgedDocuments;
+    }
+
+    /**
+     * Returns the full path of the segment folder 'INDEX_DIR/name/'.
+     *
+     * @return
+     */
+    public String getDir() {
+        return _config.getIndexDir() + _name + "/";
+    }
+
+    /**
+     * Returns the full path of VOCABULARY_FILENAME of this segment.
+     *
+     * @return
+     */
+    public String getVocabularyPath() {
+        return getDir() + _config.getVocabularyFileName();
+    }
+
+    /**
+     * Returns the full path of POSTINGS_FILENAME of this segment.
+     *
+     * @return
+     */
+    public String getPostingsPath() {
+        return getDir() + _config.getPostingsFileName();
+    }
+
+    /**
+     * Returns the full path of POSITIONS_FILENAME of this segment.
+     *
+     * @return
+     */
+    public String getPositionsPath() {
+        return getDir() + _config.getPositionsFileName();
+    }
+
+    /**
+     * Returns the full path of DOCUMENTS_FILENAME of this segment.
+     *
+     * @return
+     */
+    public String getDocumentsFilePath() {
+        return getDir() + _config.getDocumentsFileName();
+    }
+
+    /**
+     * Returns the full path of DOCUMENTS_META_FILENAME of this segment.
+     *
+     * @return
+     */
+    public String getDocumentsMetaFilePath() {
+        return getDir() + _config.getDocumentsMetaFileName();
+    }
+
+    /**
+     * Returns the full path of DOCUMENTS_ID_FILENAME of this segment.
+     *
+     * @return
+     */
+    public String getDocumentsIDFilePath() {
+        return getDir() + _config.getDocumentsIDFileName();
+    }
+
+    /**
+     * Returns the full path of DOCUMENTS_ID_LOOKUP_FILENAME of this segment.
+     *
+     * @return
+     */
+    public String getDocumentsIDLookupPath() {
+        return getDir() + _config.getDocumentsIDLookupFileName();
+    }
+
+    /**
+     * Returns the full path of the citations file of this segment. It has the citations of the documents
+     * and is used by the Pagerank stage.
+     *
+     * @return
+     */
+    public String getCitationsPath() {
+        return getDir() + "citations";
+    }
+
+    /**
+     * Returns the full path of the VSM file of this segment. It has the partial sums of the VSM weights of the
+     * documents (see class DocumentVSMEntry) and is used when the weights are computed again.
+     *
+     * @return
+     */
+    public String getVSMPath() {
+        return getDir() + "vsm";
+    }
+
+    /**
+     * Returns the full path of the file that has the bitset of the deleted documents of this segment.
+     *
+     * @return
+     */
+    public String getDeletedDocumentsPath() {
+        return getDir() + "deleted";
+    }
+
+    /**
+     * Returns the full path of the file that lists the dataset files that were indexed in this segment.
+     *
+     * @return
+     */
+    public String getCorpusFilesPath() {
+        return getDir() + "corpus";
+    }
+}
@@ -0,0 +1,564 @@
+package gr.csd.uoc.hy463.themis.indexer;
+
+import gr.csd.uoc.hy463.themis.Themis;
+import gr.csd.uoc.hy463.themis.config.Config;
+import gr.csd.uoc.hy463.themis.indexer.indexes.VocabularyReader;
+import gr.csd.uoc.hy463.themis.indexer.indexes.VocabularyWriter;
+import gr.csd.uoc.hy463.themis.indexer.model.DocumentMetaEntry;
+import gr.csd.uoc.hy463.themis.indexer.model.DocumentVSMEntry;
+import gr.csd.uoc.hy463.themis.indexer.model.PartialVocabularyEntry;
+import gr.csd.uoc.hy463.themis.indexer.model.Positions;
+import gr.csd.uoc.hy463.themis.indexer.model.Posting;
+import gr.csd.uoc.hy463.themis.indexer.model.Postings;
+import gr.csd.uoc.hy463.themis.utils.Time;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Merges the segments of the index in a background thread so that the number of segments remains small
+ * while new segments are added.
+ *
+ * The size tier of a segment is floor(log_F(documents)) where F = SEGMENT_MERGE_FACTOR. When F consecutive
+ * segments are in the same tier, they are merged into one segment (of the next tier). Each document is merged
+ * about log_F(total documents) times.
+ *
+ * Only consecutive segments are merged so that the doc IDs of the merged segment are also consecutive. The
+ * postings and positions of a term are copied from each segment in order of doc ID base (the postings are
+ * decompressed and compressed again, the skip table of the positions is created again), the rest of the files are concatenated
+ * (the offsets in DOCUMENTS_META_FILENAME are updated). The VSM weights and Pagerank scores are copied since
+ * they do not depend on the segments.
+ *
+ * The postings and positions of the deleted documents are not copied to the merged segment. The doc IDs of the deleted documents
+ * remain in the rest of the files and in the bitset of the deleted documents, since the doc IDs of the next segments
+ * cannot change. A segment that has at least PURGE_RATIO deleted documents with postings is also merged by itself
+ * so that their postings are removed.
+ *
+ * Removing postings changes the DFs of the collection, which the partial VSM sums of every segment depend on (see
+ * class {@link DocumentVSMEntry}). When a merge removes postings, the merged segment gets no VSM file and the VSM
+ * files of the other segments are deleted, so all of them are created again from the postings the next time the
+ * VSM weights are updated. The VSM weights themselves are kept until then.
+ *
+ * The merged segment replaces the old segments in 'INDEX_DIR/segments' while SEGMENTS_LOCK is held, the old
+ * segment folders are deleted after that. Indexers that have already loaded the old segments can still use them.
+ */
+class SegmentMerger {
+    private static final Logger __LOGGER__ = LogManager.getLogger(SegmentMerger.class);
+
+    /* a segment is merged by itself when this fraction of its documents are deleted and have postings */
+    private static final double PURGE_RATIO = 0.2;
+
+    /* held while 'INDEX_DIR/segments' is written and while the segments are loaded */
+    static final Object SEGMENTS_LOCK = new Object();
+
+    private static Thread __MERGE_THREAD__ = null;
+
+    private final Config _config;
+    private final int _mergeFactor;
+
+    private SegmentMerger(Config config) {
+        _config = config;
+        _mergeFactor = config.getSegmentMergeFactor();
+    }
+
+    /**
+     * Starts merging the segments of the index in a background thread. Does nothing if a merge is
+     * already in progress.
+     *
+     * @param config
+     */
+    static synchronized void start(Config config) {
+        if (__MERGE_THREAD__ != null && __MERGE_THREAD__.isAlive()) {
+            return;
+        }
+        SegmentMerger merger = new SegmentMerger(config);
+        __MERGE_THREAD__ = new Thread(merger::mergeSegments, "themis-segment-merger");
+        __MERGE_THREAD__.start();
+    }
+
+    /**
+     * Blocks until the background merge (if any) has finished.
+     *
+     * @throws InterruptedIOException
+     */
+    static void await()
+            throws InterruptedIOException {
+        Thread thread;
+        synchronized (SegmentMerger.class) {
+            thread = __MERGE_THREAD__;
+        }
+        if (thread == null) {
+            return;
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Segment merge interrupted");
+        }
+    }
+
+    /* Merges segments until there are no F consecutive segments in the same tier. Runs in the merge thread */
+    private void mergeSegments() {
+        try {
+            while (true) {
+                List<Segment> segments;
+                synchronized (SEGMENTS_LOCK) {
+                    segments = Segment.readSegments(_config);
+                }
+                List<Segment> merged = findMerge(segments);
+                if (merged == null) {
+                    merged = findPurge(segments);
+                }
+                if (merged == null) {
+                    return;
+                }
+                long startTime = System.nanoTime();
+                Segment segment = merge(merged);
+                Themis.print("-> Merged " + merged.size() + " segments (" + segment.getDocuments() + " documents, " +
+                        segment.getPurgedDocuments() + " deleted) into " + segment.getName() + " in " +
+                        new Time(System.nanoTime() - startTime) + "\n");
+            }
+        } catch (IOException | RuntimeException e) {
+            __LOGGER__.error(e);
+            Themis.print("Segment merge failed: " + e + "\n");
+        }
+    }
+
+    /* Returns the last F consecutive segments that are in the same tier or null if there are no such segments */
+    private List<Segment> findMerge(List<Segment> segments) {
+        for (int last = segments.size() - 1; last >= _mergeFactor - 1; last--) {
+            int tier = getTier(segments.get(last));
+            int first = last;
+            while (first > last - _mergeFactor + 1 && getTier(segments.get(first - 1)) == tier) {
+                first--;
+            }
+            if (first == last - _mergeFactor + 1) {
+                return new ArrayList<>(segments.subList(first, last + 1));
+            }
+        }
+        return null;
+    }
+
+    /* Returns a list with the first segment that has at least PURGE_RATIO deleted documents with postings or null
+    if there is no such segment */
+    private List<Segment> findPurge(List<Segment> segments)
+            throws IOException {
+        for (Segment segment : segments) {
+            int deleted = segment.readDeletedDocuments().cardinality() - segment.getPurgedDocuments();
+            if (deleted > 0 && deleted >= PURGE_RATIO * segment.getDocuments()) {
+                List<Segment> purged = new ArrayList<>();
+                purged.add(segment);
+                return purged;
+            }
+        }
+        return null;
+    }
+
+    private int getTier(Segment segment) {
+        int tier = 0;
+        long size = _mergeFactor;
+        while (size <= segment.getDocuments()) {
+            size *= _mergeFactor;
+            tier++;
+        }
+        return tier;
+    }
+
+    /* Merges the given consecutive segments into a new segment that replaces them and returns it */
+    private Segment merge(List<Segment> segments)
+            throws IOException {
+        Segment first = segments.get(0);
+        int documents = 0;
+        long tokens = 0;
+        List<String> corpusFiles = new ArrayList<>();
+
+        /* the deleted documents of the segments when the merge starts (indexed by (int) doc ID - doc ID base) */
+        BitSet deletedDocuments = new BitSet();
+        int purgedDocuments = 0;
+        for (Segment segment : segments) {
+            purgedDocuments += segment.getPurgedDocuments();
+            BitSet segmentDeletedDocuments = segment.readDeletedDocuments();
+            for (int i = segmentDeletedDocuments.nextSetBit(0); i >= 0; i = segmentDeletedDocuments.nextSetBit(i + 1)) {
+                deletedDocuments.set(documents + i);
+            }
+            documents += segment.getDocuments();
+            tokens += segment.getTokens();
+            corpusFiles.addAll(segment.readCorpusFiles());
+        }
+        String name = Segment.createSegmentDir(_config);
+        Segment mergedSegment = new Segment(_config, name, first.getDocIDBase(), documents, tokens, deletedDocuments.cardinality());
+
+        /* true if the merge removes postings of deleted documents */
+        boolean purges = deletedDocuments.cardinality() > purgedDocuments;
+        try {
+            mergeVocabularies(segments, mergedSegment, deletedDocuments);
+            List<String> documentsPaths = new ArrayList<>();
+            List<String> documentsIDPaths = new ArrayList<>();
+            List<String> citationsPaths = new ArrayList<>();
+            for (Segment segment : segments) {
+                documentsPaths.add(segment.getDocumentsFilePath());
+                documentsIDPaths.add(segment.getDocumentsIDFilePath());
+                citationsPaths.add(segment.getCitationsPath());
+            }
+            concatenateFiles(documentsPaths, mergedSegment.getDocumentsFilePath());
+            concatenateFiles(documentsIDPaths, mergedSegment.getDocumentsIDFilePath());
+            StringIDTable.create(mergedSegment);
+            concatenateFiles(citationsPaths, mergedSegment.getCitationsPath());
+            mergeDocumentsMeta(segments, mergedSegment);
+            if (!purges) {
+                mergeVSM(segments, mergedSegment);
+            }
+            mergedSegment.writeCorpusFiles(corpusFiles);
+            replaceSegments(segments, mergedSegment, deletedDocuments, purges);
+        } catch (IOException | RuntimeException e) {
+            Indexer.deleteDir(new File(mergedSegment.getDir()));
+            throw e;
+        }
+        return mergedSegment;
+    }
+
+    /* Merges VOCABULARY_FILENAME, POSTINGS_FILENAME and POSITIONS_FILENAME of the given segments. The postings
+    and positions of each term are copied from the segments in order of doc ID base so that they remain sorted by
+    doc ID. The postings and positions of the given deleted documents are skipped, and so are the terms that have
+    only such postings. The merged segment has no positions if any of the segments has no positions. The max TF
+    ratio of each term is found again from the postings that are not deleted */
+    private void mergeVocabularies(List<Segment> segments, Segment mergedSegment, BitSet deletedDocuments)
+            throws IOException {
+        int docIDBase = mergedSegment.getDocIDBase();
+        int count = segments.size();
+        boolean hasPositions = true;
+        for (Segment segment : segments) {
+            hasPositions &= new File(segment.getPositionsPath()).exists();
+        }
+        int[] tokenCounts = new int[mergedSegment.getDocuments()];
+        int[] maxTFs = new int[mergedSegment.getDocuments()];
+        int documents = 0;
+        for (Segment segment : segments) {
+            int[] segmentTokenCounts = segment.readTokenCounts();
+            System.arraycopy(segmentTokenCounts, 0, tokenCounts, documents, segmentTokenCounts.length);
+            int[] segmentMaxTFs = segment.readMaxTFs();
+            System.arraycopy(segmentMaxTFs, 0, maxTFs, documents, segmentMaxTFs.length);
+            documents += segmentTokenCounts.length;
+        }
+        VocabularyReader[] vocabularyReaders = new VocabularyReader[count];
+        DataInputStream[] postingsStreams = new DataInputStream[count];
+        DataInputStream[] positionsStreams = new DataInputStream[count];
+        VocabularyWriter vocabularyWriter = new VocabularyWriter(mergedSegment.getVocabularyPath(), hasPositions, true);
+        BufferedOutputStream postingsWriter = new BufferedOutputStream(new FileOutputStream(mergedSegment.getPostingsPath()));
+        BufferedOutputStream positionsWriter = hasPositions ? new BufferedOutputStream(new FileOutputStream(mergedSegment.getPositionsPath())) : null;
+        try {
+            PriorityQueue<PartialVocabularyEntry> vocabularyQueue = new PriorityQueue<>();
+            for (int i = 0; i < count; i++) {
+                vocabularyReaders[i] = new VocabularyReader(segments.get(i).getVocabularyPath());
+                postingsStreams[i] = new DataInputStream(new BufferedInputStream(new FileInputStream(segments.get(i).getPostingsPath())));
+                if (hasPositions) {
+                    positionsStreams[i] = new DataInputStream(new BufferedInputStream(new FileInputStream(segments.get(i).getPositionsPath())));
+                }
+                PartialVocabularyEntry entry = getNextVocabularyEntry(vocabularyReaders[i], i);
+                if (entry != null) {
+                    vocabularyQueue.add(entry);
+                }
+            }
+
+            List<PartialVocabularyEntry> equalTermEntries = new ArrayList<>();
+            byte[] compressedPostings = new byte[0];
+            byte[] postings = new byte[0];
+            byte[] positions = new byte[0];
+            byte[] skipTable = new byte[0];
+            long postingsOffset = 0;
+            long positionsOffset = 0;
+            PartialVocabularyEntry polledEntry;
+            while ((polledEntry = vocabularyQueue.poll()) != null) {
+                equalTermEntries.add(polledEntry);
+                int segmentID = polledEntry.getIndexID();
+                PartialVocabularyEntry entry = getNextVocabularyEntry(vocabularyReaders[segmentID], segmentID);
+                if (entry != null) {
+                    vocabularyQueue.add(entry);
+                }
+
+                /* continue until all entries of the current term have been polled */
+                PartialVocabularyEntry nextEntry = vocabularyQueue.peek();
+                if (nextEntry != null && nextEntry.getTerm().equals(polledEntry.getTerm())) {
+                    continue;
+                }
+                equalTermEntries.sort(PartialVocabularyEntry.IDComparator);
+                int size = 0;
+                for (PartialVocabularyEntry equalTerm : equalTermEntries) {
+                    size += equalTerm.getDF() * Posting.SIZE;
+                }
+                if (postings.length < size) {
+                    postings = new byte[Math.max(size, postings.length * 2)];
+                }
+
+                /* read and decompress the postings of each segment */
+                int postingsPos = 0;
+                for (PartialVocabularyEntry equalTerm : equalTermEntries) {
+                    int compressedSize = equalTerm.getPostingsSize();
+                    if (compressedPostings.length < compressedSize) {
+                        compressedPostings = new byte[Math.max(compressedSize, compressedPostings.length * 2)];
+                    }
+                    postingsStreams[equalTerm.getIndexID()].readFully(compressedPostings, 0, compressedSize);
+                    Postings.decode(compressedPostings, equalTerm.getDF(), postings, postingsPos);
+                    postingsPos += equalTerm.getDF() * Posting.SIZE;
+                }
+
+                /* the positions of each segment are read after their skip table, the last item of the skip
+                table is the size of the positions */
+                int positionsSize = 0;
+                if (hasPositions) {
+                    for (PartialVocabularyEntry equalTerm : equalTermEntries) {
+                        DataInputStream positionsStream = positionsStreams[equalTerm.getIndexID()];
+                        positionsStream.skipBytes(Positions.getSkipTableSize(equalTerm.getDF()) - Positions.SKIP_SIZE);
+                        int segmentPositionsSize = positionsStream.readInt();
+                        if (positions.length < positionsSize + segmentPositionsSize) {
+                            positions = Arrays.copyOf(positions, Math.max(positionsSize + segmentPositionsSize, positions.length * 2));
+                        }
+                        positionsStream.readFully(positions, positionsSize, segmentPositionsSize);
+                        positionsSize += segmentPositionsSize;
+                    }
+                }
+                equalTermEntries.clear();
+                if (!deletedDocuments.isEmpty()) {
+                    if (hasPositions) {
+                        positionsSize = removeDeletedPositions(postings, size, positions, docIDBase, deletedDocuments);
+                    }
+                    size = removeDeletedPostings(postings, size, docIDBase, deletedDocuments);
+                }
+                if (size == 0) {
+                    continue;
+                }
+                int DF = size / Posting.SIZE;
+                int maxCompressedSize = Postings.getMaxEncodedSize(DF);
+                if (compressedPostings.length < maxCompressedSize) {
+                    compressedPostings = new byte[Math.max(maxCompressedSize, compressedPostings.length * 2)];
+                }
+                int compressedSize = Postings.encode(postings, DF, tokenCounts, docIDBase, compressedPostings);
+                long maxTFRatio = IndexMerger.getMaxTFRatio(postings, size, docIDBase, maxTFs);
+                vocabularyWriter.add(polledEntry.getTerm(), DF, postingsOffset, compressedSize, positionsOffset,
+                        (int) (maxTFRatio >>> 32), (int) maxTFRatio);
+                if (hasPositions) {
+                    int skipTableSize = Positions.getSkipTableSize(DF);
+                    if (skipTable.length < skipTableSize) {
+                        skipTable = new byte[Math.max(skipTableSize, skipTable.length * 2)];
+                    }
+                    Positions.createSkipTable(postings, DF, positions, skipTable);
+                    positionsWriter.write(skipTable, 0, skipTableSize);
+                    positionsWriter.write(positions, 0, positionsSize);
+                    positionsOffset += skipTableSize + positionsSize;
+                }
+                postingsWriter.write(compressedPostings, 0, compressedSize);
+                postingsOffset += compressedSize;
+            }
+        } finally {
+            for (int i = 0; i < count; i++) {
+                if (vocabularyReaders[i] != null) {
+                    vocabularyReaders[i].close();
+                }
+                if (postingsStreams[i] != null) {
+                    postingsStreams[i].close();
+                }
+                if (positionsStreams[i] != null) {
+                    positionsStreams[i].close();
+                }
+            }
+            vocabularyWriter.close();
+            postingsWriter.close();
+            if (positionsWriter != null) {
+                positionsWriter.close();
+            }
+        }
+    }
+
+    /* Removes the postings of the deleted documents from the given postings and returns the new size (bytes)
+    of the postings */
+    private static int removeDeletedPostings(byte[] postings, int size, int docIDBase, BitSet deletedDocuments) {
+        ByteBuffer buffer = ByteBuffer.wrap(postings);
+        int newSize = 0;
+        for (int offset = 0; offset < size; offset += Posting.SIZE) {
+            int docID = buffer.getInt(offset + Posting.DOCID_OFFSET);
+            if (!deletedDocuments.get(docID - docIDBase)) {
+                if (newSize != offset) {
+                    System.arraycopy(postings, offset, postings, newSize, Posting.SIZE);
+                }
+                newSize += Posting.SIZE;
+            }
+        }
+        return newSize;
+    }
+
+    /* Removes the positions of the deleted documents from the given positions and returns the new size (bytes)
+    of the positions. The postings should not have been changed by removeDeletedPostings() yet */
+    private static int removeDeletedPositions(byte[] postings, int size, byte[] positions, int docIDBase, BitSet deletedDocuments) {
+        ByteBuffer buffer = ByteBuffer.wrap(postings);
+        int pos = 0;
+        int newSize = 0;
+        for (int offset = 0; offset < size; offset += Posting.SIZE) {
+            int nextPos = Positions.skip(positions, pos, buffer.getInt(offset + Posting.TF_OFFSET));
+            int docID = buffer.getInt(offset + Posting.DOCID_OFFSET);
+            if (!deletedDocuments.get(docID - docIDBase)) {
+                if (newSize != pos) {
+                    System.arraycopy(positions, pos, positions, newSize, nextPos - pos);
+                }
+                newSize += nextPos - pos;
+            }
+            pos = nextPos;
+        }
+        return newSize;
+    }
+
+    /* Reads the next entry of the given VOCABULARY_FILENAME and returns a new PartialVocabularyEntry.
+    The index ID of the entry is the position of the segment in the merged segments and the size of the postings
+    is the size of the compressed postings. The size of the positions of the entry is not known (it is read from
+    the skip table of the positions) */
+    private static PartialVocabularyEntry getNextVocabularyEntry(VocabularyReader vocabularyReader, int segmentID)
+            throws IOException {
+        if (!vocabularyReader.next()) {
+            return null;
+        }
+        return new PartialVocabularyEntry(vocabularyReader.getTerm(), vocabularyReader.getDF(), segmentID,
+                vocabularyReader.getPostingsSize(), 0);
+    }
+
+    /* Concatenates DOCUMENTS_META_FILENAME of the given segments. The offset of the block of each document to
+    DOCUMENTS_FILENAME is increased by the size of DOCUMENTS_FILENAME of the previous segments */
+    private void mergeDocumentsMeta(List<Segment> segments, Segment mergedSegment)
+            throws IOException {
+        BufferedOutputStream writer = new BufferedOutputStream(new FileOutputStream(mergedSegment.getDocumentsMetaFilePath()));
+        byte[] docMetaArray = new byte[DocumentMetaEntry.SIZE];
+        ByteBuffer docMetaBuffer = ByteBuffer.wrap(docMetaArray);
+        long documentsOffset = 0;
+        for (Segment segment : segments) {
+            DataInputStream reader = new DataInputStream(new BufferedInputStream(new FileInputStream(segment.getDocumentsMetaFilePath())));
+            for (int i = 0; i < segment.getDocuments(); i++) {
+                reader.readFully(docMetaArray);
+                long offset = docMetaBuffer.getLong(DocumentMetaEntry.DOCUMENT_OFFSET_OFFSET);
+                docMetaBuffer.putLong(DocumentMetaEntry.DOCUMENT_OFFSET_OFFSET, offset + documentsOffset);
+                writer.write(docMetaArray);
+            }
+            reader.close();
+            documentsOffset += new File(segment.getDocumentsFilePath()).length();
+        }
+        writer.close();
+    }
+
+    /* Concatenates the entries of the VSM files of the given segments. The VSM file is not created if a segment
+    has no VSM file or if the sums of the segments assume different DFs (the header of the VSM files is not the
+    same), and it will be created from the postings of the merged segment when the weights are updated */
+    private void mergeVSM(List<Segment> segments, Segment mergedSegment)
+            throws IOException {
+        long VSMDocuments = -1;
+        for (Segment segment : segments) {
+            if (!new File(segment.getVSMPath()).exists()) {
+                return;
+            }
+            RandomAccessFile VSMFile = new RandomAccessFile(segment.getVSMPath(), "r");
+            VSMFile.seek(DocumentVSMEntry.DOCUMENTS_OFFSET);
+            long documents = VSMFile.readLong();
+            VSMFile.close();
+            if (VSMDocuments != -1 && documents != VSMDocuments) {
+                return;
+            }
+            VSMDocuments = documents;
+        }
+        FileChannel outChannel = FileChannel.open(Paths.get(mergedSegment.getVSMPath()),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(DocumentVSMEntry.SIZE);
+            header.putLong(DocumentVSMEntry.DOCUMENTS_OFFSET, VSMDocuments);
+            outChannel.write(header);
+            for (Segment segment : segments) {
+                FileChannel channel = FileChannel.open(Paths.get(segment.getVSMPath()), StandardOpenOption.READ);
+                long position = DocumentVSMEntry.SIZE;
+                long size = channel.size();
+                while (position < size) {
+                    position += channel.transferTo(position, size - position, outChannel);
+                }
+                channel.close();
+            }
+        } finally {
+            outChannel.close();
+        }
+    }
+
+    /* Concatenates the given files (FileChannel.transferTo) and creates the file with the given path */
+    private static void concatenateFiles(List<String> paths, String outPath)
+            throws IOException {
+        FileChannel outChannel = FileChannel.open(Paths.get(outPath),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            for (String path : paths) {
+                FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+                long position = 0;
+                long size = channel.size();
+                while (position < size) {
+                    position += channel.transferTo(position, size - position, outChannel);
+                }
+                channel.close();
+            }
+        } finally {
+            outChannel.close();
+        }
+    }
+
+    /* Replaces the merged segments with the new segment in 'INDEX_DIR/segments' and deletes the folders of the
+    merged segments. The documents that have been deleted during the merge are added to the given deleted
+    documents of the new segment. If the merge has removed postings (purges is true), the VSM files of the rest
+    of the segments are deleted first since their sums assume the previous DFs */
+    private void replaceSegments(List<Segment> merged, Segment mergedSegment, BitSet deletedDocuments, boolean purges)
+            throws IOException {
+        synchronized (SEGMENTS_LOCK) {
+            List<Segment> segments = Segment.readSegments(_config);
+            int first = -1;
+            for (int i = 0; i < segments.size(); i++) {
+                if (segments.get(i).getName().equals(merged.get(0).getName())) {
+                    first = i;
+                    break;
+                }
+            }
+            boolean found = first != -1 && first + merged.size() <= segments.size();
+            for (int i = 0; found && i < merged.size(); i++) {
+                found = segments.get(first + i).getName().equals(merged.get(i).getName());
+            }
+            if (!found) {
+                throw new IOException("Segments have been modified during the merge");
+            }
+            int documents = 0;
+            for (Segment segment : merged) {
+                BitSet segmentDeletedDocuments = segment.readDeletedDocuments();
+                for (int i = segmentDeletedDocuments.nextSetBit(0); i >= 0; i = segmentDeletedDocuments.nextSetBit(i + 1)) {
+                    deletedDocuments.set(documents + i);
+                }
+                documents += segment.getDocuments();
+            }
+            if (!deletedDocuments.isEmpty()) {
+                mergedSegment.writeDeletedDocuments(deletedDocuments);
+            }
+            segments.subList(first, first + merged.size()).clear();
+            if (purges) {
+                for (Segment segment : segments) {
+                    Files.deleteIfExists(Paths.get(segment.getVSMPath()));
+                }
+            }
+            segments.add(first, mergedSegment);
+            Segment.writeSegments(_config, segments);
+            for (Segment segment : merged) {
+                if (!Indexer.deleteDir(new File(segment.getDir()))) {
+                    __LOGGER__.error("Unable to delete " + segment.getDir());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package gr.csd.uoc.hy463.themis.indexer;
+
+import gr.csd.uoc.hy463.themis.indexer.MemMap.DocumentFixedBuffers;
+import gr.csd.uoc.hy463.themis.indexer.MemMap.MemoryBuffers;
+import gr.csd.uoc.hy463.themis.indexer.model.DocumentIDLookupEntry;
+import gr.csd.uoc.hy463.themis.indexer.model.DocumentStringID;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Maps the (string) doc IDs of the given segments to (int) doc IDs. It uses DOCUMENTS_ID_LOOKUP_FILENAME of each
+ * segment (see class DocumentIDLookupEntry): the entries are memory mapped and only the fanout tables are read,
+ * so opening the table takes the same time for any number of documents and requires much less memory than a
+ * Map<String, Integer>.
+ *
+ * If the same (string) doc ID is found in more than one segment, it is mapped to the (int) doc ID of the
+ * last segment. The empty (string) doc ID of the documents that have an invalid ID (see
+ * DocumentStringID.isEmpty()) is not mapped to any document.
+ */
+public class StringIDTable {
+    private final DocumentFixedBuffers[] _lookupBuffers;
+    private final int[][] _fanouts;
+    private final int[] _docIDBases;
+
+    /**
+     * Constructor.
+     *
+     * @param segments The segments sorted by doc ID base
+     * @throws IOException
+     */
+    public StringIDTable(List<Segment> segments)
+            throws IOException {
+        _lookupBuffers = new DocumentFixedBuffers[segments.size()];
+        _fanouts = new int[segments.size()][];
+        _docIDBases = new int[segments.size()];
+        for (int i = 0; i < segments.size(); i++) {
+            String lookupPath = segments.get(i).getDocumentsIDLookupPath();
+            _fanouts[i] = readFanout(lookupPath);
+            _lookupBuffers[i] = new DocumentFixedBuffers(lookupPath, MemoryBuffers.MODE.READ, DocumentIDLookupEntry.SIZE);
+            _docIDBases[i] = segments.get(i).getDocIDBase();
+        }
+    }
+
+    /**
+     * Returns the (int) doc ID of the given (string) doc ID or -1 if it is not found.
+     *
+     * @param stringID The (string) doc ID (see class DocumentStringID)
+     * @return
+     */
+    public int get(byte[] stringID) {
+        for (int i = _docIDBases.length - 1; i >= 0; i--) {
+            int docID = search(i, stringID);
+            if (docID != -1) {
+                return _docIDBases[i] + docID;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Closes the memory mapped files.
+     *
+     * @throws IOException
+     */
+    public void close()
+            throws IOException {
+        for (DocumentFixedBuffers lookupBuffers : _lookupBuffers) {
+            lookupBuffers.close();
+        }
+    }
+
+    /**
+     * Creates DOCUMENTS_ID_LOOKUP_FILENAME of the given segment from its DOCUMENTS_ID_FILENAME.
+     *
+     * The entries are sorted by the first 4 bytes of their (string) doc ID (packed in a long along with their
+     * (int) doc ID) and the few entries that have the same first 4 bytes are then sorted by the rest of the bytes.
+     *
+     * @param segment
+     * @throws IOException
+     */
+    public static void create(Segment segment)
+            throws IOException {
+        int documents = (int) (new File(segment.getDocumentsIDFilePath()).length() / DocumentStringID.SIZE);
+        long[] keys = new long[documents];
+        int[] fanout = new int[DocumentIDLookupEntry.FANOUT_SIZE];
+        DataOutputStream lookupWriter = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(segment.getDocumentsIDLookupPath())));
+        DocumentFixedBuffers docIDBuffers = null;
+        try {
+            if (documents != 0) {
+                docIDBuffers = new DocumentFixedBuffers(segment.getDocumentsIDFilePath(), MemoryBuffers.MODE.READ, DocumentStringID.SIZE);
+                for (int i = 0; i < documents; i++) {
+                    ByteBuffer buffer = getStringID(docIDBuffers, i);
+                    keys[i] = ((long) (buffer.getInt(buffer.position()) ^ Integer.MIN_VALUE) << 32) | i;
+                }
+                Arrays.sort(keys);
+                int start = 0;
+                for (int i = 1; i <= documents; i++) {
+                    if (i == documents || (keys[i] >>> 32) != (keys[start] >>> 32)) {
+                        if (i - start > 1) {
+                            sortStringIDs(docIDBuffers, keys, start, i);
+                        }
+                        start = i;
+                    }
+                }
+                byte[] stringID = new byte[DocumentStringID.SIZE];
+                for (int i = 0; i < documents; i++) {
+                    int docID = (int) keys[i];
+
+                    /* a duplicate (string) doc ID is mapped to the last document */
+                    if (i + 1 < documents && compareStringIDs(docIDBuffers, docID, (int) keys[i + 1]) == 0) {
+                        continue;
+                    }
+                    getStringID(docIDBuffers, docID).get(stringID);
+                    if (DocumentStringID.isEmpty(stringID, 0)) {
+                        continue;
+                    }
+                    lookupWriter.write(stringID);
+                    lookupWriter.writeInt(docID);
+                    fanout[((stringID[0] & 0xFF) << 8) | (stringID[1] & 0xFF)]++;
+                }
+            }
+            int entries = 0;
+            for (int i = 0; i < fanout.length; i++) {
+                entries += fanout[i];
+                lookupWriter.writeInt(entries);
+            }
+        } finally {
+            lookupWriter.close();
+            if (docIDBuffers != null) {
+                docIDBuffers.close();
+            }
+        }
+    }
+
+    /* Returns the (int) doc ID - doc ID base of the given (string) doc ID in the given segment or -1 if it
+    is not found */
+    private int search(int segment, byte[] stringID) {
+        int prefix = ((stringID[0] & 0xFF) << 8) | (stringID[1] & 0xFF);
+        int low = (prefix == 0) ? 0 : _fanouts[segment][prefix - 1];
+        int high = _fanouts[segment][prefix] - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            ByteBuffer buffer = _lookupBuffers[segment].getMemBuffer((long) mid * DocumentIDLookupEntry.SIZE);
+            int position = buffer.position();
+            int cmp = 0;
+            for (int i = 2; i < DocumentStringID.SIZE && cmp == 0; i++) {
+                cmp = (buffer.get(position + DocumentIDLookupEntry.ID_OFFSET + i) & 0xFF) - (stringID[i] & 0xFF);
+            }
+            if (cmp < 0) {
+                low = mid + 1;
+            }
+            else if (cmp > 0) {
+                high = mid - 1;
+            }
+            else {
+                return buffer.getInt(position + DocumentIDLookupEntry.DOCID_OFFSET);
+            }
+        }
+        return -1;
+    }
+
+    /* Reads the fanout table at the end of the given DOCUMENTS_ID_LOOKUP_FILENAME */
+    private static int[] readFanout(String lookupPath)
+            throws IOException {
+        byte[] fanoutArr = new byte[DocumentIDLookupEntry.FANOUT_SIZE * 4];
+        RandomAccessFile lookupFile = new RandomAccessFile(lookupPath, "r");
+        try {
+            lookupFile.seek(lookupFile.length() - fanoutArr.length);
+            lookupFile.readFully(fanoutArr);
+        } finally {
+            lookupFile.close();
+        }
+        int[] fanout = new int[DocumentIDLookupEntry.FANOUT_SIZE];
+        ByteBuffer.wrap(fanoutArr).asIntBuffer().get(fanout);
+        return fanout;
+    }
+
+    /* Sorts keys[start, end) by the (string) doc ID of their (int) doc IDs. Entries that have the same
+    (string) doc ID remain sorted by (int) doc ID */
+    private static void sortStringIDs(DocumentFixedBuffers docIDBuffers, long[] keys, int start, int end) {
+        for (int i = start + 1; i < end; i++) {
+            long key = keys[i];
+            int j = i - 1;
+            while (j >= start && compareStringIDs(docIDBuffers, (int) keys[j], (int) key) > 0) {
+                keys[j + 1] = keys[j];
+                j--;
+            }
+            keys[j + 1] = key;
+        }
+    }
+
+    /* Compares (unsigned) the (string) doc IDs of the given (int) doc IDs */
+    private static int compareStringIDs(DocumentFixedBuffers docIDBuffers, int docID1, int docID2) {
+        ByteBuffer buffer = getStringID(docIDBuffers, docID1);
+        int position1 = buffer.position();
+        ByteBuffer buffer2 = getStringID(docIDBuffers, docID2);
+        int position2 = buffer2.position();
+        for (int i = 0; i < DocumentStringID.SIZE; i++) {
+            int cmp = (buffer.get(position1 + i) & 0xFF) - (buffer2.get(position2 + i) & 0xFF);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    /* Returns the buffer of DOCUMENTS_ID_FILENAME positioned at the (string) ID of the given (int) doc ID */
+    private static ByteBuffer getStringID(DocumentFixedBuffers docIDBuffers, int docID) {
+        return docIDBuffers.getMemBuffer((long) docID * DocumentStringID.SIZE);
+    }
+}
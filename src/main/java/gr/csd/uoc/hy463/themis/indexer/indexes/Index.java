@@ -2,23 +2,65 @@ package gr.csd.uoc.hy463.themis.indexer.indexes;
 
 import java.io.*;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.*;
 
 import gr.csd.uoc.hy463.themis.indexer.Indexer;
-import gr.csd.uoc.hy463.themis.indexer.model.TermPostings;
 import gr.csd.uoc.hy463.themis.indexer.model.Posting;
+import gr.csd.uoc.hy463.themis.lexicalAnalysis.collections.SemanticScholar.S2TextualEntryTokens;
+import gr.csd.uoc.hy463.themis.utils.VarInt;
 
 /**
  * This class stores all information about a partial index.
  * It also knows how to dump it to the appropriate files.
+ *
+ * Each term is mapped to an (int) term ID. The postings of a term are kept in a growable int array
+ * (indexed by the term ID) that stores the TF and doc ID of each posting one after the other, so no objects
+ * are created per posting. The positions of the term in each document are kept in a growable byte array per
+ * term, already encoded as in the partial POSITIONS_FILENAME.
+ *
+ * The partial index is dumped in a compact binary format (front coded terms, gaps of doc IDs, TFs and gaps of
+ * positions as {@link VarInt}s). It is read by a {@link PartialVocabularyReader} and the postings are converted to the
+ * final format by decodePostings().
+ *
+ * The index keeps an estimate of its memory footprint (see getMemoryUsage()) so that the {@link Indexer}
+ * can dump it when the MAX_MEMORY budget is reached.
  */
 public class Index {
+    /* Approximate heap size (bytes) of a new term excluding its chars: the String and its char array,
+    the HashMap node, table slot and Integer term ID, the slots in the per term arrays and the headers
+    of the postings and positions arrays */
+    private static final int TERM_MEMORY = 40 + 56 + 24 + 32;
+
+    /* initial size (bytes) of the positions array of a term */
+    private static final int INITIAL_POSITIONS_SIZE = 8;
+
+    /* number of ints per posting in the postings arrays: TF, doc ID */
+    private static final int POSTING_INTS = 2;
+
+    /* every RESTART_INTERVAL terms, a term is written to VOCABULARY_FILENAME without a shared prefix */
+    private static final int RESTART_INTERVAL = 128;
+
     private final int _indexID;
     private final Indexer _indexer;
-    private final Map<String, TermPostings> __INDEX__ = new HashMap<>();
-    private List<String> __SORTED_TERMS__ = null;
+
+    /* [term -> term ID] */
+    private final Map<String, Integer> __TERM_IDS__ = new HashMap<>();
+
+    /* term, DF and postings [TF1, doc ID1, TF2, doc ID2, ...] of each term ID */
+    private String[] __TERMS__ = new String[1024];
+    private int[] __DFS__ = new int[1024];
+    private int[][] __POSTINGS__ = new int[1024][];
+
+    /* positions of each term ID and the number of used bytes of each positions array */
+    private byte[][] __POSITIONS__ = new byte[1024][];
+    private int[] __POSITIONS_SIZES__ = new int[1024];
+
+    private String[] __SORTED_TERMS__ = null;
+    private long _memory = 0;
+    private int _documents = 0;
 
     public Index(Indexer indexer, int ID) {
         _indexer = indexer;
@@ -26,106 +68,258 @@ public class Index {
     }
 
     /**
-     * Dumps all index data to 'INDEX_TMP_DIR/index_id/' and creates the VOCABULARY_FILENAME
-     * and POSTINGS_FILENAME files in the same directory.
+     * Dumps all index data to 'INDEX_TMP_DIR/index_id/' and creates the VOCABULARY_FILENAME,
+     * POSTINGS_FILENAME and POSITIONS_FILENAME files in the same directory.
      *
      * @throws IOException
      */
     public void dump()
             throws IOException {
-        __SORTED_TERMS__ = new ArrayList<>(__INDEX__.keySet());
+        __SORTED_TERMS__ = Arrays.copyOf(__TERMS__, __TERM_IDS__.size());
 
         /* sort the terms before dumping to disk */
-        Collections.sort(__SORTED_TERMS__);
+        Arrays.sort(__SORTED_TERMS__);
 
         String vocabularyPath = _indexer.getPartialVocabularyPath(_indexID);
         String postingsPath = _indexer.getPartialPostingsPath(_indexID);
+        String positionsPath = _indexer.getPartialPositionsPath(_indexID);
 
         Files.createDirectories(Paths.get(vocabularyPath).getParent());
         Files.createDirectories(Paths.get(postingsPath).getParent());
-        dumpVocabulary(vocabularyPath);
-        dumpPostings(postingsPath);
+        Files.createDirectories(Paths.get(positionsPath).getParent());
+        int[] postingsSizes = dumpPostings(postingsPath);
+        dumpPositions(positionsPath);
+        dumpVocabulary(vocabularyPath, postingsSizes);
     }
 
     /**
-     * Adds to this index the map of [term -> TF] for the document that has the given (int) doc ID.
-     * Also writes this information to 'INDEX_TMP_DIR/doc_tf' as a sequence of <term1, TF1, term2, TF2, ...>
-     * (one line per document)
+     * Adds to this index the map of [term -> positions] for the document that has the given (int) doc ID.
+     * The TF of a term is the number of its positions.
      *
-     * Returns the sum of all frequencies in the document (total number of tokens).
+     * Returns the sum of all frequencies in the document (total number of tokens). The terms of single fields
+     * (see {@link S2TextualEntryTokens#isFieldTerm(String)}) are not counted.
      *
-     * @param TFMap Map of term frequencies
-     * @param docTFWriter
+     * @param positionsMap Map of sorted term positions
      * @param docID ID of the relevant document
-     * @throws IOException
      * @return
      */
-    public int add(Map<String, Integer> TFMap, BufferedWriter docTFWriter, int docID)
-            throws IOException {
-        StringBuilder SB = new StringBuilder();
+    public int add(Map<String, int[]> positionsMap, int docID) {
         int TFSum = 0;
-        for (Map.Entry<String, Integer> entry : TFMap.entrySet()) {
-            int TF = entry.getValue();
+        for (Map.Entry<String, int[]> entry : positionsMap.entrySet()) {
+            int[] positions = entry.getValue();
+            int TF = positions.length;
             String term = entry.getKey();
-            TermPostings postings = __INDEX__.get(term);
-            TFSum += TF;
-            if (postings != null) {
-                postings.addPosting(new Posting(TF, docID));
+            if (!S2TextualEntryTokens.isFieldTerm(term)) {
+                TFSum += TF;
             }
-            else {
-                postings = new TermPostings();
-                postings.addPosting(new Posting(TF, docID));
-                __INDEX__.put(term, postings);
+            Integer termID = __TERM_IDS__.get(term);
+            if (termID == null) {
+                termID = addTerm(term);
             }
-            SB.append(term).append(' ').append(TF).append(' ');
+            addPosting(termID, TF, docID);
+            addPositions(termID, positions);
         }
-        SB.append('\n');
-        docTFWriter.write(SB.toString());
+        _documents++;
         return TFSum;
     }
 
-    /* Dumps the appropriate vocabulary data to the given filePath (normal sequential file).
-     * Each line contains:
-     * 1) Term
-     * 2) DF (document frequency of the term)
+    /* Adds a new term to the index and returns its term ID */
+    private int addTerm(String term) {
+        int termID = __TERM_IDS__.size();
+        if (termID == __TERMS__.length) {
+            int capacity = termID + (termID >> 1);
+            __TERMS__ = Arrays.copyOf(__TERMS__, capacity);
+            __DFS__ = Arrays.copyOf(__DFS__, capacity);
+            __POSTINGS__ = Arrays.copyOf(__POSTINGS__, capacity);
+            __POSITIONS__ = Arrays.copyOf(__POSITIONS__, capacity);
+            __POSITIONS_SIZES__ = Arrays.copyOf(__POSITIONS_SIZES__, capacity);
+        }
+        __TERM_IDS__.put(term, termID);
+        __TERMS__[termID] = term;
+        __POSTINGS__[termID] = new int[POSTING_INTS];
+        __POSITIONS__[termID] = new byte[INITIAL_POSITIONS_SIZE];
+        _memory += TERM_MEMORY + 2L * term.length() + 4 * POSTING_INTS + INITIAL_POSITIONS_SIZE;
+        return termID;
+    }
+
+    /* Appends a posting to the postings of the given term ID. The postings array grows by 1.5x
+    (at least by 1 posting) when it is full */
+    private void addPosting(int termID, int TF, int docID) {
+        int[] postings = __POSTINGS__[termID];
+        int pos = __DFS__[termID] * POSTING_INTS;
+        if (pos == postings.length) {
+            int capacity = Math.max(pos + POSTING_INTS, (pos + (pos >> 1)) / POSTING_INTS * POSTING_INTS);
+            postings = Arrays.copyOf(postings, capacity);
+            __POSTINGS__[termID] = postings;
+            _memory += 4L * (capacity - pos);
+        }
+        postings[pos] = TF;
+        postings[pos + 1] = docID;
+        __DFS__[termID]++;
+    }
+
+    /* Appends the positions of a posting to the positions of the given term ID: the first position and then
+    the gap from the previous position as VarInts. The positions array grows by 1.5x (at least by the size of
+    the new positions) when it is full */
+    private void addPositions(int termID, int[] positions) {
+        byte[] termPositions = __POSITIONS__[termID];
+        int size = __POSITIONS_SIZES__[termID];
+        int maxSize = size + positions.length * VarInt.MAX_SIZE;
+        if (maxSize > termPositions.length) {
+            int capacity = Math.max(maxSize, termPositions.length + (termPositions.length >> 1));
+            _memory += capacity - termPositions.length;
+            termPositions = Arrays.copyOf(termPositions, capacity);
+            __POSITIONS__[termID] = termPositions;
+        }
+        int prevPosition = 0;
+        for (int position : positions) {
+            size = VarInt.write(termPositions, size, position - prevPosition);
+            prevPosition = position;
+        }
+        __POSITIONS_SIZES__[termID] = size;
+    }
+
+    /**
+     * Returns an estimate of the memory (bytes) used by the terms, postings and positions of this index.
+     *
+     * @return
+     */
+    public long getMemoryUsage() {
+        return _memory;
+    }
+
+    /**
+     * Returns the ID of this index.
      *
-     * Terms are saved in lexicographic order.
+     * @return
+     */
+    public int getID() {
+        return _indexID;
+    }
+
+    /**
+     * Returns the number of documents that have been added to this index.
+     *
+     * @return
+     */
+    public int getDocuments() {
+        return _documents;
+    }
+
+    /* Dumps the appropriate vocabulary data to the given filePath (binary sequential file).
+     * Terms are saved in lexicographic order. For each term the following are written as VarInts:
+     * 1) Length (bytes) of the prefix that is shared with the previous term
+     * 2) Length (bytes) of the rest of the term (suffix), followed by the UTF-8 bytes of the suffix
+     * 3) DF (document frequency of the term)
+     * 4) Size (bytes) of the postings of the term in POSTINGS_FILENAME
+     * 5) Size (bytes) of the positions of the term in POSITIONS_FILENAME
+     *
+     * The shared prefix is 0 every RESTART_INTERVAL terms so that the file can be read starting from those terms.
      * */
-    private void dumpVocabulary(String filePath)
+    private void dumpVocabulary(String filePath, int[] postingsSizes)
             throws IOException {
-        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(filePath), "UTF-8"));
-        for (String term : __SORTED_TERMS__) {
-            int DF = __INDEX__.get(term).getDF();
-            writer.write(term + ' ' + DF + '\n');
+        BufferedOutputStream writer = new BufferedOutputStream(new FileOutputStream(filePath));
+        byte[] prevTerm = new byte[0];
+        for (int i = 0; i < __SORTED_TERMS__.length; i++) {
+            String term = __SORTED_TERMS__[i];
+            byte[] termBytes = term.getBytes(StandardCharsets.UTF_8);
+            int prefix = 0;
+            if (i % RESTART_INTERVAL != 0) {
+                int maxPrefix = Math.min(prevTerm.length, termBytes.length);
+                while (prefix < maxPrefix && prevTerm[prefix] == termBytes[prefix]) {
+                    prefix++;
+                }
+            }
+            VarInt.write(writer, prefix);
+            VarInt.write(writer, termBytes.length - prefix);
+            writer.write(termBytes, prefix, termBytes.length - prefix);
+            int termID = __TERM_IDS__.get(term);
+            VarInt.write(writer, __DFS__[termID]);
+            VarInt.write(writer, postingsSizes[i]);
+            VarInt.write(writer, __POSITIONS_SIZES__[termID]);
+            prevTerm = termBytes;
         }
         writer.close();
     }
 
-    /* Dumps the postings from index to the given path (random access file).
-     * For each term a block of postings is written to the file. Each posting consists of:
-     * 1) TF (frequency of the term in the relevant document)
-     * 2) doc ID (int ID of the relevant document)
+    /* Dumps the postings from index to the given path (binary sequential file) and returns the size (bytes)
+     * of the postings of each term.
+     * For each term a block of postings is written to the file. Each posting consists of the VarInts:
+     * 1) doc ID gap (the doc ID for the first posting of the block, the difference from the previous doc ID
+     * for the rest)
+     * 2) TF (frequency of the term in the relevant document)
      *
      * The blocks of postings in the file will be sorted based on the sorting of terms:
      * 1st block is for the 1st vocabulary term, 2nd block is for the 2nd term etc.
      *
      * The ID of the documents in each block will appear sorted based on the document parsing order.
      * */
-    private void dumpPostings(String path)
+    private int[] dumpPostings(String path)
             throws IOException {
-        BufferedOutputStream writer = new BufferedOutputStream(new FileOutputStream(new RandomAccessFile(path, "rw").getFD()));
-        for (String term : __SORTED_TERMS__) {
-            List<Posting> postings = __INDEX__.get(term).getPostings();
-            byte[] postingsArray = new byte[postings.size() * Posting.SIZE];
-            ByteBuffer buffer = ByteBuffer.wrap(postingsArray);
-            int offset = 0;
-            for (Posting posting : postings) {
-                buffer.putInt(offset, posting.getTF());
-                buffer.putInt(offset + Posting.DOCID_OFFSET, posting.getDocID());
-                offset += Posting.SIZE;
+        BufferedOutputStream writer = new BufferedOutputStream(new FileOutputStream(path));
+        int[] postingsSizes = new int[__SORTED_TERMS__.length];
+        byte[] postingsArray = new byte[0];
+        for (int i = 0; i < __SORTED_TERMS__.length; i++) {
+            int termID = __TERM_IDS__.get(__SORTED_TERMS__[i]);
+            int DF = __DFS__[termID];
+            int[] postings = __POSTINGS__[termID];
+            if (postingsArray.length < DF * 2 * VarInt.MAX_SIZE) {
+                postingsArray = new byte[DF * 2 * VarInt.MAX_SIZE];
+            }
+            int size = 0;
+            int prevDocID = 0;
+            for (int j = 0; j < DF * POSTING_INTS; j += POSTING_INTS) {
+                size = VarInt.write(postingsArray, size, postings[j + 1] - prevDocID);
+                size = VarInt.write(postingsArray, size, postings[j]);
+                prevDocID = postings[j + 1];
             }
-            writer.write(postingsArray);
+            writer.write(postingsArray, 0, size);
+            postingsSizes[i] = size;
+        }
+        writer.close();
+        return postingsSizes;
+    }
+
+    /* Dumps the positions from index to the given path (binary sequential file).
+     * For each term the positions of its postings are written one after the other (in the order of the postings).
+     * The positions of a posting are TF VarInts: the first position and then the gap from the previous position.
+     *
+     * The blocks of positions in the file will be sorted based on the sorting of terms, same as the postings.
+     * */
+    private void dumpPositions(String path)
+            throws IOException {
+        BufferedOutputStream writer = new BufferedOutputStream(new FileOutputStream(path));
+        for (String term : __SORTED_TERMS__) {
+            int termID = __TERM_IDS__.get(term);
+            writer.write(__POSITIONS__[termID], 0, __POSITIONS_SIZES__[termID]);
         }
         writer.close();
     }
+
+    /**
+     * Decodes the given postings of a term (as written in a partial POSTINGS_FILENAME) and writes them to
+     * the given array using the final format of the postings (see class Posting). Returns the position in
+     * the output array after the written postings.
+     *
+     * @param postings The encoded postings
+     * @param length Number of bytes of the encoded postings
+     * @param out
+     * @param outPos Position of the first written byte in the output array
+     * @return
+     */
+    public static int decodePostings(byte[] postings, int length, byte[] out, int outPos) {
+        ByteBuffer buffer = ByteBuffer.wrap(out);
+        int[] values = new int[2];
+        int pos = 0;
+        int docID = 0;
+        while (pos < length) {
+            pos = VarInt.read(postings, pos, values, 0);
+            pos = VarInt.read(postings, pos, values, 1);
+            docID += values[0];
+            buffer.putInt(outPos + Posting.TF_OFFSET, values[1]);
+            buffer.putInt(outPos + Posting.DOCID_OFFSET, docID);
+            outPos += Posting.SIZE;
+        }
+        return outPos;
+    }
 }
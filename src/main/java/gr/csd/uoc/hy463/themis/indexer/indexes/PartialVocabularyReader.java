@@ -0,0 +1,188 @@
+package gr.csd.uoc.hy463.themis.indexer.indexes;
+
+import gr.csd.uoc.hy463.themis.utils.VarInt;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reads the entries of a partial VOCABULARY_FILENAME that has been created by {@link Index}.
+ * See Index.dumpVocabulary() for the format of the file.
+ *
+ * After each successful call to next(), the current entry is available from getTerm(), getDF(),
+ * getPostingsSize() and getPositionsSize(). The reader can start from any entry that is a restart point (the term is stored
+ * without a shared prefix).
+ */
+public class PartialVocabularyReader implements Closeable {
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private final InputStream _in;
+    private final byte[] _buffer = new byte[BUFFER_SIZE];
+    private int _pos = 0;
+    private int _limit = 0;
+
+    /* the last VarInt read from the buffer */
+    private final int[] _value = new int[1];
+
+    /* number of bytes of all entries that have been read */
+    private long _offset = 0;
+
+    /* the current entry */
+    private byte[] _termBytes = new byte[64];
+    private int _termLength = 0;
+    private String _term = null;
+    private int _DF = 0;
+    private int _postingsSize = 0;
+    private int _positionsSize = 0;
+    private boolean _restart = false;
+    private long _entryOffset = 0;
+
+    public PartialVocabularyReader(InputStream in) {
+        _in = in;
+    }
+
+    /**
+     * Reads the next entry. Returns false if there are no more entries.
+     *
+     * @return
+     * @throws IOException
+     */
+    public boolean next()
+            throws IOException {
+        _entryOffset = _offset;
+        if (_pos == _limit && !fill()) {
+            return false;
+        }
+        int prefixLength = readVarInt();
+        int suffixLength = readVarInt();
+        _termLength = prefixLength + suffixLength;
+        if (_termLength > _termBytes.length) {
+            _termBytes = Arrays.copyOf(_termBytes, Math.max(_termLength, _termBytes.length * 2));
+        }
+        for (int i = prefixLength; i < _termLength; i++) {
+            _termBytes[i] = readByte();
+        }
+        _term = new String(_termBytes, 0, _termLength, StandardCharsets.UTF_8);
+        _DF = readVarInt();
+        _postingsSize = readVarInt();
+        _positionsSize = readVarInt();
+        _restart = (prefixLength == 0);
+        return true;
+    }
+
+    /**
+     * Returns the term of the current entry
+     *
+     * @return
+     */
+    public String getTerm() {
+        return _term;
+    }
+
+    /**
+     * Returns the DF of the current entry
+     *
+     * @return
+     */
+    public int getDF() {
+        return _DF;
+    }
+
+    /**
+     * Returns the size (bytes) of the encoded postings of the current entry in the partial POSTINGS_FILENAME
+     *
+     * @return
+     */
+    public int getPostingsSize() {
+        return _postingsSize;
+    }
+
+    /**
+     * Returns the size (bytes) of the encoded positions of the current entry in the partial POSITIONS_FILENAME
+     *
+     * @return
+     */
+    public int getPositionsSize() {
+        return _positionsSize;
+    }
+
+    /**
+     * Returns true if the term of the current entry does not depend on the previous entries. Reading can
+     * start from such an entry.
+     *
+     * @return
+     */
+    public boolean isRestart() {
+        return _restart;
+    }
+
+    /**
+     * Returns the offset of the current entry, relative to the position of the stream when the reader
+     * was created
+     *
+     * @return
+     */
+    public long getEntryOffset() {
+        return _entryOffset;
+    }
+
+    /**
+     * Returns the offset of the next entry, relative to the position of the stream when the reader
+     * was created
+     *
+     * @return
+     */
+    public long getOffset() {
+        return _offset;
+    }
+
+    @Override
+    public void close()
+            throws IOException {
+        _in.close();
+    }
+
+    /* Reads a VarInt. The buffer is refilled first if it may not have all bytes of the VarInt */
+    private int readVarInt()
+            throws IOException {
+        if (_limit - _pos < VarInt.MAX_SIZE) {
+            fill();
+        }
+        int pos = VarInt.read(_buffer, _pos, _value, 0);
+        if (pos > _limit) {
+            throw new EOFException("Unexpected end of partial vocabulary");
+        }
+        _offset += pos - _pos;
+        _pos = pos;
+        return _value[0];
+    }
+
+    private byte readByte()
+            throws IOException {
+        if (_pos == _limit && !fill()) {
+            throw new EOFException("Unexpected end of partial vocabulary");
+        }
+        _offset++;
+        return _buffer[_pos++];
+    }
+
+    /* Moves the unread bytes to the start of the buffer and reads more bytes from the stream. Returns false
+    if there are no more bytes */
+    private boolean fill()
+            throws IOException {
+        int remaining = _limit - _pos;
+        System.arraycopy(_buffer, _pos, _buffer, 0, remaining);
+        _pos = 0;
+        _limit = remaining;
+        int read = _in.read(_buffer, _limit, _buffer.length - _limit);
+        if (read <= 0) {
+            return false;
+        }
+        _limit += read;
+        return true;
+    }
+}
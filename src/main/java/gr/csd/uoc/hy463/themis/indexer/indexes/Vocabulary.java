@@ -0,0 +1,326 @@
+package gr.csd.uoc.hy463.themis.indexer.indexes;
+
+import gr.csd.uoc.hy463.themis.indexer.MemMap.VocabularyBuffers;
+import gr.csd.uoc.hy463.themis.indexer.model.VocabularyEntry;
+import gr.csd.uoc.hy463.themis.utils.VarInt;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * The VOCABULARY_FILENAME of a loaded segment (see class VocabularyEntry for the format of the file).
+ * Only the block index (the first term and the offset of each block) is read in memory, the blocks are memory
+ * mapped. A term is found by a binary search of the block index followed by a scan of at most BLOCK_SIZE terms
+ * of a single block, so opening the vocabulary takes time and memory proportional to the number of blocks.
+ */
+public class Vocabulary {
+    private final VocabularyBuffers _buffers;
+    private final String[] _firstTerms;
+    private final long[] _blockOffsets;
+    private final int _terms;
+    private final boolean _hasPositions;
+    private final boolean _hasMaxTFRatios;
+
+    /**
+     * Constructor. Reads the block index and memory maps the blocks of the given file.
+     *
+     * @param filePath
+     * @throws IOException
+     */
+    public Vocabulary(String filePath)
+            throws IOException {
+        byte[] blockIndex;
+        long indexOffset;
+        RandomAccessFile file = new RandomAccessFile(filePath, "r");
+        try {
+            byte[] trailer = new byte[VocabularyEntry.TRAILER_SIZE];
+            long trailerOffset = file.length() - trailer.length;
+            file.seek(trailerOffset);
+            file.readFully(trailer);
+            ByteBuffer trailerBuffer = ByteBuffer.wrap(trailer);
+            indexOffset = trailerBuffer.getLong(VocabularyEntry.INDEX_OFFSET_OFFSET);
+            _terms = trailerBuffer.getInt(VocabularyEntry.TERMS_OFFSET);
+            int flags = trailerBuffer.getInt(VocabularyEntry.FLAGS_OFFSET);
+            _hasPositions = (flags & VocabularyEntry.POSITIONS_FLAG) != 0;
+            _hasMaxTFRatios = (flags & VocabularyEntry.MAX_TF_RATIO_FLAG) != 0;
+            blockIndex = new byte[(int) (trailerOffset - indexOffset)];
+            file.seek(indexOffset);
+            file.readFully(blockIndex);
+        } finally {
+            file.close();
+        }
+
+        int blocks = (_terms + VocabularyEntry.BLOCK_SIZE - 1) / VocabularyEntry.BLOCK_SIZE;
+        _firstTerms = new String[blocks];
+        _blockOffsets = new long[blocks];
+        ByteBuffer indexBuffer = ByteBuffer.wrap(blockIndex);
+        long blockOffset = 0;
+        for (int i = 0; i < blocks; i++) {
+            int length = VarInt.read(indexBuffer);
+            _firstTerms[i] = new String(blockIndex, indexBuffer.position(), length, StandardCharsets.UTF_8);
+            indexBuffer.position(indexBuffer.position() + length);
+            blockOffset += VarInt.readLong(indexBuffer);
+            _blockOffsets[i] = blockOffset;
+        }
+        _buffers = new VocabularyBuffers(filePath, _blockOffsets, indexOffset);
+    }
+
+    /**
+     * Returns the vocabulary entry of the given term or null if the term is not in the vocabulary.
+     *
+     * @param term
+     * @return
+     */
+    public VocabularyEntry get(String term) {
+        int block = findBlock(term);
+        if (block == -1) {
+            return null;
+        }
+        byte[] termBytes = term.getBytes(StandardCharsets.UTF_8);
+        byte[] currentTerm = new byte[64];
+        ByteBuffer buffer = getBlock(block);
+        int count = Math.min(VocabularyEntry.BLOCK_SIZE, _terms - block * VocabularyEntry.BLOCK_SIZE);
+        long postingsOffset = 0;
+        int postingsSize = 0;
+        long positionsOffset = 0;
+        for (int i = 0; i < count; i++) {
+            int prefix = VarInt.read(buffer);
+            int length = prefix + VarInt.read(buffer);
+            if (length > currentTerm.length) {
+                currentTerm = Arrays.copyOf(currentTerm, Math.max(length, currentTerm.length * 2));
+            }
+            buffer.get(currentTerm, prefix, length - prefix);
+            int DF = VarInt.read(buffer);
+            postingsOffset += postingsSize;
+            postingsSize = VarInt.read(buffer);
+            if (i == 0) {
+                postingsOffset = VarInt.readLong(buffer);
+            }
+            if (_hasPositions) {
+                positionsOffset += VarInt.readLong(buffer);
+            }
+            int ratioTF = 0;
+            int ratioMaxTF = 0;
+            if (_hasMaxTFRatios) {
+                ratioTF = VarInt.read(buffer);
+                ratioMaxTF = VarInt.read(buffer);
+            }
+            if (equals(currentTerm, length, termBytes)) {
+                return new VocabularyEntry(DF, postingsOffset, postingsSize, _hasPositions ? positionsOffset : -1,
+                        _hasMaxTFRatios ? VocabularyEntry.getRatio(ratioTF, ratioMaxTF) : Double.POSITIVE_INFINITY);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the terms that start with the given prefix, in sorted order. The terms are sorted, so the scan
+     * starts from the block of the prefix and stops at the first term after the prefix that does not start
+     * with it.
+     *
+     * @param prefix
+     * @return
+     */
+    public PrefixTerms getPrefixTerms(String prefix) {
+        return new PrefixTerms(prefix);
+    }
+
+    /**
+     * The terms of the vocabulary that start with a prefix. The terms are read from the memory mapped blocks
+     * and are not converted to strings, the bytes of the current term are valid until the next call of next().
+     */
+    public class PrefixTerms {
+        private final byte[] _prefix;
+        private byte[] _term = new byte[64];
+        private int _termLength = 0;
+        private int _DF = 0;
+        private int _block;
+        private int _blockTerms = 0;
+        private int _blockTerm = 0;
+        private ByteBuffer _buffer = null;
+        private boolean _done = false;
+
+        private PrefixTerms(String prefix) {
+            _prefix = prefix.getBytes(StandardCharsets.UTF_8);
+            _block = Math.max(findBlock(prefix), 0);
+        }
+
+        /**
+         * Reads the next term that starts with the prefix. Returns false if there are no more terms.
+         *
+         * @return
+         */
+        public boolean next() {
+            while (!_done) {
+                if (_blockTerm == _blockTerms) {
+                    if (_block == _firstTerms.length) {
+                        _done = true;
+                        break;
+                    }
+                    _buffer = getBlock(_block);
+                    _blockTerms = Math.min(VocabularyEntry.BLOCK_SIZE, _terms - _block * VocabularyEntry.BLOCK_SIZE);
+                    _blockTerm = 0;
+                    _block++;
+                }
+                int prefixLength = VarInt.read(_buffer);
+                _termLength = prefixLength + VarInt.read(_buffer);
+                if (_termLength > _term.length) {
+                    _term = Arrays.copyOf(_term, Math.max(_termLength, _term.length * 2));
+                }
+                _buffer.get(_term, prefixLength, _termLength - prefixLength);
+                _DF = VarInt.read(_buffer);
+                VarInt.read(_buffer);
+                if (_blockTerm == 0) {
+                    VarInt.readLong(_buffer);
+                }
+                if (_hasPositions) {
+                    VarInt.readLong(_buffer);
+                }
+                if (_hasMaxTFRatios) {
+                    VarInt.read(_buffer);
+                    VarInt.read(_buffer);
+                }
+                _blockTerm++;
+                int cmp = compareToPrefix();
+                if (cmp == 0) {
+                    return true;
+                }
+                if (cmp > 0) {
+                    _done = true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Returns the bytes (UTF-8) of the current term. Only the first getTermLength() bytes are valid.
+         *
+         * @return
+         */
+        public byte[] getTermBytes() {
+            return _term;
+        }
+
+        /**
+         * Returns the length (bytes) of the current term.
+         *
+         * @return
+         */
+        public int getTermLength() {
+            return _termLength;
+        }
+
+        /**
+         * Returns the DF of the current term.
+         *
+         * @return
+         */
+        public int getDF() {
+            return _DF;
+        }
+
+        /* Returns 0 if the current term starts with the prefix, otherwise the result of comparing the current
+        term to the prefix (in the order of the vocabulary, see compareTerms()) */
+        private int compareToPrefix() {
+            if (_termLength >= _prefix.length && Vocabulary.equals(_term, _prefix.length, _prefix)) {
+                return 0;
+            }
+            return compareTerms(_term, _termLength, _prefix, _prefix.length);
+        }
+    }
+
+    /**
+     * Returns the number of terms in the vocabulary
+     *
+     * @return
+     */
+    public int getTerms() {
+        return _terms;
+    }
+
+    /**
+     * Unmaps the blocks and closes the file.
+     *
+     * @throws IOException
+     */
+    public void close()
+            throws IOException {
+        _buffers.close();
+    }
+
+    /**
+     * Compares two terms given as UTF-8 bytes in the order of String.compareTo() (UTF-16 chars), which is the
+     * order of the terms in the vocabulary. The order of the unsigned bytes is different when a character after
+     * U+FFFF is compared to a character in U+E000 - U+FFFF.
+     *
+     * @param term1
+     * @param length1 Number of bytes of term1
+     * @param term2
+     * @param length2 Number of bytes of term2
+     * @return
+     */
+    public static int compareTerms(byte[] term1, int length1, byte[] term2, int length2) {
+        int length = Math.min(length1, length2);
+        int i = 0;
+        while (i < length && term1[i] == term2[i]) {
+            i++;
+        }
+        if (i == length) {
+            return Integer.compare(length1, length2);
+        }
+
+        /* the terms differ in the character that has the first different byte */
+        while (i > 0 && (term1[i] & 0xC0) == 0x80) {
+            i--;
+        }
+        return Integer.compare(getCharKey(term1, i), getCharKey(term2, i));
+    }
+
+    /* Returns a key for the character that starts at the given position of a UTF-8 term. The keys of two
+    characters are in the same order as their UTF-16 chars */
+    private static int getCharKey(byte[] term, int pos) {
+        int b = term[pos] & 0xFF;
+        if (b < 0x80) {
+            return b << 10;
+        }
+        if (b < 0xE0) {
+            return (((b & 0x1F) << 6) | (term[pos + 1] & 0x3F)) << 10;
+        }
+        if (b < 0xF0) {
+            return (((b & 0x0F) << 12) | ((term[pos + 1] & 0x3F) << 6) | (term[pos + 2] & 0x3F)) << 10;
+        }
+        int codePoint = ((b & 0x07) << 18) | ((term[pos + 1] & 0x3F) << 12) | ((term[pos + 2] & 0x3F) << 6) |
+                (term[pos + 3] & 0x3F);
+        return (Character.highSurrogate(codePoint) << 10) | (Character.lowSurrogate(codePoint) & 0x3FF);
+    }
+
+    /* Returns the last block whose first term is <= the given term or -1 if the term is before the first
+    block */
+    private int findBlock(String term) {
+        int index = Arrays.binarySearch(_firstTerms, term);
+        return (index >= 0) ? index : -index - 2;
+    }
+
+    /* Returns true if the first length bytes of the given term are equal to the given bytes */
+    private static boolean equals(byte[] term, int length, byte[] bytes) {
+        if (length != bytes.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (term[i] != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /* Returns a buffer positioned at the start of the given block */
+    private ByteBuffer getBlock(int block) {
+        synchronized (_buffers) {
+            return _buffers.getMemBuffer(_blockOffsets[block]).duplicate();
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package gr.csd.uoc.hy463.themis.indexer.indexes;
+
+import gr.csd.uoc.hy463.themis.indexer.model.VocabularyEntry;
+import gr.csd.uoc.hy463.themis.utils.VarInt;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reads sequentially the terms of VOCABULARY_FILENAME of a segment (see class VocabularyEntry for the format
+ * of the file).
+ *
+ * After each successful call to next(), the current entry is available from getTerm(), getDF(),
+ * getPostingsOffset(), getPostingsSize(), getPositionsOffset(), getRatioTF() and getRatioMaxTF().
+ */
+public class VocabularyReader implements Closeable {
+    private final DataInputStream _in;
+    private final int _terms;
+    private final boolean _hasPositions;
+    private final boolean _hasMaxTFRatios;
+    private int _read = 0;
+
+    /* the current entry */
+    private byte[] _termBytes = new byte[64];
+    private int _termLength = 0;
+    private String _term = null;
+    private int _DF = 0;
+    private long _postingsOffset = 0;
+    private int _postingsSize = 0;
+    private long _positionsOffset = 0;
+    private int _ratioTF = 0;
+    private int _ratioMaxTF = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param filePath
+     * @throws IOException
+     */
+    public VocabularyReader(String filePath)
+            throws IOException {
+        byte[] trailer = new byte[VocabularyEntry.TRAILER_SIZE];
+        RandomAccessFile file = new RandomAccessFile(filePath, "r");
+        try {
+            file.seek(file.length() - trailer.length);
+            file.readFully(trailer);
+        } finally {
+            file.close();
+        }
+        ByteBuffer trailerBuffer = ByteBuffer.wrap(trailer);
+        _terms = trailerBuffer.getInt(VocabularyEntry.TERMS_OFFSET);
+        int flags = trailerBuffer.getInt(VocabularyEntry.FLAGS_OFFSET);
+        _hasPositions = (flags & VocabularyEntry.POSITIONS_FLAG) != 0;
+        _hasMaxTFRatios = (flags & VocabularyEntry.MAX_TF_RATIO_FLAG) != 0;
+        _in = new DataInputStream(new BufferedInputStream(new FileInputStream(filePath)));
+    }
+
+    /**
+     * Reads the next entry. Returns false if there are no more entries.
+     *
+     * @return
+     * @throws IOException
+     */
+    public boolean next()
+            throws IOException {
+        if (_read == _terms) {
+            return false;
+        }
+        int prefixLength = VarInt.read(_in);
+        int termLength = prefixLength + VarInt.read(_in);
+        if (termLength > _termBytes.length) {
+            _termBytes = Arrays.copyOf(_termBytes, Math.max(termLength, _termBytes.length * 2));
+        }
+        _in.readFully(_termBytes, prefixLength, termLength - prefixLength);
+        _termLength = termLength;
+        _term = null;
+        _DF = VarInt.read(_in);
+        _postingsOffset += _postingsSize;
+        _postingsSize = VarInt.read(_in);
+        if (_read % VocabularyEntry.BLOCK_SIZE == 0) {
+            _postingsOffset = VarInt.readLong(_in);
+            _positionsOffset = 0;
+        }
+        if (_hasPositions) {
+            _positionsOffset += VarInt.readLong(_in);
+        }
+        if (_hasMaxTFRatios) {
+            _ratioTF = VarInt.read(_in);
+            _ratioMaxTF = VarInt.read(_in);
+        }
+        _read++;
+        return true;
+    }
+
+    /**
+     * Returns the term of the current entry
+     *
+     * @return
+     */
+    public String getTerm() {
+        if (_term == null) {
+            _term = new String(_termBytes, 0, _termLength, StandardCharsets.UTF_8);
+        }
+        return _term;
+    }
+
+    /**
+     * Returns the buffer that has the (UTF-8) bytes of the term of the current entry in its first
+     * getTermLength() bytes. The buffer is reused, so the term is valid only until the next call of next().
+     *
+     * @return
+     */
+    public byte[] getTermBytes() {
+        return _termBytes;
+    }
+
+    /**
+     * Returns the number of (UTF-8) bytes of the term of the current entry
+     *
+     * @return
+     */
+    public int getTermLength() {
+        return _termLength;
+    }
+
+    /**
+     * Returns the DF of the current entry
+     *
+     * @return
+     */
+    public int getDF() {
+        return _DF;
+    }
+
+    /**
+     * Returns the offset of the current entry to POSTINGS_FILENAME
+     *
+     * @return
+     */
+    public long getPostingsOffset() {
+        return _postingsOffset;
+    }
+
+    /**
+     * Returns the size (bytes) of the compressed postings of the current entry
+     *
+     * @return
+     */
+    public int getPostingsSize() {
+        return _postingsSize;
+    }
+
+    /**
+     * Returns the offset of the current entry to POSITIONS_FILENAME or -1 if the vocabulary has no positions
+     *
+     * @return
+     */
+    public long getPositionsOffset() {
+        return _hasPositions ? _positionsOffset : -1;
+    }
+
+    /**
+     * Returns the TF of the posting that has the max TF ratio (see class VocabularyEntry) of the current entry.
+     * Valid only if the vocabulary has max TF ratios
+     *
+     * @return
+     */
+    public int getRatioTF() {
+        return _ratioTF;
+    }
+
+    /**
+     * Returns the max TF of the document of the posting that has the max TF ratio (see class VocabularyEntry)
+     * of the current entry. Valid only if the vocabulary has max TF ratios
+     *
+     * @return
+     */
+    public int getRatioMaxTF() {
+        return _ratioMaxTF;
+    }
+
+    /**
+     * Returns true if the vocabulary has max TF ratios
+     *
+     * @return
+     */
+    public boolean hasMaxTFRatios() {
+        return _hasMaxTFRatios;
+    }
+
+    /**
+     * Returns true if the vocabulary has offsets to POSITIONS_FILENAME
+     *
+     * @return
+     */
+    public boolean hasPositions() {
+        return _hasPositions;
+    }
+
+    /**
+     * Returns the number of terms in the vocabulary
+     *
+     * @return
+     */
+    public int getTerms() {
+        return _terms;
+    }
+
+    @Override
+    public void close()
+            throws IOException {
+        _in.close();
+    }
+}
@@ -0,0 +1,155 @@
+package gr.csd.uoc.hy463.themis.indexer.indexes;
+
+import gr.csd.uoc.hy463.themis.indexer.model.VocabularyEntry;
+import gr.csd.uoc.hy463.themis.utils.VarInt;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes VOCABULARY_FILENAME of a segment. See class VocabularyEntry for the format of the file.
+ *
+ * The terms should be added in String.compareTo() order and the postings of each term should follow the
+ * postings of the previous term.
+ */
+public class VocabularyWriter implements Closeable {
+    private final OutputStream _out;
+    private final boolean _hasPositions;
+    private final boolean _hasMaxTFRatios;
+
+    /* the entries of the current block */
+    private final ByteArrayOutputStream _block = new ByteArrayOutputStream();
+
+    /* the block index */
+    private final ByteArrayOutputStream _blockIndex = new ByteArrayOutputStream();
+
+    private int _terms = 0;
+    private long _offset = 0;
+    private long _prevBlockOffset = 0;
+    private byte[] _prevTerm = new byte[64];
+    private int _prevTermLength = 0;
+    private long _prevPositionsOffset = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param filePath
+     * @param hasPositions True if the offsets to POSITIONS_FILENAME should be written
+     * @param hasMaxTFRatios True if the max TF ratios should be written
+     * @throws IOException
+     */
+    public VocabularyWriter(String filePath, boolean hasPositions, boolean hasMaxTFRatios)
+            throws IOException {
+        _out = new BufferedOutputStream(new FileOutputStream(filePath));
+        _hasPositions = hasPositions;
+        _hasMaxTFRatios = hasMaxTFRatios;
+    }
+
+    /**
+     * Adds a term. The offset to POSITIONS_FILENAME is ignored if the vocabulary has no positions and the
+     * max TF ratio is ignored if the vocabulary has no max TF ratios.
+     *
+     * @param term
+     * @param DF
+     * @param postingsOffset
+     * @param postingsSize
+     * @param positionsOffset
+     * @param ratioTF The TF of the posting that has the max TF ratio
+     * @param ratioMaxTF The max TF of the document of the posting that has the max TF ratio
+     * @throws IOException
+     */
+    public void add(String term, int DF, long postingsOffset, int postingsSize, long positionsOffset, int ratioTF, int ratioMaxTF)
+            throws IOException {
+        byte[] termBytes = term.getBytes(StandardCharsets.UTF_8);
+        add(termBytes, termBytes.length, DF, postingsOffset, postingsSize, positionsOffset, ratioTF, ratioMaxTF);
+    }
+
+    /**
+     * Adds a term given as the first termLength (UTF-8) bytes of the given array. The array can be reused
+     * by the caller after the call.
+     *
+     * @param termBytes
+     * @param termLength
+     * @param DF
+     * @param postingsOffset
+     * @param postingsSize
+     * @param positionsOffset
+     * @param ratioTF The TF of the posting that has the max TF ratio
+     * @param ratioMaxTF The max TF of the document of the posting that has the max TF ratio
+     * @throws IOException
+     */
+    public void add(byte[] termBytes, int termLength, int DF, long postingsOffset, int postingsSize, long positionsOffset,
+                    int ratioTF, int ratioMaxTF)
+            throws IOException {
+        int prefix = 0;
+        boolean firstTerm = (_terms % VocabularyEntry.BLOCK_SIZE == 0);
+        if (firstTerm) {
+            flushBlock();
+            VarInt.write(_blockIndex, termLength);
+            _blockIndex.write(termBytes, 0, termLength);
+            VarInt.writeLong(_blockIndex, _offset - _prevBlockOffset);
+            _prevBlockOffset = _offset;
+            _prevPositionsOffset = 0;
+        }
+        else {
+            int maxPrefix = Math.min(_prevTermLength, termLength);
+            while (prefix < maxPrefix && _prevTerm[prefix] == termBytes[prefix]) {
+                prefix++;
+            }
+        }
+        VarInt.write(_block, prefix);
+        VarInt.write(_block, termLength - prefix);
+        _block.write(termBytes, prefix, termLength - prefix);
+        VarInt.write(_block, DF);
+        VarInt.write(_block, postingsSize);
+        if (firstTerm) {
+            VarInt.writeLong(_block, postingsOffset);
+        }
+        if (_hasPositions) {
+            VarInt.writeLong(_block, positionsOffset - _prevPositionsOffset);
+        }
+        if (_hasMaxTFRatios) {
+            VarInt.write(_block, ratioTF);
+            VarInt.write(_block, ratioMaxTF);
+        }
+        if (_prevTerm.length < termLength) {
+            _prevTerm = new byte[Math.max(termLength, _prevTerm.length * 2)];
+        }
+        System.arraycopy(termBytes, 0, _prevTerm, 0, termLength);
+        _prevTermLength = termLength;
+        _prevPositionsOffset = positionsOffset;
+        _terms++;
+    }
+
+    /**
+     * Writes the last block, the block index and the trailer and closes the file.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close()
+            throws IOException {
+        try {
+            flushBlock();
+            _blockIndex.writeTo(_out);
+            byte[] trailer = new byte[VocabularyEntry.TRAILER_SIZE];
+            ByteBuffer trailerBuffer = ByteBuffer.wrap(trailer);
+            trailerBuffer.putLong(VocabularyEntry.INDEX_OFFSET_OFFSET, _offset);
+            trailerBuffer.putInt(VocabularyEntry.TERMS_OFFSET, _terms);
+            trailerBuffer.putInt(VocabularyEntry.FLAGS_OFFSET, (_hasPositions ? VocabularyEntry.POSITIONS_FLAG : 0) |
+                    (_hasMaxTFRatios ? VocabularyEntry.MAX_TF_RATIO_FLAG : 0));
+            _out.write(trailer);
+        } finally {
+            _out.close();
+        }
+    }
+
+    /* Writes the entries of the current block to the file */
+    private void flushBlock()
+            throws IOException {
+        _block.writeTo(_out);
+        _offset += _block.size();
+        _block.reset();
+    }
+}
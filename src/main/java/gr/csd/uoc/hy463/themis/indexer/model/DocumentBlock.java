@@ -0,0 +1,106 @@
+package gr.csd.uoc.hy463.themis.indexer.model;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Represents info about a block in DOCUMENTS_FILENAME. The entries of DOCUMENTS_BLOCK_SIZE consecutive documents
+ * (see class DocumentEntry) are compressed together (Deflate) and stored as a block that has:
+ * - The size of the compressed data (int => 4 bytes)
+ * - The size of the uncompressed data (int => 4 bytes)
+ * - The compressed data
+ *
+ * The entry of a document in DOCUMENTS_META_FILENAME has the offset of its block and its offset in the
+ * uncompressed block.
+ */
+public class DocumentBlock {
+    /* Compressed size (int => 4 bytes) */
+    public static int COMPRESSED_SIZE_SIZE = 4;
+    public static int COMPRESSED_SIZE_OFFSET = 0;
+
+    /* Uncompressed size (int => 4 bytes) */
+    public static int UNCOMPRESSED_SIZE_SIZE = 4;
+    public static int UNCOMPRESSED_SIZE_OFFSET = 4;
+
+    /* size of the block header */
+    public static int HEADER_SIZE = COMPRESSED_SIZE_SIZE + UNCOMPRESSED_SIZE_SIZE;
+
+    /**
+     * Compresses the first size bytes of the given array and writes them as a block to the given stream.
+     * Returns the size of the written block.
+     *
+     * @param out
+     * @param data The uncompressed entries
+     * @param size
+     * @param deflater Is reset before it is used
+     * @return
+     * @throws IOException
+     */
+    public static int write(OutputStream out, byte[] data, int size, Deflater deflater)
+            throws IOException {
+        deflater.reset();
+        deflater.setInput(data, 0, size);
+        deflater.finish();
+        byte[] compressed = new byte[Math.max(64, size + (size >> 3))];
+        int compressedSize = 0;
+        while (!deflater.finished()) {
+            if (compressedSize == compressed.length) {
+                byte[] newCompressed = new byte[compressed.length * 2];
+                System.arraycopy(compressed, 0, newCompressed, 0, compressedSize);
+                compressed = newCompressed;
+            }
+            compressedSize += deflater.deflate(compressed, compressedSize, compressed.length - compressedSize);
+        }
+        byte[] header = new byte[HEADER_SIZE];
+        ByteBuffer headerBuffer = ByteBuffer.wrap(header);
+        headerBuffer.putInt(COMPRESSED_SIZE_OFFSET, compressedSize);
+        headerBuffer.putInt(UNCOMPRESSED_SIZE_OFFSET, size);
+        out.write(header);
+        out.write(compressed, 0, compressedSize);
+        return HEADER_SIZE + compressedSize;
+    }
+
+    /**
+     * Reads the block that starts at the given offset of the given file and returns its uncompressed entries.
+     *
+     * @param file
+     * @param offset
+     * @return
+     * @throws IOException
+     */
+    public static byte[] read(RandomAccessFile file, long offset)
+            throws IOException {
+        byte[] header = new byte[HEADER_SIZE];
+        file.seek(offset);
+        file.readFully(header);
+        ByteBuffer headerBuffer = ByteBuffer.wrap(header);
+        byte[] compressed = new byte[headerBuffer.getInt(COMPRESSED_SIZE_OFFSET)];
+        byte[] data = new byte[headerBuffer.getInt(UNCOMPRESSED_SIZE_OFFSET)];
+        file.readFully(compressed);
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            int size = 0;
+            while (size < data.length && !inflater.finished()) {
+                int inflated = inflater.inflate(data, size, data.length - size);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                size += inflated;
+            }
+            if (size != data.length) {
+                throw new IOException("Corrupted block at offset " + offset + " of the documents file");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupted block at offset " + offset + " of the documents file", e);
+        } finally {
+            inflater.end();
+        }
+        return data;
+    }
+}
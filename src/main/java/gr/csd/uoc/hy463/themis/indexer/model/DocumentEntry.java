@@ -1,10 +1,12 @@
 package gr.csd.uoc.hy463.themis.indexer.model;
 
 /**
- * Represents info about an entry in DOCUMENTS_FILENAME.
+ * Represents info about an entry in DOCUMENTS_FILENAME. The entries are stored in compressed blocks
+ * (see class DocumentBlock) and the offsets below are relative to the start of the entry in the
+ * uncompressed block.
  *
  * For example, the size of a title is 4 bytes and this info starts at offset 2 meaning it
- * occupies bytes 3-6. The title itself starts at position 16.
+ * occupies bytes 3-6. The title itself starts at position 20.
  */
 public class DocumentEntry {
     /* Year (short => 2 bytes) */
@@ -27,12 +29,18 @@ public class DocumentEntry {
     public static int JOURNAL_NAME_SIZE_SIZE = 2;
     public static int JOURNAL_NAME_SIZE_OFFSET = 14;
 
+    /* Abstract size (int => 4 bytes / UTF-8) */
+    public static int ABSTRACT_SIZE_SIZE = 4;
+    public static int ABSTRACT_SIZE_OFFSET = 16;
+
     /* Title offset */
-    public static int TITLE_OFFSET = 16;
+    public static int TITLE_OFFSET = 20;
 
     /* Author names offset -> unknown but comes after title */
 
     /* Author ids offset -> unknown but comes after author names */
 
     /* Journal name offset -> unknown but comes after author ids */
+
+    /* Abstract offset -> unknown but comes after journal name */
 }
@@ -0,0 +1,25 @@
+package gr.csd.uoc.hy463.themis.indexer.model;
+
+/**
+ * Represents info about DOCUMENTS_ID_LOOKUP_FILENAME. The file maps the (string) doc IDs of a segment to (int)
+ * doc IDs and has:
+ * - An entry for each distinct (string) doc ID of the segment. The entries are sorted by (string) doc ID.
+ * If the segment has the same (string) doc ID more than once, the entry is the last document.
+ * - A fanout table of FANOUT_SIZE ints. Item k is the number of entries whose first 2 bytes are <= k, so the
+ * entries of a (string) doc ID are searched only in the range [item (k-1), item k).
+ */
+public class DocumentIDLookupEntry {
+    /* The (string) doc ID (see class DocumentStringID) */
+    public static int ID_SIZE = DocumentStringID.SIZE;
+    public static int ID_OFFSET = 0;
+
+    /* The (int) doc ID - doc ID base of the segment (int => 4 bytes) */
+    public static int DOCID_SIZE = 4;
+    public static int DOCID_OFFSET = 20;
+
+    /* total size of an entry */
+    public static int SIZE = ID_SIZE + DOCID_SIZE;
+
+    /* number of items of the fanout table (one for each value of the first 2 bytes of a (string) doc ID) */
+    public static int FANOUT_SIZE = 1 << 16;
+}
@@ -30,15 +30,20 @@ public class DocumentMetaEntry {
     public static int AVG_AUTHOR_RANK_SIZE = 8;
     public static int AVG_AUTHOR_RANK_OFFSET = 28;
 
-    /* Size of an entry in the 'documents' file (int => 4 bytes) */
+    /* Size of an entry in the 'documents' file (uncompressed) (int => 4 bytes) */
     public static int DOCUMENT_SIZE_SIZE = 4;
     public static int DOCUMENT_SIZE_OFFSET = 36;
 
-    /* Offset to the 'documents' file (long => 8 bytes) */
+    /* Offset to the block of the entry in the 'documents' file (long => 8 bytes) */
     public static int DOCUMENT_OFFSET_SIZE = 8;
     public static int DOCUMENT_OFFSET_OFFSET = 40;
 
+    /* Offset of the entry in the uncompressed block (int => 4 bytes) */
+    public static int DOCUMENT_BLOCK_OFFSET_SIZE = 4;
+    public static int DOCUMENT_BLOCK_OFFSET_OFFSET = 48;
+
     /* total size of an entry */
     public static int SIZE = DOCID_SIZE + VSM_WEIGHT_SIZE + MAX_TF_SIZE + TOKEN_COUNT_SIZE +
-            DOCUMENT_PAGERANK_SIZE + AVG_AUTHOR_RANK_SIZE + DOCUMENT_SIZE_SIZE + DOCUMENT_OFFSET_SIZE;
+            DOCUMENT_PAGERANK_SIZE + AVG_AUTHOR_RANK_SIZE + DOCUMENT_SIZE_SIZE + DOCUMENT_OFFSET_SIZE +
+            DOCUMENT_BLOCK_OFFSET_SIZE;
 }
@@ -1,8 +1,89 @@
-package gr.csd.uoc.hy463.themis.indexer.model;
-
-/**
- * Represents info about an entry in DOCUMENTS_ID_FILENAME. Each entry is a 40-byte string.
- */
-public class DocumentStringID {
-    public static int SIZE = 40;
-}
+package gr.csd.uoc.hy463.themis.indexer.model;
+
+/**
+ * Represents info about an entry in DOCUMENTS_ID_FILENAME. A (string) doc ID is a 40-char hex string and
+ * each entry is the 20 bytes that it represents.
+ */
+public class DocumentStringID {
+    /* Length of a (string) doc ID */
+    public static int STRING_SIZE = 40;
+
+    /* Size of an entry */
+    public static int SIZE = 20;
+
+    private static final char[] __HEX_DIGITS__ = "0123456789abcdef".toCharArray();
+
+    /**
+     * Writes the SIZE bytes of the given (string) doc ID to the given array. Returns false if the ID is not
+     * a STRING_SIZE hex string.
+     *
+     * @param stringID
+     * @param ID At least SIZE bytes
+     * @return
+     */
+    public static boolean encode(String stringID, byte[] ID) {
+        if (stringID == null || stringID.length() != STRING_SIZE) {
+            return false;
+        }
+        for (int i = 0; i < SIZE; i++) {
+            int high = Character.digit(stringID.charAt(2 * i), 16);
+            int low = Character.digit(stringID.charAt(2 * i + 1), 16);
+            if (high == -1 || low == -1) {
+                return false;
+            }
+            ID[i] = (byte) ((high << 4) | low);
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if the given (string) doc ID is a STRING_SIZE hex string.
+     *
+     * @param stringID
+     * @return
+     */
+    public static boolean isValid(String stringID) {
+        if (stringID == null || stringID.length() != STRING_SIZE) {
+            return false;
+        }
+        for (int i = 0; i < STRING_SIZE; i++) {
+            if (Character.digit(stringID.charAt(i), 16) == -1) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if the SIZE bytes that start at the given offset of the array are all 0. The (string) doc ID
+     * of a document that has an invalid ID is stored as SIZE zero bytes and does not identify the document.
+     *
+     * @param ID
+     * @param offset
+     * @return
+     */
+    public static boolean isEmpty(byte[] ID, int offset) {
+        for (int i = 0; i < SIZE; i++) {
+            if (ID[offset + i] != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the (string) doc ID (lowercase hex) of the SIZE bytes that start at the given offset of the array.
+     *
+     * @param ID
+     * @param offset
+     * @return
+     */
+    public static String decode(byte[] ID, int offset) {
+        char[] stringID = new char[STRING_SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            stringID[2 * i] = __HEX_DIGITS__[(ID[offset + i] >> 4) & 0x0F];
+            stringID[2 * i + 1] = __HEX_DIGITS__[ID[offset + i] & 0x0F];
+        }
+        return new String(stringID);
+    }
+}
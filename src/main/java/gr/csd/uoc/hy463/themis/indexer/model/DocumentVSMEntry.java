@@ -0,0 +1,56 @@
+package gr.csd.uoc.hy463.themis.indexer.model;
+
+/**
+ * Represents info about an entry in the VSM file of a segment. The file has the partial sums of the weight
+ * (norm) of each document, so that the weights can be computed again when the DFs of the collection change
+ * without reading all postings of the collection.
+ *
+ * For a document that has TF(t) for each term t (the terms of single fields are not used), the sums are:
+ * SUM_TF2 = sum TF(t)^2, SUM_TF2_LOGDF = sum TF(t)^2 * ln(DF(t)) and SUM_TF2_LOGDF2 = sum TF(t)^2 * ln(DF(t))^2,
+ * where DF(t) is the DF of t in the collection when the sums were last updated. The weight of the document in a
+ * collection of N documents is sqrt(ln(N)^2 * SUM_TF2 - 2 * ln(N) * SUM_TF2_LOGDF + SUM_TF2_LOGDF2) / max TF,
+ * that is sqrt(sum (TF(t) * (ln(N) - ln(DF(t))))^2) / max TF.
+ *
+ * The first entry of the file is a header, its first 8 bytes are the number of documents of the collection
+ * when the sums were last updated. The entry of (int) doc ID i is at position (i - doc ID base + 1) * SIZE.
+ */
+public class DocumentVSMEntry {
+    /* Number of documents of the collection when the sums were last updated, only in the header (long => 8 bytes) */
+    public static int DOCUMENTS_SIZE = 8;
+    public static int DOCUMENTS_OFFSET = 0;
+
+    /* sum TF^2 (double => 8 bytes) */
+    public static int SUM_TF2_SIZE = 8;
+    public static int SUM_TF2_OFFSET = 0;
+
+    /* sum TF^2 * ln(DF) (double => 8 bytes) */
+    public static int SUM_TF2_LOGDF_SIZE = 8;
+    public static int SUM_TF2_LOGDF_OFFSET = 8;
+
+    /* sum TF^2 * ln(DF)^2 (double => 8 bytes) */
+    public static int SUM_TF2_LOGDF2_SIZE = 8;
+    public static int SUM_TF2_LOGDF2_OFFSET = 16;
+
+    /* total size of an entry */
+    public static int SIZE = SUM_TF2_SIZE + SUM_TF2_LOGDF_SIZE + SUM_TF2_LOGDF2_SIZE;
+
+    /**
+     * Returns the weight of a document given its partial sums, its max TF and the number of documents of
+     * the collection. Returns 0 if the max TF is 0.
+     *
+     * @param sumTF2
+     * @param sumTF2LogDF
+     * @param sumTF2LogDF2
+     * @param maxTF
+     * @param documents
+     * @return
+     */
+    public static double getWeight(double sumTF2, double sumTF2LogDF, double sumTF2LogDF2, int maxTF, int documents) {
+        if (maxTF == 0) {
+            return 0;
+        }
+        double logDocuments = Math.log(documents);
+        double sum = logDocuments * logDocuments * sumTF2 - 2 * logDocuments * sumTF2LogDF + sumTF2LogDF2;
+        return Math.sqrt(Math.max(sum, 0)) / maxTF;
+    }
+}
@@ -7,19 +7,25 @@ import java.util.Comparator;
  * - Term
  * - DF (document frequency of the term in the partial vocabulary)
  * - Partial index ID. This is the ID of the partial index that contains the term.
+ * - Size (bytes) of the postings of the term in the partial POSTINGS_FILENAME
+ * - Size (bytes) of the positions of the term in the partial POSITIONS_FILENAME
  */
 public class PartialVocabularyEntry implements Comparable<PartialVocabularyEntry> {
     private final String _term;
     private final int _DF;
     private final int _indexID;
+    private final int _postingsSize;
+    private final int _positionsSize;
 
     /* comparator to sort by index ID */
     public static Comparator<PartialVocabularyEntry> IDComparator = Comparator.comparingInt(PartialVocabularyEntry::getIndexID);
 
-    public PartialVocabularyEntry(String term, int DF, int indexID) {
+    public PartialVocabularyEntry(String term, int DF, int indexID, int postingsSize, int positionsSize) {
         _term = term;
         _DF = DF;
         _indexID = indexID;
+        _postingsSize = postingsSize;
+        _positionsSize = positionsSize;
     }
 
     public String getTerm() {
@@ -34,6 +40,14 @@ public class PartialVocabularyEntry implements Comparable<PartialVocabularyEntry
         return _indexID;
     }
 
+    public int getPostingsSize() {
+        return _postingsSize;
+    }
+
+    public int getPositionsSize() {
+        return _positionsSize;
+    }
+
     @Override
     public int compareTo(PartialVocabularyEntry o) {
         return _term.compareTo(o.getTerm());
@@ -0,0 +1,89 @@
+package gr.csd.uoc.hy463.themis.indexer.model;
+
+import gr.csd.uoc.hy463.themis.utils.VarInt;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Describes the positions of a term in POSITIONS_FILENAME. The positions of each term are a block that has:
+ * - A skip table of (ceil(DF / SKIP_INTERVAL) + 1) ints. Item k is the offset of the positions of posting
+ * (k * SKIP_INTERVAL) from the end of the skip table, the last item is the size of the positions of all postings.
+ * - The positions of each posting (in the order of the postings of the term). The positions of a posting are
+ * TF VarInts: the first position and then the gap from the previous position.
+ *
+ * The skip table allows reading only the positions of some postings of a term, starting from the nearest
+ * previous skip point.
+ */
+public class Positions {
+    /* a skip point every SKIP_INTERVAL postings */
+    public static final int SKIP_INTERVAL = 128;
+
+    /* int => 4 bytes */
+    public static final int SKIP_SIZE = 4;
+
+    /**
+     * Returns the size (bytes) of the skip table of a term that has the given DF.
+     *
+     * @param DF
+     * @return
+     */
+    public static int getSkipTableSize(int DF) {
+        return ((DF + SKIP_INTERVAL - 1) / SKIP_INTERVAL + 1) * SKIP_SIZE;
+    }
+
+    /**
+     * Writes the skip table of the given positions to the given array.
+     *
+     * @param postings The postings of the term (see class Posting)
+     * @param DF Number of postings
+     * @param positions The positions of the postings
+     * @param skipTable The skip table, at least getSkipTableSize(DF) bytes
+     */
+    public static void createSkipTable(byte[] postings, int DF, byte[] positions, byte[] skipTable) {
+        ByteBuffer postingsBuffer = ByteBuffer.wrap(postings);
+        ByteBuffer skipBuffer = ByteBuffer.wrap(skipTable);
+        int pos = 0;
+        for (int i = 0; i < DF; i++) {
+            if (i % SKIP_INTERVAL == 0) {
+                skipBuffer.putInt(pos);
+            }
+            pos = skip(positions, pos, postingsBuffer.getInt(i * Posting.SIZE + Posting.TF_OFFSET));
+        }
+        skipBuffer.putInt(pos);
+    }
+
+    /**
+     * Returns the position in the given array after the positions of a posting that has the given TF.
+     *
+     * @param positions
+     * @param pos The position of the first byte of the positions of the posting
+     * @param TF
+     * @return
+     */
+    public static int skip(byte[] positions, int pos, int TF) {
+        for (int i = 0; i < TF; i++) {
+            pos = VarInt.skip(positions, pos);
+        }
+        return pos;
+    }
+
+    /**
+     * Decodes the positions of a posting that has the given TF and writes them to the given array. Returns
+     * the position in the positions array after the positions of the posting.
+     *
+     * @param positions
+     * @param pos The position of the first byte of the positions of the posting
+     * @param TF
+     * @param out At least TF items
+     * @return
+     */
+    public static int decode(byte[] positions, int pos, int TF, int[] out) {
+        int position = 0;
+        for (int i = 0; i < TF; i++) {
+            pos = VarInt.read(positions, pos, out, i);
+            position += out[i];
+            out[i] = position;
+        }
+        return pos;
+    }
+}
@@ -1,9 +1,12 @@
 package gr.csd.uoc.hy463.themis.indexer.model;
 
 /**
- * Stores the required data for an entry in POSTINGS_FILENAME:
+ * Stores the required data for an uncompressed posting:
  * - TF (frequency of a term in the relevant document)
  * - The (int) ID of the relevant document
+ *
+ * The postings are uncompressed while a segment is created or merged, POSTINGS_FILENAME has the compressed
+ * postings (see class Postings).
  */
 public class Posting {
     private final int _TF;
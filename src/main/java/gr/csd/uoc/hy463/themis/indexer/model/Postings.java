@@ -0,0 +1,212 @@
+package gr.csd.uoc.hy463.themis.indexer.model;
+
+import gr.csd.uoc.hy463.themis.utils.VarInt;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Describes the postings of a term in POSTINGS_FILENAME. The postings of each term are sorted by doc ID and are
+ * compressed in blocks of BLOCK_SIZE postings (the last block may have less postings). The postings of a term
+ * have:
+ * - A skip table, only if the term has more than one block. It has one entry of SKIP_SIZE bytes per block (see
+ * the constants below): the last (int) doc ID of the block, the offset of the end of the block from the end of
+ * the skip table, the max TF of the block and the min token count of the documents of the block. The skip table
+ * allows skipping blocks without decoding them, and the max TF and min token count give an upper bound of the
+ * score of each block (used by the Okapi retrieval model).
+ * - The blocks. Each block has:
+ *   - The (int) doc IDs as VarInts: the gap from the previous doc ID of the term (the first doc ID of the term
+ *   is stored as is)
+ *   - The TFs as VarInts
+ *
+ * The DF and the size (bytes) of the compressed postings of each term are stored in VOCABULARY_FILENAME.
+ * While a segment is created or merged, the postings of a term are kept uncompressed (see class Posting)
+ * and are compressed only when they are written to POSTINGS_FILENAME.
+ */
+public class Postings {
+    /* number of postings in a block */
+    public static final int BLOCK_SIZE = 128;
+
+    /* Last (int) doc ID of the block (int => 4 bytes) */
+    public static final int SKIP_LAST_DOCID_SIZE = 4;
+    public static final int SKIP_LAST_DOCID_OFFSET = 0;
+
+    /* Offset of the end of the block from the end of the skip table (int => 4 bytes) */
+    public static final int SKIP_BLOCK_END_SIZE = 4;
+    public static final int SKIP_BLOCK_END_OFFSET = 4;
+
+    /* Max TF of the block (int => 4 bytes) */
+    public static final int SKIP_MAX_TF_SIZE = 4;
+    public static final int SKIP_MAX_TF_OFFSET = 8;
+
+    /* Min token count of the documents of the block (int => 4 bytes) */
+    public static final int SKIP_MIN_TOKENS_SIZE = 4;
+    public static final int SKIP_MIN_TOKENS_OFFSET = 12;
+
+    /* total size of a skip table entry */
+    public static final int SKIP_SIZE = SKIP_LAST_DOCID_SIZE + SKIP_BLOCK_END_SIZE + SKIP_MAX_TF_SIZE + SKIP_MIN_TOKENS_SIZE;
+
+    /**
+     * Returns the number of blocks of a term that has the given DF.
+     *
+     * @param DF
+     * @return
+     */
+    public static int getBlocks(int DF) {
+        return (DF + BLOCK_SIZE - 1) / BLOCK_SIZE;
+    }
+
+    /**
+     * Returns the size (bytes) of the skip table of a term that has the given DF. Terms that have only one
+     * block have no skip table.
+     *
+     * @param DF
+     * @return
+     */
+    public static int getSkipTableSize(int DF) {
+        int blocks = getBlocks(DF);
+        return (blocks > 1) ? blocks * SKIP_SIZE : 0;
+    }
+
+    /**
+     * Returns the max size (bytes) of the compressed postings of a term that has the given DF.
+     *
+     * @param DF
+     * @return
+     */
+    public static int getMaxEncodedSize(int DF) {
+        return getSkipTableSize(DF) + DF * 2 * VarInt.MAX_SIZE;
+    }
+
+    /**
+     * Compresses the given uncompressed postings (see class Posting) and writes them to the given array.
+     * Returns the size (bytes) of the compressed postings.
+     *
+     * @param postings The uncompressed postings of the term
+     * @param DF Number of postings
+     * @param tokenCounts The token count of each document (indexed by (int) doc ID - doc ID base)
+     * @param docIDBase
+     * @param out At least getMaxEncodedSize(DF) bytes
+     * @return
+     */
+    public static int encode(byte[] postings, int DF, int[] tokenCounts, int docIDBase, byte[] out) {
+        ByteBuffer postingsBuffer = ByteBuffer.wrap(postings);
+        ByteBuffer skipBuffer = ByteBuffer.wrap(out);
+        int skipTableSize = getSkipTableSize(DF);
+        int pos = skipTableSize;
+        int prevDocID = 0;
+        for (int start = 0; start < DF; start += BLOCK_SIZE) {
+            int end = Math.min(start + BLOCK_SIZE, DF);
+            int maxTF = 0;
+            int minTokens = Integer.MAX_VALUE;
+            for (int i = start; i < end; i++) {
+                int docID = postingsBuffer.getInt(i * Posting.SIZE + Posting.DOCID_OFFSET);
+                pos = VarInt.write(out, pos, docID - prevDocID);
+                prevDocID = docID;
+                minTokens = Math.min(minTokens, tokenCounts[docID - docIDBase]);
+            }
+            for (int i = start; i < end; i++) {
+                int TF = postingsBuffer.getInt(i * Posting.SIZE + Posting.TF_OFFSET);
+                pos = VarInt.write(out, pos, TF);
+                maxTF = Math.max(maxTF, TF);
+            }
+            if (skipTableSize != 0) {
+                int skipOffset = (start / BLOCK_SIZE) * SKIP_SIZE;
+                skipBuffer.putInt(skipOffset + SKIP_LAST_DOCID_OFFSET, prevDocID);
+                skipBuffer.putInt(skipOffset + SKIP_BLOCK_END_OFFSET, pos - skipTableSize);
+                skipBuffer.putInt(skipOffset + SKIP_MAX_TF_OFFSET, maxTF);
+                skipBuffer.putInt(skipOffset + SKIP_MIN_TOKENS_OFFSET, minTokens);
+            }
+        }
+        return pos;
+    }
+
+    /**
+     * Decodes a block of the given compressed postings and writes the TFs and the (int) doc IDs to the given
+     * arrays starting at the given position. Returns the position in the compressed postings after the block.
+     *
+     * @param encoded The compressed postings of the term
+     * @param pos The position of the first byte of the block
+     * @param count Number of postings in the block
+     * @param prevDocID The last doc ID of the previous block or 0 if this is the first block
+     * @param TFs At least outPos + count items
+     * @param docIDs At least outPos + count items
+     * @param outPos
+     * @return
+     */
+    public static int decodeBlock(byte[] encoded, int pos, int count, int prevDocID, int[] TFs, int[] docIDs, int outPos) {
+        pos = decodeDocIDs(encoded, pos, count, prevDocID, docIDs, outPos);
+        for (int i = outPos; i < outPos + count; i++) {
+            pos = VarInt.read(encoded, pos, TFs, i);
+        }
+        return pos;
+    }
+
+    /**
+     * Decodes only the (int) doc IDs of a block of the given compressed postings and writes them to the given
+     * array starting at the given position. Returns the position in the compressed postings after the doc IDs
+     * (the start of the TFs of the block).
+     *
+     * @param encoded The compressed postings of the term
+     * @param pos The position of the first byte of the block
+     * @param count Number of postings in the block
+     * @param prevDocID The last doc ID of the previous block or 0 if this is the first block
+     * @param docIDs At least outPos + count items
+     * @param outPos
+     * @return
+     */
+    public static int decodeDocIDs(byte[] encoded, int pos, int count, int prevDocID, int[] docIDs, int outPos) {
+        int docID = prevDocID;
+        for (int i = outPos; i < outPos + count; i++) {
+            pos = VarInt.read(encoded, pos, docIDs, i);
+            docID += docIDs[i];
+            docIDs[i] = docID;
+        }
+        return pos;
+    }
+
+    /**
+     * Decodes the given compressed postings of a term and writes the TFs and the (int) doc IDs to the
+     * given arrays starting at the given position.
+     *
+     * @param encoded The compressed postings of the term
+     * @param DF Number of postings
+     * @param TFs At least outPos + DF items
+     * @param docIDs At least outPos + DF items
+     * @param outPos
+     */
+    public static void decode(byte[] encoded, int DF, int[] TFs, int[] docIDs, int outPos) {
+        int pos = getSkipTableSize(DF);
+        int prevDocID = 0;
+        for (int start = 0; start < DF; start += BLOCK_SIZE) {
+            int count = Math.min(BLOCK_SIZE, DF - start);
+            pos = decodeBlock(encoded, pos, count, prevDocID, TFs, docIDs, outPos + start);
+            prevDocID = docIDs[outPos + start + count - 1];
+        }
+    }
+
+    /**
+     * Decodes the given compressed postings of a term and writes them uncompressed (see class Posting) to the
+     * given array starting at the given position.
+     *
+     * @param encoded The compressed postings of the term
+     * @param DF Number of postings
+     * @param out At least outPos + DF * Posting.SIZE bytes
+     * @param outPos
+     */
+    public static void decode(byte[] encoded, int DF, byte[] out, int outPos) {
+        int[] TFs = new int[BLOCK_SIZE];
+        int[] docIDs = new int[BLOCK_SIZE];
+        ByteBuffer outBuffer = ByteBuffer.wrap(out);
+        int pos = getSkipTableSize(DF);
+        int prevDocID = 0;
+        for (int start = 0; start < DF; start += BLOCK_SIZE) {
+            int count = Math.min(BLOCK_SIZE, DF - start);
+            pos = decodeBlock(encoded, pos, count, prevDocID, TFs, docIDs, 0);
+            prevDocID = docIDs[count - 1];
+            for (int i = 0; i < count; i++) {
+                outBuffer.putInt(outPos + (start + i) * Posting.SIZE + Posting.TF_OFFSET, TFs[i]);
+                outBuffer.putInt(outPos + (start + i) * Posting.SIZE + Posting.DOCID_OFFSET, docIDs[i]);
+            }
+        }
+    }
+}
@@ -1,23 +1,107 @@
-package gr.csd.uoc.hy463.themis.indexer.model;
-
-/**
- * Represents the data about a term in VOCABULARY_FILENAME. Holds the DF (document frequency) of the term
- * and the offset to POSTINGS_FILENAME.
- */
-public class VocabularyEntry {
-    private final int _DF;
-    private final long _postingsOffset;
-
-    public VocabularyEntry(int DF, long postingsOffset) {
-        _DF = DF;
-        _postingsOffset = postingsOffset;
-    }
-
-    public int getDF() {
-        return _DF;
-    }
-
-    public long getPostingsOffset() {
-        return _postingsOffset;
-    }
-}
+package gr.csd.uoc.hy463.themis.indexer.model;
+
+/**
+ * Represents the data about a term in VOCABULARY_FILENAME. Holds the DF (document frequency) of the term,
+ * the offset and size of its compressed postings in POSTINGS_FILENAME, the offset to POSITIONS_FILENAME and
+ * the max TF ratio of the term: the max value of TF / (max TF of the document) in its postings, an upper bound
+ * of the normalized TF of the term used by the Vector space model. The offset to POSITIONS_FILENAME is -1 if
+ * the segment has no positions (it was created before positions were indexed) and the max TF ratio is
+ * infinite if the segment has no max TF ratios (it was created before they were indexed).
+ *
+ * VOCABULARY_FILENAME is a binary file that has:
+ * - The terms sorted by String.compareTo() in blocks of BLOCK_SIZE terms (the last block may have less terms).
+ * For each term the following are written as VarInts: length (bytes) of the prefix that is shared with the
+ * previous term of the block, length (bytes) of the rest of the term followed by its UTF-8 bytes, DF, size of
+ * the postings, offset to POSTINGS_FILENAME (only for the first term of the block, the postings of the terms
+ * are consecutive), offset to POSITIONS_FILENAME (only if the segment has positions) and the max TF ratio as
+ * the TF and the max TF of the document of the posting that has the max ratio (only if the segment has max TF
+ * ratios). The offset to POSITIONS_FILENAME of the first term of a block is absolute, the rest are relative to
+ * the previous term.
+ * - The block index. For each block: the length (bytes) of its first term followed by the UTF-8 bytes, and the
+ * offset of the block relative to the previous block (VarInts).
+ * - The trailer (see the constants below).
+ *
+ * The block index is small (one term every BLOCK_SIZE terms) and is loaded in memory, the blocks are memory
+ * mapped (see class {@link gr.csd.uoc.hy463.themis.indexer.indexes.Vocabulary}).
+ */
+public class VocabularyEntry {
+    /* number of terms in a block */
+    public static int BLOCK_SIZE = 32;
+
+    /* Offset of the block index (long => 8 bytes) */
+    public static int INDEX_OFFSET_SIZE = 8;
+    public static int INDEX_OFFSET_OFFSET = 0;
+
+    /* Number of terms (int => 4 bytes) */
+    public static int TERMS_SIZE = 4;
+    public static int TERMS_OFFSET = 8;
+
+    /* Flags (int => 4 bytes): POSITIONS_FLAG if the segment has positions, MAX_TF_RATIO_FLAG if the segment
+    has max TF ratios */
+    public static int FLAGS_SIZE = 4;
+    public static int FLAGS_OFFSET = 12;
+    public static int POSITIONS_FLAG = 1;
+    public static int MAX_TF_RATIO_FLAG = 2;
+
+    /* total size of the trailer */
+    public static int TRAILER_SIZE = INDEX_OFFSET_SIZE + TERMS_SIZE + FLAGS_SIZE;
+
+    private final int _DF;
+    private final long _postingsOffset;
+    private final int _postingsSize;
+    private final long _positionsOffset;
+    private final double _maxTFRatio;
+
+    public VocabularyEntry(int DF, long postingsOffset, int postingsSize, long positionsOffset, double maxTFRatio) {
+        _DF = DF;
+        _postingsOffset = postingsOffset;
+        _postingsSize = postingsSize;
+        _positionsOffset = positionsOffset;
+        _maxTFRatio = maxTFRatio;
+    }
+
+    /**
+     * Returns the ratio TF / maxTF (infinite if maxTF is 0)
+     *
+     * @param TF
+     * @param maxTF
+     * @return
+     */
+    public static double getRatio(int TF, int maxTF) {
+        return (maxTF != 0) ? (double) TF / maxTF : Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Returns true if the ratio TF1 / maxTF1 is larger than the ratio TF2 / maxTF2 (a ratio is infinite if
+     * its max TF is 0)
+     *
+     * @param TF1
+     * @param maxTF1
+     * @param TF2
+     * @param maxTF2
+     * @return
+     */
+    public static boolean isLargerRatio(int TF1, int maxTF1, int TF2, int maxTF2) {
+        return (long) TF1 * maxTF2 > (long) TF2 * maxTF1;
+    }
+
+    public int getDF() {
+        return _DF;
+    }
+
+    public long getPostingsOffset() {
+        return _postingsOffset;
+    }
+
+    public int getPostingsSize() {
+        return _postingsSize;
+    }
+
+    public long getPositionsOffset() {
+        return _positionsOffset;
+    }
+
+    public double getMaxTFRatio() {
+        return _maxTFRatio;
+    }
+}
@@ -0,0 +1,400 @@
+package gr.csd.uoc.hy463.themis.indexer.pipeline;
+
+import gr.csd.uoc.hy463.themis.Themis;
+import gr.csd.uoc.hy463.themis.lexicalAnalysis.Stemmer;
+import gr.csd.uoc.hy463.themis.lexicalAnalysis.collections.SemanticScholar.S2JsonEntryReader;
+import gr.csd.uoc.hy463.themis.lexicalAnalysis.collections.SemanticScholar.S2TextualEntry;
+import gr.csd.uoc.hy463.themis.lexicalAnalysis.collections.SemanticScholar.S2TextualEntryTokens;
+import gr.csd.uoc.hy463.themis.utils.ByteLineReader;
+import gr.csd.uoc.hy463.themis.utils.CorpusInputStream;
+import gr.csd.uoc.hy463.themis.utils.Time;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Multi-threaded pipeline that reads and parses the collection. It consists of 3 stages:
+ * 1) Reader: A single thread that reads the corpus files and groups their lines into batches. Lines are kept
+ * as raw UTF-8 bytes. Compressed corpus files are decompressed by a separate thread per file (see
+ * CorpusInputStream), and the next file is opened before the current one is read so that they are
+ * decompressed in parallel.
+ * 2) Parsers: N threads that parse the JSON entries of a batch (directly from their bytes) and create the
+ * [term -> TF] map of each document.
+ * 3) Consumer: The thread that calls next().
+ *
+ * Batches are handed to the consumer in the same order they were read, therefore the N-th document
+ * returned by next() is always the N-th document of the collection. This means that the consumer can
+ * assign (int) doc IDs sequentially and the IDs will not depend on the number of parser threads.
+ *
+ * The number of batches in the pipeline is bounded so that the reader cannot get too far ahead of the consumer.
+ *
+ * The first lines of the first corpus file can be skipped (without being parsed) so that a collection can be
+ * read starting from a given document.
+ */
+public class ParsePipeline {
+    /* number of lines in a batch */
+    private static final int BATCH_SIZE = 1000;
+
+    /* max number of batches (per parser thread) that can be in the pipeline at any time */
+    private static final int BATCHES_PER_THREAD = 4;
+
+    /* marks the end of the collection */
+    private static final ParseBatch END_BATCH = new ParseBatch(null, 0);
+
+    private final List<File> _corpus;
+    private final long _skipLines;
+    private final int _threads;
+    private final boolean _useStemmer;
+    private final boolean _useStopwords;
+
+    /* all batches in the order they were read. Used by the consumer */
+    private final BlockingQueue<ParseBatch> _orderedBatches;
+
+    /* batches that have not been parsed yet. Used by the parser threads */
+    private final BlockingQueue<ParseBatch> _pendingBatches = new LinkedBlockingQueue<>();
+
+    private final List<Thread> _pipelineThreads = new ArrayList<>();
+    private volatile IOException _readerError = null;
+
+    /* the batch that is currently processed by the consumer and the position of the next document in it */
+    private ParseBatch _currentBatch = null;
+    private int _currentPos = 0;
+
+    /* statistics of each stage */
+    private long _startTime = 0;
+    private long _endTime = 0;
+    private volatile long _readTime = 0;
+    private volatile long _readDocuments = 0;
+    private volatile long _readBytes = 0; /* uncompressed bytes */
+    private final AtomicLong _parseTime = new AtomicLong(0);
+    private final AtomicLong _parsedDocuments = new AtomicLong(0);
+    private long _consumerWaitTime = 0;
+    private long _consumedDocuments = 0;
+    private long _stemCacheHits = 0;
+    private long _stemCacheMisses = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param corpus The list of files in the collection
+     * @param threads Number of parser threads
+     * @param useStemmer
+     * @param useStopwords
+     */
+    public ParsePipeline(List<File> corpus, int threads, boolean useStemmer, boolean useStopwords) {
+        this(corpus, 0, threads, useStemmer, useStopwords);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param corpus The list of files in the collection
+     * @param skipLines Number of lines of the first file that are skipped
+     * @param threads Number of parser threads
+     * @param useStemmer
+     * @param useStopwords
+     */
+    public ParsePipeline(List<File> corpus, long skipLines, int threads, boolean useStemmer, boolean useStopwords) {
+        _corpus = corpus;
+        _skipLines = skipLines;
+        _threads = Math.max(1, threads);
+        _useStemmer = useStemmer;
+        _useStopwords = useStopwords;
+        _orderedBatches = new ArrayBlockingQueue<>(_threads * BATCHES_PER_THREAD);
+    }
+
+    /**
+     * Starts the reader and the parser threads.
+     */
+    public void start() {
+        _startTime = System.nanoTime();
+        _stemCacheHits = Stemmer.getCacheHits();
+        _stemCacheMisses = Stemmer.getCacheMisses();
+        Thread reader = new Thread(this::read, "themis-reader");
+        _pipelineThreads.add(reader);
+        for (int i = 0; i < _threads; i++) {
+            Thread parser = new Thread(this::parse, "themis-parser-" + i);
+            _pipelineThreads.add(parser);
+        }
+        for (Thread thread : _pipelineThreads) {
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Returns the next document of the collection or null if all documents have been returned.
+     * Entries without an ID are skipped. An entry that could not be parsed (or any other failure of the
+     * pipeline threads) is reported by throwing its exception, so the collection is not read any further.
+     *
+     * @return
+     * @throws IOException
+     */
+    public ParsedDocument next()
+            throws IOException {
+        while (true) {
+            if (_currentBatch == END_BATCH) {
+                return null;
+            }
+            if (_currentBatch != null) {
+                while (_currentPos < _currentBatch.size()) {
+                    ParsedDocument document = _currentBatch.get(_currentPos++);
+                    if (document != null) {
+                        _consumedDocuments++;
+                        return document;
+                    }
+                }
+            }
+
+            /* wait for the next batch */
+            long startTime = System.nanoTime();
+            ParseBatch batch;
+            try {
+                batch = _orderedBatches.take();
+                if (batch != END_BATCH) {
+                    batch.await();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Parse pipeline interrupted");
+            } finally {
+                _consumerWaitTime += System.nanoTime() - startTime;
+            }
+            if (batch == END_BATCH) {
+                _endTime = System.nanoTime();
+                _currentBatch = END_BATCH;
+                if (_readerError != null) {
+                    throw _readerError;
+                }
+                return null;
+            }
+            batch.rethrowError();
+            _currentBatch = batch;
+            _currentPos = 0;
+        }
+    }
+
+    /**
+     * Stops all pipeline threads. Should be called when the consumer does not need any more documents.
+     */
+    public void close() {
+        for (Thread thread : _pipelineThreads) {
+            thread.interrupt();
+        }
+        _pipelineThreads.clear();
+    }
+
+    /**
+     * Prints the throughput of each stage of the pipeline. Should be called after next() has returned null.
+     */
+    public void printStats() {
+        long totalTime = (_endTime != 0 ? _endTime : System.nanoTime()) - _startTime;
+        long consumerTime = totalTime - _consumerWaitTime;
+        long parseTime = _parseTime.get();
+        long parsedDocuments = _parsedDocuments.get();
+        Themis.print("-> Parse pipeline statistics:\n");
+        Themis.print("Reader: " + _readDocuments + " documents (" + (_readBytes / (1024 * 1024)) + " MB) in " +
+                new Time(_readTime) + " (" + rate(_readDocuments, _readTime) + " docs/s, " +
+                rate(_readBytes / (1024 * 1024), _readTime) + " MB/s)\n");
+        Themis.print("Parsers (" + _threads + " threads): " + parsedDocuments + " documents in " +
+                new Time(parseTime / _threads) + " per thread (" + rate(parsedDocuments, parseTime) +
+                " docs/s per thread, " + rate(parsedDocuments * _threads, parseTime) + " docs/s total)\n");
+        Themis.print("Indexer: " + _consumedDocuments + " documents in " + new Time(consumerTime) + " (" +
+                rate(_consumedDocuments, consumerTime) + " docs/s), waited " + new Time(_consumerWaitTime) +
+                " for the parsers\n");
+        if (_useStemmer) {
+            long hits = Stemmer.getCacheHits() - _stemCacheHits;
+            long misses = Stemmer.getCacheMisses() - _stemCacheMisses;
+            Themis.print("Stem cache: " + hits + " hits, " + misses + " misses (hit ratio " +
+                    String.format("%.3f", hits / Math.max(1.0, hits + misses)) + ")\n");
+        }
+    }
+
+    /* Returns the number of items per second */
+    private static long rate(long items, long nanoTime) {
+        if (nanoTime <= 0) {
+            return 0;
+        }
+        return Math.round(items / Time.toSec(nanoTime));
+    }
+
+    /* Reads the corpus files and adds batches of lines to the pipeline. Runs in the reader thread */
+    private void read() {
+        InputStream nextCorpusStream = null;
+        try {
+            for (int i = 0; i < _corpus.size(); i++) {
+                File corpusFile = _corpus.get(i);
+                ByteLineReader corpusReader = new ByteLineReader(nextCorpusStream != null ? nextCorpusStream : CorpusInputStream.open(corpusFile));
+                nextCorpusStream = null;
+                try {
+                    if (i + 1 < _corpus.size()) {
+                        nextCorpusStream = CorpusInputStream.open(_corpus.get(i + 1));
+                    }
+                    long line = 0;
+                    if (i == 0) {
+                        while (line < _skipLines && corpusReader.readLine()) {
+                            line++;
+                        }
+                    }
+                    ParseBatch batch = new ParseBatch(corpusFile, line);
+                    long startTime = System.nanoTime();
+                    while (corpusReader.readLine()) {
+                        batch.addLine(corpusReader.getBuffer(), corpusReader.getLineStart(), corpusReader.getLineLength());
+                        line++;
+                        if (batch.size() == BATCH_SIZE) {
+                            _readTime += System.nanoTime() - startTime;
+                            submit(batch);
+                            batch = new ParseBatch(corpusFile, line);
+                            startTime = System.nanoTime();
+                        }
+                    }
+                    _readTime += System.nanoTime() - startTime;
+                    if (batch.size() != 0) {
+                        submit(batch);
+                    }
+                } finally {
+                    _readBytes += corpusReader.getBytesRead();
+                    corpusReader.close();
+                }
+            }
+        } catch (IOException e) {
+            _readerError = e;
+        } catch (InterruptedException e) {
+            return;
+        } finally {
+            if (nextCorpusStream != null) {
+                try {
+                    nextCorpusStream.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+
+        /* signal the end of the collection to the consumer and the parsers */
+        try {
+            _orderedBatches.put(END_BATCH);
+            for (int i = 0; i < _threads; i++) {
+                _pendingBatches.put(END_BATCH);
+            }
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    /* Adds a batch to the pipeline. Blocks if the pipeline is full */
+    private void submit(ParseBatch batch)
+            throws InterruptedException {
+        _readDocuments += batch.size();
+        _orderedBatches.put(batch);
+        _pendingBatches.put(batch);
+    }
+
+    /* Parses the pending batches. Runs in each parser thread */
+    private void parse() {
+        S2TextualEntryTokens textualEntryTokens = new S2TextualEntryTokens(_useStemmer, _useStopwords);
+        try {
+            while (true) {
+                ParseBatch batch = _pendingBatches.take();
+                if (batch == END_BATCH) {
+                    return;
+                }
+                long startTime = System.nanoTime();
+                batch.parse(textualEntryTokens);
+                _parseTime.addAndGet(System.nanoTime() - startTime);
+                _parsedDocuments.addAndGet(batch.size());
+            }
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    /* A batch of consecutive lines from a corpus file along with the parsed documents. The lines are
+    stored one after the other in a single byte array */
+    private static class ParseBatch {
+        private final File _corpusFile;
+
+        /* the line of the first line of the batch in the corpus file */
+        private final long _firstLine;
+        private byte[] _data = new byte[0];
+        private int _dataSize = 0;
+        private final int[] _lineStarts = new int[BATCH_SIZE + 1];
+        private int _lines = 0;
+        private ParsedDocument[] _documents = null;
+        private final CountDownLatch _parsed = new CountDownLatch(1);
+        private Throwable _error = null;
+
+        ParseBatch(File corpusFile, long firstLine) {
+            _corpusFile = corpusFile;
+            _firstLine = firstLine;
+        }
+
+        /* Appends a line (UTF-8 bytes) to this batch */
+        void addLine(byte[] buffer, int start, int length) {
+            if (_dataSize + length > _data.length) {
+                _data = Arrays.copyOf(_data, Math.max(_data.length * 2, _dataSize + length));
+            }
+            System.arraycopy(buffer, start, _data, _dataSize, length);
+            _lineStarts[_lines] = _dataSize;
+            _dataSize += length;
+            _lines++;
+            _lineStarts[_lines] = _dataSize;
+        }
+
+        int size() {
+            return _lines;
+        }
+
+        ParsedDocument get(int pos) {
+            return _documents[pos];
+        }
+
+        /* Parses the lines of this batch. Entries without an ID are skipped */
+        void parse(S2TextualEntryTokens textualEntryTokens) {
+            try {
+                _documents = new ParsedDocument[_lines];
+                for (int i = 0; i < _lines; i++) {
+                    S2TextualEntry entry = S2JsonEntryReader.readTextualCitationsEntry(_data, _lineStarts[i], _lineStarts[i + 1] - _lineStarts[i]);
+                    if (entry.getID() == null) {
+                        continue;
+                    }
+                    Map<String, int[]> positionsMap = textualEntryTokens.createPositionsMap(entry);
+                    _documents[i] = new ParsedDocument(entry, positionsMap, _corpusFile, _firstLine + i);
+                }
+            } catch (Throwable e) {
+                _error = e;
+            } finally {
+                _data = null;
+                _parsed.countDown();
+            }
+        }
+
+        /* Blocks until the batch has been parsed */
+        void await()
+                throws InterruptedException {
+            _parsed.await();
+        }
+
+        /* Rethrows any exception (or error such as OutOfMemoryError) that occurred while parsing the batch */
+        void rethrowError()
+                throws IOException {
+            if (_error instanceof IOException) {
+                throw (IOException) _error;
+            }
+            if (_error instanceof RuntimeException) {
+                throw (RuntimeException) _error;
+            }
+            if (_error instanceof Error) {
+                throw (Error) _error;
+            }
+            if (_error != null) {
+                throw new IOException("Parsing a batch failed", _error);
+            }
+        }
+    }
+}
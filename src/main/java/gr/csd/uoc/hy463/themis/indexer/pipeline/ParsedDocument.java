@@ -0,0 +1,47 @@
+package gr.csd.uoc.hy463.themis.indexer.pipeline;
+
+import gr.csd.uoc.hy463.themis.lexicalAnalysis.collections.SemanticScholar.S2TextualEntry;
+
+import java.io.File;
+import java.util.Map;
+
+/**
+ * A document that has been parsed by the {@link ParsePipeline}. Holds:
+ * - The {@link S2TextualEntry} of the document
+ * - The map of [term -> positions] of the document (the TF of a term is the number of its positions)
+ * - The corpus file that contains the document and the line of the document in the file
+ */
+public class ParsedDocument {
+    private final S2TextualEntry _entry;
+    private final Map<String, int[]> _positionsMap;
+    private final File _corpusFile;
+    private final long _line;
+
+    public ParsedDocument(S2TextualEntry entry, Map<String, int[]> positionsMap, File corpusFile, long line) {
+        _entry = entry;
+        _positionsMap = positionsMap;
+        _corpusFile = corpusFile;
+        _line = line;
+    }
+
+    public S2TextualEntry getEntry() {
+        return _entry;
+    }
+
+    public Map<String, int[]> getPositionsMap() {
+        return _positionsMap;
+    }
+
+    public File getCorpusFile() {
+        return _corpusFile;
+    }
+
+    /**
+     * Returns the line (starting from 0) of the document in its corpus file
+     *
+     * @return
+     */
+    public long getLine() {
+        return _line;
+    }
+}
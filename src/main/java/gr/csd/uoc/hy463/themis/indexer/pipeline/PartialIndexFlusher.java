@@ -0,0 +1,221 @@
+package gr.csd.uoc.hy463.themis.indexer.pipeline;
+
+import gr.csd.uoc.hy463.themis.Themis;
+import gr.csd.uoc.hy463.themis.indexer.indexes.Index;
+import gr.csd.uoc.hy463.themis.utils.Pair;
+import gr.csd.uoc.hy463.themis.utils.Time;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Dumps the partial indexes to disk in a background thread so that the indexer can continue adding
+ * documents to a new partial index while the previous ones are sorted and written.
+ *
+ * At most K partial indexes are in memory at any time: the one that is being filled by the indexer and
+ * up to K - 1 full indexes that are waiting to be dumped (or are being dumped). submit() blocks when
+ * K - 1 full indexes are already in memory. When K = 1, the indexes are dumped in the calling thread.
+ *
+ * The partial indexes are dumped in the order they were submitted. Each index can be submitted with a
+ * {@link DumpListener} that is called (by the flusher thread) after the index has been dumped.
+ */
+public class PartialIndexFlusher {
+    /**
+     * Called after a partial index has been dumped.
+     */
+    public interface DumpListener {
+        void dumped(Index index)
+                throws IOException;
+    }
+
+    /* marks the end of the partial indexes */
+    private static final Index END_INDEX = new Index(null, -1);
+
+    private final int _maxIndexes;
+    private final BlockingQueue<Pair<Index, DumpListener>> _pendingIndexes = new LinkedBlockingQueue<>();
+
+    /* one permit for each full index that can be in memory */
+    private final Semaphore _permits;
+
+    private Thread _flusherThread = null;
+    private volatile Throwable _error = null;
+
+    /* statistics */
+    private volatile int _dumpedIndexes = 0;
+    private volatile long _dumpTime = 0;
+    private volatile long _maxDumpTime = 0;
+    private long _waitTime = 0;
+    private int _maxQueueDepth = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param maxIndexes Max number of partial indexes in memory (K)
+     */
+    public PartialIndexFlusher(int maxIndexes) {
+        _maxIndexes = Math.max(1, maxIndexes);
+        _permits = new Semaphore(_maxIndexes - 1);
+    }
+
+    /**
+     * Starts the flusher thread. Does nothing if K = 1.
+     */
+    public void start() {
+        if (_maxIndexes == 1) {
+            return;
+        }
+        _flusherThread = new Thread(this::flush, "themis-flusher");
+        _flusherThread.setDaemon(true);
+        _flusherThread.start();
+    }
+
+    /**
+     * Hands a full partial index to the flusher. Blocks if K - 1 full indexes are already in memory.
+     * The indexer should not modify the index after this call.
+     *
+     * @param index
+     * @throws IOException if dumping a previous index has failed
+     */
+    public void submit(Index index)
+            throws IOException {
+        submit(index, null);
+    }
+
+    /**
+     * Hands a full partial index to the flusher. Blocks if K - 1 full indexes are already in memory.
+     * The indexer should not modify the index after this call. The given listener (if not null) is called
+     * after the index has been dumped.
+     *
+     * @param index
+     * @param listener
+     * @throws IOException if dumping a previous index has failed
+     */
+    public void submit(Index index, DumpListener listener)
+            throws IOException {
+        rethrowError();
+        if (_flusherThread == null) {
+            dump(index, listener, 0);
+            rethrowError();
+            return;
+        }
+        long startTime = System.nanoTime();
+        try {
+            _permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Partial index flusher interrupted");
+        } finally {
+            _waitTime += System.nanoTime() - startTime;
+        }
+        rethrowError();
+        _pendingIndexes.add(new Pair<>(index, listener));
+        _maxQueueDepth = Math.max(_maxQueueDepth, _maxIndexes - 1 - _permits.availablePermits());
+    }
+
+    /**
+     * Blocks until all submitted partial indexes have been dumped.
+     *
+     * @throws IOException if dumping an index has failed
+     */
+    public void finish()
+            throws IOException {
+        if (_flusherThread != null) {
+            _pendingIndexes.add(new Pair<>(END_INDEX, null));
+            try {
+                _flusherThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Partial index flusher interrupted");
+            }
+            _flusherThread = null;
+        }
+        rethrowError();
+    }
+
+    /**
+     * Stops the flusher thread without waiting for the pending indexes. Should be called if indexing
+     * does not complete normally.
+     */
+    public void close() {
+        if (_flusherThread != null) {
+            _flusherThread.interrupt();
+            _flusherThread = null;
+        }
+    }
+
+    /**
+     * Prints the number of dumped indexes, the dump latency and the time the indexer was blocked because
+     * K partial indexes were in memory. Should be called after finish().
+     */
+    public void printStats() {
+        Themis.print("-> Partial index flusher statistics:\n");
+        Themis.print("Dumped " + _dumpedIndexes + " partial indexes in " + new Time(_dumpTime) +
+                " (max " + new Time(_maxDumpTime) + "), max indexes in memory: " + _maxIndexes +
+                ", max queue depth: " + _maxQueueDepth + ", indexer waited " + new Time(_waitTime) + "\n");
+    }
+
+    /* Dumps the submitted indexes. Runs in the flusher thread */
+    private void flush() {
+        try {
+            while (true) {
+                Pair<Index, DumpListener> pending = _pendingIndexes.take();
+                if (pending.getL() == END_INDEX) {
+                    return;
+                }
+
+                /* the index is still in memory while it is being dumped. The permit is released even if
+                the dump fails, so that submit() does not block forever */
+                int queueDepth = _maxIndexes - 1 - _permits.availablePermits();
+                try {
+                    dump(pending.getL(), pending.getR(), queueDepth);
+                } finally {
+                    _permits.release();
+                }
+            }
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    /* Dumps the given index, calls the given listener and updates the statistics. Failures (including errors
+    such as OutOfMemoryError) are saved and reported by the next call of submit() or finish() */
+    private void dump(Index index, DumpListener listener, int queueDepth) {
+        if (_error != null) {
+            return;
+        }
+        long startTime = System.nanoTime();
+        try {
+            index.dump();
+            if (listener != null) {
+                listener.dumped(index);
+            }
+        } catch (Throwable e) {
+            _error = e;
+            return;
+        }
+        long dumpTime = System.nanoTime() - startTime;
+        _dumpTime += dumpTime;
+        _maxDumpTime = Math.max(_maxDumpTime, dumpTime);
+        _dumpedIndexes++;
+        Themis.print("Partial index " + index.getID() + " dumped in " + new Time(dumpTime) +
+                " (queue depth: " + queueDepth + ")\n");
+    }
+
+    private void rethrowError()
+            throws IOException {
+        if (_error instanceof IOException) {
+            throw (IOException) _error;
+        }
+        if (_error instanceof RuntimeException) {
+            throw (RuntimeException) _error;
+        }
+        if (_error instanceof Error) {
+            throw (Error) _error;
+        }
+        if (_error != null) {
+            throw new IOException("Dumping a partial index failed", _error);
+        }
+    }
+}
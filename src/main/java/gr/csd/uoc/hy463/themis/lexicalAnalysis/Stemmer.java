@@ -2,34 +2,145 @@ package gr.csd.uoc.hy463.themis.lexicalAnalysis;
 
 import opennlp.tools.stemmer.PorterStemmer;
 
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
 /**
- * Class responsible for stemming
+ * Class responsible for stemming. Can be used by multiple threads.
+ *
+ * The stems of the words are kept in a cache that is shared by all threads. The cache is a fixed size table where
+ * the slot of each word is given by its hash, and a new word replaces the word that is in its slot. Entries are
+ * immutable, so the cache does not need any locks.
  */
 public class Stemmer {
-    private static Stemmer _instance;
-    private static PorterStemmer _porterStemmer;
+    /* PorterStemmer keeps the word in an internal buffer, therefore each thread needs its own instance */
+    private static final ThreadLocal<PorterStemmer> _porterStemmer = ThreadLocal.withInitial(PorterStemmer::new);
 
-    private Stemmer()  {
-        _porterStemmer = new PorterStemmer();
-    }
+    /* number of slots of the cache (power of 2) */
+    private static final int CACHE_SIZE = 1 << 17;
+
+    private static final AtomicReferenceArray<CacheEntry> __CACHE__ = new AtomicReferenceArray<>(CACHE_SIZE);
+    private static final LongAdder __CACHE_HITS__ = new LongAdder();
+    private static final LongAdder __CACHE_MISSES__ = new LongAdder();
+
+    /* a word and its stem */
+    private static class CacheEntry {
+        final int _hash;
+        final char[] _word;
+        final char[] _stem;
+        final String _stemString;
 
-    private PorterStemmer getPorterStemmer() {
-        return _porterStemmer;
+        CacheEntry(int hash, char[] word, char[] stem) {
+            _hash = hash;
+            _word = word;
+            _stem = stem;
+            _stemString = new String(stem);
+        }
     }
 
-    public static Stemmer Singleton() {
-        return _instance == null
-                ? (_instance = new Stemmer())
-                : _instance;
+    private Stemmer() {
     }
 
     public static String stem(String word) {
-        if (word.length() > 3) {
-            String stemmedWord = Stemmer.Singleton().getPorterStemmer().stem(word);
-            if (stemmedWord.length() >= 3) {
-                return stemmedWord;
+        if (word.length() <= 3) {
+            return word;
+        }
+        int hash = word.hashCode();
+        int slot = (hash ^ (hash >>> 16)) & (CACHE_SIZE - 1);
+        CacheEntry entry = __CACHE__.get(slot);
+        if (entry != null && entry._hash == hash && equalsWord(entry._word, word)) {
+            __CACHE_HITS__.increment();
+            return entry._stemString;
+        }
+        __CACHE_MISSES__.increment();
+        String stemmedWord = _porterStemmer.get().stem(word);
+        if (stemmedWord.length() < 3) {
+            stemmedWord = word;
+        }
+        __CACHE__.lazySet(slot, new CacheEntry(hash, word.toCharArray(), stemmedWord.toCharArray()));
+        return stemmedWord;
+    }
+
+    /**
+     * Same as stem(String) but the word is given as the first length chars of the given buffer. The stemmed word
+     * replaces the word in the buffer (the Porter stemmer never makes a word longer) and its length is returned.
+     * No objects are created if the word is found in the cache.
+     *
+     * @param word
+     * @param length
+     * @return
+     */
+    public static int stem(char[] word, int length) {
+        if (length <= 3) {
+            return length;
+        }
+        int hash = 0;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + word[i];
+        }
+        int slot = (hash ^ (hash >>> 16)) & (CACHE_SIZE - 1);
+        CacheEntry entry = __CACHE__.get(slot);
+        if (entry != null && entry._hash == hash && equalsWord(entry._word, word, length)) {
+            __CACHE_HITS__.increment();
+            System.arraycopy(entry._stem, 0, word, 0, entry._stem.length);
+            return entry._stem.length;
+        }
+        __CACHE_MISSES__.increment();
+        char[] cachedWord = new char[length];
+        System.arraycopy(word, 0, cachedWord, 0, length);
+        PorterStemmer porterStemmer = _porterStemmer.get();
+        if (porterStemmer.stem(word, 0, length)) {
+            int stemmedLength = porterStemmer.getResultLength();
+            if (stemmedLength >= 3 && stemmedLength <= word.length) {
+                System.arraycopy(porterStemmer.getResultBuffer(), 0, word, 0, stemmedLength);
+                length = stemmedLength;
+            }
+        }
+        char[] stem = new char[length];
+        System.arraycopy(word, 0, stem, 0, length);
+        __CACHE__.lazySet(slot, new CacheEntry(hash, cachedWord, stem));
+        return length;
+    }
+
+    /**
+     * Returns the number of words that were found in the cache
+     *
+     * @return
+     */
+    public static long getCacheHits() {
+        return __CACHE_HITS__.sum();
+    }
+
+    /**
+     * Returns the number of words that were not found in the cache
+     *
+     * @return
+     */
+    public static long getCacheMisses() {
+        return __CACHE_MISSES__.sum();
+    }
+
+    private static boolean equalsWord(char[] cachedWord, String word) {
+        if (cachedWord.length != word.length()) {
+            return false;
+        }
+        for (int i = 0; i < cachedWord.length; i++) {
+            if (cachedWord[i] != word.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean equalsWord(char[] cachedWord, char[] word, int length) {
+        if (cachedWord.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (cachedWord[i] != word[i]) {
+                return false;
             }
         }
-        return word;
+        return true;
     }
 }
@@ -4,12 +4,16 @@ import java.io.*;
 import java.util.HashSet;
 
 /**
- * Class responsible for identifying stop words
+ * Class responsible for identifying stop words. Can be used by multiple threads.
  */
 public class StopWords {
     private static StopWords _instance = null;
     private final HashSet<String> __WORDS__;
 
+    /* the stop words in an open addressing hash table so that they can be found without creating a String */
+    private final char[][] __WORDS_TABLE__;
+    private final int _mask;
+
     private StopWords()
             throws IOException {
         String fileName = "/themis-stopwords";
@@ -23,13 +27,26 @@ public class StopWords {
         while ((line = br.readLine()) != null) {
             __WORDS__.add(line);
         }
+        int size = 16;
+        while (size < __WORDS__.size() * 2) {
+            size <<= 1;
+        }
+        __WORDS_TABLE__ = new char[size][];
+        _mask = size - 1;
+        for (String word : __WORDS__) {
+            int slot = word.hashCode() & _mask;
+            while (__WORDS_TABLE__[slot] != null) {
+                slot = (slot + 1) & _mask;
+            }
+            __WORDS_TABLE__[slot] = word.toCharArray();
+        }
     }
 
     private HashSet<String> getWords() {
         return __WORDS__;
     }
 
-    public static StopWords Singleton()
+    public static synchronized StopWords Singleton()
             throws IOException {
         return _instance == null
                 ? (_instance = new StopWords())
@@ -46,4 +63,37 @@ public class StopWords {
             throws IOException {
         return StopWords.Singleton().getWords().contains(word.toLowerCase());
     }
+
+    /**
+     * Checks if the word in the first length chars of the given buffer is a stop word. The word should be
+     * lowercase. Does not create any objects.
+     *
+     * @param word
+     * @param length
+     * @return true if the term is a stop word, false otherwise
+     */
+    public boolean isLowerCaseStopWord(char[] word, int length) {
+        int hash = 0;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + word[i];
+        }
+        int slot = hash & _mask;
+        char[] tableWord;
+        while ((tableWord = __WORDS_TABLE__[slot]) != null) {
+            if (tableWord.length == length && regionEquals(tableWord, word, length)) {
+                return true;
+            }
+            slot = (slot + 1) & _mask;
+        }
+        return false;
+    }
+
+    private static boolean regionEquals(char[] a, char[] b, int length) {
+        for (int i = 0; i < length; i++) {
+            if (a[i] != b[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
 }
@@ -3,21 +3,41 @@ package gr.csd.uoc.hy463.themis.lexicalAnalysis.collections.SemanticScholar;
 import gr.csd.uoc.hy463.themis.utils.Pair;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.json.simple.JSONArray;
-import org.json.simple.JSONObject;
-import org.json.simple.parser.JSONParser;
-import org.json.simple.parser.ParseException;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 
 /**
- * Class responsible for reading textual entries from the JSON description of the documents
+ * Class responsible for reading textual entries from the JSON description of the documents.
+ *
+ * The entries are parsed directly from their UTF-8 bytes by a streaming parser ({@link S2JsonParser}) and
+ * only the requested fields are decoded. All other fields are skipped without creating any objects.
  */
 public class S2JsonEntryReader {
     private static final Logger __LOGGER__ = LogManager.getLogger(S2JsonEntryReader.class);
 
+    /* names of the JSON fields that are read */
+    private static final byte[] __ID__ = fieldName("id");
+    private static final byte[] __TITLE__ = fieldName("title");
+    private static final byte[] __ABSTRACT__ = fieldName("paperAbstract");
+    private static final byte[] __ENTITIES__ = fieldName("entities");
+    private static final byte[] __FIELDS_OF_STUDY__ = fieldName("fieldsOfStudy");
+    private static final byte[] __AUTHORS__ = fieldName("authors");
+    private static final byte[] __AUTHOR_NAME__ = fieldName("name");
+    private static final byte[] __AUTHOR_IDS__ = fieldName("ids");
+    private static final byte[] __JOURNAL_NAME__ = fieldName("journalName");
+    private static final byte[] __SOURCES__ = fieldName("sources");
+    private static final byte[] __YEAR__ = fieldName("year");
+    private static final byte[] __VENUE__ = fieldName("venue");
+    private static final byte[] __OUT_CITATIONS__ = fieldName("outCitations");
+    private static final byte[] __IN_CITATIONS__ = fieldName("inCitations");
+
+    private static byte[] fieldName(String name) {
+        return name.getBytes(StandardCharsets.UTF_8);
+    }
+
     /**
      * Reads the doc ID from a JSON string
      *
@@ -25,21 +45,36 @@ public class S2JsonEntryReader {
      * @return
      */
     public static S2TextualEntry readDocIDEntry(String jsonToRead) {
+        byte[] json = jsonToRead.getBytes(StandardCharsets.UTF_8);
+        return readDocIDEntry(json, 0, json.length);
+    }
+
+    /**
+     * Reads the doc ID from the UTF-8 bytes of a JSON string
+     *
+     * @param json
+     * @param offset Position of the first byte of the JSON string
+     * @param length Number of bytes of the JSON string
+     * @return
+     */
+    public static S2TextualEntry readDocIDEntry(byte[] json, int offset, int length) {
         S2TextualEntry entry = new S2TextualEntry();
-        JSONParser parser = new JSONParser();
-        Object obj;
+        S2JsonParser parser = new S2JsonParser(json, offset, length);
+        String ID = null;
         try {
-            obj = parser.parse(jsonToRead);
-        }
-        catch (ParseException e) {
-            __LOGGER__.error(e);
+            parser.beginObject();
+            while (parser.nextField()) {
+                if (parser.fieldIs(__ID__)) {
+                    ID = parser.readString();
+                } else {
+                    parser.skipValue();
+                }
+            }
+            parser.end();
+        } catch (S2JsonParser.JsonException e) {
+            __LOGGER__.error(e.getMessage());
             return entry;
         }
-
-        // This should be a JSON object.
-        JSONObject jsonObject = (JSONObject) obj;
-
-        String ID = (String) jsonObject.get("id");
         entry.setID(ID);
 
         return entry;
@@ -52,104 +87,140 @@ public class S2JsonEntryReader {
      * @return
      */
     public static S2TextualEntry readTextualEntry(String jsonToRead) {
-        S2TextualEntry entry = new S2TextualEntry();
-        JSONParser parser = new JSONParser();
-        Object obj;
-        try {
-            obj = parser.parse(jsonToRead);
-        }
-        catch (ParseException e) {
-            __LOGGER__.error(e);
-            return entry;
-        }
-
-        // This should be a JSON object.
-        JSONObject jsonObject = (JSONObject) obj;
-
-        // Get the ID
-        String ID = (String) jsonObject.get("id");
-        entry.setID(ID);
+        byte[] json = jsonToRead.getBytes(StandardCharsets.UTF_8);
+        return readTextualEntry(json, 0, json.length);
+    }
 
-        // Get the title
-        String titleCheck = (String) jsonObject.get("title");
-        String title = titleCheck != null ? titleCheck : "";
-        entry.setTitle(title);
+    /**
+     * Reads all textual information from the UTF-8 bytes of a JSON string (except IN and OUT citations)
+     *
+     * @param json
+     * @param offset Position of the first byte of the JSON string
+     * @param length Number of bytes of the JSON string
+     * @return
+     */
+    public static S2TextualEntry readTextualEntry(byte[] json, int offset, int length) {
+        return readEntry(json, offset, length, false);
+    }
 
-        // Get abstract
-        String paperAbstractCheck = (String) jsonObject.get("paperAbstract");
-        String paperAbstract = paperAbstractCheck != null ? paperAbstractCheck : "";
-        entry.setPaperAbstract(paperAbstract);
+    /**
+     * Reads all textual information and the IN and OUT citations from the UTF-8 bytes of a JSON string
+     *
+     * @param json
+     * @param offset Position of the first byte of the JSON string
+     * @param length Number of bytes of the JSON string
+     * @return
+     */
+    public static S2TextualEntry readTextualCitationsEntry(byte[] json, int offset, int length) {
+        return readEntry(json, offset, length, true);
+    }
 
-        // Read entities. A JSONArray
-        JSONArray entitiesArray = (JSONArray) jsonObject.get("entities");
+    /* Reads all textual information from the UTF-8 bytes of a JSON string. IN and OUT citations are read
+    only if readCitations is true */
+    private static S2TextualEntry readEntry(byte[] json, int offset, int length, boolean readCitations) {
+        S2TextualEntry entry = new S2TextualEntry();
+        S2JsonParser parser = new S2JsonParser(json, offset, length);
+        String ID = null;
+        String title = null;
+        String paperAbstract = null;
         List<String> entities = new ArrayList<>();
-        if(entitiesArray != null) {
-            entitiesArray.forEach(entity -> {
-                entities.add(entity.toString());
-            });
-        }
-        entry.setEntities(entities);
-
-        // Read fieldsOfStudy. A JSONArray
-        JSONArray fieldsArray = (JSONArray) jsonObject.get("fieldsOfStudy");
         List<String> fields = new ArrayList<>();
-        if(fieldsArray != null) {
-            fieldsArray.forEach(field -> {
-                fields.add(field.toString());
-            });
-        }
-        entry.setFieldsOfStudy(fields);
-
-        // Read authors. A JSONArray
-        JSONArray authorsList = (JSONArray) jsonObject.get("authors");
         List<Pair<String, List<String>>> authors = new ArrayList<>();
-        if (authorsList != null) {
-            for (int i = 0; i < authorsList.size(); i++) {
-                JSONObject authorInfo = (JSONObject) authorsList.get(i);
-                String authorName = (String) authorInfo.get("name");
-                // Now get all the ids
-                JSONArray IDsList = (JSONArray) authorInfo.get("ids");
-                List<String> IDs = new ArrayList<>();
-                if(IDsList != null) {
-                    for (int j = 0; j < IDsList.size(); j++) {
-                        ID = (String) IDsList.get(j);
-                        IDs.add(ID);
-                    }
+        String journal = null;
+        List<String> sources = new ArrayList<>();
+        Long yearLong = null;
+        String venue = null;
+        List<String> outCitations = new ArrayList<>();
+        List<String> inCitations = new ArrayList<>();
+        try {
+            parser.beginObject();
+            while (parser.nextField()) {
+                if (parser.fieldIs(__ID__)) {
+                    ID = parser.readString();
+                } else if (parser.fieldIs(__TITLE__)) {
+                    title = parser.readString();
+                } else if (parser.fieldIs(__ABSTRACT__)) {
+                    paperAbstract = parser.readString();
+                } else if (parser.fieldIs(__ENTITIES__)) {
+                    entities.clear();
+                    parser.readStringArray(entities);
+                } else if (parser.fieldIs(__FIELDS_OF_STUDY__)) {
+                    fields.clear();
+                    parser.readStringArray(fields);
+                } else if (parser.fieldIs(__AUTHORS__)) {
+                    authors.clear();
+                    readAuthors(parser, authors);
+                } else if (parser.fieldIs(__JOURNAL_NAME__)) {
+                    journal = parser.readString();
+                } else if (parser.fieldIs(__SOURCES__)) {
+                    sources.clear();
+                    parser.readStringArray(sources);
+                } else if (parser.fieldIs(__YEAR__)) {
+                    yearLong = parser.readLong();
+                } else if (parser.fieldIs(__VENUE__)) {
+                    venue = parser.readString();
+                } else if (readCitations && parser.fieldIs(__OUT_CITATIONS__)) {
+                    outCitations.clear();
+                    parser.readStringArray(outCitations);
+                } else if (readCitations && parser.fieldIs(__IN_CITATIONS__)) {
+                    inCitations.clear();
+                    parser.readStringArray(inCitations);
+                } else {
+                    parser.skipValue();
                 }
-                Pair author = new Pair(authorName, IDs);
-                authors.add(author);
             }
+            parser.end();
+        } catch (S2JsonParser.JsonException e) {
+            __LOGGER__.error(e.getMessage());
+            return entry;
         }
-        entry.setAuthors(authors);
-
-        // Get journal
-        String journalCheck = (String) jsonObject.get("journalName");
-        String journal = journalCheck != null ? journalCheck : "";
-        entry.setJournalName(journal);
 
-        // Read sources. A JSONArray
-        JSONArray sourcesArray = (JSONArray) jsonObject.get("sources");
-        List<String> sources = new ArrayList<>();
-        if(sourcesArray != null) {
-            sourcesArray.forEach(source -> {
-                sources.add(source.toString());
-            });
-        }
+        entry.setID(ID);
+        entry.setTitle(title != null ? title : "");
+        entry.setPaperAbstract(paperAbstract != null ? paperAbstract : "");
+        entry.setEntities(entities);
+        entry.setFieldsOfStudy(fields);
+        entry.setAuthors(authors);
+        entry.setJournalName(journal != null ? journal : "");
         entry.setSources(sources);
-
-        // Get year
-        Long yearLong = (Long) jsonObject.get("year");
-        int year = yearLong != null ? yearLong.intValue() : 0;
-        entry.setYear(year);
-
-        // Get venue
-        String venueCheck = (String) jsonObject.get("venue");
-        String venue = venueCheck != null ? venueCheck : "";
-        entry.setVenue(venue);
+        entry.setYear(yearLong != null ? yearLong.intValue() : 0);
+        entry.setVenue(venue != null ? venue : "");
+        if (readCitations) {
+            entry.setOutCitations(outCitations);
+            entry.setInCitations(inCitations);
+        }
 
         return entry;
     }
 
+    /* Reads the array of authors. Each author is a JSON object that has a name and a list of IDs */
+    private static void readAuthors(S2JsonParser parser, List<Pair<String, List<String>>> authors)
+            throws S2JsonParser.JsonException {
+        if (!parser.beginArray()) {
+            return;
+        }
+        while (parser.nextElement()) {
+            if (!parser.isObject()) {
+                parser.skipValue();
+                continue;
+            }
+            String authorName = null;
+            List<String> IDs = new ArrayList<>();
+            parser.beginObject();
+            while (parser.nextField()) {
+                if (parser.fieldIs(__AUTHOR_NAME__)) {
+                    authorName = parser.readString();
+                } else if (parser.fieldIs(__AUTHOR_IDS__)) {
+                    IDs.clear();
+                    parser.readStringArray(IDs);
+                } else {
+                    parser.skipValue();
+                }
+            }
+            authors.add(new Pair<>(authorName, IDs));
+        }
+    }
+
     /**
      * Reads the IN and OUT citations from a JSON string
      *
@@ -157,40 +228,47 @@ public class S2JsonEntryReader {
      * @return
      */
     public static S2TextualEntry readCitationsEntry(String jsonToRead) {
+        byte[] json = jsonToRead.getBytes(StandardCharsets.UTF_8);
+        return readCitationsEntry(json, 0, json.length);
+    }
+
+    /**
+     * Reads the IN and OUT citations from the UTF-8 bytes of a JSON string
+     *
+     * @param json
+     * @param offset Position of the first byte of the JSON string
+     * @param length Number of bytes of the JSON string
+     * @return
+     */
+    public static S2TextualEntry readCitationsEntry(byte[] json, int offset, int length) {
         S2TextualEntry entry = new S2TextualEntry();
-        JSONParser parser = new JSONParser();
-        Object obj;
+        S2JsonParser parser = new S2JsonParser(json, offset, length);
+        String ID = null;
+        List<String> outCitations = new ArrayList<>();
+        List<String> inCitations = new ArrayList<>();
         try {
-            obj = parser.parse(jsonToRead);
-        } catch (ParseException e) {
-            __LOGGER__.error(e);
+            parser.beginObject();
+            while (parser.nextField()) {
+                if (parser.fieldIs(__ID__)) {
+                    ID = parser.readString();
+                } else if (parser.fieldIs(__OUT_CITATIONS__)) {
+                    outCitations.clear();
+                    parser.readStringArray(outCitations);
+                } else if (parser.fieldIs(__IN_CITATIONS__)) {
+                    inCitations.clear();
+                    parser.readStringArray(inCitations);
+                } else {
+                    parser.skipValue();
+                }
+            }
+            parser.end();
+        } catch (S2JsonParser.JsonException e) {
+            __LOGGER__.error(e.getMessage());
             return entry;
         }
 
-        // This should be a JSON object.
-        JSONObject jsonObject = (JSONObject) obj;
-
-        // Get the ID
-        String ID = (String) jsonObject.get("id");
         entry.setID(ID);
-
-        // Read out citations. A JSONArray
-        JSONArray outCitationsArray = (JSONArray) jsonObject.get("outCitations");
-        List<String> outCitations = new ArrayList<>();
-        if(outCitationsArray != null) {
-            outCitationsArray.forEach(citation -> {
-                outCitations.add(citation.toString());
-            });
-        }
         entry.setOutCitations(outCitations);
-
-        JSONArray inCitationsArray = (JSONArray) jsonObject.get("inCitations");
-        List<String> inCitations = new ArrayList<>();
-        if(inCitationsArray != null) {
-            inCitationsArray.forEach(citation -> {
-                inCitations.add(citation.toString());
-            });
-        }
         entry.setInCitations(inCitations);
 
         return entry;
@@ -0,0 +1,490 @@
+package gr.csd.uoc.hy463.themis.lexicalAnalysis.collections.SemanticScholar;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Streaming JSON parser that works directly on the UTF-8 bytes of a JSON object. It is used by the
+ * {@link S2JsonEntryReader} for reading only the required fields of an entry.
+ *
+ * The caller iterates over the fields of the top level object using nextField() and for each field it either
+ * reads its value (readString(), readLong(), readStringArray()...) or skips it using skipValue(). Skipped values
+ * and field names are never decoded into Java objects.
+ */
+class S2JsonParser {
+    private final byte[] _json;
+    private final int _offset;
+    private final int _end;
+    private int _pos;
+
+    /* position of the name of the current field (without the quotes) */
+    private int _nameStart;
+    private int _nameEnd;
+    private boolean _nameEscaped;
+
+    /**
+     * Thrown when the JSON is not valid
+     */
+    static class JsonException extends Exception {
+        JsonException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param json
+     * @param offset Position of the first byte of the JSON string
+     * @param length Number of bytes of the JSON string
+     */
+    S2JsonParser(byte[] json, int offset, int length) {
+        _json = json;
+        _offset = offset;
+        _pos = offset;
+        _end = offset + length;
+    }
+
+    /**
+     * Consumes the '{' that starts an object
+     *
+     * @throws JsonException
+     */
+    void beginObject()
+            throws JsonException {
+        expect('{');
+    }
+
+    /**
+     * Moves to the next field of the current object. Returns false if there are no more fields and consumes
+     * the '}' that ends the object.
+     *
+     * @return
+     * @throws JsonException
+     */
+    boolean nextField()
+            throws JsonException {
+        skipWhitespace();
+        if (peek() == '}') {
+            _pos++;
+            return false;
+        }
+        if (!afterContainerStart()) {
+            expect(',');
+            skipWhitespace();
+        }
+        if (peek() != '"') {
+            throw unexpected();
+        }
+        _nameStart = _pos + 1;
+        _nameEscaped = skipString();
+        _nameEnd = _pos - 1;
+        expect(':');
+        return true;
+    }
+
+    /**
+     * Returns true if the name of the current field is equal to the given name (UTF-8 bytes)
+     *
+     * @param name
+     * @return
+     * @throws JsonException
+     */
+    boolean fieldIs(byte[] name)
+            throws JsonException {
+        if (_nameEscaped) {
+            return decodeString(_nameStart, _nameEnd).equals(new String(name, StandardCharsets.UTF_8));
+        }
+        if (_nameEnd - _nameStart != name.length) {
+            return false;
+        }
+        for (int i = 0; i < name.length; i++) {
+            if (_json[_nameStart + i] != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads a string value. Returns null if the value is not a string.
+     *
+     * @return
+     * @throws JsonException
+     */
+    String readString()
+            throws JsonException {
+        skipWhitespace();
+        if (peek() != '"') {
+            skipValue();
+            return null;
+        }
+        int start = _pos + 1;
+        boolean escaped = skipString();
+        int end = _pos - 1;
+        if (escaped) {
+            return decodeString(start, end);
+        }
+        return new String(_json, start, end - start, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads an integer value. Returns null if the value is not an integer.
+     *
+     * @return
+     * @throws JsonException
+     */
+    Long readLong()
+            throws JsonException {
+        skipWhitespace();
+        byte b = peek();
+        if (b != '-' && (b < '0' || b > '9')) {
+            skipValue();
+            return null;
+        }
+        boolean negative = (b == '-');
+        if (negative) {
+            _pos++;
+        }
+        long value = 0;
+        int digits = 0;
+        while (_pos < _end && _json[_pos] >= '0' && _json[_pos] <= '9') {
+            value = value * 10 + (_json[_pos] - '0');
+            _pos++;
+            digits++;
+        }
+        if (digits == 0) {
+            throw unexpected();
+        }
+        if (_pos < _end && (_json[_pos] == '.' || _json[_pos] == 'e' || _json[_pos] == 'E')) {
+            skipNumber();
+            return null;
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Reads an array of strings and adds them to the given list. Values that are not strings are ignored.
+     * Nothing is added if the value is not an array.
+     *
+     * @param list
+     * @throws JsonException
+     */
+    void readStringArray(List<String> list)
+            throws JsonException {
+        skipWhitespace();
+        if (peek() != '[') {
+            skipValue();
+            return;
+        }
+        _pos++;
+        skipWhitespace();
+        if (peek() == ']') {
+            _pos++;
+            return;
+        }
+        while (true) {
+            String value = readString();
+            if (value != null) {
+                list.add(value);
+            }
+            skipWhitespace();
+            byte b = next();
+            if (b == ']') {
+                return;
+            }
+            if (b != ',') {
+                _pos--;
+                throw unexpected();
+            }
+        }
+    }
+
+    /**
+     * Prepares for reading the elements of an array. Returns false if the value is not an array
+     * (the value is skipped in that case).
+     *
+     * @return
+     * @throws JsonException
+     */
+    boolean beginArray()
+            throws JsonException {
+        skipWhitespace();
+        if (peek() != '[') {
+            skipValue();
+            return false;
+        }
+        _pos++;
+        return true;
+    }
+
+    /**
+     * Moves to the next element of the current array. Returns false if there are no more elements and
+     * consumes the ']' that ends the array.
+     *
+     * @return
+     * @throws JsonException
+     */
+    boolean nextElement()
+            throws JsonException {
+        skipWhitespace();
+        if (peek() == ']') {
+            _pos++;
+            return false;
+        }
+        if (!afterContainerStart()) {
+            expect(',');
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if the next value is an object
+     *
+     * @return
+     * @throws JsonException
+     */
+    boolean isObject()
+            throws JsonException {
+        skipWhitespace();
+        return peek() == '{';
+    }
+
+    /**
+     * Skips a value of any type without decoding it
+     *
+     * @throws JsonException
+     */
+    void skipValue()
+            throws JsonException {
+        skipWhitespace();
+        byte b = peek();
+        switch (b) {
+            case '"':
+                skipString();
+                break;
+            case '{':
+                _pos++;
+                skipWhitespace();
+                if (peek() == '}') {
+                    _pos++;
+                    break;
+                }
+                while (true) {
+                    skipWhitespace();
+                    if (peek() != '"') {
+                        throw unexpected();
+                    }
+                    skipString();
+                    expect(':');
+                    skipValue();
+                    skipWhitespace();
+                    b = next();
+                    if (b == '}') {
+                        break;
+                    }
+                    if (b != ',') {
+                        _pos--;
+                        throw unexpected();
+                    }
+                }
+                break;
+            case '[':
+                _pos++;
+                skipWhitespace();
+                if (peek() == ']') {
+                    _pos++;
+                    break;
+                }
+                while (true) {
+                    skipValue();
+                    skipWhitespace();
+                    b = next();
+                    if (b == ']') {
+                        break;
+                    }
+                    if (b != ',') {
+                        _pos--;
+                        throw unexpected();
+                    }
+                }
+                break;
+            case 't':
+                skipLiteral("true");
+                break;
+            case 'f':
+                skipLiteral("false");
+                break;
+            case 'n':
+                skipLiteral("null");
+                break;
+            default:
+                if (b == '-' || (b >= '0' && b <= '9')) {
+                    skipNumber();
+                } else {
+                    throw unexpected();
+                }
+        }
+    }
+
+    /**
+     * Checks that there is nothing but whitespace after the parsed value
+     *
+     * @throws JsonException
+     */
+    void end()
+            throws JsonException {
+        skipWhitespace();
+        if (_pos != _end) {
+            throw unexpected();
+        }
+    }
+
+    /* Skips a string starting at the current '"'. Returns true if the string contains escape sequences */
+    private boolean skipString()
+            throws JsonException {
+        boolean escaped = false;
+        _pos++;
+        while (_pos < _end) {
+            byte b = _json[_pos++];
+            if (b == '"') {
+                return escaped;
+            }
+            if (b == '\\') {
+                escaped = true;
+                _pos++;
+            }
+        }
+        throw new JsonException("Unterminated string at position " + (_pos - _offset) + ".");
+    }
+
+    /* Decodes the bytes in [start, end) of a string that contains escape sequences */
+    private String decodeString(int start, int end)
+            throws JsonException {
+        StringBuilder sb = new StringBuilder(end - start);
+        int segmentStart = start;
+        int i = start;
+        while (i < end) {
+            if (_json[i] != '\\') {
+                i++;
+                continue;
+            }
+            if (i > segmentStart) {
+                sb.append(new String(_json, segmentStart, i - segmentStart, StandardCharsets.UTF_8));
+            }
+            if (i + 1 >= end) {
+                throw new JsonException("Invalid escape sequence at position " + (i - _offset) + ".");
+            }
+            byte b = _json[i + 1];
+            i += 2;
+            switch (b) {
+                case '"': sb.append('"'); break;
+                case '\\': sb.append('\\'); break;
+                case '/': sb.append('/'); break;
+                case 'b': sb.append('\b'); break;
+                case 'f': sb.append('\f'); break;
+                case 'n': sb.append('\n'); break;
+                case 'r': sb.append('\r'); break;
+                case 't': sb.append('\t'); break;
+                case 'u':
+                    if (i + 4 > end) {
+                        throw new JsonException("Invalid unicode escape at position " + (i - 2 - _offset) + ".");
+                    }
+                    int c = 0;
+                    for (int k = 0; k < 4; k++) {
+                        int digit = Character.digit(_json[i + k], 16);
+                        if (digit == -1) {
+                            throw new JsonException("Invalid unicode escape at position " + (i - 2 - _offset) + ".");
+                        }
+                        c = (c << 4) | digit;
+                    }
+                    sb.append((char) c);
+                    i += 4;
+                    break;
+                default:
+                    throw new JsonException("Invalid escape sequence at position " + (i - 2 - _offset) + ".");
+            }
+            segmentStart = i;
+        }
+        if (end > segmentStart) {
+            sb.append(new String(_json, segmentStart, end - segmentStart, StandardCharsets.UTF_8));
+        }
+        return sb.toString();
+    }
+
+    /* Returns true if the last consumed non whitespace byte is the '{' or '[' that starts an object or array */
+    private boolean afterContainerStart() {
+        int i = _pos - 1;
+        while (_json[i] == ' ' || _json[i] == '\t' || _json[i] == '\n' || _json[i] == '\r') {
+            i--;
+        }
+        return _json[i] == '{' || _json[i] == '[';
+    }
+
+    /* Skips a number */
+    private void skipNumber() {
+        while (_pos < _end) {
+            byte b = _json[_pos];
+            if ((b >= '0' && b <= '9') || b == '-' || b == '+' || b == '.' || b == 'e' || b == 'E') {
+                _pos++;
+            } else {
+                break;
+            }
+        }
+    }
+
+    /* Skips the given literal (true, false, null) */
+    private void skipLiteral(String literal)
+            throws JsonException {
+        for (int i = 0; i < literal.length(); i++) {
+            if (_pos >= _end || _json[_pos] != literal.charAt(i)) {
+                throw unexpected();
+            }
+            _pos++;
+        }
+    }
+
+    private void skipWhitespace() {
+        while (_pos < _end) {
+            byte b = _json[_pos];
+            if (b == ' ' || b == '\t' || b == '\n' || b == '\r') {
+                _pos++;
+            } else {
+                break;
+            }
+        }
+    }
+
+    private void expect(char c)
+            throws JsonException {
+        skipWhitespace();
+        if (peek() != c) {
+            throw unexpected();
+        }
+        _pos++;
+    }
+
+    /* Returns the current byte without consuming it */
+    private byte peek()
+            throws JsonException {
+        if (_pos >= _end) {
+            throw new JsonException("Unexpected end of input at position " + (_pos - _offset) + ".");
+        }
+        return _json[_pos];
+    }
+
+    /* Returns the current byte and consumes it */
+    private byte next()
+            throws JsonException {
+        byte b = peek();
+        _pos++;
+        return b;
+    }
+
+    private JsonException unexpected() {
+        if (_pos >= _end) {
+            return new JsonException("Unexpected end of input at position " + (_pos - _offset) + ".");
+        }
+        return new JsonException("Unexpected character '" + (char) _json[_pos] + "' at position " + (_pos - _offset) + ".");
+    }
+}
@@ -1,6 +1,8 @@
 package gr.csd.uoc.hy463.themis.lexicalAnalysis.collections.SemanticScholar;
 
 import gr.csd.uoc.hy463.themis.indexer.model.DocInfo;
+import gr.csd.uoc.hy463.themis.utils.ByteLineReader;
+import gr.csd.uoc.hy463.themis.utils.CorpusInputStream;
 import gr.csd.uoc.hy463.themis.utils.MapValueComparator;
 import gr.csd.uoc.hy463.themis.utils.Pair;
 
@@ -27,7 +29,7 @@ public class S2TextualEntryHistogram {
     public static void createHistograms(String inPath, String outPath)
             throws IOException {
         BufferedWriter outFile = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(outPath), "UTF-8"));
-        BufferedReader currentDataFile;
+        ByteLineReader currentDataFile;
         S2TextualEntry entry;
 
         File folder = new File(inPath);
@@ -35,7 +37,6 @@ public class S2TextualEntryHistogram {
         if (files == null) {
             return;
         }
-        String json;
 
         /* a map for each field of the S2TextualEntry. Each map contains <character, frequency> pairs */
         Map<Integer, Integer> titles = new HashMap<>();
@@ -48,9 +49,9 @@ public class S2TextualEntryHistogram {
         Map<Integer, Integer> sources = new HashMap<>();
 
         for (File file : files) {
-            currentDataFile = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
-            while ((json = currentDataFile.readLine()) != null) {
-                entry = S2JsonEntryReader.readTextualEntry(json);
+            currentDataFile = new ByteLineReader(CorpusInputStream.open(file));
+            while (currentDataFile.readLine()) {
+                entry = S2JsonEntryReader.readTextualEntry(currentDataFile.getBuffer(), currentDataFile.getLineStart(), currentDataFile.getLineLength());
 
                 String entryTitle = entry.getTitle();
                 addToHistogram(titles, entryTitle);
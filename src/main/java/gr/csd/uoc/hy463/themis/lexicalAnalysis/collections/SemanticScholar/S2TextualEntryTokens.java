@@ -9,11 +9,71 @@ import java.io.IOException;
 import java.util.*;
 
 /**
- * Create a map of [term -> TF (term frequency)] from a {@link S2TextualEntry}.
+ * Create a map of [term -> positions] from a {@link S2TextualEntry}. The TF (term frequency) of a term is the
+ * number of its positions.
+ *
+ * Each field is split into tokens using a precomputed table of the delimiter chars of the field (one bit per char).
+ * The chars of a token are copied to a reusable buffer, where the token is checked against the stop words, stemmed
+ * and converted to lowercase (ASCII chars are converted directly). The positions of each term are collected in a hash
+ * table that compares the chars of the token with the terms of the document, so a String is created only for the first
+ * occurrence of a term in a document.
+ *
+ * The position of a token is the number of tokens of the document before it, stop words are not counted. The
+ * position also increases by 1 after each field (and each value of fields that have many values, e.g. authors) so
+ * that a phrase cannot match the end of a field and the start of the next one.
+ *
+ * The terms of the title, authors, venue and journal are also added with the prefix of their field (e.g.
+ * 'author:smith'), so a query can be restricted to a field by using the short postings of the prefixed terms.
+ * The prefixed terms are not counted as tokens of the document (see isFieldTerm()).
+ *
+ * An instance should not be used by multiple threads at the same time.
  */
 public class S2TextualEntryTokens {
+    /* the delimiter chars of each DocInfo property. Bit c of a table is set if char c is a delimiter */
+    private static final long[][] __DELIMITERS__ = new long[DocInfo.PROPERTY.values().length][];
+
+    /* the prefix of the terms of each DocInfo property that can be queried separately, or null */
+    private static final char[][] __FIELD_PREFIXES__ = new char[DocInfo.PROPERTY.values().length][];
+
+    /* false if String.toLowerCase() does not convert ASCII letters to ASCII letters in the default locale (e.g. Turkish) */
+    private static final boolean ASCII_LOWERCASE = "ABCDEFGHIJKLMNOPQRSTUVWXYZ".toLowerCase().equals("abcdefghijklmnopqrstuvwxyz");
+
+    static {
+        for (DocInfo.PROPERTY prop : DocInfo.PROPERTY.values()) {
+            long[] delimiters = new long[(Character.MAX_VALUE + 1) >>> 6];
+            String delimiter = getDelimiter(prop);
+            for (int i = 0; i < delimiter.length(); i++) {
+                char c = delimiter.charAt(i);
+                delimiters[c >>> 6] |= 1L << c;
+            }
+            __DELIMITERS__[prop.ordinal()] = delimiters;
+            String prefix = getFieldPrefix(prop);
+            __FIELD_PREFIXES__[prop.ordinal()] = (prefix != null) ? prefix.toCharArray() : null;
+        }
+    }
+
     private final boolean _useStemmer;
     private final boolean _useStopwords;
+    private StopWords _stopWords = null;
+
+    /* the current token as found in the field and the current token in lowercase */
+    private char[] _token = new char[64];
+    private char[] _lowerCaseToken = new char[64];
+
+    /* open addressing hash table of [term -> positions] of the current document and the used slots of the table.
+    The positions array of a slot is reused by the next documents */
+    private String[] _terms = new String[256];
+    private int[] _termHashes = new int[256];
+    private int[] _TFs = new int[256];
+    private int[][] _positions = new int[256][];
+    private int[] _usedSlots = new int[128];
+    private int _termCount = 0;
+
+    /* the position of the next token of the current document */
+    private int _position = 0;
+
+    /* the field prefix of the field that is currently split or null */
+    private char[] _fieldPrefix = null;
 
     public S2TextualEntryTokens(boolean useStemmer, boolean useStopwords) {
         _useStemmer = useStemmer;
@@ -21,58 +81,273 @@ public class S2TextualEntryTokens {
     }
 
     /**
-     * Creates a map of [term -> TF (term frequency)] from a S2TextualEntry.
+     * Creates a map of [term -> positions] from a S2TextualEntry. The positions of each term are sorted.
      *
      * @param entry
      * @return
      */
-    public Map<String, Integer> createTFMap(S2TextualEntry entry)
+    public Map<String, int[]> createPositionsMap(S2TextualEntry entry)
             throws IOException {
-        Map<String, Integer> TFs = new HashMap<>();
+        if (_useStopwords && _stopWords == null) {
+            _stopWords = StopWords.Singleton();
+        }
+        for (int i = 0; i < _termCount; i++) {
+            _terms[_usedSlots[i]] = null;
+        }
+        _termCount = 0;
+        _position = 0;
 
-        addToTFMap(entry.getTitle(), DocInfo.PROPERTY.TITLE , TFs);
-        addToTFMap(entry.getPaperAbstract(), DocInfo.PROPERTY.ABSTRACT, TFs);
+        addToTFMap(entry.getTitle(), DocInfo.PROPERTY.TITLE);
+        addToTFMap(entry.getPaperAbstract(), DocInfo.PROPERTY.ABSTRACT);
         for (String entity : entry.getEntities()) {
-            addToTFMap(entity, DocInfo.PROPERTY.ENTITIES, TFs);
+            addToTFMap(entity, DocInfo.PROPERTY.ENTITIES);
         }
         for (String fieldsOfStudy : entry.getFieldsOfStudy()) {
-            addToTFMap(fieldsOfStudy, DocInfo.PROPERTY.FIELDS_OF_STUDY, TFs);
+            addToTFMap(fieldsOfStudy, DocInfo.PROPERTY.FIELDS_OF_STUDY);
         }
         for (Pair<String, List<String>> author : entry.getAuthors()) {
-            addToTFMap(author.getL(), DocInfo.PROPERTY.AUTHORS_NAMES, TFs);
+            addToTFMap(author.getL(), DocInfo.PROPERTY.AUTHORS_NAMES);
         }
-        addToTFMap(Integer.toString(entry.getYear()), DocInfo.PROPERTY.YEAR, TFs);
-        addToTFMap(entry.getVenue(), DocInfo.PROPERTY.VENUE, TFs);
-        addToTFMap(entry.getJournalName(), DocInfo.PROPERTY.JOURNAL_NAME, TFs);
+        addToTFMap(Integer.toString(entry.getYear()), DocInfo.PROPERTY.YEAR);
+        addToTFMap(entry.getVenue(), DocInfo.PROPERTY.VENUE);
+        addToTFMap(entry.getJournalName(), DocInfo.PROPERTY.JOURNAL_NAME);
         for (String source : entry.getSources()) {
-            addToTFMap(source, DocInfo.PROPERTY.SOURCES, TFs);
+            addToTFMap(source, DocInfo.PROPERTY.SOURCES);
+        }
+
+        Map<String, int[]> positions = new HashMap<>(_termCount * 2);
+        for (int i = 0; i < _termCount; i++) {
+            int slot = _usedSlots[i];
+            positions.put(_terms[slot], Arrays.copyOf(_positions[slot], _TFs[slot]));
         }
-        return TFs;
+        return positions;
     }
 
-    /* Splits a string into terms, applies stemming & stopwords, and finds the TF of each term.
-    * It then adds all <term, TF> pairs to the given map */
-    private void addToTFMap(String field, DocInfo.PROPERTY prop, Map<String, Integer> TFs)
-            throws IOException {
-        String delimiter = getDelimiter(prop);
-        StringTokenizer tokenizer = new StringTokenizer(field, delimiter);
-        String currentToken;
-        while (tokenizer.hasMoreTokens()) {
-            currentToken = tokenizer.nextToken();
-            if (_useStopwords && StopWords.isStopWord(currentToken)) {
-                continue;
+    /* Splits a field into tokens and adds each token to the [term -> positions] table */
+    private void addToTFMap(String field, DocInfo.PROPERTY prop) {
+        long[] delimiters = __DELIMITERS__[prop.ordinal()];
+        _fieldPrefix = __FIELD_PREFIXES__[prop.ordinal()];
+        int length = field.length();
+        int pos = 0;
+        while (pos < length) {
+            while (pos < length && isDelimiter(delimiters, field.charAt(pos))) {
+                pos++;
+            }
+            int start = pos;
+            while (pos < length && !isDelimiter(delimiters, field.charAt(pos))) {
+                pos++;
+            }
+            if (pos > start) {
+                addToken(field, start, pos);
+            }
+        }
+        _position++;
+    }
+
+    private static boolean isDelimiter(long[] delimiters, char c) {
+        return (delimiters[c >>> 6] & (1L << c)) != 0;
+    }
+
+    /* Applies stemming & stopwords to the token field[start, end) and adds it to the [term -> positions] table.
+    The term is also added with the current field prefix (at the same position) */
+    private void addToken(String field, int start, int end) {
+        int length = end - start;
+        if (_token.length < length) {
+            _token = new char[Math.max(length, _token.length * 2)];
+        }
+        field.getChars(start, end, _token, 0);
+        int lowerCaseLength = toLowerCase(length);
+        if (_useStopwords && _stopWords.isLowerCaseStopWord(_lowerCaseToken, lowerCaseLength)) {
+            return;
+        }
+
+        /* the token is stemmed before it is converted to lowercase */
+        if (_useStemmer) {
+            length = Stemmer.stem(_token, length);
+            lowerCaseLength = toLowerCase(length);
+        }
+        int position = _position++;
+        addTerm(lowerCaseLength, position);
+        if (_fieldPrefix != null) {
+            int prefixLength = _fieldPrefix.length;
+            if (_lowerCaseToken.length < prefixLength + lowerCaseLength) {
+                _lowerCaseToken = Arrays.copyOf(_lowerCaseToken, prefixLength + lowerCaseLength);
+            }
+            System.arraycopy(_lowerCaseToken, 0, _lowerCaseToken, prefixLength, lowerCaseLength);
+            System.arraycopy(_fieldPrefix, 0, _lowerCaseToken, 0, prefixLength);
+            addTerm(prefixLength + lowerCaseLength, position);
+        }
+    }
+
+    /* Converts the first length chars of _token to lowercase (same as String.toLowerCase()), writes them to
+    _lowerCaseToken and returns their length */
+    private int toLowerCase(int length) {
+        if (_lowerCaseToken.length < length) {
+            _lowerCaseToken = new char[Math.max(length, _lowerCaseToken.length * 2)];
+        }
+        if (ASCII_LOWERCASE) {
+            int i = 0;
+            for (; i < length; i++) {
+                char c = _token[i];
+                if (c >= 128) {
+                    break;
+                }
+                _lowerCaseToken[i] = (c >= 'A' && c <= 'Z') ? (char) (c + ('a' - 'A')) : c;
+            }
+            if (i == length) {
+                return length;
+            }
+        }
+
+        /* the lowercase of a non ASCII char may depend on the next chars or have more chars */
+        String lowerCase = new String(_token, 0, length).toLowerCase();
+        if (_lowerCaseToken.length < lowerCase.length()) {
+            _lowerCaseToken = new char[lowerCase.length()];
+        }
+        lowerCase.getChars(0, lowerCase.length(), _lowerCaseToken, 0);
+        return lowerCase.length();
+    }
+
+    /* Adds a position to the term in the first length chars of _lowerCaseToken. The term is added to the
+    table if it is not found */
+    private void addTerm(int length, int position) {
+        int hash = 0;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + _lowerCaseToken[i];
+        }
+        int mask = _terms.length - 1;
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        String term;
+        while ((term = _terms[slot]) != null) {
+            if (_termHashes[slot] == hash && equalsTerm(term, length)) {
+                addPosition(slot, position);
+                return;
             }
-            if (_useStemmer) {
-                currentToken = Stemmer.stem(currentToken);
+            slot = (slot + 1) & mask;
+        }
+        _terms[slot] = new String(_lowerCaseToken, 0, length);
+        _termHashes[slot] = hash;
+        _TFs[slot] = 0;
+        addPosition(slot, position);
+        _usedSlots[_termCount++] = slot;
+        if (_termCount == _usedSlots.length) {
+            growTable();
+        }
+    }
+
+    /* Appends a position to the positions of the term in the given slot */
+    private void addPosition(int slot, int position) {
+        int[] positions = _positions[slot];
+        int TF = _TFs[slot];
+        if (positions == null) {
+            positions = new int[4];
+            _positions[slot] = positions;
+        }
+        else if (TF == positions.length) {
+            positions = Arrays.copyOf(positions, TF * 2);
+            _positions[slot] = positions;
+        }
+        positions[TF] = position;
+        _TFs[slot] = TF + 1;
+    }
+
+    /* Returns true if the given term is the same as the first length chars of _lowerCaseToken */
+    private boolean equalsTerm(String term, int length) {
+        if (term.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (term.charAt(i) != _lowerCaseToken[i]) {
+                return false;
             }
-            currentToken = currentToken.toLowerCase();
-            Integer TF = TFs.get(currentToken);
-            if (TF != null) {
-                TFs.put(currentToken, TF + 1);
-            } else {
-                TFs.put(currentToken, 1);
+        }
+        return true;
+    }
+
+    /* Doubles the size of the [term -> positions] table. The table is at most half full */
+    private void growTable() {
+        String[] terms = _terms;
+        int[] termHashes = _termHashes;
+        int[] TFs = _TFs;
+        int[][] positions = _positions;
+        int[] usedSlots = _usedSlots;
+        _terms = new String[terms.length * 2];
+        _termHashes = new int[terms.length * 2];
+        _TFs = new int[terms.length * 2];
+        _positions = new int[terms.length * 2][];
+        _usedSlots = new int[terms.length];
+        int mask = _terms.length - 1;
+        for (int i = 0; i < _termCount; i++) {
+            int oldSlot = usedSlots[i];
+            int hash = termHashes[oldSlot];
+            int slot = (hash ^ (hash >>> 16)) & mask;
+            while (_terms[slot] != null) {
+                slot = (slot + 1) & mask;
             }
+            _terms[slot] = terms[oldSlot];
+            _termHashes[slot] = hash;
+            _TFs[slot] = TFs[oldSlot];
+            _positions[slot] = positions[oldSlot];
+            _usedSlots[i] = slot;
+        }
+    }
+
+    /**
+     * Returns the prefix of the terms of the given DocInfo property in the index (e.g. 'author:') or null if
+     * the terms of the property are not indexed separately.
+     *
+     * @param prop
+     * @return
+     */
+    public static String getFieldPrefix(DocInfo.PROPERTY prop) {
+        switch (prop) {
+            case TITLE:
+                return "title:";
+            case AUTHORS_NAMES:
+                return "author:";
+            case VENUE:
+                return "venue:";
+            case JOURNAL_NAME:
+                return "journal:";
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Returns the length of the field prefix of the given term (e.g. 7 for 'author:smith') or 0 if the term
+     * does not start with a field prefix.
+     *
+     * @param term
+     * @return
+     */
+    public static int getFieldPrefixLength(String term) {
+        if (term.isEmpty()) {
+            return 0;
         }
+        switch (term.charAt(0)) {
+            case 't':
+                return term.startsWith("title:") ? 6 : 0;
+            case 'a':
+                return term.startsWith("author:") ? 7 : 0;
+            case 'v':
+                return term.startsWith("venue:") ? 6 : 0;
+            case 'j':
+                return term.startsWith("journal:") ? 8 : 0;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Returns true if the given term of the index is a term of a single field (e.g. 'author:smith'). These terms
+     * are copies of the terms of the field, so they are not counted in the size and the VSM weight of a document.
+     *
+     * @param term
+     * @return
+     */
+    public static boolean isFieldTerm(String term) {
+        return getFieldPrefixLength(term) != 0;
     }
 
     /* Returns the split pattern for the given DocInfo property */
@@ -3,6 +3,8 @@ package gr.csd.uoc.hy463.themis.linkAnalysis.stats;
 import gr.csd.uoc.hy463.themis.config.Config;
 import gr.csd.uoc.hy463.themis.lexicalAnalysis.collections.SemanticScholar.S2JsonEntryReader;
 import gr.csd.uoc.hy463.themis.lexicalAnalysis.collections.SemanticScholar.S2TextualEntry;
+import gr.csd.uoc.hy463.themis.utils.ByteLineReader;
+import gr.csd.uoc.hy463.themis.utils.CorpusInputStream;
 
 import java.io.*;
 import java.nio.ByteBuffer;
@@ -108,10 +110,9 @@ public class CitationsGraph {
         /* parse the collection and write the required citation data to the 'citations_graph_binary' file */
         for (File file : corpus) {
             if (file.isFile()) {
-                BufferedReader currentDataFile = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
-                String json;
-                while ((json = currentDataFile.readLine()) != null) {
-                    S2TextualEntry entry = S2JsonEntryReader.readCitationsEntry(json);
+                ByteLineReader currentDataFile = new ByteLineReader(CorpusInputStream.open(file));
+                while (currentDataFile.readLine()) {
+                    S2TextualEntry entry = S2JsonEntryReader.readCitationsEntry(currentDataFile.getBuffer(), currentDataFile.getLineStart(), currentDataFile.getLineLength());
 
                     //out citations
                     List<String> outCitations = entry.getOutCitations();
@@ -545,10 +546,9 @@ public class CitationsGraph {
         int ID = 0;
         for (File file : corpus) {
             if (file.isFile()) {
-                BufferedReader currentDataFile = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
-                String json;
-                while ((json = currentDataFile.readLine()) != null) {
-                    S2TextualEntry entry = S2JsonEntryReader.readDocIDEntry(json);
+                ByteLineReader currentDataFile = new ByteLineReader(CorpusInputStream.open(file));
+                while (currentDataFile.readLine()) {
+                    S2TextualEntry entry = S2JsonEntryReader.readDocIDEntry(currentDataFile.getBuffer(), currentDataFile.getLineStart(), currentDataFile.getLineLength());
                     String docID = entry.getID();
                     citationsIdsMap.put(docID, ID);
                     ID++;
@@ -0,0 +1,271 @@
+package gr.csd.uoc.hy463.themis.retrieval.model;
+
+import gr.csd.uoc.hy463.themis.indexer.model.Postings;
+import gr.csd.uoc.hy463.themis.indexer.model.VocabularyEntry;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Iterates over the postings of a term in all segments in order of (int) doc ID (document at a time). Only the
+ * skip table of the compressed postings of the term (see class {@link Postings}) is read when the cursor is
+ * created. Each block is read from POSTINGS_FILENAME (positional reads) and decoded only when the cursor moves
+ * to a posting of the block, so a cursor can skip whole blocks without reading them.
+ *
+ * Each block also has the max TF of its postings and the min token count of its documents (from the skip table
+ * of the postings), these give an upper bound of the score of the block. The cursor is initially positioned at
+ * the first posting.
+ */
+public class PostingsCursor {
+    /* the doc ID of an exhausted cursor */
+    public static final int NO_MORE_DOCS = Integer.MAX_VALUE;
+
+    /* POSTINGS_FILENAME of each segment */
+    private final FileChannel[] _postingsFiles;
+
+    /* for each block: the segment, offset of the first byte in POSTINGS_FILENAME, size (bytes), number of postings,
+    last doc ID of the previous block of the segment (0 for the first block), last doc ID, max TF, min token count */
+    private final int _blocks;
+    private final int[] _blockSegment;
+    private final long[] _blockStart;
+    private final int[] _blockSize;
+    private final int[] _blockCount;
+    private final int[] _blockPrevDocID;
+    private final int[] _blockLastDocID;
+    private final int[] _blockMaxTF;
+    private final int[] _blockMinTokens;
+
+    private int _maxTF = 0;
+    private int _minTokens = Integer.MAX_VALUE;
+
+    /* the compressed bytes of the last block that was read */
+    private byte[] _blockBytes = new byte[256];
+
+    /* the decoded block and the position of the current posting in it */
+    private int _block = -1;
+    private final int[] _docIDs = new int[Postings.BLOCK_SIZE];
+    private final int[] _TFs = new int[Postings.BLOCK_SIZE];
+    private int _pos = 0;
+    private int _docID = NO_MORE_DOCS;
+
+    /* the block of the last shallowAdvance() */
+    private int _shallowBlock = 0;
+
+    /**
+     * Constructor. Reads the skip table of the postings of the term in each segment.
+     *
+     * @param postingsFiles POSTINGS_FILENAME of each segment that has the term (in order of doc ID base)
+     * @param vocabularyEntries The vocabulary entry of the term in each of these segments
+     * @param tokenCounts The token count of each document (indexed by (int) doc ID). Used only for the
+     *                    segments that have no skip table
+     * @throws IOException
+     */
+    public PostingsCursor(FileChannel[] postingsFiles, VocabularyEntry[] vocabularyEntries, int[] tokenCounts)
+            throws IOException {
+        _postingsFiles = postingsFiles;
+        int blocks = 0;
+        for (VocabularyEntry vocabularyEntry : vocabularyEntries) {
+            blocks += Postings.getBlocks(vocabularyEntry.getDF());
+        }
+        _blocks = blocks;
+        _blockSegment = new int[blocks];
+        _blockStart = new long[blocks];
+        _blockSize = new int[blocks];
+        _blockCount = new int[blocks];
+        _blockPrevDocID = new int[blocks];
+        _blockLastDocID = new int[blocks];
+        _blockMaxTF = new int[blocks];
+        _blockMinTokens = new int[blocks];
+
+        int block = 0;
+        for (int i = 0; i < vocabularyEntries.length; i++) {
+            int DF = vocabularyEntries[i].getDF();
+            int skipTableSize = Postings.getSkipTableSize(DF);
+            byte[] skipTable = new byte[skipTableSize];
+            read(postingsFiles[i], vocabularyEntries[i].getPostingsOffset(), skipTable, skipTableSize);
+            ByteBuffer skipBuffer = ByteBuffer.wrap(skipTable);
+            long blocksOffset = vocabularyEntries[i].getPostingsOffset() + skipTableSize;
+            int start = 0;
+            int prevDocID = 0;
+            for (int j = 0; j < Postings.getBlocks(DF); j++) {
+                _blockSegment[block] = i;
+                _blockStart[block] = blocksOffset + start;
+                _blockCount[block] = Math.min(Postings.BLOCK_SIZE, DF - j * Postings.BLOCK_SIZE);
+                _blockPrevDocID[block] = prevDocID;
+                if (skipTableSize != 0) {
+                    int skipOffset = j * Postings.SKIP_SIZE;
+                    _blockLastDocID[block] = skipBuffer.getInt(skipOffset + Postings.SKIP_LAST_DOCID_OFFSET);
+                    _blockMaxTF[block] = skipBuffer.getInt(skipOffset + Postings.SKIP_MAX_TF_OFFSET);
+                    _blockMinTokens[block] = skipBuffer.getInt(skipOffset + Postings.SKIP_MIN_TOKENS_OFFSET);
+                    int end = skipBuffer.getInt(skipOffset + Postings.SKIP_BLOCK_END_OFFSET);
+                    _blockSize[block] = end - start;
+                    start = end;
+                }
+                else {
+                    /* a single block without a skip table, it is decoded to find its max TF and min token count */
+                    _blockSize[block] = vocabularyEntries[i].getPostingsSize();
+                    decodeBlock(block);
+                    int count = _blockCount[block];
+                    _blockLastDocID[block] = _docIDs[count - 1];
+                    _blockMinTokens[block] = Integer.MAX_VALUE;
+                    for (int k = 0; k < count; k++) {
+                        _blockMaxTF[block] = Math.max(_blockMaxTF[block], _TFs[k]);
+                        _blockMinTokens[block] = Math.min(_blockMinTokens[block], tokenCounts[_docIDs[k]]);
+                    }
+                }
+                _maxTF = Math.max(_maxTF, _blockMaxTF[block]);
+                _minTokens = Math.min(_minTokens, _blockMinTokens[block]);
+                prevDocID = _blockLastDocID[block];
+                block++;
+            }
+        }
+        if (_blocks != 0) {
+            decodeBlock(0);
+            _docID = _docIDs[0];
+        }
+    }
+
+    /**
+     * Returns the doc ID of the current posting or NO_MORE_DOCS if the cursor is exhausted
+     *
+     * @return
+     */
+    public int getDocID() {
+        return _docID;
+    }
+
+    /**
+     * Returns the TF of the current posting
+     *
+     * @return
+     */
+    public int getTF() {
+        return _TFs[_pos];
+    }
+
+    /**
+     * Moves to the next posting.
+     *
+     * @throws IOException
+     */
+    public void next()
+            throws IOException {
+        advance(_docID + 1);
+    }
+
+    /**
+     * Moves to the first posting that has doc ID >= target. The blocks before the block of that posting are
+     * skipped without being read. Does nothing if the doc ID of the current posting is >= target.
+     *
+     * @param target
+     * @throws IOException
+     */
+    public void advance(int target)
+            throws IOException {
+        if (_docID >= target) {
+            return;
+        }
+        if (_blockLastDocID[_block] < target) {
+            int block = findBlock(target, _block + 1);
+            if (block == _blocks) {
+                _docID = NO_MORE_DOCS;
+                return;
+            }
+            decodeBlock(block);
+        }
+        while (_docIDs[_pos] < target) {
+            _pos++;
+        }
+        _docID = _docIDs[_pos];
+    }
+
+    /**
+     * Moves the block of the block max values (getBlockLastDocID(), getBlockMaxTF(), getBlockMinTokens()) to the
+     * block that may have the given doc ID. Does not move the cursor and does not read any blocks.
+     *
+     * @param target
+     */
+    public void shallowAdvance(int target) {
+        _shallowBlock = findBlock(target, Math.max(_shallowBlock, _block));
+    }
+
+    /**
+     * Returns the last doc ID of the block of the last shallowAdvance() or NO_MORE_DOCS if there is no such block
+     *
+     * @return
+     */
+    public int getBlockLastDocID() {
+        return (_shallowBlock < _blocks) ? _blockLastDocID[_shallowBlock] : NO_MORE_DOCS;
+    }
+
+    /**
+     * Returns the max TF of the block of the last shallowAdvance() or 0 if there is no such block
+     *
+     * @return
+     */
+    public int getBlockMaxTF() {
+        return (_shallowBlock < _blocks) ? _blockMaxTF[_shallowBlock] : 0;
+    }
+
+    /**
+     * Returns the min token count of the documents of the block of the last shallowAdvance() or
+     * Integer.MAX_VALUE if there is no such block
+     *
+     * @return
+     */
+    public int getBlockMinTokens() {
+        return (_shallowBlock < _blocks) ? _blockMinTokens[_shallowBlock] : Integer.MAX_VALUE;
+    }
+
+    /**
+     * Returns the max TF of all postings
+     *
+     * @return
+     */
+    public int getMaxTF() {
+        return _maxTF;
+    }
+
+    /**
+     * Returns the min token count of the documents of all postings
+     *
+     * @return
+     */
+    public int getMinTokens() {
+        return _minTokens;
+    }
+
+    /* Returns the first block starting from the given block that has last doc ID >= target or the number of
+    blocks if there is no such block */
+    private int findBlock(int target, int block) {
+        while (block < _blocks && _blockLastDocID[block] < target) {
+            block++;
+        }
+        return block;
+    }
+
+    /* Reads and decodes the given block and moves to its first posting */
+    private void decodeBlock(int block)
+            throws IOException {
+        if (_blockBytes.length < _blockSize[block]) {
+            _blockBytes = new byte[Math.max(_blockSize[block], _blockBytes.length * 2)];
+        }
+        read(_postingsFiles[_blockSegment[block]], _blockStart[block], _blockBytes, _blockSize[block]);
+        Postings.decodeBlock(_blockBytes, 0, _blockCount[block], _blockPrevDocID[block], _TFs, _docIDs, 0);
+        _block = block;
+        _pos = 0;
+    }
+
+    /* Reads length bytes from the given position of the given file (does not change the position of the file) */
+    private static void read(FileChannel file, long position, byte[] bytes, int length)
+            throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, length);
+        while (buffer.hasRemaining()) {
+            if (file.read(buffer, position + buffer.position()) == -1) {
+                throw new EOFException();
+            }
+        }
+    }
+}
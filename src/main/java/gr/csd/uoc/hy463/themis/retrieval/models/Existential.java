@@ -43,6 +43,9 @@ public class Existential extends Retrieval {
             TermPostings termPostings = _indexer.getPostings(query.get(i).get_term());
             int[] intIDs = termPostings.getIntID();
             for (int j = 0; j < DFs[i]; j++) {
+                if (_skippedDocs.get(intIDs[j])) {
+                    continue;
+                }
                 _valid[intIDs[j]] = true;
             }
         }
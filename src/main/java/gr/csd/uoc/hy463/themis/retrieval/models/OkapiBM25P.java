@@ -5,6 +5,7 @@ import gr.csd.uoc.hy463.themis.indexer.Indexer;
 import gr.csd.uoc.hy463.themis.indexer.model.DocInfo;
 import gr.csd.uoc.hy463.themis.retrieval.QueryTerm;
 import gr.csd.uoc.hy463.themis.retrieval.model.OKAPIprops;
+import gr.csd.uoc.hy463.themis.retrieval.model.PostingsCursor;
 import gr.csd.uoc.hy463.themis.retrieval.model.TermPostings;
 import gr.csd.uoc.hy463.themis.retrieval.model.Result;
 
@@ -13,11 +14,23 @@ import java.util.*;
 
 /**
  * Implementation of the Okapi retrieval model. BM25+ is used as the scoring function.
+ *
+ * When the ranking depends only on the scores of this model (the weight of the Pagerank scores is 0), the top
+ * results are found by Block-Max WAND: the postings of the query terms are traversed document at a time (see
+ * class {@link PostingsCursor}) and a document is scored only if the upper bound of its score is larger than the
+ * score of the current k-th result. The upper bound of a term is given by the max TF and the min token count of
+ * its postings, and the upper bound of a block of postings by the max TF and the min token count of the block,
+ * so most blocks of the common terms are skipped without being decoded. The results are the same as the
+ * results of scoring all postings.
  */
 public class OkapiBM25P extends Retrieval {
     private final double _k1 = 2.0;
     private final double _b = 0.75;
     private final double _avgdl;
+
+    /* the upper bounds are increased by this amount so that rounding errors cannot skip a document whose score
+    is equal to its upper bound */
+    private static final double BOUND_SLACK = 1e-9;
     int[] _tokenCount;
     double[] _modelScore;
     double[][] _calculatedFreqs;
@@ -35,6 +48,13 @@ public class OkapiBM25P extends Retrieval {
     @Override
     public List<Result> getRankedResults(List<QueryTerm> query, int endResult)
             throws IOException, IndexNotLoadedException {
+        //keep only one term if it appears multiple times
+        query = mergeTerms(query);
+
+        if (Double.compare(getDocumentPagerankWeight(), 0.0) == 0 && hasNonNegativeWeights(query)) {
+            return getTopResults(query, endResult);
+        }
+
         List<Result> results = new ArrayList<>();
         _totalResults = 0;
         for (int i = 0; i < _totalDocuments; i++) {
@@ -42,9 +62,6 @@ public class OkapiBM25P extends Retrieval {
             _modelScore[i] = 0;
         }
 
-        //keep only one term if it appears multiple times
-        query = mergeTerms(query);
-
         int[] DFs = _indexer.getDFs(query);
 
         //calculate frequencies
@@ -55,6 +72,9 @@ public class OkapiBM25P extends Retrieval {
             double weight = query.get(i).get_weight();
             for (int j = 0; j < DFs[i]; j++) {
                 int ID = docIDs[j];
+                if (_skippedDocs.get(ID)) {
+                    continue;
+                }
                 double[] freqs = _calculatedFreqs[ID];
                 if (freqs == null) {
                     freqs = new double[query.size()];
@@ -104,4 +124,159 @@ public class OkapiBM25P extends Retrieval {
         _totalResults = results.size();
         return sort(results, endResult);
     }
+
+    /* Returns the top endResult results using Block-Max WAND. The scores are computed exactly as in
+    getRankedResults() and the results are the same */
+    private List<Result> getTopResults(List<QueryTerm> query, int endResult)
+            throws IOException, IndexNotLoadedException {
+        int terms = query.size();
+        int[] DFs = _indexer.getDFs(query);
+        double[] iDFs = new double[terms];
+        double[] weights = new double[terms];
+        PostingsCursor[] cursors = new PostingsCursor[terms];
+        double[] maxScores = new double[terms];
+
+        /* every result has the score iDF of each query term that it does not have, so the upper bound of
+        a document is the sum of the iDFs plus the upper bounds of the terms that it may have */
+        double baseScore = 0;
+        int maxDF = 0;
+        for (int i = 0; i < terms; i++) {
+            iDFs[i] = Math.log(_totalDocuments / (1.0 + DFs[i]));
+            weights[i] = query.get(i).get_weight();
+            cursors[i] = _indexer.getPostingsCursor(query.get(i).get_term());
+            maxScores[i] = getMaxScore(iDFs[i], weights[i], cursors[i].getMaxTF(), cursors[i].getMinTokens());
+            baseScore += iDFs[i];
+            maxDF = Math.max(maxDF, DFs[i]);
+        }
+
+        /* the postings are not read just to count the results */
+        _totalResults = getTotalResults(maxDF);
+        if (endResult <= 0) {
+            return new ArrayList<>();
+        }
+
+        /* the current top results. The head is the worst result: min score, max doc ID for equal scores
+        (documents with equal scores are ranked by doc ID) */
+        PriorityQueue<Result> topResults = new PriorityQueue<>((result1, result2) -> {
+            int cmp = Double.compare(result1.getScore(), result2.getScore());
+            return (cmp != 0) ? cmp : Integer.compare(result2.getDocInfo().getDocID(), result1.getDocInfo().getDocID());
+        });
+        double threshold = Double.NEGATIVE_INFINITY;
+
+        /* the cursors sorted by doc ID */
+        Integer[] order = new Integer[terms];
+        for (int i = 0; i < terms; i++) {
+            order[i] = i;
+        }
+        Comparator<Integer> docIDComparator = Comparator.comparingInt(i -> cursors[i].getDocID());
+        while (true) {
+            Arrays.sort(order, docIDComparator);
+
+            /* find the pivot: the first cursor where the sum of the upper bounds exceeds the threshold.
+            The documents before the doc ID of the pivot cannot be top results */
+            double bound = baseScore;
+            int pivot = -1;
+            for (int i = 0; i < terms && cursors[order[i]].getDocID() != PostingsCursor.NO_MORE_DOCS; i++) {
+                bound += maxScores[order[i]];
+                if (bound + BOUND_SLACK > threshold) {
+                    pivot = i;
+                    break;
+                }
+            }
+            if (pivot == -1) {
+                break;
+            }
+            int pivotDocID = cursors[order[pivot]].getDocID();
+            while (pivot + 1 < terms && cursors[order[pivot + 1]].getDocID() == pivotDocID) {
+                pivot++;
+            }
+
+            /* the upper bound of the pivot document using the blocks of the cursors */
+            double blockBound = baseScore;
+            for (int i = 0; i <= pivot; i++) {
+                PostingsCursor cursor = cursors[order[i]];
+                cursor.shallowAdvance(pivotDocID);
+                blockBound += getMaxScore(iDFs[order[i]], weights[order[i]], cursor.getBlockMaxTF(), cursor.getBlockMinTokens());
+            }
+            if (blockBound + BOUND_SLACK <= threshold) {
+                /* no document up to the end of the shortest of these blocks can be a top result */
+                int nextDocID = (pivot + 1 < terms) ? cursors[order[pivot + 1]].getDocID() : PostingsCursor.NO_MORE_DOCS;
+                for (int i = 0; i <= pivot; i++) {
+                    int blockLastDocID = cursors[order[i]].getBlockLastDocID();
+                    if (blockLastDocID < nextDocID) {
+                        nextDocID = blockLastDocID + 1;
+                    }
+                }
+                for (int i = 0; i <= pivot; i++) {
+                    cursors[order[i]].advance(nextDocID);
+                }
+                continue;
+            }
+            if (cursors[order[0]].getDocID() != pivotDocID) {
+                for (int i = 0; i < pivot; i++) {
+                    cursors[order[i]].advance(pivotDocID);
+                }
+                continue;
+            }
+
+            /* all cursors up to the pivot are at the pivot document */
+            if (!_skippedDocs.get(pivotDocID)) {
+                double score = 0;
+                double B = _k1 * (1 - _b + (_b * _tokenCount[pivotDocID]) / _avgdl);
+                for (int j = 0; j < terms; j++) {
+                    double freq = (cursors[j].getDocID() == pivotDocID) ? cursors[j].getTF() * weights[j] : 0;
+                    score += iDFs[j] * (freq * (_k1 + 1) / (freq + B) + 1);
+                }
+                if (topResults.size() < endResult) {
+                    topResults.add(new Result(new DocInfo(pivotDocID), score));
+                }
+                else if (score > threshold) {
+                    topResults.poll();
+                    topResults.add(new Result(new DocInfo(pivotDocID), score));
+                }
+                if (topResults.size() == endResult) {
+                    threshold = topResults.peek().getScore();
+                }
+            }
+            for (int i = 0; i <= pivot; i++) {
+                cursors[order[i]].next();
+            }
+        }
+
+        /* normalize scores to [0, 1]. The results are sorted by doc ID first so that equal scores are
+        ranked by doc ID */
+        List<Result> results = new ArrayList<>(topResults);
+        results.sort(Comparator.comparingInt(result -> result.getDocInfo().getDocID()));
+        double maxScore = 0;
+        for (Result result : results) {
+            if (result.getScore() > maxScore) {
+                maxScore = result.getScore();
+            }
+        }
+        if (Double.compare(maxScore, 0.0) == 0) {
+            maxScore = 1;
+        }
+        for (Result result : results) {
+            result.setScore(result.getScore() / maxScore);
+        }
+        return sort(results, endResult);
+    }
+
+    /* Returns the upper bound of the score of a term (without the iDF that every result has) in postings
+    that have the given max TF and min token count */
+    private double getMaxScore(double iDF, double weight, int maxTF, int minTokens) {
+        double freq = maxTF * weight;
+        double B = _k1 * (1 - _b + (_b * minTokens) / _avgdl);
+        return Math.max(0, iDF * (freq * (_k1 + 1) / (freq + B)));
+    }
+
+    /* Returns true if no query term has a negative weight. The upper bounds are valid only for such queries */
+    private static boolean hasNonNegativeWeights(List<QueryTerm> query) {
+        for (QueryTerm term : query) {
+            if (term.get_weight() < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
 }
@@ -5,6 +5,7 @@ import gr.csd.uoc.hy463.themis.indexer.Indexer;
 import gr.csd.uoc.hy463.themis.indexer.model.DocInfo;
 import gr.csd.uoc.hy463.themis.retrieval.QueryTerm;
 import gr.csd.uoc.hy463.themis.retrieval.model.Result;
+import gr.csd.uoc.hy463.themis.retrieval.model.TermPostings;
 
 import java.io.IOException;
 import java.util.*;
@@ -22,6 +23,12 @@ public abstract class Retrieval {
     private double _documentPagerankWeight;
     protected Indexer _indexer;
 
+    protected BitSet _deletedDocs;
+
+    /* the documents that are skipped when the postings are traversed: the deleted documents and, while a query
+    with phrases is evaluated, the documents that do not contain the phrases */
+    protected BitSet _skippedDocs;
+
     /**
      * Constructor.
      *
@@ -36,6 +43,8 @@ public abstract class Retrieval {
         }
         _indexer = indexer;
         _totalDocuments = indexer.getTotalDocuments();
+        _deletedDocs = indexer.getDeletedDocuments();
+        _skippedDocs = _deletedDocs;
         _documentPagerankWeight = indexer.getConfig().getDocumentPagerankWeight();
     }
 
@@ -60,6 +69,144 @@ public abstract class Retrieval {
     public abstract List<Result> getRankedResults(List<QueryTerm> query, int endResult)
             throws IOException, IndexNotLoadedException;
 
+    /**
+     * Evaluates a query that has phrases and returns a list of Results sorted by their scores (descending).
+     * Only the documents that contain all phrases are returned, they are ranked by the terms of the query
+     * (the terms of the phrases should also be in the query). Equivalent to getRankedResults(query, endResult)
+     * if there are no phrases.
+     *
+     * A document contains a phrase if it has the terms of the phrase at consecutive positions. The postings
+     * of the terms of each phrase are intersected first, and then only the positions of the common documents
+     * are read.
+     *
+     * @param query
+     * @param phrases Each phrase is a list of terms
+     * @param endResult The returned list will have at most endResult results
+     * @return
+     * @throws IOException
+     * @throws IndexNotLoadedException
+     */
+    public List<Result> getRankedResults(List<QueryTerm> query, List<List<String>> phrases, int endResult)
+            throws IOException, IndexNotLoadedException {
+        if (phrases.isEmpty()) {
+            return getRankedResults(query, endResult);
+        }
+        BitSet phraseDocs = null;
+        for (List<String> phrase : phrases) {
+            BitSet docs = getPhraseDocuments(phrase);
+            if (phraseDocs == null) {
+                phraseDocs = docs;
+            }
+            else {
+                phraseDocs.and(docs);
+            }
+        }
+        BitSet skippedDocs = new BitSet(_totalDocuments);
+        skippedDocs.set(0, _totalDocuments);
+        skippedDocs.andNot(phraseDocs);
+        skippedDocs.or(_deletedDocs);
+        _skippedDocs = skippedDocs;
+        try {
+            return getRankedResults(query, endResult);
+        } finally {
+            _skippedDocs = _deletedDocs;
+        }
+    }
+
+    /* Returns the documents that contain the given phrase (bit i is set for the (int) doc ID i) */
+    private BitSet getPhraseDocuments(List<String> phrase)
+            throws IOException, IndexNotLoadedException {
+        int terms = phrase.size();
+        TermPostings[] postings = new TermPostings[terms];
+        for (int i = 0; i < terms; i++) {
+            postings[i] = _indexer.getPostings(phrase.get(i));
+        }
+
+        /* find the documents that have all terms. candidates[i] are the positions of the postings of these
+        documents in the postings of term i */
+        int[] first = postings[0].getIntID();
+        int[][] candidates = new int[terms][first.length];
+        int[] next = new int[terms];
+        int candidateCount = 0;
+        for (int j = 0; j < first.length; j++) {
+            int docID = first[j];
+            if (_deletedDocs.get(docID)) {
+                continue;
+            }
+            boolean found = true;
+            for (int i = 1; i < terms && found; i++) {
+                int[] docIDs = postings[i].getIntID();
+                while (next[i] < docIDs.length && docIDs[next[i]] < docID) {
+                    next[i]++;
+                }
+                found = next[i] < docIDs.length && docIDs[next[i]] == docID;
+            }
+            if (found) {
+                candidates[0][candidateCount] = j;
+                for (int i = 1; i < terms; i++) {
+                    candidates[i][candidateCount] = next[i];
+                }
+                candidateCount++;
+            }
+        }
+
+        BitSet docs = new BitSet(_totalDocuments);
+        if (terms == 1) {
+            for (int c = 0; c < candidateCount; c++) {
+                docs.set(first[candidates[0][c]]);
+            }
+            return docs;
+        }
+
+        /* read the positions of the candidate documents and check that the terms are at consecutive positions */
+        int[][][] positions = new int[terms][][];
+        for (int i = 0; i < terms; i++) {
+            positions[i] = _indexer.getPositions(phrase.get(i), postings[i], Arrays.copyOf(candidates[i], candidateCount));
+        }
+        for (int c = 0; c < candidateCount; c++) {
+            if (hasPhrase(positions, c)) {
+                docs.set(first[candidates[0][c]]);
+            }
+        }
+        return docs;
+    }
+
+    /* Returns true if the terms of a phrase are at consecutive positions in the given candidate document.
+    Returns true if there are no positions for the document */
+    private static boolean hasPhrase(int[][][] positions, int candidate) {
+        for (int[][] termPositions : positions) {
+            if (termPositions[candidate] == null) {
+                return true;
+            }
+        }
+        for (int position : positions[0][candidate]) {
+            boolean found = true;
+            for (int i = 1; i < positions.length && found; i++) {
+                found = Arrays.binarySearch(positions[i][candidate], position + i) >= 0;
+            }
+            if (found) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the total results of a query whose postings are not all read, given the max DF of its terms.
+     * The max DF is a lower bound of the documents that have a query term (the deleted documents that are still
+     * in the postings are also counted). While a query with phrases is evaluated, the results are at most the
+     * documents that are not skipped (exactly these documents if the terms of the phrases are in the query).
+     *
+     * @param maxDF
+     * @return
+     */
+    protected int getTotalResults(int maxDF) {
+        if (_skippedDocs == _deletedDocs) {
+            return maxDF;
+        }
+        return Math.min(maxDF, _totalDocuments - _skippedDocs.cardinality());
+    }
+
     /**
      * Sorts the specified results. Uses the pagerank scores of the documents and the scores from the
      * retrieval model. The returned list will contain a maximum of endResult number of results.
@@ -2,8 +2,10 @@ package gr.csd.uoc.hy463.themis.retrieval.models;
 
 import gr.csd.uoc.hy463.themis.indexer.Exceptions.IndexNotLoadedException;
 import gr.csd.uoc.hy463.themis.indexer.Indexer;
+import gr.csd.uoc.hy463.themis.indexer.Segment;
 import gr.csd.uoc.hy463.themis.indexer.model.DocInfo;
 import gr.csd.uoc.hy463.themis.retrieval.QueryTerm;
+import gr.csd.uoc.hy463.themis.retrieval.model.PostingsCursor;
 import gr.csd.uoc.hy463.themis.retrieval.model.Result;
 import gr.csd.uoc.hy463.themis.retrieval.model.VSMprops;
 import gr.csd.uoc.hy463.themis.retrieval.model.TermPostings;
@@ -13,6 +15,14 @@ import java.util.*;
 
 /**
  * Implementation of the VSM retrieval model.
+ *
+ * When the ranking depends only on the scores of this model (the weight of the Pagerank scores is 0), the top
+ * results are found by MaxScore: the upper bound of the score of a term is given by its IDF and, for each
+ * segment, the max TF ratio of the term (max value of TF / max TF in its postings, stored in the vocabulary)
+ * divided by the min document weight of the segment. The bounds are found without reading any postings. The terms whose upper bounds add up to less than the score
+ * of the current k-th result cannot create a top result by themselves, so their postings are read only for the
+ * documents of the rest of the terms (see class {@link PostingsCursor}) and the blocks between these documents
+ * are skipped. The results are the same as the results of scoring all postings.
  */
 public class VSM extends Retrieval {
     double[][] _calculatedWeights;
@@ -20,6 +30,13 @@ public class VSM extends Retrieval {
     double[] _modelScore;
     int[] _maxTFs;
 
+    /* the min weight of the documents of each segment that are not deleted */
+    private final double[] _segmentMinWeights;
+
+    /* the upper bounds are increased by this amount so that rounding errors cannot skip a document whose score
+    is equal to its upper bound */
+    private static final double BOUND_SLACK = 1e-9;
+
     public VSM(Indexer index)
             throws IOException, IndexNotLoadedException  {
         super(index);
@@ -28,18 +45,23 @@ public class VSM extends Retrieval {
         VSMprops props = _indexer.getVSMprops();
         _documentWeights = props.getVSMweights();
         _maxTFs = props.getMaxTFs();
+        List<Segment> segments = _indexer.getSegments();
+        _segmentMinWeights = new double[segments.size()];
+        for (int i = 0; i < segments.size(); i++) {
+            int docIDBase = segments.get(i).getDocIDBase();
+            double minWeight = Double.POSITIVE_INFINITY;
+            for (int j = docIDBase; j < docIDBase + segments.get(i).getDocuments(); j++) {
+                if (!_deletedDocs.get(j) && _maxTFs[j] != 0) {
+                    minWeight = Math.min(minWeight, _documentWeights[j]);
+                }
+            }
+            _segmentMinWeights[i] = minWeight;
+        }
     }
 
     @Override
     public List<Result> getRankedResults(List<QueryTerm> query, int endResult)
             throws IOException, IndexNotLoadedException {
-        List<Result> results = new ArrayList<>();
-        _totalResults = 0;
-        for (int i = 0; i < _totalDocuments; i++) {
-            _calculatedWeights[i] = null;
-            _modelScore[i] = 0;
-        }
-
         //merge weights if a term appears multiple times
         Map<String, Double> queryFrequencies = new HashMap<>(query.size());
         for (QueryTerm queryTerm : query) {
@@ -74,6 +96,20 @@ public class VSM extends Retrieval {
         }
         queryNorm = Math.sqrt(queryNorm);
 
+        if (Double.compare(getDocumentPagerankWeight(), 0.0) == 0 && queryMaxFrequency > 0 && queryNorm > 0) {
+            List<Result> topResults = getTopResults(query, DFs, queryWeights, queryNorm, endResult);
+            if (topResults != null) {
+                return topResults;
+            }
+        }
+
+        List<Result> results = new ArrayList<>();
+        _totalResults = 0;
+        for (int i = 0; i < _totalDocuments; i++) {
+            _calculatedWeights[i] = null;
+            _modelScore[i] = 0;
+        }
+
         //calculate VSM weights
         for (int i = 0; i < query.size(); i++) {
             TermPostings termPostings = _indexer.getPostings(query.get(i).get_term());
@@ -83,6 +119,9 @@ public class VSM extends Retrieval {
             double iDF = Math.log(_totalDocuments / (1.0 + DFs[i]));
             for (int j = 0; j < DFs[i]; j++) {
                 int ID = docIDs[j];
+                if (_skippedDocs.get(ID)) {
+                    continue;
+                }
                 double[] weights = _calculatedWeights[ID];
                 if (weights == null) {
                     weights = new double[query.size()];
@@ -127,4 +166,162 @@ public class VSM extends Retrieval {
         _totalResults = results.size();
         return sort(results, endResult);
     }
+
+    /* Returns the top endResult results using MaxScore or null if the upper bounds of the terms are not finite.
+    The scores are computed exactly as in getRankedResults() and the results are the same */
+    private List<Result> getTopResults(List<QueryTerm> query, int[] DFs, double[] queryWeights, double queryNorm, int endResult)
+            throws IOException, IndexNotLoadedException {
+        int terms = query.size();
+        double[] iDFs = new double[terms];
+        double[] weights = new double[terms];
+        double[] maxScores = new double[terms];
+        for (int i = 0; i < terms; i++) {
+            iDFs[i] = Math.log(_totalDocuments / (1.0 + DFs[i]));
+            weights[i] = query.get(i).get_weight();
+            maxScores[i] = queryWeights[i] * weights[i] * iDFs[i] * getTermMaxWeight(query.get(i).get_term()) / queryNorm;
+            if (Double.isNaN(maxScores[i]) || Double.isInfinite(maxScores[i])) {
+                return null;
+            }
+        }
+
+        /* the postings are not read just to count the results */
+        int maxDF = 0;
+        for (int i = 0; i < terms; i++) {
+            maxDF = Math.max(maxDF, DFs[i]);
+        }
+        _totalResults = getTotalResults(maxDF);
+        if (endResult <= 0) {
+            return new ArrayList<>();
+        }
+        PostingsCursor[] cursors = new PostingsCursor[terms];
+        for (int i = 0; i < terms; i++) {
+            cursors[i] = _indexer.getPostingsCursor(query.get(i).get_term());
+        }
+
+        /* the terms sorted by upper bound (increasing) and the sum of the upper bounds of the first i + 1 terms */
+        Integer[] order = new Integer[terms];
+        for (int i = 0; i < terms; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingDouble(i -> maxScores[i]));
+        double[] boundSums = new double[terms];
+        for (int i = 0; i < terms; i++) {
+            boundSums[i] = ((i == 0) ? 0 : boundSums[i - 1]) + maxScores[order[i]];
+        }
+
+        /* the current top results. The head is the worst result: min score, max doc ID for equal scores
+        (documents with equal scores are ranked by doc ID) */
+        PriorityQueue<Result> topResults = new PriorityQueue<>((result1, result2) -> {
+            int cmp = Double.compare(result1.getScore(), result2.getScore());
+            return (cmp != 0) ? cmp : Integer.compare(result2.getDocInfo().getDocID(), result1.getDocInfo().getDocID());
+        });
+        double threshold = Double.NEGATIVE_INFINITY;
+
+        /* the terms order[0..essential - 1] are not essential: a document that has only these terms cannot be a
+        top result. The documents are taken from the postings of the essential terms */
+        int essential = 0;
+        while (essential < terms) {
+            int docID = PostingsCursor.NO_MORE_DOCS;
+            for (int i = essential; i < terms; i++) {
+                docID = Math.min(docID, cursors[order[i]].getDocID());
+            }
+            if (docID == PostingsCursor.NO_MORE_DOCS) {
+                break;
+            }
+            if (!_skippedDocs.get(docID)) {
+                double documentNorm = _documentWeights[docID] * queryNorm;
+                double score = 0;
+                for (int i = essential; i < terms; i++) {
+                    int term = order[i];
+                    if (cursors[term].getDocID() == docID) {
+                        score += queryWeights[term] * getWeight(cursors[term].getTF(), weights[term], iDFs[term], docID) / documentNorm;
+                    }
+                }
+
+                /* the non essential terms are checked in order of decreasing upper bound, until the upper bound
+                of the document is not larger than the threshold */
+                boolean skipped = false;
+                for (int i = essential - 1; i >= 0; i--) {
+                    if (score + boundSums[i] + BOUND_SLACK <= threshold) {
+                        skipped = true;
+                        break;
+                    }
+                    int term = order[i];
+                    cursors[term].advance(docID);
+                    if (cursors[term].getDocID() == docID) {
+                        score += queryWeights[term] * getWeight(cursors[term].getTF(), weights[term], iDFs[term], docID) / documentNorm;
+                    }
+                }
+
+                /* the score is computed again in the order of the query terms, same as getRankedResults() */
+                if (!skipped && score + BOUND_SLACK > threshold) {
+                    score = 0;
+                    for (int term = 0; term < terms; term++) {
+                        if (cursors[term].getDocID() == docID) {
+                            score += queryWeights[term] * getWeight(cursors[term].getTF(), weights[term], iDFs[term], docID);
+                        }
+                    }
+                    score /= documentNorm;
+                    if (topResults.size() < endResult) {
+                        topResults.add(new Result(new DocInfo(docID), score));
+                    }
+                    else if (score > threshold) {
+                        topResults.poll();
+                        topResults.add(new Result(new DocInfo(docID), score));
+                    }
+                    if (topResults.size() == endResult) {
+                        threshold = topResults.peek().getScore();
+                        while (essential < terms && boundSums[essential] + BOUND_SLACK <= threshold) {
+                            essential++;
+                        }
+                    }
+                }
+            }
+            for (int i = essential; i < terms; i++) {
+                if (cursors[order[i]].getDocID() == docID) {
+                    cursors[order[i]].next();
+                }
+            }
+        }
+
+        /* normalize scores to [0, 1]. The results are sorted by doc ID first so that equal scores are
+        ranked by doc ID */
+        List<Result> results = new ArrayList<>(topResults);
+        results.sort(Comparator.comparingInt(result -> result.getDocInfo().getDocID()));
+        double maxScore = 0;
+        for (Result result : results) {
+            if (result.getScore() > maxScore) {
+                maxScore = result.getScore();
+            }
+        }
+        if (Double.compare(maxScore, 0.0) == 0) {
+            maxScore = 1;
+        }
+        for (Result result : results) {
+            result.setScore(result.getScore() / maxScore);
+        }
+        return sort(results, endResult);
+    }
+
+    /* Returns the weight of a term in a document, same as getRankedResults() */
+    private double getWeight(int TF, double weight, double iDF, int docID) {
+        double normalizedTF = (TF * weight) / _maxTFs[docID];
+        return normalizedTF * iDF;
+    }
+
+    /* Returns the max value of TF / (max TF * document weight) in the postings of the given term that are not
+    deleted (or an upper bound of it). Only the vocabularies are read: for each segment, the max TF ratio of the
+    term is divided by the min document weight of the segment. Returns infinity if a segment has no max TF ratios */
+    private double getTermMaxWeight(String term)
+            throws IndexNotLoadedException {
+        double[] maxTFRatios = _indexer.getMaxTFRatios(term);
+        double maxWeight = 0;
+        for (int i = 0; i < maxTFRatios.length; i++) {
+            /* a segment whose documents are all deleted has an infinite min weight */
+            if (maxTFRatios[i] != 0 && !Double.isInfinite(_segmentMinWeights[i])) {
+                maxWeight = Math.max(maxWeight, maxTFRatios[i] / _segmentMinWeights[i]);
+            }
+        }
+        return maxWeight;
+    }
 }
@@ -5,6 +5,7 @@ import gr.csd.uoc.hy463.themis.indexer.Indexer;
 import gr.csd.uoc.hy463.themis.indexer.model.DocInfo;
 import gr.csd.uoc.hy463.themis.lexicalAnalysis.Stemmer;
 import gr.csd.uoc.hy463.themis.lexicalAnalysis.StopWords;
+import gr.csd.uoc.hy463.themis.lexicalAnalysis.collections.SemanticScholar.S2TextualEntryTokens;
 import gr.csd.uoc.hy463.themis.queryExpansion.Exceptions.QueryExpansionException;
 import gr.csd.uoc.hy463.themis.queryExpansion.model.WordNet;
 import gr.csd.uoc.hy463.themis.queryExpansion.model.GloVe;
@@ -23,6 +24,8 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * The main class responsible for querying the collection and printing the results.
@@ -33,7 +36,13 @@ public class Search {
     private QueryExpansion _queryExpansion;
     private final boolean _useStemmer;
     private final boolean _useStopwords;
-    private static final String splitDelimiters = "\u0020“”/\"-.\uff0c[](),?+#，*'";
+    private static final String splitDelimiters = "\u0020“”/\"-.\uff0c[](),?+#，'";
+
+    /* the terms of a phrase are also split at '*' (a phrase cannot have wildcard terms) */
+    private static final String phraseSplitDelimiters = splitDelimiters + "*";
+
+    /* a phrase in quotes and the text just before the opening quote (e.g. a field prefix) */
+    private static final Pattern phrasePattern = Pattern.compile("(\\S*?)[\"“]([^\"“”]*)[\"”]");
 
     /* the set of document props that will be retrieved */
     private Set<DocInfo.PROPERTY> _props;
@@ -177,13 +186,14 @@ public class Search {
     }
 
     /**
-     * Splits a query into lowercase tokens.
+     * Splits a query into tokens at the given delimiters.
      *
      * @param query
+     * @param delimiters
      * @return
      */
-    private static List<String> split(String query) {
-        StringTokenizer tokenizer = new StringTokenizer(query, Search.splitDelimiters);
+    private static List<String> split(String query, String delimiters) {
+        StringTokenizer tokenizer = new StringTokenizer(query, delimiters);
         List<String> terms = new ArrayList<>();
         while (tokenizer.hasMoreTokens()) {
             String token = tokenizer.nextToken();
@@ -206,9 +216,36 @@ public class Search {
         return search(query, Integer.MAX_VALUE);
     }
 
+    /* Applies stopwords & stemming to the given query term and returns it in lowercase. Returns null if the term
+    is a stopword */
+    private String getQueryTerm(String term)
+            throws IOException {
+        if (_useStopwords && StopWords.isStopWord(term)) {
+            return null;
+        }
+        String newTerm = term;
+        if (_useStemmer) {
+            newTerm = Stemmer.stem(term);
+        }
+        return newTerm.toLowerCase();
+    }
+
     /**
      * Queries the index and returns a ranked list of results. A maximum of endResult results are returned.
      *
+     * A term of the query can be restricted to a field by using the prefix of the field: title:, author:,
+     * venue: or journal: (e.g. 'author:smith'). Only the postings of the field are searched for these terms
+     * and they are not expanded by the query expansion model.
+     *
+     * A term that has a '*' is a wildcard term (e.g. 'neur*', 'trans*mer' or 'title:neur*'). '*' matches any
+     * sequence of characters but cannot be the first character of the term. The wildcard term is replaced by the
+     * terms of the vocabulary that match it (at most WILDCARD_MAX_TERMS, those with the largest DF), so the
+     * retrieval model scores the union of their postings. The matching terms are not stemmed or expanded.
+     *
+     * A phrase can be given in quotes (e.g. "graph neural network", also title:"graph neural network"). Only the
+     * documents that have the terms of all phrases at consecutive positions are returned. The terms of the phrases
+     * are also used for ranking the documents and they are not expanded.
+     *
      * @param query
      * @param endResult From 0 to Integer.MAX_VALUE
      * @return
@@ -222,20 +259,66 @@ public class Search {
             throw new IndexNotLoadedException();
         }
 
+        /* the phrases are removed from the query, their terms are added to the query terms */
+        List<QueryTerm> newQuery = new ArrayList<>();
+        List<List<String>> phrases = new ArrayList<>();
+        StringBuilder queryWithoutPhrases = new StringBuilder();
+        Matcher phraseMatcher = phrasePattern.matcher(query);
+        int phraseEnd = 0;
+        while (phraseMatcher.find()) {
+            queryWithoutPhrases.append(query, phraseEnd, phraseMatcher.start()).append(' ');
+            String prefix = phraseMatcher.group(1).toLowerCase();
+            if (S2TextualEntryTokens.getFieldPrefixLength(prefix) != prefix.length()) {
+                queryWithoutPhrases.append(phraseMatcher.group(1)).append(' ');
+                prefix = "";
+            }
+            List<String> phrase = new ArrayList<>();
+            for (String token : Search.split(phraseMatcher.group(2), Search.phraseSplitDelimiters)) {
+                String term = getQueryTerm(token);
+                if (term != null && !term.isEmpty()) {
+                    phrase.add(prefix + term);
+                    newQuery.add(new QueryTerm(prefix + term, 1.0));
+                }
+            }
+            if (!phrase.isEmpty()) {
+                phrases.add(phrase);
+            }
+            phraseEnd = phraseMatcher.end();
+        }
+        queryWithoutPhrases.append(query, phraseEnd, query.length());
+
         /* split query into tokens and convert to lowercase */
-        List<String> splitQuery = Search.split(query);
+        List<String> splitQuery = Search.split(queryWithoutPhrases.toString(), Search.splitDelimiters);
+
+        /* a wildcard term is replaced by the matching terms of the vocabulary. The terms that are restricted
+        to a field are searched in the postings of the field */
+        Iterator<String> splitQueryIterator = splitQuery.iterator();
+        while (splitQueryIterator.hasNext()) {
+            String term = splitQueryIterator.next();
+            if (term.indexOf('*') != -1) {
+                splitQueryIterator.remove();
+                for (String wildcardTerm : _indexer.getWildcardTerms(term.toLowerCase())) {
+                    newQuery.add(new QueryTerm(wildcardTerm, 1.0));
+                }
+                continue;
+            }
+            int prefixLength = S2TextualEntryTokens.getFieldPrefixLength(term.toLowerCase());
+            if (prefixLength == 0) {
+                continue;
+            }
+            splitQueryIterator.remove();
+            String fieldTerm = getQueryTerm(term.substring(prefixLength));
+            if (fieldTerm != null && !fieldTerm.isEmpty()) {
+                newQuery.add(new QueryTerm(term.substring(0, prefixLength).toLowerCase() + fieldTerm, 1.0));
+            }
+        }
 
-        List<QueryTerm> newQuery = new ArrayList<>();
         if (_queryExpansion == null) {
             for (String term : splitQuery) {
-                if (_useStopwords && StopWords.isStopWord(term)) {
-                    continue;
-                }
-                String newTerm = term;
-                if (_useStemmer) {
-                    newTerm = Stemmer.stem(term);
+                String newTerm = getQueryTerm(term);
+                if (newTerm != null) {
+                    newQuery.add(new QueryTerm(newTerm, 1.0));
                 }
-                newQuery.add(new QueryTerm(newTerm.toLowerCase(), 1.0));
             }
         }
         else {
@@ -268,7 +351,7 @@ public class Search {
             }
         }
 
-        List<Result> result = _model.getRankedResults(newQuery, endResult);
+        List<Result> result = _model.getRankedResults(newQuery, phrases, endResult);
         _indexer.updateDocInfo(result, _props);
         return result;
     }
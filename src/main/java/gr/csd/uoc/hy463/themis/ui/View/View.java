@@ -117,6 +117,7 @@ public class View extends JFrame {
 
         _documentProperties = new JMenu("Document properties");
         DocInfoRadioButton title = new DocInfoRadioButton("Title");
+        DocInfoRadioButton paperAbstract = new DocInfoRadioButton("Abstract");
         DocInfoRadioButton authors = new DocInfoRadioButton("Authors");
         DocInfoRadioButton authorIds = new DocInfoRadioButton("Author ids");
         DocInfoRadioButton journal = new DocInfoRadioButton("Journal");
@@ -127,6 +128,7 @@ public class View extends JFrame {
         DocInfoRadioButton maxTF = new DocInfoRadioButton("Max TF");
         DocInfoRadioButton documentSize = new DocInfoRadioButton("Document Size");
         _documentProperties.add(title);
+        _documentProperties.add(paperAbstract);
         _documentProperties.add(authors);
         _documentProperties.add(authorIds);
         _documentProperties.add(journal);
@@ -0,0 +1,143 @@
+package gr.csd.uoc.hy463.themis.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Reads the lines of a stream as raw bytes (no charset decoding). Lines are terminated by '\n'
+ * and a trailing '\r' is removed.
+ *
+ * After each successful call to readLine(), the line is found in getBuffer() starting at getLineStart()
+ * and having getLineLength() bytes. The buffer is reused, so the line is valid only until the next call.
+ */
+public class ByteLineReader implements Closeable {
+    private static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+
+    private final InputStream _in;
+    private byte[] _buffer;
+
+    /* bytes in [_pos, _limit) have been read from the stream but not returned yet */
+    private int _pos = 0;
+    private int _limit = 0;
+    private boolean _eof = false;
+
+    private int _lineStart = 0;
+    private int _lineLength = 0;
+
+    /* number of bytes read from the stream */
+    private long _bytesRead = 0;
+
+    public ByteLineReader(InputStream in) {
+        this(in, DEFAULT_BUFFER_SIZE);
+    }
+
+    public ByteLineReader(InputStream in, int bufferSize) {
+        _in = in;
+        _buffer = new byte[Math.max(bufferSize, 16)];
+    }
+
+    /**
+     * Reads the next line. Returns false if there are no more lines.
+     *
+     * @return
+     * @throws IOException
+     */
+    public boolean readLine()
+            throws IOException {
+        int searchFrom = _pos;
+        while (true) {
+            for (int i = searchFrom; i < _limit; i++) {
+                if (_buffer[i] == '\n') {
+                    setLine(_pos, i);
+                    _pos = i + 1;
+                    return true;
+                }
+            }
+            if (_eof) {
+                if (_pos == _limit) {
+                    return false;
+                }
+                setLine(_pos, _limit);
+                _pos = _limit;
+                return true;
+            }
+            searchFrom = _limit - _pos;
+            fill();
+            searchFrom += _pos;
+        }
+    }
+
+    /**
+     * Returns the buffer that holds the current line
+     *
+     * @return
+     */
+    public byte[] getBuffer() {
+        return _buffer;
+    }
+
+    /**
+     * Returns the position of the first byte of the current line in getBuffer()
+     *
+     * @return
+     */
+    public int getLineStart() {
+        return _lineStart;
+    }
+
+    /**
+     * Returns the number of bytes of the current line (without the line terminator)
+     *
+     * @return
+     */
+    public int getLineLength() {
+        return _lineLength;
+    }
+
+    /**
+     * Returns the number of bytes that have been read from the stream. For a compressed corpus file
+     * (see CorpusInputStream) these are the decompressed bytes.
+     *
+     * @return
+     */
+    public long getBytesRead() {
+        return _bytesRead;
+    }
+
+    @Override
+    public void close()
+            throws IOException {
+        _in.close();
+    }
+
+    /* Sets the current line to the bytes in [start, end) excluding a trailing '\r' */
+    private void setLine(int start, int end) {
+        if (end > start && _buffer[end - 1] == '\r') {
+            end--;
+        }
+        _lineStart = start;
+        _lineLength = end - start;
+    }
+
+    /* Moves the unread bytes to the start of the buffer (growing it if it is full) and reads more bytes */
+    private void fill()
+            throws IOException {
+        int remaining = _limit - _pos;
+        if (remaining == _buffer.length) {
+            _buffer = Arrays.copyOf(_buffer, _buffer.length * 2);
+        } else if (_pos > 0) {
+            System.arraycopy(_buffer, _pos, _buffer, 0, remaining);
+        }
+        _pos = 0;
+        _limit = remaining;
+        int read = _in.read(_buffer, _limit, _buffer.length - _limit);
+        if (read == -1) {
+            _eof = true;
+        } else {
+            _limit += read;
+            _bytesRead += read;
+        }
+    }
+}
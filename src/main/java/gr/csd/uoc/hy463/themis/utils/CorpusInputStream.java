@@ -0,0 +1,171 @@
+package gr.csd.uoc.hy463.themis.utils;
+
+import com.github.luben.zstd.ZstdInputStream;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Stream of the contents of a corpus file. Files that are compressed with gzip or zstd (detected by their
+ * magic number, not their name) are decompressed by a separate thread while the stream is read, the rest of
+ * the files are read directly.
+ *
+ * The decompression thread fills a bounded queue of chunks, so it can be at most MAX_CHUNKS * CHUNK_SIZE bytes
+ * ahead of the reader.
+ */
+public class CorpusInputStream extends InputStream {
+    private static final int CHUNK_SIZE = 1 << 20;
+    private static final int MAX_CHUNKS = 8;
+
+    private static final byte[] GZIP_MAGIC = {(byte) 0x1f, (byte) 0x8b};
+    private static final byte[] ZSTD_MAGIC = {(byte) 0x28, (byte) 0xb5, (byte) 0x2f, (byte) 0xfd};
+
+    /* marks the end of the decompressed data */
+    private static final byte[] END_CHUNK = new byte[0];
+
+    private final BlockingQueue<byte[]> _chunks = new ArrayBlockingQueue<>(MAX_CHUNKS);
+    private final Thread _thread;
+    private volatile Throwable _error = null;
+
+    /* the chunk that is currently read and the position of the next byte in it */
+    private byte[] _chunk = null;
+    private int _pos = 0;
+
+    private CorpusInputStream(InputStream in, String name) {
+        _thread = new Thread(() -> decompress(in), "themis-decompress-" + name);
+        _thread.setDaemon(true);
+        _thread.start();
+    }
+
+    /**
+     * Opens the given corpus file. If the file is compressed, it starts decompressing it in a new thread.
+     *
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public static InputStream open(File file)
+            throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(file), CHUNK_SIZE);
+        try {
+            byte[] magic = new byte[ZSTD_MAGIC.length];
+            in.mark(magic.length);
+            int read = 0;
+            int n;
+            while (read < magic.length && (n = in.read(magic, read, magic.length - read)) != -1) {
+                read += n;
+            }
+            in.reset();
+            if (startsWith(magic, read, GZIP_MAGIC)) {
+                return new CorpusInputStream(new GZIPInputStream(in, CHUNK_SIZE), file.getName());
+            }
+            if (startsWith(magic, read, ZSTD_MAGIC)) {
+                return new CorpusInputStream(new ZstdInputStream(in), file.getName());
+            }
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+        return in;
+    }
+
+    @Override
+    public int read()
+            throws IOException {
+        if (!nextChunk()) {
+            return -1;
+        }
+        return _chunk[_pos++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len)
+            throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!nextChunk()) {
+            return -1;
+        }
+        int n = Math.min(len, _chunk.length - _pos);
+        System.arraycopy(_chunk, _pos, b, off, n);
+        _pos += n;
+        return n;
+    }
+
+    @Override
+    public void close() {
+        _thread.interrupt();
+        _chunk = END_CHUNK;
+        _pos = 0;
+    }
+
+    /* Makes sure that _chunk has unread bytes. Returns false if there are no more bytes */
+    private boolean nextChunk()
+            throws IOException {
+        while (_chunk == null || (_pos == _chunk.length && _chunk != END_CHUNK)) {
+            try {
+                _chunk = _chunks.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Decompression interrupted");
+            }
+            _pos = 0;
+        }
+        if (_chunk == END_CHUNK) {
+            if (_error != null) {
+                throw new IOException("Decompression failed", _error);
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /* Decompresses the given stream into the queue of chunks. Runs in the decompression thread */
+    private void decompress(InputStream in) {
+        try {
+            while (true) {
+                byte[] chunk = new byte[CHUNK_SIZE];
+                int size = 0;
+                int n;
+                while (size < CHUNK_SIZE && (n = in.read(chunk, size, CHUNK_SIZE - size)) != -1) {
+                    size += n;
+                }
+                if (size != 0) {
+                    _chunks.put(size == CHUNK_SIZE ? chunk : Arrays.copyOf(chunk, size));
+                }
+                if (size < CHUNK_SIZE) {
+                    break;
+                }
+            }
+        } catch (IOException | RuntimeException | Error e) {
+            _error = e;
+        } catch (InterruptedException e) {
+            return;
+        } finally {
+            try {
+                in.close();
+            } catch (IOException ignored) {
+            }
+        }
+        try {
+            _chunks.put(END_CHUNK);
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    private static boolean startsWith(byte[] bytes, int length, byte[] prefix) {
+        if (length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (bytes[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,202 @@
+package gr.csd.uoc.hy463.themis.utils;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Variable length encoding of non negative ints and longs. Each byte stores 7 bits of the value (least significant
+ * first) and its high bit is set if more bytes follow. Values < 128 need 1 byte, values < 16384 need 2 bytes etc.
+ */
+public class VarInt {
+    /* max number of bytes of an encoded int */
+    public static final int MAX_SIZE = 5;
+
+    /* max number of bytes of an encoded long */
+    public static final int MAX_LONG_SIZE = 10;
+
+    /**
+     * Writes the given value to the buffer starting at the given position. Returns the position after
+     * the written bytes.
+     *
+     * @param buffer
+     * @param pos
+     * @param value
+     * @return
+     */
+    public static int write(byte[] buffer, int pos, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[pos++] = (byte) value;
+        return pos;
+    }
+
+    /**
+     * Writes the given value to the stream
+     *
+     * @param out
+     * @param value
+     * @throws IOException
+     */
+    public static void write(OutputStream out, int value)
+            throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /**
+     * Writes the given long value to the stream
+     *
+     * @param out
+     * @param value
+     * @throws IOException
+     */
+    public static void writeLong(OutputStream out, long value)
+            throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    /**
+     * Reads a value from the buffer starting at the given position and stores it to out[outPos]. Returns the
+     * position after the read bytes.
+     *
+     * @param buffer
+     * @param pos
+     * @param out
+     * @param outPos
+     * @return
+     */
+    public static int read(byte[] buffer, int pos, int[] out, int outPos) {
+        int b = buffer[pos++];
+        int value = b & 0x7F;
+        for (int shift = 7; b < 0; shift += 7) {
+            b = buffer[pos++];
+            value |= (b & 0x7F) << shift;
+        }
+        out[outPos] = value;
+        return pos;
+    }
+
+    /**
+     * Reads a long value from the buffer starting at the given position and stores it to out[outPos]. Returns
+     * the position after the read bytes.
+     *
+     * @param buffer
+     * @param pos
+     * @param out
+     * @param outPos
+     * @return
+     */
+    public static int readLong(byte[] buffer, int pos, long[] out, int outPos) {
+        int b = buffer[pos++];
+        long value = b & 0x7F;
+        for (int shift = 7; b < 0; shift += 7) {
+            b = buffer[pos++];
+            value |= (long) (b & 0x7F) << shift;
+        }
+        out[outPos] = value;
+        return pos;
+    }
+
+    /**
+     * Returns the position in the buffer after the value that starts at the given position.
+     *
+     * @param buffer
+     * @param pos
+     * @return
+     */
+    public static int skip(byte[] buffer, int pos) {
+        while (buffer[pos++] < 0) {
+        }
+        return pos;
+    }
+
+    /**
+     * Reads a value from the current position of the buffer
+     *
+     * @param buffer
+     * @return
+     */
+    public static int read(ByteBuffer buffer) {
+        int b = buffer.get();
+        int value = b & 0x7F;
+        for (int shift = 7; b < 0; shift += 7) {
+            b = buffer.get();
+            value |= (b & 0x7F) << shift;
+        }
+        return value;
+    }
+
+    /**
+     * Reads a long value from the current position of the buffer
+     *
+     * @param buffer
+     * @return
+     */
+    public static long readLong(ByteBuffer buffer) {
+        int b = buffer.get();
+        long value = b & 0x7F;
+        for (int shift = 7; b < 0; shift += 7) {
+            b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+        }
+        return value;
+    }
+
+    /**
+     * Reads a value from the stream
+     *
+     * @param in
+     * @return
+     * @throws IOException
+     */
+    public static int read(InputStream in)
+            throws IOException {
+        int b = readByte(in);
+        int value = b & 0x7F;
+        for (int shift = 7; b < 0; shift += 7) {
+            b = readByte(in);
+            value |= (b & 0x7F) << shift;
+        }
+        return value;
+    }
+
+    /**
+     * Reads a long value from the stream
+     *
+     * @param in
+     * @return
+     * @throws IOException
+     */
+    public static long readLong(InputStream in)
+            throws IOException {
+        int b = readByte(in);
+        long value = b & 0x7F;
+        for (int shift = 7; b < 0; shift += 7) {
+            b = readByte(in);
+            value |= (long) (b & 0x7F) << shift;
+        }
+        return value;
+    }
+
+    /* Reads a (signed) byte from the stream. Throws EOFException at the end of the stream */
+    private static int readByte(InputStream in)
+            throws IOException {
+        int b = in.read();
+        if (b == -1) {
+            throw new EOFException();
+        }
+        return (byte) b;
+    }
+}